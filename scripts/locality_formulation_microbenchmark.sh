@@ -0,0 +1,24 @@
+#!/bin/bash
+
+JAR_PATH="../target/scheduler-1.1.16-SNAPSHOT-jar-with-dependencies.jar"
+MAIN_CLASS="com.vmware.bespin.simulation.LocalityBenchmark"
+
+BATCH_CONFIGS="10,50,100,200,400"
+ITERS_PER_TEST=5
+
+# The lengths of the config arrays need to be the same
+MACHINE_CONFIGS=(8 16 32)
+PROCESS_CONFIGS=(16 32 64)
+NUM_CONFIGS=${#MACHINE_CONFIGS[@]}
+
+# Create output dir or bail
+OUTPUT_DIR="results"
+mkdir -p $OUTPUT_DIR || exit -1
+
+for (( config_idx=0; config_idx<${NUM_CONFIGS}; config_idx++ ));
+do
+  num_machines=${MACHINE_CONFIGS[$config_idx]}
+  num_processes=${PROCESS_CONFIGS[$config_idx]}
+  java -cp $JAR_PATH $MAIN_CLASS -b $BATCH_CONFIGS -i $ITERS_PER_TEST -n $num_machines -p $num_processes \
+    > $OUTPUT_DIR/locality_formulation_${num_machines}_${num_processes}.csv
+done
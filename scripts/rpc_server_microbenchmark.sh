@@ -0,0 +1,26 @@
+#!/bin/bash
+
+JAR_PATH="../target/scheduler-1.1.16-SNAPSHOT-jar-with-dependencies.jar"
+MAIN_CLASS="com.vmware.bespin.rpc.RPCServerBenchmark"
+
+CLIENT_CONFIGS="1,8,64"
+CALLS_PER_CLIENT=1000
+
+# Time each handler blocks for, in microseconds
+HANDLER_DELAYS=(0 100 1000)
+
+# Database work done by each handler
+DB_MODES="none single pooled"
+
+# Create output dir or bail
+OUTPUT_DIR="results"
+mkdir -p $OUTPUT_DIR || exit -1
+
+for db in $DB_MODES
+do
+  for delay in "${HANDLER_DELAYS[@]}"
+  do
+    java -cp $JAR_PATH $MAIN_CLASS -c $CLIENT_CONFIGS -n $CALLS_PER_CLIENT -d $delay -b $db \
+      > $OUTPUT_DIR/rpc_server_${db}_delay${delay}.csv
+  done
+done
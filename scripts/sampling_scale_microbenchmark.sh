@@ -0,0 +1,25 @@
+#!/bin/bash
+
+JAR_PATH="../target/scheduler-1.1.16-SNAPSHOT-jar-with-dependencies.jar"
+MAIN_CLASS="com.vmware.bespin.simulation.SolverBenchmark"
+
+SOLVERS="POD,FC,BF,BFloc"
+BATCH=200
+UTIL=50
+
+# The lengths of the config arrays need to be the same
+MACHINE_CONFIGS=(1000 2000 5000 10000)
+PROCESS_CONFIGS=(100 200 500 1000)
+NUM_CONFIGS=${#MACHINE_CONFIGS[@]}
+
+# Create output dir or bail
+OUTPUT_DIR="results"
+mkdir -p $OUTPUT_DIR || exit -1
+
+for (( config_idx=0; config_idx<${NUM_CONFIGS}; config_idx++ ));
+do
+  num_machines=${MACHINE_CONFIGS[$config_idx]}
+  num_processes=${PROCESS_CONFIGS[$config_idx]}
+  java -cp $JAR_PATH $MAIN_CLASS -s $SOLVERS -b $BATCH -u $UTIL -n $num_machines -p $num_processes \
+    > $OUTPUT_DIR/sampling_scale_${num_machines}_${num_processes}.csv
+done
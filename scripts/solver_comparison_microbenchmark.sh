@@ -0,0 +1,28 @@
+#!/bin/bash
+
+JAR_PATH="../target/scheduler-1.1.16-SNAPSHOT-jar-with-dependencies.jar"
+MAIN_CLASS="com.vmware.bespin.simulation.SolverBenchmark"
+
+SOLVERS="DCMloc,CPSAT,MCF,FC,BF,WF,FFD,DOT,BFloc,DOTloc"
+BATCH_CONFIGS=(10 50 200)
+UTIL=80
+
+# The lengths of the config arrays need to be the same
+MACHINE_CONFIGS=(8 16 32)
+PROCESS_CONFIGS=(16 32 64)
+NUM_CONFIGS=${#MACHINE_CONFIGS[@]}
+
+# Create output dir or bail
+OUTPUT_DIR="results"
+mkdir -p $OUTPUT_DIR || exit -1
+
+for (( config_idx=0; config_idx<${NUM_CONFIGS}; config_idx++ ));
+do
+  num_machines=${MACHINE_CONFIGS[$config_idx]}
+  num_processes=${PROCESS_CONFIGS[$config_idx]}
+  for batch in ${BATCH_CONFIGS[@]};
+  do
+    java -cp $JAR_PATH $MAIN_CLASS -s $SOLVERS -b $batch -u $UTIL -n $num_machines -p $num_processes \
+      > $OUTPUT_DIR/solver_comparison_${num_machines}_${num_processes}_${batch}.csv
+  done
+done
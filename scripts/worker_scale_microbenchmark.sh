@@ -0,0 +1,53 @@
+#!/bin/bash
+
+JAR_PATH="../target/scheduler-1.1.16-SNAPSHOT-jar-with-dependencies.jar"
+MAIN_CLASS="com.vmware.bespin.simulation.SimulatorRunner"
+
+ITERS_PER_TEST=5
+
+# Same cluster configurations as latency_scale_microbenchmark.sh
+# The lengths of all the config arrays need to be the same
+MACHINE_CONFIGS=(4 8 16 32)
+CORE_CONFIGS=(16 32 64 128)
+MEMSLICE_CONFIGS=(128 256 512 1024)
+NUM_CONFIGS=${#MACHINE_CONFIGS[@]}
+
+RACK_UTIL=50
+WORKER_CONFIGS=(1 2 4 8 16 32)
+
+SCHEDULERS="DCMcap DCMloc"
+
+# Keep core 0 for the simulator's own threads and pin the JVM, and with it the search workers,
+# to that core plus one core per worker
+NUM_CPUS=$(nproc)
+
+# Create output dir or bail
+OUTPUT_DIR="results"
+mkdir -p $OUTPUT_DIR || exit -1
+
+for sched in $SCHEDULERS
+do
+  for (( config_idx=0; config_idx<${NUM_CONFIGS}; config_idx++ ));
+  do
+    num_machines=${MACHINE_CONFIGS[$config_idx]}
+    num_cores=${CORE_CONFIGS[$config_idx]}
+    num_memslices=${MEMSLICE_CONFIGS[$config_idx]}
+    num_processes=$(( 2*num_machines ))
+
+    for workers in "${WORKER_CONFIGS[@]}"
+    do
+      if (( workers + 1 > NUM_CPUS )); then
+        echo "Skipping $workers workers, only $NUM_CPUS cores"
+        continue
+      fi
+      for (( iter=0; iter<$ITERS_PER_TEST; iter++ ))
+      do
+        output_file="workers-$sched-$num_machines-$num_cores-$num_memslices-$num_processes-$workers-$iter.log"
+        cmd="taskset -c 0-$workers java -cp $JAR_PATH $MAIN_CLASS -c $num_cores -m $num_memslices -n $num_machines -p $num_processes -u $RACK_UTIL -s $sched -w $workers -r $iter"
+        echo "Workers: $workers Scheduler: $sched, ClusterConfig: (${num_machines} ${num_cores} ${num_memslices}) Iter: $iter OutputFile: $output_file"
+        echo $cmd > $OUTPUT_DIR/$output_file
+        $cmd >> $OUTPUT_DIR/$output_file 2>&1
+      done
+    done
+  done
+done
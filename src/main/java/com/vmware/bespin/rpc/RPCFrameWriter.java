@@ -0,0 +1,76 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.rpc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+
+/// Queues RPC frames (header + payload) and writes them out with a single gathering write
+public class RPCFrameWriter {
+    // Upper bound on responses held back before a flush is forced
+    public static final int MAX_QUEUED_FRAMES = 32;
+
+    private final GatheringByteChannel channel;
+    private final ArrayList<ByteBuffer> buffers = new ArrayList<>();
+    private final ArrayList<Runnable> onWritten = new ArrayList<>();
+    private int queuedFrames = 0;
+
+    public RPCFrameWriter(final GatheringByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /// Add a message to the outgoing frame queue without writing it
+    public void queue(final RPCMessage msg) {
+        this.queue(msg, null);
+    }
+
+    /// Add a message to the outgoing frame queue, running onWritten once the flush that writes it completes
+    public void queue(final RPCMessage msg, final Runnable onWritten) {
+        this.buffers.add(ByteBuffer.wrap(msg.hdr().toBytes()));
+        if (msg.payload().length > 0) {
+            this.buffers.add(ByteBuffer.wrap(msg.payload()));
+        }
+        if (null != onWritten) {
+            this.onWritten.add(onWritten);
+        }
+        this.queuedFrames++;
+    }
+
+    /// Number of frames queued but not yet written
+    public int queuedFrames() {
+        return this.queuedFrames;
+    }
+
+    /// True if the queue is full and should be flushed before more frames are added
+    public boolean isFull() {
+        return this.queuedFrames >= MAX_QUEUED_FRAMES;
+    }
+
+    /// Write all queued frames to the channel
+    public void flush() throws IOException {
+        if (this.buffers.isEmpty()) {
+            return;
+        }
+        final ByteBuffer[] srcs = this.buffers.toArray(new ByteBuffer[0]);
+        final ByteBuffer last = srcs[srcs.length - 1];
+
+        // A blocking channel normally drains everything in one call, but short writes are legal
+        while (last.hasRemaining()) {
+            this.channel.write(srcs);
+        }
+        this.buffers.clear();
+        this.queuedFrames = 0;
+
+        // In queue order, and only after the writer is reset in case a callback fails
+        final Runnable[] callbacks = this.onWritten.toArray(new Runnable[0]);
+        this.onWritten.clear();
+        for (final Runnable callback : callbacks) {
+            callback.run();
+        }
+    }
+}
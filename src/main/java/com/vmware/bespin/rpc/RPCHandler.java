@@ -7,4 +7,7 @@ package com.vmware.bespin.rpc;
 
 public abstract class RPCHandler<S> {
     public abstract RPCMessage handleRPC(RPCMessage msg, S serverContext);
+
+    /// Called on the serving thread once the response returned by handleRPC has been written to the client
+    public void responseSent(final RPCMessage response, final S serverContext) { }
 }
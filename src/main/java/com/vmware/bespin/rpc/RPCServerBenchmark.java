@@ -0,0 +1,300 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.rpc;
+
+import com.vmware.bespin.scheduler.DBUtils;
+import com.vmware.bespin.scheduler.dinos.rpc.RPCID;
+import com.vmware.bespin.scheduler.generated.tables.Applications;
+import com.vmware.bespin.scheduler.generated.tables.Nodes;
+import com.vmware.bespin.scheduler.generated.tables.Pending;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.jooq.DSLContext;
+
+/**
+ * Compares the single-connection TCPServer loop against ThreadedTCPServer with a number of
+ * concurrent clients. The handler blocks for a fixed time to stand in for synchronous work, and
+ * can optionally insert a pending request and read the unallocated resources, either on a single
+ * database connection or on a connection pool. TCPServer only accepts one connection, so its
+ * clients share that connection the way multiple cores share the one scheduler connection today.
+ */
+public class RPCServerBenchmark {
+    private static final String CLIENTS_OPTION = "clients";
+    private static final String CLIENTS_DEFAULT = "1,8,64";
+    private static final String CALLS_OPTION = "calls";
+    private static final int CALLS_DEFAULT = 1000;
+    private static final String HANDLER_DELAY_OPTION = "handlerDelay";
+    private static final int HANDLER_DELAY_DEFAULT = 100; // in microseconds
+    private static final String PORT_OPTION = "port";
+    private static final int PORT_DEFAULT = 10300;
+    private static final String DB_OPTION = "db";
+    private static final String DB_DEFAULT = "none";
+    private static final int NUM_NODES = 8;
+
+    /**
+     * State shared by all handler invocations
+     *
+     * @param delayNanos time each handler blocks for
+     * @param db database to query, or null for no database work
+     */
+    record Context(long delayNanos, DSLContext db) { }
+
+    static class BenchHandler extends RPCHandler<Context> {
+        private static final Pending PENDING = Pending.PENDING;
+
+        @Override
+        public RPCMessage handleRPC(final RPCMessage msg, final Context ctx) {
+            if (ctx.delayNanos() > 0) {
+                LockSupport.parkNanos(ctx.delayNanos());
+            }
+            if (null != ctx.db()) {
+                ctx.db().insertInto(PENDING, PENDING.APPLICATION, PENDING.CORES, PENDING.MEMSLICES, PENDING.STATUS)
+                        .values(0, 1, 0, "PENDING")
+                        .execute();
+                ctx.db().fetch("select sum(cores), sum(memslices) from unallocated");
+            }
+            return msg;
+        }
+    }
+
+    /**
+     * Create the database for a run with a few nodes and one application
+     *
+     * @param db none, single or pooled
+     * @param name the database name, if pooled
+     * @return the context, or null for none
+     */
+    static DSLContext createDB(final String db, final String name) throws ClassNotFoundException {
+        final DSLContext conn;
+        if (db.equals("single")) {
+            conn = DBUtils.getConn();
+        } else if (db.equals("pooled")) {
+            conn = DBUtils.getPooledConn(name, DBUtils.DEFAULT_POOL_SIZE);
+        } else {
+            return null;
+        }
+        conn.insertInto(Applications.APPLICATIONS).set(Applications.APPLICATIONS.ID, 0).execute();
+        for (int i = 0; i < NUM_NODES; i++) {
+            conn.insertInto(Nodes.NODES)
+                    .set(Nodes.NODES.ID, i)
+                    .set(Nodes.NODES.CORES, 1 << 20)
+                    .set(Nodes.NODES.MEMSLICES, 1 << 20)
+                    .execute();
+        }
+        return conn;
+    }
+
+    /**
+     * Result of one benchmark run
+     *
+     * @param calls total number of completed calls
+     * @param elapsedNanos wall clock time for all calls
+     * @param latencies sorted per-call latencies in nanoseconds
+     */
+    record Result(long calls, long elapsedNanos, long[] latencies) {
+        double throughput() {
+            return calls * 1e9 / elapsedNanos;
+        }
+
+        long percentile(final double p) {
+            return latencies[(int) Math.min(latencies.length - 1, Math.floor(p * latencies.length))];
+        }
+    }
+
+    /**
+     * Run a fixed number of calls from each client against a freshly started server.
+     *
+     * @param threaded true for ThreadedTCPServer, false for TCPServer
+     * @param port the port to serve on
+     * @param numClients number of concurrent clients
+     * @param callsPerClient calls issued by each client
+     * @param handlerDelayMicros time each handler invocation blocks for
+     * @param db database to query in the handler, or null
+     * @return the measured result
+     */
+    static Result run(final boolean threaded, final int port, final int numClients, final int callsPerClient,
+            final long handlerDelayMicros, final DSLContext db) throws IOException, InterruptedException {
+        final RPCServer<Context> rpcServer = threaded
+                ? new ThreadedTCPServer<Context>("127.0.0.1", port)
+                : new TCPServer<Context>("127.0.0.1", port);
+        rpcServer.register(RPCID.ALLOC, new BenchHandler());
+        final Context ctx = new Context(handlerDelayMicros * 1000, db);
+        final Thread serverThread = new Thread(() -> {
+            rpcServer.addClient();
+            try {
+                rpcServer.runServer(ctx);
+            } catch (final IOException ignored) { }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        // The single-threaded server gets one connection shared by all clients
+        final InetAddress addr = InetAddress.getByName("127.0.0.1");
+        final int numConnections = threaded ? numClients : 1;
+        final List<RPCClient> connections = new ArrayList<>();
+        for (int i = 0; i < numConnections; i++) {
+            final RPCClient client = new TCPClient(addr, port);
+            while (!client.connect()) {
+                Thread.sleep(10);
+            }
+            connections.add(client);
+        }
+
+        final long[] latencies = new long[numClients * callsPerClient];
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final List<Thread> clients = new ArrayList<>();
+        for (int c = 0; c < numClients; c++) {
+            final int clientId = c;
+            final RPCClient conn = connections.get(c % numConnections);
+            final Thread t = new Thread(() -> {
+                final byte[] payload = new byte[24];
+                try {
+                    startLatch.await();
+                    for (int i = 0; i < callsPerClient; i++) {
+                        final long start = System.nanoTime();
+                        synchronized (conn) {
+                            conn.call(RPCID.ALLOC, payload);
+                        }
+                        latencies[clientId * callsPerClient + i] = System.nanoTime() - start;
+                    }
+                } catch (final InterruptedException | IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            clients.add(t);
+            t.start();
+        }
+
+        final long start = System.nanoTime();
+        startLatch.countDown();
+        for (final Thread t : clients) {
+            t.join();
+        }
+        final long elapsed = System.nanoTime() - start;
+
+        rpcServer.stopServer();
+        for (final RPCClient client : connections) {
+            client.cleanUp();
+        }
+        serverThread.join(1000);
+
+        Arrays.sort(latencies);
+        return new Result(latencies.length, elapsed, latencies);
+    }
+
+    public static void main(final String[] args) throws IOException, InterruptedException,
+            ClassNotFoundException {
+        String clients = CLIENTS_DEFAULT;
+        int calls = CALLS_DEFAULT;
+        long handlerDelay = HANDLER_DELAY_DEFAULT;
+        int port = PORT_DEFAULT;
+        String db = DB_DEFAULT;
+
+        final Options options = new Options();
+        final Option helpOption = Option.builder("h")
+                .longOpt("help").argName("h")
+                .hasArg(false)
+                .desc("print help message")
+                .build();
+        final Option clientsOption = Option.builder("c")
+                .longOpt(CLIENTS_OPTION).argName(CLIENTS_OPTION)
+                .hasArg()
+                .desc(String.format("comma separated numbers of concurrent clients.%nDefault: %s", CLIENTS_DEFAULT))
+                .type(String.class)
+                .build();
+        final Option callsOption = Option.builder("n")
+                .longOpt(CALLS_OPTION).argName(CALLS_OPTION)
+                .hasArg()
+                .desc(String.format("calls per client.%nDefault: %d", CALLS_DEFAULT))
+                .type(Integer.class)
+                .build();
+        final Option handlerDelayOption = Option.builder("d")
+                .longOpt(HANDLER_DELAY_OPTION).argName(HANDLER_DELAY_OPTION)
+                .hasArg()
+                .desc(String.format("time each handler blocks in microseconds.%nDefault: %d",
+                        HANDLER_DELAY_DEFAULT))
+                .type(Long.class)
+                .build();
+        final Option portOption = Option.builder("p")
+                .longOpt(PORT_OPTION).argName(PORT_OPTION)
+                .hasArg()
+                .desc(String.format("first port to serve on.%nDefault: %d", PORT_DEFAULT))
+                .type(Integer.class)
+                .build();
+        final Option dbOption = Option.builder("b")
+                .longOpt(DB_OPTION).argName(DB_OPTION)
+                .hasArg()
+                .desc(String.format("database work in the handler (none | single | pooled).%nDefault: %s",
+                        DB_DEFAULT))
+                .type(String.class)
+                .build();
+        options.addOption(helpOption);
+        options.addOption(clientsOption);
+        options.addOption(callsOption);
+        options.addOption(handlerDelayOption);
+        options.addOption(portOption);
+        options.addOption(dbOption);
+
+        final CommandLineParser parser = new DefaultParser();
+        try {
+            final CommandLine cmd = parser.parse(options, args);
+            if (cmd.hasOption("h")) {
+                final HelpFormatter formatter = new HelpFormatter();
+                formatter.printHelp("java -cp target/scheduler-1.1.16-SNAPSHOT-jar-with-dependencies.jar " +
+                        "com.vmware.bespin.rpc.RPCServerBenchmark [options]", options);
+                return;
+            }
+            if (cmd.hasOption(CLIENTS_OPTION)) {
+                clients = cmd.getOptionValue(CLIENTS_OPTION);
+            }
+            if (cmd.hasOption(CALLS_OPTION)) {
+                calls = Integer.parseInt(cmd.getOptionValue(CALLS_OPTION));
+            }
+            if (cmd.hasOption(HANDLER_DELAY_OPTION)) {
+                handlerDelay = Long.parseLong(cmd.getOptionValue(HANDLER_DELAY_OPTION));
+            }
+            if (cmd.hasOption(PORT_OPTION)) {
+                port = Integer.parseInt(cmd.getOptionValue(PORT_OPTION));
+            }
+            if (cmd.hasOption(DB_OPTION)) {
+                db = cmd.getOptionValue(DB_OPTION);
+                if (!db.equals("none") && !db.equals("single") && !db.equals("pooled")) {
+                    System.out.println(String.format("db must be 'none'|'single'|'pooled' but is '%s'", db));
+                    return;
+                }
+            }
+        } catch (final ParseException ignored) {
+            System.out.println("Failed to parse command line");
+            System.exit(-1);
+        }
+
+        System.out.println("server,db,clients,calls,throughput_per_sec,p50_us,p99_us");
+        for (final String c : clients.split(",")) {
+            final int numClients = Integer.parseInt(c.trim());
+            for (final boolean threaded : new boolean[] {false, true}) {
+                final DSLContext conn = createDB(db, "rpcbench" + port);
+                final Result r = run(threaded, port++, numClients, calls, handlerDelay, conn);
+                System.out.println(String.format("%s,%s,%d,%d,%.1f,%d,%d", threaded ? "threaded" : "single",
+                        db, numClients, r.calls(), r.throughput(), r.percentile(0.5) / 1000,
+                        r.percentile(0.99) / 1000));
+            }
+        }
+    }
+}
@@ -11,17 +11,18 @@ import org.apache.logging.log4j.Logger;
 import com.vmware.bespin.scheduler.dinos.rpc.RPCID;
 
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.IOException;
 import java.net.InetAddress;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SocketChannel;
 import java.util.Arrays;
  
 public class TCPClient extends RPCClient {
     final InetAddress ip;
     final int port;
-    Socket socket = null;
-    OutputStream clientOut = null;
+    SocketChannel socket = null;
+    RPCFrameWriter clientOut = null;
     InputStream clientIn = null;
     byte[] hdrBuff = new byte[RPCHeader.BYTE_LEN];
     private static final Logger LOG = LogManager.getLogger(TCPClient.class);
@@ -35,10 +36,11 @@ public class TCPClient extends RPCClient {
     @Override
     public boolean connect() {
         try {
-            this.socket = new Socket(this.ip, this.port);
-            this.clientOut = socket.getOutputStream();
-            this.clientIn = socket.getInputStream();
-            LOG.info("Local client socket address: " + this.socket.getLocalSocketAddress());
+            this.socket = SocketChannel.open(new InetSocketAddress(this.ip, this.port));
+            this.socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            this.clientOut = new RPCFrameWriter(this.socket);
+            this.clientIn = this.socket.socket().getInputStream();
+            LOG.info("Local client socket address: " + this.socket.getLocalAddress());
             this.call(RPCID.REGISTER_CLIENT, new byte[0]);
             LOG.info("Sent client registration rpc");
             return true;
@@ -63,11 +65,6 @@ public class TCPClient extends RPCClient {
  
     @Override
     public void cleanUp() {
-        try {
-            if (null != this.clientOut) {
-                this.clientOut.close();
-            }
-        } catch (final IOException ignored) { }
         try {
             if (null != this.clientIn) {
                 this.clientIn.close();
@@ -114,16 +111,9 @@ public class TCPClient extends RPCClient {
             throw new IOException("Client not connected");
         }
  
-        // Write out header
-        final byte[] bytes = msg.hdr().toBytes();
-        this.clientOut.write(bytes);
+        // Write out header and payload as a single frame
+        this.clientOut.queue(msg);
         this.clientOut.flush();
- 
-        // Write out payload
-        if (msg.payload().length > 0) {
-            this.clientOut.write(msg.payload());
-            this.clientOut.flush();
-        }
     }
  }
  
\ No newline at end of file
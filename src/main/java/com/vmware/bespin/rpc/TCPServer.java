@@ -11,21 +11,22 @@ import org.apache.logging.log4j.Logger;
 import com.vmware.bespin.scheduler.dinos.rpc.RPCID;
 
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.IOException;
 import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.Arrays;
 import java.util.HashMap;
 
 
 public class TCPServer<S> extends RPCServer<S> {
-    private ServerSocket socket = null;
-    private Socket clientSocket = null;
-    private OutputStream clientOut = null;
+    private ServerSocketChannel socket = null;
+    private SocketChannel clientSocket = null;
+    private RPCFrameWriter clientOut = null;
     private InputStream clientIn = null;
-    private HashMap<Byte, RPCHandler> handlers = new HashMap<>();
+    private HashMap<Byte, RPCHandler<S>> handlers = new HashMap<>();
     private byte[] hdrBuff = new byte[RPCHeader.BYTE_LEN];
     private static final Logger LOG = LogManager.getLogger(TCPServer.class);
     private boolean shutdown;
@@ -36,8 +37,9 @@ public class TCPServer<S> extends RPCServer<S> {
         this.shutdown = false;
         while (!done && !this.shutdown) {
             try {
-                this.socket = new ServerSocket(port, 1, InetAddress.getByName(ip));
-                LOG.info("Server socket address: " + this.socket.getLocalSocketAddress());
+                this.socket = ServerSocketChannel.open();
+                this.socket.bind(new InetSocketAddress(InetAddress.getByName(ip), port), 1);
+                LOG.info("Server socket address: " + this.socket.getLocalAddress());
                 done = true;
             } catch (final IOException e) { 
                 e.printStackTrace();
@@ -69,10 +71,12 @@ public class TCPServer<S> extends RPCServer<S> {
         // Try to accept a client
         try {
             this.clientSocket = this.socket.accept();
-            this.clientOut = clientSocket.getOutputStream();
-            this.clientIn = clientSocket.getInputStream();
+            this.clientSocket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            this.clientOut = new RPCFrameWriter(this.clientSocket);
+            this.clientIn = this.clientSocket.socket().getInputStream();
 
             this.respond(this.receive());
+            this.flush();
             return true;
         } catch (final IOException e) {
             e.printStackTrace();
@@ -88,13 +92,23 @@ public class TCPServer<S> extends RPCServer<S> {
                 final RPCMessage msg = this.receive();
                 if (!this.shutdown) {
                     if (this.handlers.containsKey(msg.hdr().getType())) {
-                        this.respond(this.handlers.get(msg.hdr().getType()).handleRPC(msg, serverContext));
+                        final RPCHandler<S> handler = this.handlers.get(msg.hdr().getType());
+                        final RPCMessage res = handler.handleRPC(msg, serverContext);
+                        this.respond(res, () -> handler.responseSent(res, serverContext));
+
+                        // Under load, hold responses back while more requests are already buffered
+                        // so they go out together in one write
+                        if (this.clientOut.isFull() || this.clientIn.available() < RPCHeader.BYTE_LEN) {
+                            this.flush();
+                        }
                     } else {
+                        this.flush();
                         LOG.error("Invalid msgType: {}", msg.hdr().getType());
                         break;
                     }
                 } else {
                     LOG.warn("Shutting down TCPServer");
+                    this.flush();
                     break;
                 }
             }
@@ -113,11 +127,6 @@ public class TCPServer<S> extends RPCServer<S> {
     }
 
     private void cleanUp() {
-        try {
-            if (null != this.clientOut) {
-                this.clientOut.close();
-            }
-        } catch (final IOException ignored) { }
         try {
             if (null != this.clientIn) {
                 this.clientIn.close();
@@ -177,20 +186,24 @@ public class TCPServer<S> extends RPCServer<S> {
     }
 
     private void respond(final RPCMessage msg) throws IOException {
+        this.respond(msg, null);
+    }
+
+    private void respond(final RPCMessage msg, final Runnable onWritten) throws IOException {
         if (null == this.clientOut) {
             this.cleanUp();
             throw new IOException("No clients connected");
         }
 
-        // Write out header
-        final byte[] bytes = msg.hdr().toBytes();
-        this.clientOut.write(bytes);
-        this.clientOut.flush();
+        // Queue header and payload as a single frame, written out on the next flush
+        this.clientOut.queue(msg, onWritten);
+    }
 
-        // Write out payload
-        if (msg.payload().length > 0) {
-            this.clientOut.write(msg.payload());
-            this.clientOut.flush();
+    private void flush() throws IOException {
+        if (null == this.clientOut) {
+            this.cleanUp();
+            throw new IOException("No clients connected");
         }
+        this.clientOut.flush();
     }
 }
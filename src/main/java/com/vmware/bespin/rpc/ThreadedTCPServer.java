@@ -0,0 +1,225 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.rpc;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.vmware.bespin.scheduler.dinos.rpc.RPCID;
+
+import java.io.InputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * RPC server that serves every accepted connection on its own thread using blocking reads.
+ * On JDK 21+ the threads are virtual threads, so many connections with slow, synchronous
+ * handlers can proceed concurrently without sizing a platform thread pool. On older JDKs it
+ * falls back to one platform thread per connection.
+ *
+ * Handlers for a single connection run in order on that connection's thread, so responses
+ * are returned in request order. Handlers for different connections may run concurrently.
+ */
+public class ThreadedTCPServer<S> extends RPCServer<S> {
+    private static final Logger LOG = LogManager.getLogger(ThreadedTCPServer.class);
+    private ServerSocketChannel socket = null;
+    private final ConcurrentHashMap<Byte, RPCHandler<S>> handlers = new ConcurrentHashMap<>();
+    private final List<Connection> connections = new CopyOnWriteArrayList<>();
+    private final List<Connection> unstarted = new ArrayList<>();
+    private final ThreadFactory threadFactory;
+    private volatile boolean shutdown;
+
+    public ThreadedTCPServer(final String ip, final int port) throws IOException {
+        this.shutdown = false;
+        this.threadFactory = connectionThreadFactory();
+
+        // Retry until successful just in cast tap interfaces aren't up
+        boolean done = false;
+        while (!done && !this.shutdown) {
+            try {
+                this.socket = ServerSocketChannel.open();
+                this.socket.bind(new InetSocketAddress(InetAddress.getByName(ip), port));
+                LOG.info("Server socket address: " + this.socket.getLocalAddress());
+                done = true;
+            } catch (final IOException e) {
+                e.printStackTrace();
+                try {
+                    Thread.sleep(10000);
+                } catch (final InterruptedException ignored) { }
+            }
+        }
+    }
+
+    /**
+     * Virtual threads if the runtime supports them (JDK 21+), otherwise platform threads.
+     * Looked up reflectively because the project is compiled for an older release.
+     *
+     * @return a thread factory for connection threads
+     */
+    static ThreadFactory connectionThreadFactory() {
+        try {
+            final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            final Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            LOG.info("Using virtual threads for RPC connections");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (final ReflectiveOperationException e) {
+            LOG.info("Virtual threads unavailable, using platform threads for RPC connections");
+            return Executors.defaultThreadFactory();
+        }
+    }
+
+    @Override
+    public boolean register(final RPCID rpcId, final RPCHandler<S> handler) {
+        // Cannot add if key already exists
+        return null == this.handlers.putIfAbsent(rpcId.id(), handler);
+    }
+
+    @Override
+    public boolean addClient() {
+        // Accept a client and complete its registration; it is served once runServer is called
+        try {
+            final Connection conn = accept();
+            synchronized (this.unstarted) {
+                this.unstarted.add(conn);
+            }
+            return true;
+        } catch (final IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    @Override
+    public void runServer(final S serverContext) throws IOException {
+        synchronized (this.unstarted) {
+            for (final Connection conn : this.unstarted) {
+                start(conn, serverContext);
+            }
+            this.unstarted.clear();
+        }
+
+        // Keep accepting additional clients until stopped
+        try {
+            while (!this.shutdown) {
+                start(accept(), serverContext);
+            }
+        } catch (final IOException e) {
+            if (!this.shutdown) {
+                LOG.error("Server failed: {}", e.toString());
+                this.stopServer();
+                throw e;
+            }
+        }
+        LOG.warn("Shutting down ThreadedTCPServer");
+    }
+
+    @Override
+    public void stopServer() {
+        this.shutdown = true;
+        try {
+            this.socket.close();
+        } catch (final IOException ignored) { }
+        for (final Connection conn : this.connections) {
+            conn.close();
+        }
+    }
+
+    private Connection accept() throws IOException {
+        final SocketChannel channel = this.socket.accept();
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        final Connection conn = new Connection(channel);
+
+        // First message on every connection is the client registration
+        conn.respond(conn.receive());
+        return conn;
+    }
+
+    private void start(final Connection conn, final S serverContext) {
+        this.connections.add(conn);
+        final Thread thread = this.threadFactory.newThread(() -> conn.serve(serverContext));
+        thread.setName("rpc-conn-" + this.connections.size());
+        thread.start();
+    }
+
+    private final class Connection {
+        private final SocketChannel channel;
+        private final InputStream in;
+        private final RPCFrameWriter out;
+        private final byte[] hdrBuff = new byte[RPCHeader.BYTE_LEN];
+
+        Connection(final SocketChannel channel) throws IOException {
+            this.channel = channel;
+            this.in = channel.socket().getInputStream();
+            this.out = new RPCFrameWriter(channel);
+        }
+
+        void serve(final S serverContext) {
+            try {
+                while (!shutdown) {
+                    final RPCMessage msg = receive();
+                    final RPCHandler<S> handler = handlers.get(msg.hdr().getType());
+                    if (null == handler) {
+                        LOG.error("Invalid msgType: {}", msg.hdr().getType());
+                        break;
+                    }
+                    final RPCMessage res = handler.handleRPC(msg, serverContext);
+                    respond(res);
+                    handler.responseSent(res, serverContext);
+                }
+            } catch (final ClosedChannelException ignored) {
+                // Server stopped
+            } catch (final IOException e) {
+                if (!shutdown) {
+                    LOG.warn("Connection closed: {}", e.toString());
+                }
+            }
+            close();
+            connections.remove(this);
+        }
+
+        void close() {
+            try {
+                this.channel.close();
+            } catch (final IOException ignored) { }
+        }
+
+        private void readFully(final byte[] buff, final int len) throws IOException {
+            int bytesRead = 0;
+            while (bytesRead < len) {
+                final int ret = this.in.read(buff, bytesRead, len - bytesRead);
+                if (ret < 0) {
+                    throw new IOException("End of stream detected.");
+                }
+                bytesRead += ret;
+            }
+        }
+
+        RPCMessage receive() throws IOException {
+            readFully(this.hdrBuff, RPCHeader.BYTE_LEN);
+            final RPCHeader hdr = new RPCHeader(this.hdrBuff);
+            final byte[] payload = new byte[(int) hdr.msgLen];
+            readFully(payload, payload.length);
+            return new RPCMessage(hdr, payload);
+        }
+
+        void respond(final RPCMessage msg) throws IOException {
+            this.out.queue(msg);
+            this.out.flush();
+        }
+    }
+}
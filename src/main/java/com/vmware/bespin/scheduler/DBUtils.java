@@ -7,11 +7,15 @@ import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.util.stream.Collectors;
 
+import org.h2.jdbcx.JdbcConnectionPool;
 import org.jooq.DSLContext;
+import org.jooq.SQLDialect;
 import org.jooq.impl.DSL;
 
 public class DBUtils {
   
+    public static final int DEFAULT_POOL_SIZE = 8;
+
     /**
      * Initialized the database connection by creating tables and populating nodes
      * and applications
@@ -21,6 +25,32 @@ public class DBUtils {
         // Create database
         Class.forName("org.h2.Driver");
         final DSLContext conn = DSL.using("jdbc:h2:mem:");
+        createSchema(conn);
+        return conn;
+    }
+
+    /**
+     * Create a named, shared in-memory database served by a pool of connections. Each query
+     * borrows a connection for its duration, so queries from different threads run in parallel
+     * under H2's MVCC instead of serializing on one JDBC connection. The database lives until
+     * the JVM exits, so name must not have been used before.
+     *
+     * @param name the database name
+     * @param poolSize the maximum number of open connections
+     * @return a context backed by the pool
+     * @throws ClassNotFoundException
+     */
+    public static DSLContext getPooledConn(final String name, final int poolSize) throws ClassNotFoundException {
+        Class.forName("org.h2.Driver");
+        final JdbcConnectionPool pool = JdbcConnectionPool.create(
+                "jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000", "", "");
+        pool.setMaxConnections(poolSize);
+        final DSLContext conn = DSL.using(pool, SQLDialect.H2);
+        createSchema(conn);
+        return conn;
+    }
+
+    private static void createSchema(final DSLContext conn) {
         final InputStream resourceAsStream = Scheduler.class.getResourceAsStream("/bespin_tables.sql");
         try {
             assert resourceAsStream != null;
@@ -50,7 +80,35 @@ public class DBUtils {
                 group by n.id
                 """);
 
-        return conn;
+        // Each pending row with the row before it for the same application, cores first then by id.
+        // The first row is paired with itself.
+        conn.execute("""
+                create view pending_chain as
+                select id, coalesce(lag(id) over (partition by application order by cores desc, id), id) as prev
+                from pending
+                """);
+
+        // Views of the nodes that share a socket, or a rack, with a node an application has resources on
+        conn.execute("""
+                create view app_socket as
+                select distinct p.application, t2.node
+                from placed p
+                join topology t1
+                    on t1.node = p.node
+                join topology t2
+                    on t2.rack = t1.rack and t2.socket = t1.socket
+                where p.cores + p.memslices > 0
+                """);
+        conn.execute("""
+                create view app_rack as
+                select distinct p.application, t2.node
+                from placed p
+                join topology t1
+                    on t1.node = p.node
+                join topology t2
+                    on t2.rack = t1.rack
+                where p.cores + p.memslices > 0
+                """);
     }
     
     private DBUtils() {
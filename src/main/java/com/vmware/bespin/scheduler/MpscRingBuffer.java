@@ -0,0 +1,167 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.scheduler;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded, lock-free, multi-producer single-consumer ring buffer.
+ *
+ * Each slot carries a sequence number so producers can claim a slot with a single CAS on the
+ * tail and publish it independently of each other. Only one thread may call poll/drain.
+ *
+ * @param <E> the element type
+ */
+public class MpscRingBuffer<E> {
+    private final Object[] buffer;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong(0);
+    private long head = 0; // only touched by the consumer
+    private volatile boolean closed = false;
+
+    /**
+     * @param capacity the number of slots, rounded up to a power of two
+     */
+    public MpscRingBuffer(final int capacity) {
+        assert capacity > 0;
+        final int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.buffer = new Object[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            this.sequences.set(i, i);
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * The number of slots in the buffer
+     *
+     * @return capacity
+     */
+    public int capacity() {
+        return this.buffer.length;
+    }
+
+    /**
+     * Try to add an element without blocking. Safe to call from any thread.
+     *
+     * @param e the element to add
+     * @return true if added, false if the buffer is full
+     */
+    public boolean offer(final E e) {
+        long pos = this.tail.get();
+        while (true) {
+            final int idx = (int) (pos & this.mask);
+            final long diff = this.sequences.get(idx) - pos;
+            if (diff == 0) {
+                if (this.tail.compareAndSet(pos, pos + 1)) {
+                    this.buffer[idx] = e;
+                    // Publish the element to the consumer
+                    this.sequences.lazySet(idx, pos + 1);
+                    return true;
+                }
+                pos = this.tail.get();
+            } else if (diff < 0) {
+                // Consumer has not yet freed this slot
+                return false;
+            } else {
+                // Another producer claimed this slot first
+                pos = this.tail.get();
+            }
+        }
+    }
+
+    /**
+     * Add an element, spinning (then yielding) while the buffer is full. This is the
+     * backpressure point for producers.
+     *
+     * @param e the element to add
+     * @throws IllegalStateException if the consumer has closed the buffer, before or while waiting
+     */
+    public void put(final E e) {
+        int spins = 0;
+        while (true) {
+            if (this.closed) {
+                // Nobody will ever take the element
+                throw new IllegalStateException("Ring buffer consumer has stopped");
+            }
+            if (offer(e)) {
+                return;
+            }
+            if (spins++ < 100) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Remove the oldest element. Must only be called by the single consumer.
+     *
+     * @return the element, or null if the buffer is empty
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        final int idx = (int) (this.head & this.mask);
+        if (this.sequences.get(idx) != this.head + 1) {
+            return null;
+        }
+        final E e = (E) this.buffer[idx];
+        this.buffer[idx] = null;
+        // Hand the slot back to producers for the next lap
+        this.sequences.lazySet(idx, this.head + this.mask + 1);
+        this.head++;
+        return e;
+    }
+
+    /**
+     * Move up to max elements into out, in FIFO order. Must only be called by the single consumer.
+     *
+     * @param out the list to append to
+     * @param max the maximum number of elements to move
+     * @return the number of elements moved
+     */
+    public int drain(final List<E> out, final int max) {
+        int count = 0;
+        while (count < max) {
+            final E e = poll();
+            if (null == e) {
+                break;
+            }
+            out.add(e);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Mark the buffer as no longer drained. Called by the consumer when it stops, so producers
+     * waiting in put fail instead of spinning forever.
+     */
+    public void close() {
+        this.closed = true;
+    }
+
+    /**
+     * @return true once the consumer has closed the buffer
+     */
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    /**
+     * Approximate number of elements in the buffer
+     *
+     * @return size
+     */
+    public int size() {
+        return (int) Math.max(0, this.tail.get() - this.head);
+    }
+}
@@ -9,6 +9,7 @@ import com.vmware.bespin.scheduler.generated.tables.Applications;
 import com.vmware.bespin.scheduler.generated.tables.Nodes;
 import com.vmware.bespin.scheduler.generated.tables.Pending;
 import com.vmware.bespin.scheduler.generated.tables.Placed;
+import com.vmware.bespin.scheduler.generated.tables.Topology;
 import com.vmware.bespin.scheduler.generated.tables.records.PendingRecord;
 
 import org.apache.logging.log4j.LogManager;
@@ -17,6 +18,7 @@ import org.jooq.DSLContext;
 import org.jooq.Field;
 import org.jooq.Record;
 import org.jooq.Result;
+import org.jooq.SortField;
 
 import static org.jooq.impl.DSL.and;
 
@@ -28,6 +30,19 @@ public class Scheduler {
     public static final Applications APP_TABLE = Applications.APPLICATIONS;
     public static final Placed PLACED_TABLE = Placed.PLACED;
     public static final Pending PENDING_TABLE = Pending.PENDING;
+    public static final Topology TOPOLOGY_TABLE = Topology.TOPOLOGY;
+
+    // Priority classes for pending requests, higher is more urgent
+    public static final int PRIORITY_BULK = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_CRITICAL = 2;
+    // Deadline of requests that have none, sorts after every real deadline
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+    // Order in which pending requests are served: highest priority, then earliest deadline, then oldest.
+    // Age is the arrival sequence, not the id, since ids are leased per server thread.
+    public static final List<SortField<?>> PENDING_ORDER = List.of(PENDING_TABLE.PRIORITY.desc(),
+            PENDING_TABLE.DEADLINE.asc(), PENDING_TABLE.ARRIVAL.asc(), PENDING_TABLE.ID.asc());
+
     public final boolean verbose;
 
     protected Logger LOG = LogManager.getLogger(Scheduler.class);
@@ -65,6 +80,25 @@ public class Scheduler {
                 .execute();
     }
 
+    /**
+     * Record where a node sits in the machine. Nodes without a topology entry are treated as
+     * being on their own socket and rack.
+     * 
+     * @param node   the node id
+     * @param socket the socket the node is on, unique within its rack
+     * @param rack   the rack the node is in
+     */
+    public void addTopology(final long node, final long socket, final long rack) {
+        conn.insertInto(TOPOLOGY_TABLE)
+                .set(TOPOLOGY_TABLE.NODE, (int) node)
+                .set(TOPOLOGY_TABLE.SOCKET, (int) socket)
+                .set(TOPOLOGY_TABLE.RACK, (int) rack)
+                .onDuplicateKeyUpdate()
+                .set(TOPOLOGY_TABLE.SOCKET, (int) socket)
+                .set(TOPOLOGY_TABLE.RACK, (int) rack)
+                .execute();
+    }
+
     /**
      * Changes the resources belonging to a node by adding or subtracting.
      * 
@@ -226,6 +260,63 @@ public class Scheduler {
         return memslicesUsed;
     }
 
+    /**
+     * The number of memslices of an application on nodes where it also has cores
+     * 
+     * @param application the application to check
+     * @return colocatedMemslices the number of the application's memslices next to its cores
+     */
+    public long colocatedMemslicesForApplication(final long application) {
+        final String sql = String.format(
+                "select sum(placed.memslices) from placed where application = %d and cores > 0",
+                application);
+        long colocatedMemslices = 0;
+        final Result<Record> memsliceResults = conn.fetch(sql);
+        if (null != memsliceResults && memsliceResults.isNotEmpty()) {
+            if (null != memsliceResults.get(0).getValue(0)) {
+                colocatedMemslices = (Long) memsliceResults.get(0).getValue(0);
+            }
+        }
+        return colocatedMemslices;
+    }
+
+    /**
+     * The number of cores of an application on nodes where it also has memslices
+     * 
+     * @param application the application to check
+     * @return colocatedCores the number of the application's cores next to its memslices
+     */
+    public long colocatedCoresForApplication(final long application) {
+        final String sql = String.format(
+                "select sum(placed.cores) from placed where application = %d and memslices > 0",
+                application);
+        long colocatedCores = 0;
+        final Result<Record> coreResults = conn.fetch(sql);
+        if (null != coreResults && coreResults.isNotEmpty()) {
+            if (null != coreResults.get(0).getValue(0)) {
+                colocatedCores = (Long) coreResults.get(0).getValue(0);
+            }
+        }
+        return colocatedCores;
+    }
+
+    /**
+     * The fraction of an application's cores and memslices that share a node with the other
+     * resource type. An application with only one type of resource has nothing to pair, so
+     * counts as fully co-located.
+     * 
+     * @param application the application to check
+     * @return ratio between 0 and 1
+     */
+    public double colocationRatioForApplication(final long application) {
+        final long cores = usedCoresForApplication(application);
+        final long memslices = usedMemslicesForApplication(application);
+        if (cores == 0 || memslices == 0) {
+            return 1.0;
+        }
+        return (double) (colocatedCoresForApplication(application) + colocatedMemslicesForApplication(application))
+                / (cores + memslices);
+    }
 
     /**
      * The number of nodes in application is running on
@@ -394,6 +485,15 @@ public class Scheduler {
             LOG.info(String.format("FRAGMENTATION_PROCESS: app=%d, num_nodes=%d", i, nodesForApplication(i)));
         }
 
+        // print how well each application's memory sits with its cores
+        for (final Integer app : conn.fetch("select id from applications order by id").getValues(0, Integer.class)) {
+            final long cores = usedCoresForApplication(app);
+            final long memslices = usedMemslicesForApplication(app);
+            LOG.info(String.format("COLOCATION_PROCESS: app=%d, cores=%d/%d, memslices=%d/%d, ratio=%.3f", app,
+                    colocatedCoresForApplication(app), cores, colocatedMemslicesForApplication(app), memslices,
+                    colocationRatioForApplication(app)));
+        }
+
         LOG.info("Placed Resources:");
         LOG.info(conn.fetch("select * from placed"));
     }
@@ -474,10 +574,44 @@ public class Scheduler {
     public void generateRequests(final Long id, final long cores, final long memslices, final long application) {
         LOG.info("Created request for application {} ({} cores, {} memslices)", 
                 application, cores, memslices);
-        Long currentId = id;
 
         // Create a list of records
         final List<PendingRecord> records = new ArrayList();
+        addPendingRecords(records, id, cores, memslices, application);
+
+        // Batch execute them all at once
+        insertPendingRecords(records);
+    }
+
+    /**
+     * Build pending records for a request without inserting them. Decompose so each record has 1 memslice or 1 core.
+     * 
+     * @param records     the list to append the new records to
+     * @param id          the id of the first pending request to generate (null if dynamically generate)
+     * @param cores       the number of cores to request
+     * @param memslices   the number of memslices to request
+     * @param application the application that is requesting the resource(s)
+     */
+    public void addPendingRecords(final List<PendingRecord> records, final Long id, final long cores,
+            final long memslices, final long application) {
+        addPendingRecords(records, id, cores, memslices, application, PRIORITY_NORMAL, NO_DEADLINE);
+    }
+
+    /**
+     * Build pending records for a request with a priority and deadline without inserting them.
+     * Decompose so each record has 1 memslice or 1 core.
+     * 
+     * @param records     the list to append the new records to
+     * @param id          the id of the first pending request to generate (null if dynamically generate)
+     * @param cores       the number of cores to request
+     * @param memslices   the number of memslices to request
+     * @param application the application that is requesting the resource(s)
+     * @param priority    the priority class of the request
+     * @param deadline    the time in milliseconds since the epoch by which it should be placed, or NO_DEADLINE
+     */
+    public void addPendingRecords(final List<PendingRecord> records, final Long id, final long cores,
+            final long memslices, final long application, final int priority, final long deadline) {
+        Long currentId = id;
         for (int i = 0; i < cores + memslices; i++) {
             final PendingRecord record = new PendingRecord();
             record.setValue(PENDING_TABLE.APPLICATION, (int) application);
@@ -495,12 +629,22 @@ public class Scheduler {
             record.setValue(PENDING_TABLE.STATUS, "PENDING");
             record.setValue(PENDING_TABLE.CURRENT_NODE, -1);
             record.setValue(PENDING_TABLE.CONTROLLABLE__NODE, null);
+            record.setValue(PENDING_TABLE.PRIORITY, priority);
+            record.setValue(PENDING_TABLE.DEADLINE, deadline);
 
             records.add(record);
         }
+    }
 
-        // Batch execute them all at once
-        final int[] results = conn.batchInsert(records).execute();
+    /**
+     * Insert pending records with a single batch statement.
+     * 
+     * @param records the records to insert
+     */
+    public void insertPendingRecords(final List<PendingRecord> records) {
+        if (!records.isEmpty()) {
+            conn.batchInsert(records).execute();
+        }
     }
     
     /**
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.scheduler.dinos;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Bounds the pending table. An allocation is admitted while the pending units (one per core or
+ * memslice) stay under a watermark and the cores and memslices requested by everything pending
+ * still fit in the free capacity of the cluster. Past that it is either turned away with a
+ * retry-after hint, or parked in an overflow queue that is fed back in bounded chunks as solves
+ * make room. The overflow queue is served highest priority, then earliest deadline, first.
+ *
+ * Pending and free capacity are refreshed from the database by the solve loop each poll;
+ * admissions in between are added on top of that snapshot. Allocations admitted but not yet
+ * applied by the ingest worker are not in the database, so they are counted on top of every
+ * refresh until the worker reports them with ingested().
+ *
+ * Request ids are only handed out to allocations that are admitted or queued, so turning one
+ * away doesn't use up ids.
+ */
+public class AdmissionController {
+    public enum Decision {
+        ADMIT,
+        QUEUE,
+        RETRY
+    }
+
+    /// What admit decided, and the allocation numbered with its request ids unless it is to be retried
+    public record Admission(Decision decision, IngestEvent alloc) { }
+
+    // The overflow queue holds at most this many times the watermark in units
+    public static final int OVERFLOW_FACTOR = 4;
+    // Most urgent first: highest priority, then earliest deadline
+    static final Comparator<IngestEvent> URGENCY = Comparator
+            .comparingInt(IngestEvent::priority).reversed()
+            .thenComparingLong(IngestEvent::deadline);
+    // Same order as Scheduler.PENDING_ORDER. Ties go to the earliest arrival, not the lowest request id,
+    // since ids are leased per server thread.
+    private static final Comparator<Queued> OVERFLOW_ORDER = Comparator.comparing(Queued::alloc, URGENCY)
+            .thenComparingLong(Queued::arrival);
+
+    /// A parked allocation and the order it arrived in
+    private record Queued(IngestEvent alloc, long arrival) { }
+
+    private final long maxPendingUnits;
+    private final boolean overflow;
+    private final RequestIdAllocator requestIds;
+    private final PriorityQueue<Queued> overflowQueue = new PriorityQueue<>(OVERFLOW_ORDER);
+    private long overflowUnits = 0;
+    private long arrivals = 0;
+
+    // Snapshot from the last refresh, plus what was admitted since
+    private long pendingUnits = 0;
+    private long pendingCores = 0;
+    private long pendingMemslices = 0;
+    private long freeCores = 0;
+    private long freeMemslices = 0;
+
+    // Admitted but not yet in the database
+    private long ingestingUnits = 0;
+    private long ingestingCores = 0;
+    private long ingestingMemslices = 0;
+
+    /**
+     * @param maxPendingUnits the watermark on pending cores and memslices
+     * @param overflow        park requests past the watermark instead of asking for a retry
+     * @param requestIds      hands out request ids to admitted and queued allocations
+     */
+    public AdmissionController(final long maxPendingUnits, final boolean overflow,
+            final RequestIdAllocator requestIds) {
+        this.maxPendingUnits = maxPendingUnits;
+        this.overflow = overflow;
+        this.requestIds = requestIds;
+    }
+
+    /**
+     * Decide what to do with an allocation. A queued allocation is kept until drained.
+     *
+     * @param alloc the allocation event; its request id is ignored
+     * @return whether to ingest it now, or that it was queued, or that the caller should retry
+     *         later, along with the allocation numbered with its request ids if it wasn't retried
+     */
+    public synchronized Admission admit(final IngestEvent alloc) {
+        // Don't let new requests overtake parked ones of the same or higher priority
+        final Queued head = this.overflowQueue.peek();
+        if ((null == head || URGENCY.compare(alloc, head.alloc()) < 0) && fits(alloc)) {
+            final IngestEvent numbered = number(alloc);
+            reserve(numbered);
+            return new Admission(Decision.ADMIT, numbered);
+        }
+        final long units = alloc.cores() + alloc.memslices();
+        if (this.overflow && this.overflowUnits + units <= OVERFLOW_FACTOR * this.maxPendingUnits) {
+            final IngestEvent numbered = number(alloc);
+            this.overflowQueue.add(new Queued(numbered, this.arrivals++));
+            this.overflowUnits += units;
+            return new Admission(Decision.QUEUE, numbered);
+        }
+        return new Admission(Decision.RETRY, alloc);
+    }
+
+    private IngestEvent number(final IngestEvent alloc) {
+        return alloc.withRequestId(this.requestIds.reserve(alloc.cores() + alloc.memslices()));
+    }
+
+    /**
+     * Take queued allocations that now fit, most urgent first, admitting at most one watermark's
+     * worth of units so a single solve stays bounded.
+     *
+     * @return the allocations to ingest, possibly empty
+     */
+    public synchronized List<IngestEvent> drain() {
+        final List<IngestEvent> admitted = new ArrayList<>();
+        long units = 0;
+        while (!this.overflowQueue.isEmpty()) {
+            final IngestEvent next = this.overflowQueue.peek().alloc();
+            final long size = next.cores() + next.memslices();
+            if (units > 0 && units + size > this.maxPendingUnits || !fits(next)) {
+                break;
+            }
+            this.overflowQueue.poll();
+            this.overflowUnits -= size;
+            reserve(next);
+            admitted.add(next);
+            units += size;
+        }
+        return admitted;
+    }
+
+    /**
+     * Replace the admission state with fresh numbers from the database. The numbers must be read
+     * while nothing can be inserted into pending, so every admitted allocation is either in them
+     * or not yet reported as ingested.
+     *
+     * @param pendingUnits     rows in pending
+     * @param pendingCores     cores requested by pending
+     * @param pendingMemslices memslices requested by pending
+     * @param freeCores        unallocated cores across all nodes
+     * @param freeMemslices    unallocated memslices across all nodes
+     */
+    public synchronized void refresh(final long pendingUnits, final long pendingCores, final long pendingMemslices,
+            final long freeCores, final long freeMemslices) {
+        this.pendingUnits = pendingUnits + this.ingestingUnits;
+        this.pendingCores = pendingCores + this.ingestingCores;
+        this.pendingMemslices = pendingMemslices + this.ingestingMemslices;
+        this.freeCores = freeCores;
+        this.freeMemslices = freeMemslices;
+    }
+
+    /**
+     * Called by the ingest worker once an admitted allocation is in the database, or was dropped
+     *
+     * @param alloc the allocation event
+     */
+    public synchronized void ingested(final IngestEvent alloc) {
+        this.ingestingUnits -= alloc.cores() + alloc.memslices();
+        this.ingestingCores -= alloc.cores();
+        this.ingestingMemslices -= alloc.memslices();
+    }
+
+    public synchronized long pendingUnits() {
+        return this.pendingUnits;
+    }
+
+    public synchronized int overflowSize() {
+        return this.overflowQueue.size();
+    }
+
+    private boolean fits(final IngestEvent alloc) {
+        // A request bigger than the watermark is still admitted on its own
+        final boolean unitsFit = this.pendingUnits == 0
+                || this.pendingUnits + alloc.cores() + alloc.memslices() <= this.maxPendingUnits;
+        return unitsFit
+                && this.pendingCores + alloc.cores() <= this.freeCores
+                && this.pendingMemslices + alloc.memslices() <= this.freeMemslices;
+    }
+
+    private void reserve(final IngestEvent alloc) {
+        this.pendingUnits += alloc.cores() + alloc.memslices();
+        this.pendingCores += alloc.cores();
+        this.pendingMemslices += alloc.memslices();
+        this.ingestingUnits += alloc.cores() + alloc.memslices();
+        this.ingestingCores += alloc.cores();
+        this.ingestingMemslices += alloc.memslices();
+    }
+}
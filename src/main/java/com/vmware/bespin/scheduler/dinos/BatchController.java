@@ -0,0 +1,169 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.scheduler.dinos;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Retunes the solve loop's batching thresholds online. It keeps an exponentially weighted
+ * estimate of the arrival rate of pending requests and a linear fit of solve time against batch
+ * size, solveTime(n) = intercept + slope * n, and picks the batch size B that minimizes the
+ * estimated placement latency of a request: the time waiting for its batch to fill, plus the time
+ * its batch queues behind earlier solves, plus the solve itself. With utilization
+ * u = solveTime(B) * rate / B, the queueing term is the M/D/1 mean wait u / (2 * (1 - u)) * solveTime(B).
+ * For the tail the full fill time is counted and the queueing wait is scaled by ln(100), the
+ * 99th percentile of an exponential with that mean. Batch sizes the solver can't keep up with
+ * (u &gt;= 1) are never picked. The time threshold is set to the expected time to fill the batch so
+ * a lull doesn't hold requests back.
+ */
+public class BatchController {
+    public enum Objective {
+        MEAN,
+        P99
+    }
+
+    public static final int MAX_BATCH = 256;
+    public static final long MAX_WAIT_MS = 1000;
+    private static final double FORGET = 0.95; // weight kept by past solve samples
+    private static final double RATE_ALPHA = 0.2; // weight of a new arrival rate sample
+    private static final double P99_OF_EXPONENTIAL = Math.log(100);
+
+    private static final Logger LOG = LogManager.getLogger(BatchController.class);
+    private final Objective objective;
+
+    // Decayed sums for the weighted least squares fit
+    private double sumW = 0;
+    private double sumX = 0;
+    private double sumY = 0;
+    private double sumXX = 0;
+    private double sumXY = 0;
+    private double intercept = 0;
+    private double slope = 0;
+
+    private double rate = 0; // arrivals per millisecond
+    private volatile int maxRequests;
+    private volatile long maxTime;
+
+    /**
+     * @param objective   the latency to minimize
+     * @param maxRequests the initial batch size threshold
+     * @param maxTime     the initial time threshold in milliseconds
+     */
+    public BatchController(final Objective objective, final int maxRequests, final long maxTime) {
+        this.objective = objective;
+        this.maxRequests = maxRequests;
+        this.maxTime = maxTime;
+    }
+
+    /**
+     * Current batch size threshold
+     *
+     * @return the number of pending requests that triggers a solve
+     */
+    public int maxRequests() {
+        return this.maxRequests;
+    }
+
+    /**
+     * Current time threshold
+     *
+     * @return the milliseconds since the last solve that trigger a solve
+     */
+    public long maxTime() {
+        return this.maxTime;
+    }
+
+    public synchronized double arrivalRate() {
+        return this.rate;
+    }
+
+    public synchronized double solveTimeIntercept() {
+        return this.intercept;
+    }
+
+    public synchronized double solveTimeSlope() {
+        return this.slope;
+    }
+
+    /**
+     * Record requests that arrived over an interval
+     *
+     * @param count   the number of requests
+     * @param elapsed the length of the interval in milliseconds
+     */
+    public synchronized void recordArrivals(final long count, final long elapsed) {
+        if (elapsed <= 0) {
+            return;
+        }
+        final double sample = (double) count / elapsed;
+        this.rate = this.rate == 0 ? sample : RATE_ALPHA * sample + (1 - RATE_ALPHA) * this.rate;
+        retune();
+    }
+
+    /**
+     * Record how long a solve (including committing its results) took
+     *
+     * @param batchSize the number of pending requests solved
+     * @param millis    the time it took
+     */
+    public synchronized void recordSolve(final long batchSize, final long millis) {
+        this.sumW = FORGET * this.sumW + 1;
+        this.sumX = FORGET * this.sumX + batchSize;
+        this.sumY = FORGET * this.sumY + millis;
+        this.sumXX = FORGET * this.sumXX + (double) batchSize * batchSize;
+        this.sumXY = FORGET * this.sumXY + (double) batchSize * millis;
+
+        final double denom = this.sumW * this.sumXX - this.sumX * this.sumX;
+        if (Math.abs(denom) > 1e-9) {
+            this.slope = Math.max(0, (this.sumW * this.sumXY - this.sumX * this.sumY) / denom);
+            this.intercept = Math.max(0, (this.sumY - this.slope * this.sumX) / this.sumW);
+        } else {
+            // Only one batch size seen so far, assume time is proportional to size
+            this.slope = this.sumX > 0 ? this.sumY / this.sumX : 0;
+            this.intercept = 0;
+        }
+        retune();
+    }
+
+    double predictSolveTime(final long batchSize) {
+        return this.intercept + this.slope * batchSize;
+    }
+
+    private void retune() {
+        if (this.rate <= 0 || this.sumW == 0) {
+            return;
+        }
+        final boolean tail = this.objective == Objective.P99;
+        int best = MAX_BATCH;
+        double bestCost = Double.MAX_VALUE;
+        for (int b = 1; b <= MAX_BATCH; b++) {
+            final double solveTime = predictSolveTime(b);
+            final double utilization = solveTime * this.rate / b;
+            if (utilization >= 1) {
+                // The queue would grow without bound
+                continue;
+            }
+            final double fill = (b - 1) / this.rate;
+            final double queue = utilization / (2 * (1 - utilization)) * solveTime;
+            final double cost = tail
+                    ? fill + P99_OF_EXPONENTIAL * queue + solveTime
+                    : fill / 2 + queue + solveTime;
+            if (cost < bestCost) {
+                best = b;
+                bestCost = cost;
+            }
+        }
+        final long wait = Math.max(1, Math.min(MAX_WAIT_MS, Math.round(best / this.rate)));
+
+        if (best != this.maxRequests || wait != this.maxTime) {
+            LOG.warn(String.format("BATCH_CONTROLLER: rate=%.3f/ms, solve=%.2f+%.3f*n ms, maxReqsPerSolve=%d, " +
+                    "maxTimePerSolve=%dms", this.rate, this.intercept, this.slope, best, wait));
+            this.maxRequests = best;
+            this.maxTime = wait;
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.scheduler.dinos;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jooq.DSLContext;
+import org.jooq.Record;
+import org.jooq.Result;
+
+import com.google.ortools.Loader;
+import com.google.ortools.sat.Constraint;
+import com.google.ortools.sat.CpModel;
+import com.google.ortools.sat.CpSolver;
+import com.google.ortools.sat.CpSolverStatus;
+import com.google.ortools.sat.IntVar;
+import com.google.ortools.sat.LinearExpr;
+
+import com.vmware.bespin.scheduler.Scheduler;
+import com.vmware.bespin.scheduler.Solver;
+import com.vmware.bespin.scheduler.SolverException;
+import com.vmware.bespin.scheduler.generated.tables.Pending;
+import com.vmware.bespin.scheduler.generated.tables.records.PendingRecord;
+
+/**
+ * Places pending requests with a CP-SAT model built directly from arrays, without going through
+ * DCM's SQL compilation. Every pending row asks for a single core or memslice, so rather than one
+ * variable per row the model has one integer variable per (application, resource, node) counting
+ * the units placed there, which keeps its size independent of the batch size:
+ *
+ * - each application's pending cores (memslices) are placed exactly once, or at most once when partial
+ * - each node takes no more cores (memslices) than it has free
+ * - used[a][n] is set if application a places anything on node n, and newUse[a][n] if it does so
+ *   on a node it had nothing on before
+ *
+ * and the objective minimizes the number of new (application, node) pairs, which pulls requests
+ * onto nodes the application already has resources on and packs new ones onto as few nodes as
+ * possible. Cores and memslices share used[a][n], so they also gravitate to the same nodes.
+ *
+ * The model only depends on the applications and nodes, so it is built once and kept across
+ * solves; each solve only rewrites the demands, the free capacity and what each application
+ * already occupies. It is rebuilt when an application or node is added or a node's capacity
+ * changes.
+ *
+ * A solve that runs out of time before proving optimality uses the best solution found so far and
+ * logs its optimality gap.
+ */
+public class CpSatSolver implements Solver {
+    protected Logger LOG = LogManager.getLogger(CpSatSolver.class);
+    public static final Pending PENDING_TABLE = Pending.PENDING;
+
+    private static final int CORES = 0;
+    private static final int MEMSLICES = 1;
+
+    private final boolean partial;
+    private final SolveDeadline deadline;
+    private final int numWorkers;
+
+    // Model skeleton and what it was built for
+    private int[] appIds = new int[0];
+    private int[][] nodeCapacity = new int[0][];
+    private Map<Integer, Integer> appIndex;
+    private Map<Integer, Integer> nodeIndex;
+    private CpModel model;
+    private IntVar[][][] units; // [application][resource][node]
+    private Constraint[][] demand; // [application][resource]
+    private Constraint[][] capacity; // [resource][node]
+    private Constraint[][] newUse; // [application][node]
+
+    /**
+     * @param partial if true, place as many requests as fit instead of failing when not all of them do
+     * @param deadline time limit for each solve, after which the best solution found so far is used
+     * @param numWorkers number of search workers solving in parallel
+     */
+    public CpSatSolver(final boolean partial, final SolveDeadline deadline, final int numWorkers) {
+        Loader.loadNativeLibraries();
+        this.partial = partial;
+        this.deadline = deadline;
+        this.numWorkers = numWorkers;
+    }
+
+    public CpSatSolver() {
+        this(false, SolveDeadline.DEFAULT, DiNOSSolver.DEFAULT_SEARCH_WORKERS);
+    }
+
+    /**
+     * @return the model as last built, for checking when it is rebuilt
+     */
+    CpModel model() {
+        return this.model;
+    }
+
+    /**
+     * Solve all outstanding requests in the pending table
+     *
+     * @param conn database connection
+     * @return records Records which were assigned by this call to solve.
+     * @throws SolverException if the requests don't all fit (unless partial) or no solution was found
+     */
+    public Result<? extends org.jooq.Record> solve(final DSLContext conn,
+                                                   final Scheduler scheduler) throws SolverException {
+        final Result<PendingRecord> pending = conn.selectFrom(PENDING_TABLE)
+                .orderBy(Scheduler.PENDING_ORDER)
+                .fetch();
+        if (pending.isEmpty()) {
+            return pending;
+        }
+
+        final int[] apps = conn.select(Scheduler.APP_TABLE.ID).from(Scheduler.APP_TABLE)
+                .orderBy(Scheduler.APP_TABLE.ID)
+                .fetch(Scheduler.APP_TABLE.ID).stream().mapToInt(Integer::intValue).toArray();
+        final int[][] nodes = conn.select(Scheduler.NODE_TABLE.ID, Scheduler.NODE_TABLE.CORES,
+                Scheduler.NODE_TABLE.MEMSLICES).from(Scheduler.NODE_TABLE)
+                .orderBy(Scheduler.NODE_TABLE.ID)
+                .fetch().stream()
+                .map(r -> new int[] {r.value1(), r.value2(), r.value3()})
+                .toArray(int[][]::new);
+        if (null == this.model || !Arrays.equals(apps, this.appIds) || !Arrays.deepEquals(nodes, this.nodeCapacity)) {
+            build(apps, nodes);
+        }
+        final int numApps = apps.length;
+        final int numNodes = nodes.length;
+
+        // Demand per application and resource
+        final long[][] wanted = new long[numApps][2];
+        for (final PendingRecord r : pending) {
+            final int a = this.appIndex.get(r.getApplication());
+            wanted[a][CORES] += r.getCores();
+            wanted[a][MEMSLICES] += r.getMemslices();
+        }
+        for (int a = 0; a < numApps; a++) {
+            for (int res = CORES; res <= MEMSLICES; res++) {
+                setBounds(this.demand[a][res], this.partial ? 0 : wanted[a][res], wanted[a][res]);
+            }
+        }
+
+        // Free capacity per node
+        final Integer[][] unallocated = scheduler.unallocatedResources();
+        for (int i = 0; i < unallocated[0].length; i++) {
+            final int n = this.nodeIndex.get(unallocated[0][i]);
+            setBounds(this.capacity[CORES][n], 0, Math.max(0, unallocated[1][i]));
+            setBounds(this.capacity[MEMSLICES][n], 0, Math.max(0, unallocated[2][i]));
+        }
+
+        // Nodes each application is already on, where placing more is free
+        final boolean[][] present = new boolean[numApps][numNodes];
+        for (final Record r : conn.fetch("select application, node from placed where cores + memslices > 0")) {
+            present[this.appIndex.get((Integer) r.get(0))][this.nodeIndex.get((Integer) r.get(1))] = true;
+        }
+        for (int a = 0; a < numApps; a++) {
+            for (int n = 0; n < numNodes; n++) {
+                // newUse - used >= -present
+                setBounds(this.newUse[a][n], present[a][n] ? -1 : 0, 1);
+            }
+        }
+
+        final long deadlineMillis = this.deadline.millisFor(pending.size());
+        final CpSolver solver = new CpSolver();
+        solver.getParameters().setMaxTimeInSeconds(deadlineMillis / 1000.0).setNumSearchWorkers(this.numWorkers);
+        final CpSolverStatus status = solver.solve(this.model);
+        if (status != CpSolverStatus.OPTIMAL && status != CpSolverStatus.FEASIBLE) {
+            if (this.partial) {
+                LOG.warn("CP-SAT solve failed ({}), leaving requests queued", status);
+                return conn.newResult(PENDING_TABLE);
+            }
+            throw new SolverException("Infeasible: " + status, null);
+        }
+        if (status == CpSolverStatus.FEASIBLE) {
+            // Out of time before proving optimality, go with the best solution found
+            LOG.warn("SOLVE_GAP: requests={}, deadline={}ms, time={}ms, gap={}", pending.size(), deadlineMillis,
+                    Math.round(solver.wallTime() * 1000),
+                    SolveDeadline.gap(solver.objectiveValue(), solver.bestObjectiveBound()));
+        } else {
+            LOG.info("SOLVE_GAP: requests={}, deadline={}ms, time={}ms, gap=0.0", pending.size(), deadlineMillis,
+                    Math.round(solver.wallTime() * 1000));
+        }
+
+        // Hand out the placed units to the pending rows, lowest node first to match id order
+        final long[][][] remaining = new long[numApps][2][numNodes];
+        for (int a = 0; a < numApps; a++) {
+            for (int res = CORES; res <= MEMSLICES; res++) {
+                if (wanted[a][res] > 0) {
+                    for (int n = 0; n < numNodes; n++) {
+                        remaining[a][res][n] = solver.value(this.units[a][res][n]);
+                    }
+                }
+            }
+        }
+        for (final PendingRecord r : pending) {
+            final int a = this.appIndex.get(r.getApplication());
+            final int res = r.getCores() > 0 ? CORES : MEMSLICES;
+            final int amount = r.getCores() + r.getMemslices();
+            for (int n = 0; n < numNodes; n++) {
+                if (remaining[a][res][n] >= amount) {
+                    remaining[a][res][n] -= amount;
+                    r.setControllable_Node(nodes[n][0]);
+                    break;
+                }
+            }
+        }
+        if (this.partial) {
+            // Only return what was placed
+            pending.removeIf(r -> null == r.getControllable_Node());
+        }
+        return pending;
+    }
+
+    /**
+     * Build the model for a set of applications and nodes
+     *
+     * @param apps application ids, sorted
+     * @param nodes id, cores and memslices of each node, sorted by id
+     */
+    private void build(final int[] apps, final int[][] nodes) {
+        final long start = System.currentTimeMillis();
+        final int numApps = apps.length;
+        final int numNodes = nodes.length;
+        this.appIds = apps;
+        this.nodeCapacity = nodes;
+        this.appIndex = new HashMap<>();
+        this.nodeIndex = new HashMap<>();
+        for (int a = 0; a < numApps; a++) {
+            this.appIndex.put(apps[a], a);
+        }
+        for (int n = 0; n < numNodes; n++) {
+            this.nodeIndex.put(nodes[n][0], n);
+        }
+
+        this.model = new CpModel();
+        this.units = new IntVar[numApps][2][numNodes];
+        this.demand = new Constraint[numApps][2];
+        this.capacity = new Constraint[2][numNodes];
+        this.newUse = new Constraint[numApps][numNodes];
+        final IntVar[][] used = new IntVar[numApps][numNodes];
+        final IntVar[] added = new IntVar[numApps * numNodes];
+
+        for (int a = 0; a < numApps; a++) {
+            for (int n = 0; n < numNodes; n++) {
+                used[a][n] = this.model.newBoolVar("used_" + a + "_" + n);
+                added[a * numNodes + n] = this.model.newBoolVar("new_" + a + "_" + n);
+                this.newUse[a][n] = this.model.addLinearConstraint(LinearExpr.weightedSum(
+                        new IntVar[] {added[a * numNodes + n], used[a][n]}, new long[] {1, -1}), 0, 1);
+                for (int res = CORES; res <= MEMSLICES; res++) {
+                    final int cap = nodes[n][res + 1];
+                    this.units[a][res][n] = this.model.newIntVar(0, cap, "units_" + a + "_" + res + "_" + n);
+                    // Anything placed marks the node as used
+                    this.model.addLessOrEqual(LinearExpr.weightedSum(
+                            new IntVar[] {this.units[a][res][n], used[a][n]}, new long[] {1, -cap}), 0);
+                }
+            }
+            for (int res = CORES; res <= MEMSLICES; res++) {
+                this.demand[a][res] = this.model.addLinearConstraint(LinearExpr.sum(this.units[a][res]), 0, 0);
+            }
+        }
+        for (int res = CORES; res <= MEMSLICES; res++) {
+            for (int n = 0; n < numNodes; n++) {
+                final IntVar[] onNode = new IntVar[numApps];
+                for (int a = 0; a < numApps; a++) {
+                    onNode[a] = this.units[a][res][n];
+                }
+                this.capacity[res][n] = this.model.addLinearConstraint(LinearExpr.sum(onNode), 0, 0);
+            }
+        }
+
+        // Placing a unit outweighs any number of new (application, node) pairs, which only
+        // matters when partial
+        final long unitWeight = (long) numApps * numNodes + 1;
+        final IntVar[] terms = new IntVar[added.length + numApps * 2 * numNodes];
+        final long[] weights = new long[terms.length];
+        int next = 0;
+        for (final IntVar v : added) {
+            terms[next] = v;
+            weights[next++] = 1;
+        }
+        for (int a = 0; a < numApps; a++) {
+            for (int res = CORES; res <= MEMSLICES; res++) {
+                for (int n = 0; n < numNodes; n++) {
+                    terms[next] = this.units[a][res][n];
+                    weights[next++] = -unitWeight;
+                }
+            }
+        }
+        this.model.minimize(LinearExpr.weightedSum(terms, weights));
+        LOG.info("CP-SAT model built for {} applications and {} nodes in {}ms", numApps, numNodes,
+                System.currentTimeMillis() - start);
+    }
+
+    private static void setBounds(final Constraint constraint, final long lower, final long upper) {
+        constraint.getBuilder().getLinearBuilder().clearDomain().addDomain(lower).addDomain(upper);
+    }
+}
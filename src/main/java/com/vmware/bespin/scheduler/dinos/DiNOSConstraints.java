@@ -86,6 +86,25 @@ public class DiNOSConstraints {
             """);
     }
 
+    // Linear-size alternative to getAppLocalityPendingConstraint. Each pending row is rewarded for
+    // sharing a node with the row before it in its application's chain, one term per row instead of
+    // one per pair. The symmetry breaking constraint keeps an application's cores (and its
+    // memslices) in increasing node order along the chain, so the number of broken links is the
+    // number of distinct nodes used, and maximizing kept links minimizes the nodes used.
+    public static Constraint getAppLocalityChainConstraint() {
+        return new Constraint(
+        "appLocalityChainConstraint",
+            """
+            create constraint app_locality_chain_constraint as
+            select * from pending
+            join pending_chain
+                on pending_chain.id = pending.id
+            join pending as x
+                on x.id = pending_chain.prev
+            maximize 1024 * (pending.controllable__node = x.controllable__node)
+            """);
+    }
+
     public static Constraint getAppLocalityPlacedConstraint() {
         return new Constraint(
                 "appLocalityPlacedConstraint",
@@ -101,6 +120,94 @@ public class DiNOSConstraints {
                 """);
     }
 
+    // Rewards placing next to an application's existing resources at socket and rack granularity,
+    // below the weight of the same node. Only placed resources are looked at, so there is one
+    // term per pending row rather than one per pair of pending rows.
+    public static Constraint getTopologyLocalityConstraint() {
+        return new Constraint(
+                "topologyLocalityConstraint",
+                """
+                create constraint topology_locality_constraint as
+                select * from pending
+                maximize
+                  512 * (pending.controllable__node in
+                        (select node
+                            from app_socket
+                            where app_socket.application = pending.application
+                        ))
+                  + 256 * (pending.controllable__node in
+                        (select node
+                            from app_rack
+                            where app_rack.application = pending.application
+                        ))
+                """);
+    }
+
+    // Pairs an application's cores with its memslices: a memslice is rewarded for landing on a node
+    // where the application has cores, and a core for landing where it has memslices. Pending rows
+    // ask for a single core or memslice, so the multipliers pick out which term applies.
+    public static Constraint getCoreMemsliceColocationConstraint() {
+        return new Constraint(
+                "coreMemsliceColocationConstraint",
+                """
+                create constraint core_memslice_colocation_constraint as
+                select * from pending
+                maximize
+                  2048 * pending.memslices * (pending.controllable__node in
+                        (select node
+                            from placed
+                            where placed.application = pending.application
+                            and placed.cores > 0
+                        ))
+                  + 2048 * pending.cores * (pending.controllable__node in
+                        (select node
+                            from placed
+                            where placed.application = pending.application
+                            and placed.memslices > 0
+                        ))
+                """);
+    }
+
+    // Weights placed locality by priority class, so when there isn't room on an application's
+    // nodes for everything, the most urgent requests get the local slots
+    public static Constraint getPriorityPlacedConstraint() {
+        return new Constraint(
+                "priorityPlacedConstraint",
+                """
+                create constraint priority_placed_constraint as
+                select * from pending
+                maximize
+                  1024 * pending.priority * (pending.controllable__node in
+                        (select node
+                            from placed
+                            where placed.application = pending.application
+                        ))
+                """);
+    }
+
+    // Used by the rebalancer, where pending holds placed resources and current_node is where they are now
+    public static Constraint getMigrationBudgetConstraint(final int budget) {
+        return new Constraint(
+                "migrationBudgetConstraint",
+                String.format("""
+                    create constraint migration_budget as
+                    select * from pending
+                    group by application
+                    check sum(pending.controllable__node != pending.current_node) <= %d
+                    """, budget));
+    }
+
+    // Used by the rebalancer to prefer leaving resources where they are, all else being equal
+    public static Constraint getStayPutConstraint() {
+        return new Constraint(
+                "stayPutConstraint",
+                """
+                create constraint stay_put_constraint as
+                select * from pending
+                maximize (pending.controllable__node = pending.current_node)
+                """);
+    }
+
     // This is important when we have duplicate resource requests 
     // (e.g. ap1 asks for 1 core, ap1 asks for 1 core, etc.)
     public static Constraint getSymmetryBreakingConstraint() {
@@ -9,15 +9,20 @@ import org.jooq.DSLContext;
 
 import com.vmware.bespin.scheduler.DBUtils;
 import com.vmware.bespin.scheduler.Solver;
+import com.vmware.bespin.simulation.BinPackingSolver;
 import com.vmware.bespin.simulation.FillCurrentSolver;
+import com.vmware.bespin.simulation.PowerOfChoicesSolver;
 import com.vmware.bespin.simulation.RandomSolver;
 import com.vmware.bespin.simulation.RoundRobinSolver;
+import com.vmware.bespin.simulation.TopologySolver;
 
 import java.io.IOException;
 
 import java.net.InetAddress;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -30,11 +35,11 @@ import org.apache.commons.cli.ParseException;
 
 public class DiNOSRunner {
     private static final String MAX_REQUESTS_PER_SOLVE_OPTION = "maxReqsPerSolve";
-    private static final int MAX_REQUESTS_PER_SOLVE_DEFAULT = 15;
+    private static final int MAX_REQUESTS_PER_SOLVE_DEFAULT = DiNOSScheduler.DEFAULT_MAX_REQUESTS_PER_SOLVE;
     private static final String MAX_TIME_PER_SOLVE_OPTION = "maxTimePerSolve";
-    private static final int MAX_TIME_PER_SOLVE_DEFAULT = 10; // in milliseconds
+    private static final long MAX_TIME_PER_SOLVE_DEFAULT = DiNOSScheduler.DEFAULT_MAX_TIME_PER_SOLVE;
     private static final String POLL_INTERVAL_OPTION = "pollInterval";
-    private static final int POLL_INTERVAL_DEFAULT = 500; // 1/2 second in milliseconds
+    private static final long POLL_INTERVAL_DEFAULT = DiNOSScheduler.DEFAULT_POLL_INTERVAL;
 
     // Which scheduler to use
     private static final String SOLVER_OPTION = "solver";
@@ -46,6 +51,60 @@ public class DiNOSRunner {
     // Do DCM logging
     private static final String DCM_LOGGING_OPTION = "logging";
 
+    // Where to persist the request id high-water mark
+    private static final String REQUEST_ID_FILE_OPTION = "requestIdFile";
+
+    // Serve each RPC connection on its own thread
+    private static final String CONCURRENT_SERVER_OPTION = "concurrentServer";
+
+    // Number of pooled database connections, 0 for a single shared connection
+    private static final String DB_POOL_SIZE_OPTION = "dbPoolSize";
+
+    // Place locality hits immediately instead of waiting for the solver
+    private static final String FAST_PATH_OPTION = "fastPath";
+
+    // Background rebalancing, disabled when the interval is 0
+    private static final String REBALANCE_INTERVAL_OPTION = "rebalanceInterval";
+    private static final long REBALANCE_INTERVAL_DEFAULT = 0; // in milliseconds
+    private static final String MIGRATION_BUDGET_OPTION = "migrationBudget";
+    private static final int MIGRATION_BUDGET_DEFAULT = 8;
+
+    // Number of synthetic solves to run while waiting for NRK to connect, 0 to disable
+    private static final String WARMUP_SOLVES_OPTION = "warmupSolves";
+    private static final int WARMUP_SOLVES_DEFAULT = 0;
+
+    // Retune maxReqsPerSolve and maxTimePerSolve online to minimize mean or tail placement latency
+    private static final String ADAPTIVE_BATCHING_OPTION = "adaptiveBatching";
+
+    // Admission control on pending cores and memslices, disabled when 0
+    private static final String MAX_PENDING_UNITS_OPTION = "maxPendingUnits";
+    private static final long MAX_PENDING_UNITS_DEFAULT = 0;
+    // Park allocations past the watermark instead of asking NRK to retry
+    private static final String OVERFLOW_QUEUE_OPTION = "overflowQueue";
+
+    // Place what fits and keep the rest queued, instead of failing every request when not all fit
+    private static final String PARTIAL_SOLVE_OPTION = "partialSolve";
+
+    // Solve on a copy of the state so ingestion isn't held up, and requeue assignments that no longer fit
+    private static final String SNAPSHOT_SOLVE_OPTION = "snapshotSolve";
+
+    // Solve the next batch while the last one is committed and sent to NRK, on a snapshot
+    private static final String PIPELINE_OPTION = "pipeline";
+
+    // Time limit for each solve, after which the best solution found so far is used
+    private static final String SOLVE_DEADLINE_OPTION = "solveDeadline";
+    private static final long SOLVE_DEADLINE_DEFAULT = SolveDeadline.DEFAULT.millis(); // in milliseconds
+    private static final String DEADLINE_PER_REQUEST_OPTION = "deadlinePerRequest";
+    private static final long DEADLINE_PER_REQUEST_DEFAULT = 0; // in milliseconds
+
+    // Parallel CP-SAT search workers. The RPC, ingest and solver loop threads need cores of their own,
+    // so we warn when the workers leave fewer than that free
+    private static final String SEARCH_WORKERS_OPTION = "searchWorkers";
+    private static final int SEARCH_WORKERS_DEFAULT = DiNOSSolver.DEFAULT_SEARCH_WORKERS;
+    private static final int SCHEDULER_THREADS = 3;
+    // Commit and notify stages, with -y
+    private static final int PIPELINE_THREADS = 2;
+
     public static void main(final String[] args) throws ClassNotFoundException, InterruptedException, 
             SocketException, UnknownHostException, IOException {
         // These are the defaults for these parameters.
@@ -56,6 +115,22 @@ public class DiNOSRunner {
         String solver = SOLVER_DEFAULT;
         boolean usePrintDiagnostics = false;
         boolean verbose = false;
+        Path requestIdFile = null;
+        boolean concurrentServer = false;
+        int dbPoolSize = 0;
+        boolean fastPath = false;
+        long rebalanceInterval = REBALANCE_INTERVAL_DEFAULT;
+        int migrationBudget = MIGRATION_BUDGET_DEFAULT;
+        int warmupSolves = WARMUP_SOLVES_DEFAULT;
+        BatchController.Objective adaptiveBatching = null;
+        long maxPendingUnits = MAX_PENDING_UNITS_DEFAULT;
+        boolean overflowQueue = false;
+        boolean partialSolve = false;
+        boolean snapshotSolve = false;
+        boolean pipeline = false;
+        long solveDeadline = SOLVE_DEADLINE_DEFAULT;
+        long deadlinePerRequest = DEADLINE_PER_REQUEST_DEFAULT;
+        int searchWorkers = SEARCH_WORKERS_DEFAULT;
 
         // create Options object
         final Options options = new Options();
@@ -89,8 +164,9 @@ public class DiNOSRunner {
         final Option solverOption = Option.builder("s")
             .longOpt(SOLVER_OPTION).argName(SOLVER_OPTION)
             .hasArg()
-            .desc(String.format("solver (DCMloc | DCMcap | R | RR | FC).%nDefault: %s", 
-                    SOLVER_DEFAULT))
+            .desc(String.format("solver (DCMloc | DCMlin | DCMtopo | DCMcoloc | DCMprio | DCMcap | CPSAT | MCF | R | " +
+                    "RR | FC | FCcoloc | TOPO | BF | WF | FFD | DOT | BFloc | WFloc | FFDloc | DOTloc | POD).%n" +
+                    "Default: %s", SOLVER_DEFAULT))
             .type(String.class)
             .build();
         final Option verboseOption = Option.builder("v")
@@ -101,6 +177,100 @@ public class DiNOSRunner {
             .longOpt(DCM_LOGGING_OPTION).argName(DCM_LOGGING_OPTION)
             .desc("Run DCM with print logging (for debugging)")
             .build();
+        final Option requestIdFileOption = Option.builder("i")
+            .longOpt(REQUEST_ID_FILE_OPTION).argName(REQUEST_ID_FILE_OPTION)
+            .hasArg()
+            .desc("Optional: file used to persist allocated request ids across restarts")
+            .type(String.class)
+            .build();
+        final Option concurrentServerOption = Option.builder("c")
+            .longOpt(CONCURRENT_SERVER_OPTION).argName(CONCURRENT_SERVER_OPTION)
+            .desc("Serve each RPC connection on its own thread (virtual threads on JDK 21+)")
+            .build();
+        final Option dbPoolSizeOption = Option.builder("d")
+            .longOpt(DB_POOL_SIZE_OPTION).argName(DB_POOL_SIZE_OPTION)
+            .hasArg()
+            .desc(String.format("number of pooled database connections (%d is a good start with "
+                    + "concurrent RPC threads), 0 for a single connection.%nDefault: 0", DBUtils.DEFAULT_POOL_SIZE))
+            .type(Integer.class)
+            .build();
+        final Option fastPathOption = Option.builder("f")
+            .longOpt(FAST_PATH_OPTION).argName(FAST_PATH_OPTION)
+            .desc("Immediately place allocations that fit on nodes the application already uses")
+            .build();
+        final Option rebalanceIntervalOption = Option.builder("b")
+            .longOpt(REBALANCE_INTERVAL_OPTION).argName(REBALANCE_INTERVAL_OPTION)
+            .hasArg()
+            .desc(String.format("interval between background rebalancing rounds in milliseconds, 0 to disable." +
+                    "%nDefault: %d", REBALANCE_INTERVAL_DEFAULT))
+            .type(Long.class)
+            .build();
+        final Option migrationBudgetOption = Option.builder("m")
+            .longOpt(MIGRATION_BUDGET_OPTION).argName(MIGRATION_BUDGET_OPTION)
+            .hasArg()
+            .desc(String.format("max cores and memslices moved per application per rebalancing round.%nDefault: %d",
+                    MIGRATION_BUDGET_DEFAULT))
+            .type(Integer.class)
+            .build();
+        final Option warmupSolvesOption = Option.builder("w")
+            .longOpt(WARMUP_SOLVES_OPTION).argName(WARMUP_SOLVES_OPTION)
+            .hasArg()
+            .desc(String.format("number of synthetic warm-up solves while waiting for NRK to connect, 0 to "
+                    + "disable. Waits for the solver model to be built.%nDefault: %d", WARMUP_SOLVES_DEFAULT))
+            .type(Integer.class)
+            .build();
+        final Option adaptiveBatchingOption = Option.builder("a")
+            .longOpt(ADAPTIVE_BATCHING_OPTION).argName(ADAPTIVE_BATCHING_OPTION)
+            .hasArg()
+            .desc(String.format("adapt -r and -t online to minimize (mean | p99) placement latency.%nDefault: off"))
+            .type(String.class)
+            .build();
+        final Option maxPendingUnitsOption = Option.builder("q")
+            .longOpt(MAX_PENDING_UNITS_OPTION).argName(MAX_PENDING_UNITS_OPTION)
+            .hasArg()
+            .desc(String.format("max pending cores and memslices before allocations are held back, 0 for no limit." +
+                    "%nDefault: %d", MAX_PENDING_UNITS_DEFAULT))
+            .type(Long.class)
+            .build();
+        final Option overflowQueueOption = Option.builder("o")
+            .longOpt(OVERFLOW_QUEUE_OPTION).argName(OVERFLOW_QUEUE_OPTION)
+            .desc("queue allocations held back by -q instead of asking NRK to retry")
+            .build();
+        final Option partialSolveOption = Option.builder("x")
+            .longOpt(PARTIAL_SOLVE_OPTION).argName(PARTIAL_SOLVE_OPTION)
+            .desc("place as many requests as fit and keep the rest queued, instead of failing all of them")
+            .build();
+        final Option snapshotSolveOption = Option.builder("n")
+            .longOpt(SNAPSHOT_SOLVE_OPTION).argName(SNAPSHOT_SOLVE_OPTION)
+            .desc("solve on a snapshot of the state while requests keep arriving, and requeue assignments " +
+                    "whose node filled up in the meantime")
+            .build();
+        final Option pipelineOption = Option.builder("y")
+            .longOpt(PIPELINE_OPTION).argName(PIPELINE_OPTION)
+            .desc("solve, commit and notify NRK on separate threads, so the next batch is solved while the " +
+                    "last one is committed. Implies -n")
+            .build();
+        final Option solveDeadlineOption = Option.builder("e")
+            .longOpt(SOLVE_DEADLINE_OPTION).argName(SOLVE_DEADLINE_OPTION)
+            .hasArg()
+            .desc(String.format("ms a solve may take before the best solution so far is used " +
+                    "(DCM rounds up to whole seconds).%nDefault: %d", SOLVE_DEADLINE_DEFAULT))
+            .type(Long.class)
+            .build();
+        final Option deadlinePerRequestOption = Option.builder("k")
+            .longOpt(DEADLINE_PER_REQUEST_OPTION).argName(DEADLINE_PER_REQUEST_OPTION)
+            .hasArg()
+            .desc(String.format("extra ms added to -e for each request in the batch. DCM fixes its deadline " +
+                    "when the model is built, so it uses -r requests.%nDefault: %d", DEADLINE_PER_REQUEST_DEFAULT))
+            .type(Long.class)
+            .build();
+        final Option searchWorkersOption = Option.builder("g")
+            .longOpt(SEARCH_WORKERS_OPTION).argName(SEARCH_WORKERS_OPTION)
+            .hasArg()
+            .desc(String.format("parallel CP-SAT search workers for the DCM and CPSAT solvers.%nDefault: %d",
+                    SEARCH_WORKERS_DEFAULT))
+            .type(Integer.class)
+            .build();
 
         options.addOption(helpOption);
         options.addOption(maxReqsPerSolveOption);
@@ -109,6 +279,22 @@ public class DiNOSRunner {
         options.addOption(solverOption);
         options.addOption(verboseOption);
         options.addOption(loggingOption);
+        options.addOption(requestIdFileOption);
+        options.addOption(concurrentServerOption);
+        options.addOption(dbPoolSizeOption);
+        options.addOption(fastPathOption);
+        options.addOption(rebalanceIntervalOption);
+        options.addOption(migrationBudgetOption);
+        options.addOption(warmupSolvesOption);
+        options.addOption(adaptiveBatchingOption);
+        options.addOption(maxPendingUnitsOption);
+        options.addOption(overflowQueueOption);
+        options.addOption(partialSolveOption);
+        options.addOption(snapshotSolveOption);
+        options.addOption(pipelineOption);
+        options.addOption(solveDeadlineOption);
+        options.addOption(deadlinePerRequestOption);
+        options.addOption(searchWorkersOption);
 
         final CommandLineParser parser = new DefaultParser();
         try {
@@ -132,44 +318,149 @@ public class DiNOSRunner {
             }
             if (cmd.hasOption(SOLVER_OPTION)) {
                 solver = cmd.getOptionValue(SOLVER_OPTION);
-                if (!solver.equals("DCMloc") && !solver.equals("DCMcap") && 
-                        !solver.equals("R") && !solver.equals("RR") && !solver.equals("FC")) {
+                if (!solver.equals("DCMloc") && !solver.equals("DCMlin") && !solver.equals("DCMtopo") && 
+                        !solver.equals("DCMcoloc") && !solver.equals("CPSAT") && !solver.equals("MCF") &&
+                        !solver.equals("DCMprio") && !solver.equals("DCMcap") && !solver.equals("R") && 
+                        !solver.equals("RR") && !solver.equals("FC") && !solver.equals("FCcoloc") && 
+                        !solver.equals("TOPO") && !solver.equals("POD") &&
+                        null == BinPackingSolver.forName(solver, false)) {
                     System.out.println(
                         String.format(
-                            "Solver must be (case sensitive) 'DCMloc'|'DCMcap'|'R'|'RR'|'FC' but is '%s'",
+                            "Solver must be (case sensitive) 'DCMloc'|'DCMlin'|'DCMtopo'|'DCMcoloc'|'DCMprio'|" +
+                            "'DCMcap'|'CPSAT'|'MCF'|'R'|'RR'|'FC'|'FCcoloc'|'TOPO'|'BF'|'WF'|'FFD'|'DOT'|" +
+                            "'BFloc'|'WFloc'|'FFDloc'|'DOTloc'|'POD' but is '%s'",
                             solver));
                     return;
                 }
             }
             usePrintDiagnostics = cmd.hasOption(DCM_LOGGING_OPTION);
             verbose = cmd.hasOption(VERBOSE_OPTION);
+            concurrentServer = cmd.hasOption(CONCURRENT_SERVER_OPTION);
+            fastPath = cmd.hasOption(FAST_PATH_OPTION);
+            if (cmd.hasOption(REBALANCE_INTERVAL_OPTION)) {
+                rebalanceInterval = Long.parseLong(cmd.getOptionValue(REBALANCE_INTERVAL_OPTION));
+            }
+            if (cmd.hasOption(MIGRATION_BUDGET_OPTION)) {
+                migrationBudget = Integer.parseInt(cmd.getOptionValue(MIGRATION_BUDGET_OPTION));
+            }
+            if (cmd.hasOption(WARMUP_SOLVES_OPTION)) {
+                warmupSolves = Integer.parseInt(cmd.getOptionValue(WARMUP_SOLVES_OPTION));
+            }
+            if (cmd.hasOption(ADAPTIVE_BATCHING_OPTION)) {
+                final String objective = cmd.getOptionValue(ADAPTIVE_BATCHING_OPTION);
+                if (objective.equals("mean")) {
+                    adaptiveBatching = BatchController.Objective.MEAN;
+                } else if (objective.equals("p99")) {
+                    adaptiveBatching = BatchController.Objective.P99;
+                } else {
+                    System.out.println(String.format(
+                            "Adaptive batching objective must be 'mean'|'p99' but is '%s'", objective));
+                    return;
+                }
+            }
+            if (cmd.hasOption(MAX_PENDING_UNITS_OPTION)) {
+                maxPendingUnits = Long.parseLong(cmd.getOptionValue(MAX_PENDING_UNITS_OPTION));
+            }
+            overflowQueue = cmd.hasOption(OVERFLOW_QUEUE_OPTION);
+            partialSolve = cmd.hasOption(PARTIAL_SOLVE_OPTION);
+            pipeline = cmd.hasOption(PIPELINE_OPTION);
+            snapshotSolve = pipeline || cmd.hasOption(SNAPSHOT_SOLVE_OPTION);
+            if (cmd.hasOption(SOLVE_DEADLINE_OPTION)) {
+                solveDeadline = Long.parseLong(cmd.getOptionValue(SOLVE_DEADLINE_OPTION));
+            }
+            if (cmd.hasOption(DEADLINE_PER_REQUEST_OPTION)) {
+                deadlinePerRequest = Long.parseLong(cmd.getOptionValue(DEADLINE_PER_REQUEST_OPTION));
+            }
+            if (cmd.hasOption(SEARCH_WORKERS_OPTION)) {
+                searchWorkers = Integer.parseInt(cmd.getOptionValue(SEARCH_WORKERS_OPTION));
+                if (searchWorkers < 1) {
+                    System.out.println("Search workers must be > 0");
+                    return;
+                }
+            }
+            if (cmd.hasOption(DB_POOL_SIZE_OPTION)) {
+                dbPoolSize = Integer.parseInt(cmd.getOptionValue(DB_POOL_SIZE_OPTION));
+            }
+            if (cmd.hasOption(REQUEST_ID_FILE_OPTION)) {
+                requestIdFile = Paths.get(cmd.getOptionValue(REQUEST_ID_FILE_OPTION));
+            }
         } catch (final ParseException ignored) {
             System.out.println("Failed to parse command line");
             System.exit(-1);
         }
 
         // Create an in-memory database and get a JOOQ connection to it
-        final DSLContext conn = DBUtils.getConn();
+        final DSLContext conn = dbPoolSize > 0 ? DBUtils.getPooledConn("bespin", dbPoolSize) : DBUtils.getConn();
+
+        final int cpus = Runtime.getRuntime().availableProcessors();
+        final int schedulerThreads = SCHEDULER_THREADS + (pipeline ? PIPELINE_THREADS : 0);
+        if (searchWorkers + schedulerThreads > cpus) {
+            System.out.println(String.format("Warning: %d search workers and %d scheduler threads share %d cores, " +
+                    "solves will compete with RPC and ingestion", searchWorkers, schedulerThreads, cpus));
+        }
+
+        // Solvers that bind to a database when built read the snapshot, if there is one
+        final SolveSnapshot snapshot = snapshotSolve ? new SolveSnapshot() : null;
+        final DSLContext solverConn = null == snapshot ? conn : snapshot.conn();
 
         // Choose the scheduler
+        final SolveDeadline deadline = new SolveDeadline(solveDeadline, deadlinePerRequest);
+        final long dcmDeadline = deadline.millisFor(maxReqsPerSolve);
         Solver mySolver = null;
+        final DiNOSSolver.Builder dcm = new DiNOSSolver.Builder(solverConn)
+                .setPartial(partialSolve)
+                .setDeadlineMillis(dcmDeadline)
+                .setNumWorkers(searchWorkers)
+                .setPrintDiagnostics(usePrintDiagnostics);
         if (solver.equals("DCMcap")) {
-            mySolver = new DiNOSSolver(conn, false, usePrintDiagnostics);
+            mySolver = dcm.build();
         } else if (solver.equals("DCMloc")) {
-            mySolver = new DiNOSSolver(conn, true, usePrintDiagnostics);
+            mySolver = dcm.setUseLocalityConstraints(true).build();
+        } else if (solver.equals("DCMlin")) {
+            mySolver = dcm.setUseLocalityConstraints(true).setLinearLocality(true).build();
+        } else if (solver.equals("DCMtopo")) {
+            mySolver = dcm.setUseLocalityConstraints(true).setUseTopologyConstraint(true).build();
+        } else if (solver.equals("DCMcoloc")) {
+            mySolver = dcm.setUseLocalityConstraints(true).setUseColocationConstraint(true).build();
+        } else if (solver.equals("DCMprio")) {
+            mySolver = dcm.setUseLocalityConstraints(true).setUsePriorityConstraint(true).build();
+        } else if (solver.equals("CPSAT")) {
+            mySolver = new CpSatSolver(partialSolve, deadline, searchWorkers);
+        } else if (solver.equals("MCF")) {
+            mySolver = new MinCostFlowSolver(partialSolve);
         } else if (solver.equals("R")) {
-            mySolver = new RandomSolver();
+            mySolver = new RandomSolver(partialSolve);
         } else if (solver.equals("RR")) {
-            mySolver = new RoundRobinSolver();
+            mySolver = new RoundRobinSolver(partialSolve);
         } else if (solver.equals("FC")) {
-            mySolver = new FillCurrentSolver();
+            mySolver = new FillCurrentSolver(partialSolve, false);
+        } else if (solver.equals("FCcoloc")) {
+            mySolver = new FillCurrentSolver(partialSolve, true);
+        } else if (solver.equals("TOPO")) {
+            mySolver = new TopologySolver(partialSolve);
+        } else if (solver.equals("POD")) {
+            mySolver = new PowerOfChoicesSolver(PowerOfChoicesSolver.DEFAULT_CHOICES, partialSolve, null);
+        } else if (null != BinPackingSolver.forName(solver, partialSolve)) {
+            mySolver = BinPackingSolver.forName(solver, partialSolve);
         } else {
             System.out.println("Scheduler type not supported.");
             System.exit(-1);
         }
 
-        final DiNOSScheduler scheduler = new DiNOSScheduler(conn, maxReqsPerSolve, maxTimePerSolve, pollInterval, 
-                InetAddress.getByName("172.31.0.11"), 10100, 10101, mySolver, verbose);
+        final DiNOSScheduler scheduler = new DiNOSScheduler.Builder(conn, mySolver)
+                .setBatching(maxReqsPerSolve, maxTimePerSolve, pollInterval)
+                .setNetwork(InetAddress.getByName("172.31.0.11"), 10100, 10101)
+                .setVerbose(verbose)
+                .setRequestIdFile(requestIdFile)
+                .setConcurrentServer(concurrentServer)
+                .setFastPath(fastPath)
+                .setRebalancing(rebalanceInterval, migrationBudget)
+                .setWarmupSolves(warmupSolves)
+                .setAdaptiveBatching(adaptiveBatching)
+                .setAdmission(maxPendingUnits, overflowQueue)
+                .setPartialSolve(partialSolve)
+                .setSnapshot(snapshot, pipeline)
+                .build();
 
         scheduler.run();
     }
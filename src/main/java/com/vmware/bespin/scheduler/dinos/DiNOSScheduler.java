@@ -9,14 +9,17 @@ import com.vmware.bespin.rpc.RPCClient;
 import com.vmware.bespin.rpc.RPCServer;
 import com.vmware.bespin.rpc.TCPClient;
 import com.vmware.bespin.rpc.TCPServer;
+import com.vmware.bespin.rpc.ThreadedTCPServer;
 import com.vmware.bespin.scheduler.Scheduler;
 import com.vmware.bespin.scheduler.Solver;
 import com.vmware.bespin.scheduler.dinos.rpc.AffinityAllocHandler;
 import com.vmware.bespin.scheduler.dinos.rpc.AffinityReleaseHandler;
 import com.vmware.bespin.scheduler.dinos.rpc.AllocHandler;
+import com.vmware.bespin.scheduler.dinos.rpc.MigrationHandler;
 import com.vmware.bespin.scheduler.dinos.rpc.RPCID;
 import com.vmware.bespin.scheduler.dinos.rpc.RegisterNodeHandler;
 import com.vmware.bespin.scheduler.dinos.rpc.ReleaseHandler;
+import com.vmware.bespin.scheduler.generated.tables.records.PendingRecord;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -24,40 +27,267 @@ import org.jooq.exception.DataAccessException;
 import org.jooq.DSLContext;
 import org.jooq.Record;
 import org.jooq.Result;
+import org.jooq.impl.DSL;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.SocketException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class DiNOSScheduler extends Scheduler {
+    // Shape of the synthetic cluster used for warm-up; ids are well clear of real node ids
+    private static final int WARMUP_NODE_BASE = 1_000_000;
+    private static final int WARMUP_NODES = 8;
+    private static final int WARMUP_CORES_PER_NODE = 64;
+    private static final int WARMUP_MEMSLICES_PER_NODE = 64;
+
+    // Batching thresholds, when not set
+    public static final int DEFAULT_MAX_REQUESTS_PER_SOLVE = 15;
+    public static final long DEFAULT_MAX_TIME_PER_SOLVE = 10; // in milliseconds
+    public static final long DEFAULT_POLL_INTERVAL = 500; // in milliseconds
+
+    // Solved batches that may wait for the commit stage before the solve stage blocks
+    private static final int PIPELINE_DEPTH = 2;
+
     private final int maxReqsPerSolve;
     private final long maxTimePerSolve;
     private final long pollInterval;
     private final InetAddress ip;
     private final int serverPort;
     private final int clientPort;
+    private final boolean concurrentServer;
     private RPCClient rpcClient;
-    public final ExecutorService workerPool;
+    public final IngestWorker ingestWorker;
+    public final RequestIdAllocator requestIds;
+    private final LocalityIndex localityIndex;
+    private final ReentrantLock placementLock = new ReentrantLock();
+    // Held for every change to the live state, and while it is copied into the snapshot or
+    // assignments are committed, so neither sees a change half made
+    private final ReentrantLock stateLock = new ReentrantLock();
+    private final Object notifyLock = new Object();
+    // Fast path assignments waiting for the response to their allocation to reach NRK, and
+    // responses that reached NRK before their allocation got through the fast path, by request id;
+    // both guarded by heldAssignments
+    private final Map<Long, List<SchedulerAssignment>> heldAssignments = new HashMap<>();
+    // Fast path and failure assignments of allocations in the batch being ingested, by request id;
+    // only touched by the ingest thread
+    private final Map<Long, List<SchedulerAssignment>> decided = new HashMap<>();
+    private final Set<Long> responsesSent = new HashSet<>();
+    private final long rebalanceInterval;
+    private final int migrationBudget;
+    private final int warmupSolves;
+    private final BatchController batchController;
+    private final AdmissionController admission;
+    private final boolean partialSolve;
+    private final SolveSnapshot snapshot;
+    // Stages of the pipeline, when solving, committing and notifying run on their own threads
+    private final boolean pipeline;
+    private final BlockingQueue<Result<? extends Record>> commitQueue;
+    private final BlockingQueue<SchedulerAssignment> notifyQueue;
+    // Assignments handed to the commit stage but not committed yet, by request id; only touched
+    // under the state lock
+    private final Map<Long, Record> reserved = new HashMap<>();
+    // Placed assignments the commit stage has taken that aren't committed and sent, or dropped, yet
+    private final AtomicInteger unsent = new AtomicInteger();
+    // Bumped whenever capacity is added or freed
+    private final AtomicLong capacityChanges = new AtomicLong();
+    private final AtomicBoolean placedFirst = new AtomicBoolean(false);
     private boolean calledShutdown;
 
     protected Logger LOG = LogManager.getLogger(DiNOSScheduler.class);
 
-    DiNOSScheduler(final DSLContext conn, final int maxReqsPerSolve, final long maxTimePerSolve, 
-            final long pollInterval, final InetAddress ip, final int serverPort, final int clientPort,
-            final Solver solver, final boolean verbose) throws SocketException {
+    /**
+     * Settings for a DiNOSScheduler. Everything but the database and the solver has a default, and
+     * the optional features are off unless set.
+     */
+    static final class Builder {
+        private final DSLContext conn;
+        private final Solver solver;
+        private int maxReqsPerSolve = DEFAULT_MAX_REQUESTS_PER_SOLVE;
+        private long maxTimePerSolve = DEFAULT_MAX_TIME_PER_SOLVE;
+        private long pollInterval = DEFAULT_POLL_INTERVAL;
+        private InetAddress ip = InetAddress.getLoopbackAddress();
+        private int serverPort = 0;
+        private int clientPort = 0;
+        private boolean verbose = false;
+        private Path requestIdFile = null;
+        private boolean concurrentServer = false;
+        private boolean fastPath = false;
+        private long rebalanceInterval = 0;
+        private int migrationBudget = 0;
+        private int warmupSolves = 0;
+        private BatchController.Objective adaptiveBatching = null;
+        private long maxPendingUnits = 0;
+        private boolean overflowQueue = false;
+        private boolean partialSolve = false;
+        private SolveSnapshot snapshot = null;
+        private boolean pipeline = false;
+
+        /**
+         * @param conn   the live database
+         * @param solver the solver, built against the snapshot's connection if there is one
+         */
+        Builder(final DSLContext conn, final Solver solver) {
+            this.conn = conn;
+            this.solver = solver;
+        }
+
+        /**
+         * @param maxReqsPerSolve solve once this many requests are pending
+         * @param maxTimePerSolve or once this many milliseconds have passed since the last solve
+         * @param pollInterval    milliseconds between checks of the pending table
+         */
+        Builder setBatching(final int maxReqsPerSolve, final long maxTimePerSolve, final long pollInterval) {
+            this.maxReqsPerSolve = maxReqsPerSolve;
+            this.maxTimePerSolve = maxTimePerSolve;
+            this.pollInterval = pollInterval;
+            return this;
+        }
+
+        /**
+         * @param ip         NRK's address, for sending assignments
+         * @param serverPort port to take requests from NRK on
+         * @param clientPort NRK's port for assignments
+         */
+        Builder setNetwork(final InetAddress ip, final int serverPort, final int clientPort) {
+            this.ip = ip;
+            this.serverPort = serverPort;
+            this.clientPort = clientPort;
+            return this;
+        }
+
+        Builder setVerbose(final boolean verbose) {
+            this.verbose = verbose;
+            return this;
+        }
+
+        /**
+         * @param requestIdFile where to persist the request id high-water mark, or null
+         */
+        Builder setRequestIdFile(final Path requestIdFile) {
+            this.requestIdFile = requestIdFile;
+            return this;
+        }
+
+        /**
+         * @param concurrentServer serve each RPC connection on its own thread
+         */
+        Builder setConcurrentServer(final boolean concurrentServer) {
+            this.concurrentServer = concurrentServer;
+            return this;
+        }
 
-        super(conn, solver, verbose);
+        /**
+         * @param fastPath place locality hits on ingestion instead of waiting for the solver
+         */
+        Builder setFastPath(final boolean fastPath) {
+            this.fastPath = fastPath;
+            return this;
+        }
+
+        /**
+         * @param rebalanceInterval milliseconds between rebalancing rounds, 0 to disable
+         * @param migrationBudget   most migrations proposed per round
+         */
+        Builder setRebalancing(final long rebalanceInterval, final int migrationBudget) {
+            this.rebalanceInterval = rebalanceInterval;
+            this.migrationBudget = migrationBudget;
+            return this;
+        }
+
+        /**
+         * @param warmupSolves synthetic solves to run while waiting for NRK to connect
+         */
+        Builder setWarmupSolves(final int warmupSolves) {
+            this.warmupSolves = warmupSolves;
+            return this;
+        }
+
+        /**
+         * @param adaptiveBatching what to retune the batching thresholds for, or null to keep them fixed
+         */
+        Builder setAdaptiveBatching(final BatchController.Objective adaptiveBatching) {
+            this.adaptiveBatching = adaptiveBatching;
+            return this;
+        }
+
+        /**
+         * @param maxPendingUnits pending cores and memslices past which allocations aren't admitted, 0 to disable
+         * @param overflowQueue   park those allocations instead of asking NRK to retry
+         */
+        Builder setAdmission(final long maxPendingUnits, final boolean overflowQueue) {
+            this.maxPendingUnits = maxPendingUnits;
+            this.overflowQueue = overflowQueue;
+            return this;
+        }
+
+        /**
+         * @param partialSolve the solver places what fits and keeps the rest queued
+         */
+        Builder setPartialSolve(final boolean partialSolve) {
+            this.partialSolve = partialSolve;
+            return this;
+        }
+
+        /**
+         * @param snapshot the copy to solve on, or null to solve on the live database
+         * @param pipeline commit and send each batch on their own threads while the next one is solved;
+         *                 needs a snapshot
+         */
+        Builder setSnapshot(final SolveSnapshot snapshot, final boolean pipeline) {
+            this.snapshot = snapshot;
+            this.pipeline = pipeline;
+            return this;
+        }
+
+        DiNOSScheduler build() throws SocketException {
+            return new DiNOSScheduler(this);
+        }
+    }
 
-        this.maxReqsPerSolve = maxReqsPerSolve;
-        this.maxTimePerSolve = maxTimePerSolve;
-        this.pollInterval = pollInterval;
-        this.ip = ip;
-        this.serverPort = serverPort;
-        this.clientPort = clientPort;
-        this.workerPool = Executors.newFixedThreadPool(4);
+    private DiNOSScheduler(final Builder b) throws SocketException {
+        super(b.conn, b.solver, b.verbose);
+
+        this.maxReqsPerSolve = b.maxReqsPerSolve;
+        this.maxTimePerSolve = b.maxTimePerSolve;
+        this.pollInterval = b.pollInterval;
+        this.ip = b.ip;
+        this.serverPort = b.serverPort;
+        this.clientPort = b.clientPort;
+        this.concurrentServer = b.concurrentServer;
+        this.localityIndex = b.fastPath ? new LocalityIndex() : null;
+        this.rebalanceInterval = b.rebalanceInterval;
+        this.migrationBudget = b.migrationBudget;
+        this.warmupSolves = b.warmupSolves;
+        this.batchController = null == b.adaptiveBatching ? null
+                : new BatchController(b.adaptiveBatching, b.maxReqsPerSolve, b.maxTimePerSolve);
+        this.partialSolve = b.partialSolve;
+        this.snapshot = b.snapshot;
+        // Pipelining needs a snapshot, since the next batch is solved before the last one is committed
+        assert !b.pipeline || null != b.snapshot;
+        this.pipeline = b.pipeline;
+        this.commitQueue = b.pipeline ? new ArrayBlockingQueue<>(PIPELINE_DEPTH) : null;
+        this.notifyQueue = b.pipeline ? new ArrayBlockingQueue<>(IngestWorker.DEFAULT_CAPACITY) : null;
+        this.requestIds = new RequestIdAllocator(b.requestIdFile);
+        this.admission = b.maxPendingUnits > 0
+                ? new AdmissionController(b.maxPendingUnits, b.overflowQueue, this.requestIds)
+                : null;
+        this.ingestWorker = new IngestWorker(this, IngestWorker.DEFAULT_CAPACITY, b.fastPath ? this::fastPlace : null,
+                this::allocationIngested, this::rejectRecords);
         this.calledShutdown = false;
 
         // this is a hack so we don't have to register new applications (for now)
@@ -66,12 +296,341 @@ public class DiNOSScheduler extends Scheduler {
         }
 
         LOG.warn("Running scheduler with parameters: maxReqsPerSolve={}, maxTimePerSolve={}, " +
-                "pollInterval={} solver={} verbose={}", 
-                maxReqsPerSolve, maxTimePerSolve, pollInterval, solver.getClass().toString(), verbose);
+                "pollInterval={} solver={} verbose={} fastPath={} adaptiveBatching={} maxPendingUnits={} " +
+                "overflowQueue={} partialSolve={} snapshotSolve={} pipeline={}", b.maxReqsPerSolve,
+                b.maxTimePerSolve, b.pollInterval, b.solver.getClass().toString(), b.verbose, b.fastPath,
+                b.adaptiveBatching, b.maxPendingUnits, b.overflowQueue, b.partialSolve, null != b.snapshot,
+                b.pipeline);
+    }
+
+    @Override
+    public void addNode(final long id, final long cores, final long memslices) {
+        this.stateLock.lock();
+        try {
+            super.addNode(id, cores, memslices);
+        } finally {
+            this.stateLock.unlock();
+        }
+        this.capacityChanges.incrementAndGet();
+        if (null != this.localityIndex) {
+            this.localityIndex.addNode(id, cores, memslices);
+        }
+    }
+
+    @Override
+    public void updateNode(final long id, final long cores, final long memslices, final boolean isAdd) {
+        this.stateLock.lock();
+        try {
+            super.updateNode(id, cores, memslices, isAdd);
+        } finally {
+            this.stateLock.unlock();
+        }
+        if (isAdd) {
+            this.capacityChanges.incrementAndGet();
+        }
+        if (null != this.localityIndex) {
+            this.localityIndex.updateNode(id, cores, memslices, isAdd);
+        }
+    }
+
+    @Override
+    public void updateAllocation(final long node, final long application, final long cores, final long memslices) {
+        this.stateLock.lock();
+        try {
+            super.updateAllocation(node, application, cores, memslices);
+        } finally {
+            this.stateLock.unlock();
+        }
+        if (null != this.localityIndex) {
+            this.localityIndex.allocate(node, application, cores, memslices);
+        }
+    }
+
+    @Override
+    public void releaseAllocation(final long node, final long application, final long cores, final long memslices) {
+        this.stateLock.lock();
+        try {
+            super.releaseAllocation(node, application, cores, memslices);
+        } finally {
+            this.stateLock.unlock();
+        }
+        this.capacityChanges.incrementAndGet();
+        if (null != this.localityIndex) {
+            this.localityIndex.release(node, application, cores, memslices);
+        }
+    }
+
+    @Override
+    public void insertPendingRecords(final List<PendingRecord> records) {
+        this.stateLock.lock();
+        try {
+            super.insertPendingRecords(records);
+        } finally {
+            this.stateLock.unlock();
+        }
+    }
+
+    /**
+     * Place records of one allocation request on nodes the application already occupies, if they
+     * have room, and notify NRK once the request is ingested and NRK has the response carrying the
+     * request ids. Records that do
+     * not fit are left for the solver. Skipped entirely while a solve is in progress so the solver
+     * never sees capacity change underneath it, or, when solving on a snapshot, only while a solve
+     * is committing its assignments. Also skipped while the application has older requests
+     * pending, so a new request never overtakes them.
+     *
+     * @param requestId the id of the request's first record
+     * @param records   the pending records of one allocation request
+     */
+    void fastPlace(final long requestId, final List<PendingRecord> records) {
+        final List<SchedulerAssignment> assignments = new ArrayList<>();
+        if (!records.isEmpty() && this.placementLock.tryLock()) {
+            try {
+                final int application = records.get(0).getApplication();
+                if (!conn.fetchExists(PENDING_TABLE, PENDING_TABLE.APPLICATION.eq(application))) {
+                    final Iterator<PendingRecord> it = records.iterator();
+                    while (it.hasNext()) {
+                        final PendingRecord r = it.next();
+                        final long node = this.localityIndex.findNode(application, r.getCores(),
+                                r.getMemslices());
+                        if (node < 0) {
+                            continue;
+                        }
+                        updateAllocation(node, application, r.getCores(), r.getMemslices());
+                        it.remove();
+                        LOG.info("Fast path assigning alloc_id {} cores={} memslices={} to node {}", r.getId(),
+                                r.getCores(), r.getMemslices(), node);
+                        assignments.add(new SchedulerAssignment(r.getId(), node));
+                    }
+                }
+            } finally {
+                this.placementLock.unlock();
+            }
+        }
+        if (!assignments.isEmpty()) {
+            this.decided.computeIfAbsent(requestId, k -> new ArrayList<>()).addAll(assignments);
+        }
+    }
+
+    /**
+     * Fail allocation records the ingest worker dropped, so NRK isn't left waiting on them
+     *
+     * @param requestId the id of the request's first record
+     * @param recordIds the dropped records
+     */
+    void rejectRecords(final long requestId, final List<Long> recordIds) {
+        final List<SchedulerAssignment> assignments = this.decided.computeIfAbsent(requestId,
+                k -> new ArrayList<>());
+        for (final long id : recordIds) {
+            LOG.warn("Assigning error ({}) for alloc_id {}", -1, id);
+            assignments.add(new SchedulerAssignment(id, -1L));
+        }
+    }
+
+    /**
+     * Called by the ingest worker once an allocation is in pending, placed or rejected. Its fast
+     * path and failure assignments go out now, or once NRK has the response carrying the request
+     * ids, whichever is later.
+     *
+     * @param alloc the allocation
+     */
+    void allocationIngested(final IngestEvent alloc) {
+        if (null != this.admission) {
+            this.admission.ingested(alloc);
+        }
+        final long requestId = alloc.requestId();
+        final List<SchedulerAssignment> assignments = this.decided.containsKey(requestId)
+                ? this.decided.remove(requestId)
+                : List.of();
+        synchronized (this.heldAssignments) {
+            if (!this.responsesSent.remove(requestId)) {
+                // NRK doesn't know the request ids yet
+                this.heldAssignments.put(requestId, assignments);
+                return;
+            }
+        }
+        notifyIngested(assignments);
+    }
+
+    /**
+     * Called once the response to an admitted allocation has been written to NRK. Fast path and
+     * failure assignments for it are only sent after that, so they can never arrive ahead of the
+     * ids they refer to.
+     *
+     * @param requestId the id of the request's first record
+     */
+    public void allocationResponseSent(final long requestId) {
+        final List<SchedulerAssignment> held;
+        synchronized (this.heldAssignments) {
+            held = this.heldAssignments.remove(requestId);
+            if (null == held) {
+                // Not ingested yet
+                this.responsesSent.add(requestId);
+                return;
+            }
+        }
+        notifyIngested(held);
+    }
+
+    private void notifyIngested(final List<SchedulerAssignment> assignments) {
+        for (final SchedulerAssignment assignment : assignments) {
+            try {
+                notifyAssignment(assignment);
+            } catch (final IOException e) {
+                LOG.error("Failed to send assignment for alloc_id {}", assignment.requestId);
+                LOG.error(e.toString());
+            }
+        }
+    }
+
+    /**
+     * Hand an allocation to the ingest worker, subject to admission control if it is enabled.
+     * Request ids are reserved for it unless it is turned away.
+     *
+     * @param alloc the allocation event; its request id is ignored
+     * @return whether it was admitted, parked in the overflow queue, or should be retried, along
+     *         with the allocation numbered with its request ids if it wasn't retried
+     */
+    public AdmissionController.Admission submitAllocation(final IngestEvent alloc) {
+        final AdmissionController.Admission admitted = null == this.admission
+                ? new AdmissionController.Admission(AdmissionController.Decision.ADMIT,
+                        alloc.withRequestId(this.requestIds.reserve(alloc.cores() + alloc.memslices())))
+                : this.admission.admit(alloc);
+        if (admitted.decision() == AdmissionController.Decision.ADMIT) {
+            this.ingestWorker.submit(admitted.alloc());
+        }
+        return admitted;
+    }
+
+    /**
+     * @return true if allocations go through admission control, which NRK is told about in the
+     *         longer AllocResponse
+     */
+    public boolean admissionControl() {
+        return null != this.admission;
+    }
+
+    /**
+     * How long a rejected allocation should wait before retrying
+     *
+     * @return milliseconds until the solve loop has next had a chance to make room
+     */
+    public long retryAfter() {
+        return this.pollInterval + this.maxTimePerSolve;
+    }
+
+    /**
+     * Reload the admission state from the database and move whatever now fits out of the
+     * overflow queue
+     */
+    private void refreshAdmission() {
+        // Hold off inserts, so admitted allocations are either counted here or still being ingested
+        this.stateLock.lock();
+        try {
+            final Record pending = this.conn.fetchOne(
+                    "select count(1), coalesce(sum(cores), 0), coalesce(sum(memslices), 0) from pending");
+            final Record free = this.conn.fetchOne(
+                    "select coalesce(sum(cores), 0), coalesce(sum(memslices), 0) from unallocated");
+            this.admission.refresh(((Number) pending.get(0)).longValue(), ((Number) pending.get(1)).longValue(),
+                    ((Number) pending.get(2)).longValue(), ((Number) free.get(0)).longValue(),
+                    ((Number) free.get(1)).longValue());
+        } finally {
+            this.stateLock.unlock();
+        }
+        final List<IngestEvent> admitted = this.admission.drain();
+        for (final IngestEvent alloc : admitted) {
+            this.ingestWorker.submit(alloc);
+        }
+        if (!admitted.isEmpty()) {
+            LOG.info("Admitted {} allocations from the overflow queue, {} still waiting", admitted.size(),
+                    this.admission.overflowSize());
+        }
+    }
+
+    /**
+     * Carry out a migration NRK accepted: move resources of an application from one node to another,
+     * as long as the application still holds them and the destination still has room.
+     *
+     * @param application the application being moved
+     * @param fromNode    the node the resources are on now
+     * @param toNode      the node to move them to
+     * @param cores       the number of cores to move
+     * @param memslices   the number of memslices to move
+     * @return true if the move was applied, false if it is no longer valid or a solve is in progress
+     */
+    public boolean applyMigration(final long application, final long fromNode, final long toNode, final long cores,
+            final long memslices) {
+        if (!this.placementLock.tryLock()) {
+            return false;
+        }
+        // The ingest worker takes capacity for affinity allocations under stateLock alone, so hold it from
+        // the capacity check through the move, or toNode could be overcommitted in between
+        this.stateLock.lock();
+        try {
+            if (usedCoresForApplicationOnNode(application, fromNode) < cores ||
+                    usedMemslicesForApplicationOnNode(application, fromNode) < memslices ||
+                    coreCapacityForNode(toNode) - usedCoresForNode(toNode) < cores ||
+                    memsliceCapacityForNode(toNode) - usedMemslicesForNode(toNode) < memslices) {
+                return false;
+            }
+            releaseAllocation(fromNode, application, cores, memslices);
+            updateAllocation(toNode, application, cores, memslices);
+            return true;
+        } finally {
+            this.stateLock.unlock();
+            this.placementLock.unlock();
+        }
+    }
+
+    private void notifyMigration(final MigrationProposal proposal) {
+        LOG.info("Proposing {}", proposal);
+        try {
+            synchronized (this.notifyLock) {
+                this.rpcClient.call(RPCID.MIGRATION_PROPOSAL, proposal.toBytes());
+            }
+        } catch (final IOException e) {
+            LOG.error("Failed to send migration proposal");
+            LOG.error(e.toString());
+        }
+    }
+
+    private void notifyAssignment(final SchedulerAssignment assignment) throws IOException {
+        // Warm-up runs before NRK is connected
+        if (null == this.rpcClient) {
+            return;
+        }
+
+        // The solver loop and the fast path share the one connection to NRK
+        synchronized (this.notifyLock) {
+            this.rpcClient.call(RPCID.ALLOC_ASSIGNMENT, assignment.toBytes());
+        }
+        if (assignment.node >= 0 && this.placedFirst.compareAndSet(false, true)) {
+            LOG.warn("TIME_TO_FIRST_PLACEMENT: {}ms since JVM start",
+                    System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime());
+        }
     }
 
     @Override
     public boolean runSolverAndUpdateDB() throws IOException {
+        return runSolverAndUpdateDB(this.pipeline);
+    }
+
+    /**
+     * @param pipelined if true, hand the solved batch to the commit stage instead of committing it here
+     */
+    private boolean runSolverAndUpdateDB(final boolean pipelined) throws IOException {
+        if (null != this.snapshot) {
+            return pipelined ? solveSnapshotAndHandOff() : solveSnapshotAndCommit();
+        }
+        this.placementLock.lock();
+        try {
+            return solveAndUpdateDB();
+        } finally {
+            this.placementLock.unlock();
+        }
+    }
+
+    private boolean solveAndUpdateDB() throws IOException {
         final Result<? extends Record> results;
         final long start = System.currentTimeMillis();
         final long solveFinish;
@@ -80,13 +639,17 @@ public class DiNOSScheduler extends Scheduler {
             solveFinish = System.currentTimeMillis();
         } catch (final com.vmware.bespin.scheduler.SolverException e) {
             LOG.error(e);
+            if (this.partialSolve) {
+                // Keep everything queued and try again once things change
+                return false;
+            }
             final Long errReturn = new Long(-1);
             if (this.getNumPendingRequests() > 0) {
                 final long[] pendingRequestIds = getPendingRequestIDs();
                 for (final long requestId : pendingRequestIds) {
                     final SchedulerAssignment assignment = new SchedulerAssignment(requestId, errReturn);
                     LOG.warn("Assigning error ({}) for alloc_id {}", errReturn, requestId);
-                    this.rpcClient.call(RPCID.ALLOC_ASSIGNMENT, assignment.toBytes());
+                    notifyAssignment(assignment);
                 }
             }
             return false;
@@ -103,6 +666,10 @@ public class DiNOSScheduler extends Scheduler {
             // Extract fields from the record
             final Long recordId = (Long) r.get("ID");
             final Integer controllableNode = (Integer) r.get("CONTROLLABLE__NODE");
+            if (null == controllableNode) {
+                // Not placed this round, stays pending
+                continue;
+            }
             final Integer cores = (Integer) r.get("CORES");
             final Integer memslices = (Integer) r.get("MEMSLICES");
             final Integer application = (Integer) r.get("APPLICATION");
@@ -116,7 +683,7 @@ public class DiNOSScheduler extends Scheduler {
             LOG.warn("Assigning alloc_id {} cores={} memslices={} to node {}", recordId, cores, memslices, 
                     controllableNode.longValue());
 
-            this.rpcClient.call(RPCID.ALLOC_ASSIGNMENT, assignment.toBytes());
+            notifyAssignment(assignment);
         }
         
         final long updateFinish = System.currentTimeMillis();
@@ -128,17 +695,352 @@ public class DiNOSScheduler extends Scheduler {
         return true;
     }
 
+    /**
+     * Solve on a snapshot of the state, so ingestion carries on while the solver runs, then commit
+     * the assignments that are still valid and notify NRK of them
+     *
+     * @return whether any assignments were committed or requeued
+     */
+    private boolean solveSnapshotAndCommit() throws IOException {
+        final long start = System.currentTimeMillis();
+        final Result<? extends Record> results = solveSnapshot();
+        final long solveFinish = System.currentTimeMillis();
+        if (null == results || results.isEmpty()) {
+            return false;
+        }
+        final List<SchedulerAssignment> assignments = new ArrayList<>();
+        final int conflicts = commit(results, assignments);
+        final long commitFinish = System.currentTimeMillis();
+        for (final SchedulerAssignment assignment : assignments) {
+            notifyAssignment(assignment);
+        }
+
+        if (this.verbose) {
+            System.out.println(String.format("SOLVE_RESULTS: solve=%dms, solve_update=%dms", solveFinish - start,
+                    commitFinish - start));
+            System.out.println(conn.fetch("select * from placed"));
+        }
+        return !assignments.isEmpty() || conflicts > 0;
+    }
+
+    /**
+     * Solve on a snapshot of the state and hand the assignments to the commit stage, reserving
+     * their resources so the next solve can start right away. Blocks while the commit stage is
+     * PIPELINE_DEPTH batches behind.
+     *
+     * @return whether any assignments were handed off
+     */
+    private boolean solveSnapshotAndHandOff() throws IOException {
+        final long start = System.currentTimeMillis();
+        final Result<? extends Record> results = solveSnapshot();
+        if (null == results || results.isEmpty()) {
+            return false;
+        }
+        int placed = 0;
+        this.stateLock.lock();
+        try {
+            for (final Record r : results) {
+                if (null != r.get("CONTROLLABLE__NODE")) {
+                    this.reserved.put((Long) r.get("ID"), r);
+                    placed++;
+                }
+            }
+        } finally {
+            this.stateLock.unlock();
+        }
+        if (placed == 0) {
+            // Nothing for the commit stage to do, and the caller should treat the round as stalled
+            return false;
+        }
+        if (this.verbose) {
+            System.out.println(String.format("SOLVE_RESULTS: solve=%dms, requests=%d",
+                    System.currentTimeMillis() - start, results.size()));
+        }
+        try {
+            this.commitQueue.put(results);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted handing off a solved batch", e);
+        }
+        return true;
+    }
+
+    /**
+     * Copy the live state, less anything reserved by batches still waiting to be committed, and
+     * solve on the copy. Ingestion is only held up for the copy.
+     *
+     * @return the solver's results, or null if it failed
+     */
+    private Result<? extends Record> solveSnapshot() throws IOException {
+        this.stateLock.lock();
+        try {
+            this.snapshot.refresh(this.conn);
+            for (final Record r : this.reserved.values()) {
+                this.snapshot.reserve((Long) r.get("ID"), (Integer) r.get("CONTROLLABLE__NODE"),
+                        (Integer) r.get("APPLICATION"), (Integer) r.get("CORES"), (Integer) r.get("MEMSLICES"));
+            }
+        } finally {
+            this.stateLock.unlock();
+        }
+
+        try {
+            return solver.solve(this.snapshot.conn(), this.snapshot.scheduler());
+        } catch (final com.vmware.bespin.scheduler.SolverException e) {
+            LOG.error(e);
+            if (!this.partialSolve) {
+                // Only the requests the solver saw failed, not those that arrived during the solve
+                for (final long requestId : this.snapshot.scheduler().getPendingRequestIDs()) {
+                    LOG.warn("Assigning error ({}) for alloc_id {}", -1, requestId);
+                    notifyAssignment(new SchedulerAssignment(requestId, -1L));
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Commit the assignments of a solve on a snapshot that are still valid. An assignment
+     * conflicts when something since the snapshot, like an affinity allocation, the fast path or a
+     * migration, used up the room it counted on. It stays in pending for the next solve instead of
+     * overcommitting the node.
+     *
+     * @param results     the solver's results
+     * @param assignments where to add the committed assignments, for notifying NRK
+     * @return the number of assignments requeued
+     */
+    private int commit(final Result<? extends Record> results, final List<SchedulerAssignment> assignments) {
+        int conflicts = 0;
+        this.placementLock.lock();
+        this.stateLock.lock();
+        try {
+            final Integer[][] unallocated = unallocatedResources();
+            final Map<Integer, int[]> free = new HashMap<>();
+            for (int i = 0; i < unallocated[0].length; i++) {
+                free.put(unallocated[0][i], new int[] {unallocated[1][i], unallocated[2][i]});
+            }
+            for (final Record r : results) {
+                final Long recordId = (Long) r.get("ID");
+                final Integer controllableNode = (Integer) r.get("CONTROLLABLE__NODE");
+                if (null == controllableNode) {
+                    // Not placed this round, stays pending
+                    continue;
+                }
+                this.reserved.remove(recordId);
+                final Integer cores = (Integer) r.get("CORES");
+                final Integer memslices = (Integer) r.get("MEMSLICES");
+                final Integer application = (Integer) r.get("APPLICATION");
+
+                final int[] room = free.get(controllableNode);
+                if (null == room || room[0] < cores || room[1] < memslices) {
+                    conflicts++;
+                    LOG.info("Requeueing alloc_id {}, node {} no longer has room", recordId, controllableNode);
+                    continue;
+                }
+                // Allocate first, so a failure leaves the request pending to be solved again
+                updateAllocation(controllableNode, application, cores, memslices);
+                if (conn.deleteFrom(PENDING_TABLE).where(PENDING_TABLE.ID.eq(recordId)).execute() == 0) {
+                    // Already committed, never allocate the same request twice
+                    LOG.warn("Dropping assignment of alloc_id {}, it is no longer pending", recordId);
+                    releaseAllocation(controllableNode, application, cores, memslices);
+                    continue;
+                }
+                room[0] -= cores;
+                room[1] -= memslices;
+                LOG.warn("Assigning alloc_id {} cores={} memslices={} to node {}", recordId, cores, memslices,
+                        controllableNode.longValue());
+                assignments.add(new SchedulerAssignment(recordId, controllableNode.longValue()));
+            }
+        } finally {
+            this.stateLock.unlock();
+            this.placementLock.unlock();
+        }
+        if (conflicts > 0) {
+            LOG.warn("SNAPSHOT_CONFLICTS: requeued={} committed={}", conflicts, assignments.size());
+        }
+        return conflicts;
+    }
+
+    /**
+     * Start the commit and notify stages of the pipeline. Each takes work from the stage before it
+     * through a bounded queue, so a slow NRK connection holds up commits, and slow commits hold up
+     * the next solve, rather than letting work pile up.
+     */
+    void startPipeline() {
+        final Thread commitThread = new Thread(() -> {
+            final List<SchedulerAssignment> assignments = new ArrayList<>();
+            try {
+                while (true) {
+                    final Result<? extends Record> results = this.commitQueue.take();
+                    int placed = 0;
+                    for (final Record r : results) {
+                        if (null != r.get("CONTROLLABLE__NODE")) {
+                            placed++;
+                        }
+                    }
+                    // Counted before commit() takes them out of reserved, so a drain never sees them in neither
+                    this.unsent.addAndGet(placed);
+                    final long start = System.currentTimeMillis();
+                    assignments.clear();
+                    int conflicts = 0;
+                    try {
+                        conflicts = commit(results, assignments);
+                    } catch (final DataAccessException | IllegalStateException e) {
+                        // Release the rest of the batch so its requests are solved again, send what was
+                        // committed before the failure, and keep committing
+                        LOG.error("Failed to commit a solved batch");
+                        LOG.error(e.toString());
+                        release(results);
+                    }
+                    // Requeued and dropped assignments are never sent
+                    this.unsent.addAndGet(assignments.size() - placed);
+                    if (this.verbose) {
+                        System.out.println(String.format("COMMIT_RESULTS: commit=%dms, committed=%d, requeued=%d",
+                                System.currentTimeMillis() - start, assignments.size(), conflicts));
+                    }
+                    for (final SchedulerAssignment assignment : assignments) {
+                        this.notifyQueue.put(assignment);
+                    }
+                }
+            } catch (final InterruptedException ignored) {
+                LOG.info("Commit stage stopped");
+            }
+        }, "commit");
+        final Thread notifyThread = new Thread(() -> {
+            try {
+                while (true) {
+                    final SchedulerAssignment assignment = this.notifyQueue.take();
+                    try {
+                        notifyAssignment(assignment);
+                    } catch (final IOException e) {
+                        LOG.error("Failed to send assignment for alloc_id {}", assignment.requestId);
+                        LOG.error(e.toString());
+                    } finally {
+                        this.unsent.decrementAndGet();
+                    }
+                }
+            } catch (final InterruptedException ignored) {
+                LOG.info("Notify stage stopped");
+            }
+        }, "notify");
+        commitThread.setDaemon(true);
+        notifyThread.setDaemon(true);
+        commitThread.start();
+        notifyThread.start();
+    }
+
+    /**
+     * Drop the reservations of a batch the commit stage couldn't commit, so its requests, which are
+     * still pending, are solved again
+     *
+     * @param results the batch
+     */
+    private void release(final Result<? extends Record> results) {
+        this.stateLock.lock();
+        try {
+            for (final Record r : results) {
+                this.reserved.remove((Long) r.get("ID"));
+            }
+        } finally {
+            this.stateLock.unlock();
+        }
+    }
+
+    /**
+     * Wait for the pipeline to commit and send everything handed to it
+     *
+     * @param timeoutMillis how long to wait at most
+     * @return true if it drained in time
+     */
+    boolean drainPipeline(final long timeoutMillis) throws InterruptedException {
+        final long until = System.currentTimeMillis() + timeoutMillis;
+        while (System.currentTimeMillis() < until) {
+            final boolean reservedEmpty;
+            this.stateLock.lock();
+            try {
+                reservedEmpty = this.reserved.isEmpty();
+            } finally {
+                this.stateLock.unlock();
+            }
+            if (reservedEmpty && this.commitQueue.isEmpty() && this.unsent.get() == 0) {
+                return true;
+            }
+            Thread.sleep(1);
+        }
+        return false;
+    }
+
+    /**
+     * Run a number of solves over a synthetic cluster through the real solver and commit path, so
+     * JIT compilation, DCM model compilation and OR-tools initialization are paid for before the
+     * first NRK request. All synthetic state is removed afterwards, so it must run while the
+     * cluster is still empty and before NRK is connected. run() overlaps it with waiting for NRK.
+     *
+     * @param solves the number of solves to run
+     */
+    void warmUp(final int solves) throws IOException {
+        if (solves <= 0) {
+            return;
+        }
+        if (numNodes() > 0) {
+            // Synthetic placements could not be told apart from real ones
+            LOG.warn("Skipping warm-up, nodes are already registered");
+            return;
+        }
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < WARMUP_NODES; i++) {
+            addNode(WARMUP_NODE_BASE + i, WARMUP_CORES_PER_NODE, WARMUP_MEMSLICES_PER_NODE);
+        }
+        final long numApps = numApps();
+        for (int i = 0; i < solves; i++) {
+            // A batch of the size that normally triggers a solve, spread across the applications
+            for (int r = 0; r < this.maxReqsPerSolve; r++) {
+                generateRequests(null, r % 2 == 0 ? 1 : 0, r % 2 == 0 ? 0 : 1, r % numApps);
+            }
+            // The pipeline isn't running yet, so commit each batch right away
+            if (!runSolverAndUpdateDB(false)) {
+                LOG.warn("Warm-up solve {} made no assignments", i);
+            }
+        }
+
+        conn.deleteFrom(PENDING_TABLE).execute();
+        conn.deleteFrom(PLACED_TABLE).where(PLACED_TABLE.NODE.ge(WARMUP_NODE_BASE)).execute();
+        conn.deleteFrom(NODE_TABLE).where(NODE_TABLE.ID.ge(WARMUP_NODE_BASE)).execute();
+        if (null != this.localityIndex) {
+            this.localityIndex.clear();
+        }
+        LOG.warn("WARMUP: {} solves in {}ms", solves, System.currentTimeMillis() - start);
+    }
+
     public void run() throws InterruptedException, IOException {
-        final RPCServer<DiNOSScheduler> rpcServer = new TCPServer<DiNOSScheduler>("172.31.0.20", this.serverPort);
+        final RPCServer<DiNOSScheduler> rpcServer = this.concurrentServer
+                ? new ThreadedTCPServer<DiNOSScheduler>("172.31.0.20", this.serverPort)
+                : new TCPServer<DiNOSScheduler>("172.31.0.20", this.serverPort);
         LOG.info("Created server");
         rpcServer.register(RPCID.REGISTER_NODE, new RegisterNodeHandler());
         rpcServer.register(RPCID.ALLOC, new AllocHandler());
         rpcServer.register(RPCID.RELEASE, new ReleaseHandler());
         rpcServer.register(RPCID.AFFINITY_ALLOC, new AffinityAllocHandler());
         rpcServer.register(RPCID.AFFINITY_RELEASE, new AffinityReleaseHandler());
+        rpcServer.register(RPCID.MIGRATION, new MigrationHandler());
         LOG.info("Registered handlers");
+
+        // Warm up while waiting for NRK to connect, rather than before accepting it
+        final IOException[] warmupFailure = new IOException[1];
+        final Thread warmupThread = new Thread(() -> {
+            try {
+                warmUp(this.warmupSolves);
+            } catch (final IOException e) {
+                warmupFailure[0] = e;
+            }
+        }, "warmup");
+        warmupThread.start();
         rpcServer.addClient();
         LOG.info("Server added client");
+        // Synthetic assignments must never reach NRK, so finish before connecting to it
+        warmupThread.join();
+        if (null != warmupFailure[0]) {
+            throw warmupFailure[0];
+        }
         this.rpcClient = new TCPClient(this.ip, this.clientPort);
         LOG.info("Added RPC client");
         this.rpcClient.connect();
@@ -153,26 +1055,51 @@ public class DiNOSScheduler extends Scheduler {
                 throw new RuntimeException();
             }
         };
+        final Thread ingestThread = new Thread(this.ingestWorker, "ingest");
+        ingestThread.start();
+        if (this.pipeline) {
+            startPipeline();
+        }
         final Thread rpcThread = new Thread(rpcRunner);
         rpcThread.start();
+        if (this.rebalanceInterval > 0) {
+            // Build the rebalancer's model on its own thread so it doesn't hold up the first solve
+            final Thread rebalanceThread = new Thread(() -> {
+                try {
+                    new Rebalancer(this.conn, this.rebalanceInterval, this.migrationBudget,
+                            this::notifyMigration).run();
+                } catch (final ClassNotFoundException | com.vmware.dcm.ModelException
+                        | com.vmware.dcm.SolverException e) {
+                    LOG.error("Failed to start the rebalancer, rebalancing is disabled");
+                    LOG.error(e.toString());
+                }
+            }, "rebalancer");
+            rebalanceThread.setDaemon(true);
+            rebalanceThread.start();
+        }
 
         final Thread mainThread = Thread.currentThread();
         Runtime.getRuntime().addShutdownHook(new Thread() {
             public void run() {
-                if (workerPool != null) {
-                    LOG.warn("Waiting for worker pool to shut down");
-                    workerPool.shutdown(); // Disable new tasks from being submitted
+                if (ingestThread.isAlive()) {
+                    LOG.warn("Waiting for ingest worker to drain");
+                    ingestWorker.stop();
                     try {
-                        // Wait a while for existing tasks to terminate
-                        if (!workerPool.awaitTermination(5, TimeUnit.SECONDS)) {
-                            workerPool.shutdownNow();
-                            if (!workerPool.awaitTermination(5, TimeUnit.SECONDS)) {
-                                LOG.error("Pool did not terminate");
-                            }
+                        ingestThread.join(5000);
+                    } catch (final InterruptedException ignored) {
+                        // Preserve interrupt status
+                        Thread.currentThread().interrupt();
+                    }
+                    if (ingestThread.isAlive()) {
+                        LOG.error("Ingest worker did not terminate");
+                    }
+                }
+                if (pipeline) {
+                    try {
+                        if (!drainPipeline(5000)) {
+                            LOG.error("Pipeline did not drain");
                         }
                     } catch (final InterruptedException ignored) {
-                        // (Re-)Cancel if current thread also interrupted
-                        workerPool.shutdownNow();
                         // Preserve interrupt status
                         Thread.currentThread().interrupt();
                     }
@@ -203,32 +1130,90 @@ public class DiNOSScheduler extends Scheduler {
 
         // Enter loop solve loop
         long lastSolve = System.currentTimeMillis();
+        long lastSample = lastSolve;
+        long lastInserted = this.ingestWorker.pendingInserted();
+        // In partial mode, set after a solve that placed nothing so the same requests aren't solved
+        // again until capacity is freed or new requests arrive
+        boolean stalled = false;
+        long stalledCapacity = 0;
+        long stalledInserted = 0;
         while (rpcThread.isAlive()) {
             // Sleep for poll interval
             Thread.sleep(this.pollInterval);
 
             // Get time elapsed since last solve
-            final long timeElapsed = System.currentTimeMillis() - lastSolve;
+            final long now = System.currentTimeMillis();
+            final long timeElapsed = now - lastSolve;
+
+            // Use the adaptive thresholds if enabled, feeding them the arrivals since the last poll
+            int maxReqs = this.maxReqsPerSolve;
+            long maxTime = this.maxTimePerSolve;
+            if (null != this.batchController) {
+                final long inserted = this.ingestWorker.pendingInserted();
+                this.batchController.recordArrivals(inserted - lastInserted, now - lastSample);
+                lastInserted = inserted;
+                lastSample = now;
+                maxReqs = this.batchController.maxRequests();
+                maxTime = this.batchController.maxTime();
+            }
 
             // Get number of rows
             try {
-                final long numRequests = getNumPendingRequests();
+                if (null != this.admission) {
+                    refreshAdmission();
+                }
+                if (stalled && this.capacityChanges.get() == stalledCapacity
+                        && this.ingestWorker.pendingInserted() == stalledInserted) {
+                    continue;
+                }
+                // Requests already solved and waiting to be committed don't count, not even for urgency
+                final Record pending;
+                this.stateLock.lock();
+                try {
+                    pending = this.conn.select(DSL.count(), DSL.coalesce(DSL.max(PENDING_TABLE.PRIORITY), 0),
+                            DSL.coalesce(DSL.min(PENDING_TABLE.DEADLINE), 0L))
+                        .from(PENDING_TABLE)
+                        .where(PENDING_TABLE.ID.notIn(this.reserved.keySet()))
+                        .fetchOne();
+                } finally {
+                    this.stateLock.unlock();
+                }
+                final long numRequests = ((Number) pending.get(0)).longValue();
+
+                // Critical requests, and requests whose deadline would pass before the next poll, don't wait
+                // for the batch to fill
+                final boolean urgent = numRequests > 0
+                        && (((Number) pending.get(1)).intValue() >= PRIORITY_CRITICAL
+                            || ((Number) pending.get(2)).longValue() <= now + this.pollInterval);
 
                 // If time since last solve is too long, solve
-                if (timeElapsed >= this.maxTimePerSolve || numRequests >= this.maxReqsPerSolve) {
+                if (urgent || timeElapsed >= maxTime || numRequests >= maxReqs) {
                     if (numRequests > 0) {
-                        if (timeElapsed >= this.maxTimePerSolve) {
+                        if (urgent) {
+                            LOG.info(String.format(
+                                "solver thread solving due to urgent request: numRequests = %d", numRequests));
+                        } else if (timeElapsed >= maxTime) {
                             LOG.info(String.format(
                                 "solver thread solving due to timeout: numRequests = %d", numRequests));
                         } else {
                             LOG.info(String.format("solver thread solving due to numRequests = %d", numRequests));
                         }
                         // Only actually solve if work to do, exit if solver error
-                        if (!runSolverAndUpdateDB()) {
+                        final long solveStart = System.currentTimeMillis();
+                        final long capacityBefore = this.capacityChanges.get();
+                        final long insertedBefore = this.ingestWorker.pendingInserted();
+                        final boolean placed = runSolverAndUpdateDB();
+                        if (!placed && !this.partialSolve) {
                             LOG.error("Solver failed unexpectedly.");
                             this.calledShutdown = true;
                             System.exit(-1);
                         }
+                        stalled = !placed;
+                        stalledCapacity = capacityBefore;
+                        stalledInserted = insertedBefore;
+                        if (null != this.batchController) {
+                            this.batchController.recordSolve(numRequests, System.currentTimeMillis() - solveStart);
+                        }
                     }
                     lastSolve = System.currentTimeMillis();
                 }
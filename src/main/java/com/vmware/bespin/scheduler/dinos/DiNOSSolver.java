@@ -6,55 +6,236 @@
 package com.vmware.bespin.scheduler.dinos;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.function.Function;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import org.jooq.DSLContext;
+import org.jooq.Record;
 import org.jooq.Result;
+import org.jooq.Table;
 
 import com.vmware.bespin.scheduler.Scheduler;
 import com.vmware.bespin.scheduler.Solver;
+import com.vmware.bespin.scheduler.generated.tables.records.PendingRecord;
 import com.vmware.dcm.Model;
 import com.vmware.dcm.ModelException;
 import com.vmware.dcm.backend.ortools.OrToolsSolver;
 
 public class DiNOSSolver implements Solver {
+    // CP-SAT search workers, matching DCM's own default
+    public static final int DEFAULT_SEARCH_WORKERS = 4;
+
     protected Logger LOG = LogManager.getLogger(DiNOSSolver.class);
-    protected final Model model;
+    protected final Future<Model> model;
+    protected final boolean partial;
+    protected final long deadlineMillis;
 
     /**
      * DCM is a wrapper object around a database connection and model for modelling
      * a cluster with
-     * cores and memslices
+     * cores and memslices. The model is built (and its generated code compiled) on a background
+     * thread so it overlaps with the rest of startup; the first solve waits for it.
      * @param conn The database connection.
      * @param useLocalityConstraints if true, use locality constraints
      * @param usePrintDiagnostics set DCM to output print diagnostics
      */
     public DiNOSSolver(final DSLContext conn, final boolean useLocalityConstraints, final boolean usePrintDiagnostics) {
+        this(conn, useLocalityConstraints, false, false, usePrintDiagnostics);
+    }
+
+    /**
+     * @param conn The database connection.
+     * @param useLocalityConstraints if true, use locality constraints
+     * @param usePriorityConstraint if true, favor locality for higher priority requests
+     * @param partial if true, place as many requests as fit instead of failing when not all of them do
+     * @param usePrintDiagnostics set DCM to output print diagnostics
+     */
+    public DiNOSSolver(final DSLContext conn, final boolean useLocalityConstraints,
+            final boolean usePriorityConstraint, final boolean partial, final boolean usePrintDiagnostics) {
+        this(new Builder(conn)
+                .setUseLocalityConstraints(useLocalityConstraints)
+                .setUsePriorityConstraint(usePriorityConstraint)
+                .setPartial(partial)
+                .setPrintDiagnostics(usePrintDiagnostics));
+    }
+
+    /**
+     * Which constraints a DiNOSSolver uses and how it solves. Only the capacity constraints are on
+     * unless set, and solves use the default deadline and number of search workers.
+     */
+    public static final class Builder {
+        private final DSLContext conn;
+        private boolean useLocalityConstraints = false;
+        private boolean linearLocality = false;
+        private boolean useTopologyConstraint = false;
+        private boolean useColocationConstraint = false;
+        private boolean usePriorityConstraint = false;
+        private boolean partial = false;
+        private long deadlineMillis = SolveDeadline.DEFAULT.millis();
+        private int numWorkers = DEFAULT_SEARCH_WORKERS;
+        private boolean printDiagnostics = false;
+
+        /**
+         * @param conn The database connection.
+         */
+        public Builder(final DSLContext conn) {
+            this.conn = conn;
+        }
+
+        /**
+         * @param useLocalityConstraints if true, use locality constraints
+         */
+        public Builder setUseLocalityConstraints(final boolean useLocalityConstraints) {
+            this.useLocalityConstraints = useLocalityConstraints;
+            return this;
+        }
+
+        /**
+         * @param linearLocality if true, express locality between pending requests with one term per request
+         *                       instead of one per pair of requests of the same application
+         */
+        public Builder setLinearLocality(final boolean linearLocality) {
+            this.linearLocality = linearLocality;
+            return this;
+        }
+
+        /**
+         * @param useTopologyConstraint if true, favor nodes on the same socket or rack as an application
+         */
+        public Builder setUseTopologyConstraint(final boolean useTopologyConstraint) {
+            this.useTopologyConstraint = useTopologyConstraint;
+            return this;
+        }
+
+        /**
+         * @param useColocationConstraint if true, favor putting an application's memslices with its cores
+         */
+        public Builder setUseColocationConstraint(final boolean useColocationConstraint) {
+            this.useColocationConstraint = useColocationConstraint;
+            return this;
+        }
+
+        /**
+         * @param usePriorityConstraint if true, favor locality for higher priority requests
+         */
+        public Builder setUsePriorityConstraint(final boolean usePriorityConstraint) {
+            this.usePriorityConstraint = usePriorityConstraint;
+            return this;
+        }
+
+        /**
+         * @param partial if true, place as many requests as fit instead of failing when not all of them do
+         */
+        public Builder setPartial(final boolean partial) {
+            this.partial = partial;
+            return this;
+        }
+
+        /**
+         * @param deadlineMillis time limit for each solve, after which DCM returns the best solution found so
+         *                       far. DCM only takes whole seconds, so this is rounded up.
+         */
+        public Builder setDeadlineMillis(final long deadlineMillis) {
+            this.deadlineMillis = deadlineMillis;
+            return this;
+        }
+
+        /**
+         * @param numWorkers number of CP-SAT search workers solving in parallel
+         */
+        public Builder setNumWorkers(final int numWorkers) {
+            this.numWorkers = numWorkers;
+            return this;
+        }
+
+        /**
+         * @param printDiagnostics set DCM to output print diagnostics
+         */
+        public Builder setPrintDiagnostics(final boolean printDiagnostics) {
+            this.printDiagnostics = printDiagnostics;
+            return this;
+        }
+
+        public DiNOSSolver build() {
+            return new DiNOSSolver(this);
+        }
+    }
+
+    private DiNOSSolver(final Builder b) {
+        this.partial = b.partial;
+        this.deadlineMillis = Math.max(1, (b.deadlineMillis + 999) / 1000) * 1000;
         final List<String> constraints = new ArrayList<>();
 
         constraints.add(DiNOSConstraints.getCapacityFunctionCoreConstraint().sql());
         constraints.add(DiNOSConstraints.getCapacityFunctionMemsliceConstraint().sql());
 
-        if (useLocalityConstraints) {
+        if (b.useLocalityConstraints) {
             constraints.add(DiNOSConstraints.getAppLocalityPlacedConstraint().sql());
-            constraints.add(DiNOSConstraints.getAppLocalityPendingConstraint().sql());
+            if (b.linearLocality) {
+                constraints.add(DiNOSConstraints.getAppLocalityChainConstraint().sql());
+            } else {
+                constraints.add(DiNOSConstraints.getAppLocalityPendingConstraint().sql());
+            }
+        }
+        if (b.useTopologyConstraint) {
+            constraints.add(DiNOSConstraints.getTopologyLocalityConstraint().sql());
+        }
+        if (b.useColocationConstraint) {
+            constraints.add(DiNOSConstraints.getCoreMemsliceColocationConstraint().sql());
+        }
+        if (b.usePriorityConstraint) {
+            constraints.add(DiNOSConstraints.getPriorityPlacedConstraint().sql());
         }
 
         constraints.add(DiNOSConstraints.getSymmetryBreakingConstraint().sql());
 
         final OrToolsSolver.Builder builder = new OrToolsSolver.Builder()
-                .setPrintDiagnostics(usePrintDiagnostics)
+                .setPrintDiagnostics(b.printDiagnostics)
                 .setUseCapacityPresenceLiterals(false)
-                .setMaxTimeInSeconds(10);
+                .setMaxTimeInSeconds((int) (this.deadlineMillis / 1000))
+                .setNumThreads(b.numWorkers);
+
+        final FutureTask<Model> build = new FutureTask<>(() -> {
+            final long start = System.currentTimeMillis();
+            final Model built = Model.build(b.conn, builder.build(), constraints);
+            LOG.info("DCM model built in {}ms", System.currentTimeMillis() - start);
+            return built;
+        });
+        final Thread buildThread = new Thread(build, "dcm-build");
+        buildThread.setDaemon(true);
+        buildThread.start();
+        this.model = build;
+    }
 
-        this.model = Model.build(conn, builder.build(), constraints);
+    /**
+     * Wait for the model to finish building
+     *
+     * @return the model
+     * @throws com.vmware.bespin.scheduler.SolverException if the build failed
+     */
+    protected Model model() throws com.vmware.bespin.scheduler.SolverException {
+        try {
+            return this.model.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new com.vmware.bespin.scheduler.SolverException("Interrupted while building DCM model", e);
+        } catch (final ExecutionException e) {
+            throw new com.vmware.bespin.scheduler.SolverException("DCM model build failed: " +
+                    e.getCause().getMessage(), e.getCause());
+        }
     }
 
     /**
-     * Solve all outstanding requests in the pending table
+     * Solve all outstanding requests in the pending table. In partial mode, requests beyond free
+     * capacity are held out of the model so the rest can still be placed, and a failed solve leaves
+     * everything queued instead of failing.
      * 
      * @param conn database connection
      * @return records Records which were assigned by this call to solve.
@@ -64,10 +245,78 @@ public class DiNOSSolver implements Solver {
     public Result<? extends org.jooq.Record> solve(final DSLContext conn, 
                                                    final Scheduler scheduler) 
                                                    throws com.vmware.bespin.scheduler.SolverException {
+        if (!this.partial) {
+            try {
+                return solveWithDeadline(null);
+            } catch (ModelException | com.vmware.dcm.SolverException err) {
+                throw new com.vmware.bespin.scheduler.SolverException("DCM Solver failed: " + err.getMessage(), err);
+            }
+        }
+
+        // Rows beyond free capacity are left out of the model's input, but stay in pending
+        final Result<PendingRecord> fitting = withinCapacity(conn);
         try {
-            return (Result<? extends Record>) model.solve("PENDING");
+            return solveWithDeadline(table -> Scheduler.PENDING_TABLE.getName().equalsIgnoreCase(table.getName())
+                    ? fitting
+                    : conn.selectFrom(table).fetch());
         } catch (ModelException | com.vmware.dcm.SolverException err) {
-            throw new com.vmware.bespin.scheduler.SolverException("DCM Solver failed: " + err.getMessage(), err);
+            LOG.warn("DCM solve failed, leaving requests queued: {}", err.getMessage());
+            return conn.newResult(Scheduler.PENDING_TABLE);
+        }
+    }
+
+    /**
+     * Solve the model. When the deadline is hit DCM still returns the best feasible solution it
+     * found, it just isn't known to be optimal, so that is logged. DCM doesn't expose the objective
+     * bound, so unlike CpSatSolver the gap itself isn't known.
+     *
+     * @param fetcher reads each of the model's input tables, or null to read them all from the database
+     * @return the placed pending records
+     */
+    private Result<? extends Record> solveWithDeadline(final Function<Table<?>, Result<? extends Record>> fetcher)
+            throws com.vmware.bespin.scheduler.SolverException {
+        final Model built = model();
+        final long start = System.currentTimeMillis();
+        final Result<? extends Record> results = null == fetcher
+                ? (Result<? extends Record>) built.solve("PENDING")
+                : (Result<? extends Record>) built.solve("PENDING", fetcher);
+        final long elapsed = System.currentTimeMillis() - start;
+        if (elapsed >= this.deadlineMillis) {
+            LOG.warn("SOLVE_GAP: requests={}, deadline={}ms, time={}ms, gap=unknown", results.size(),
+                    this.deadlineMillis, elapsed);
+        }
+        return results;
+    }
+
+    /**
+     * Pick the pending requests that can be placed with the capacity that is free, most urgent
+     * first. Every pending row asks for a single core or memslice, so any set of rows fits as long
+     * as there are enough free cores and memslices in total; the rows picked are the largest
+     * feasible subset. Pending itself is left alone, so the rows left out are never missing for
+     * anyone else reading it.
+     *
+     * @param conn database connection
+     * @return the rows to solve for
+     */
+    static Result<PendingRecord> withinCapacity(final DSLContext conn) {
+        final Record free = conn.fetchOne(
+                "select coalesce(sum(cores), 0), coalesce(sum(memslices), 0) from unallocated");
+        long freeCores = ((Number) free.get(0)).longValue();
+        long freeMemslices = ((Number) free.get(1)).longValue();
+
+        final Result<PendingRecord> pending = conn.selectFrom(Scheduler.PENDING_TABLE)
+                .orderBy(Scheduler.PENDING_ORDER)
+                .fetch();
+        final Iterator<PendingRecord> it = pending.iterator();
+        while (it.hasNext()) {
+            final PendingRecord r = it.next();
+            if (r.getCores() <= freeCores && r.getMemslices() <= freeMemslices) {
+                freeCores -= r.getCores();
+                freeMemslices -= r.getMemslices();
+            } else {
+                it.remove();
+            }
         }
+        return pending;
     }
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.scheduler.dinos;
+
+import com.vmware.bespin.scheduler.Scheduler;
+
+/// A state mutation received over RPC, applied to the database by the IngestWorker
+public record IngestEvent(Type type, long requestId, long application, long node, long cores, long memslices,
+        int priority, long deadline) {
+    public enum Type {
+        ALLOC,
+        RELEASE,
+        AFFINITY_ALLOC,
+        AFFINITY_RELEASE
+    }
+
+    public static IngestEvent alloc(final long requestId, final long application, final long cores,
+            final long memslices) {
+        return alloc(requestId, application, cores, memslices, Scheduler.PRIORITY_NORMAL, Scheduler.NO_DEADLINE);
+    }
+
+    public static IngestEvent alloc(final long requestId, final long application, final long cores,
+            final long memslices, final int priority, final long deadline) {
+        return new IngestEvent(Type.ALLOC, requestId, application, -1, cores, memslices, priority, deadline);
+    }
+
+    /// The same event with a different request id
+    public IngestEvent withRequestId(final long id) {
+        return new IngestEvent(this.type, id, this.application, this.node, this.cores, this.memslices, this.priority,
+                this.deadline);
+    }
+
+    public static IngestEvent release(final long node, final long application, final long cores,
+            final long memslices) {
+        return new IngestEvent(Type.RELEASE, -1, application, node, cores, memslices,
+                Scheduler.PRIORITY_NORMAL, Scheduler.NO_DEADLINE);
+    }
+
+    public static IngestEvent affinityAlloc(final long node, final long cores, final long memslices) {
+        return new IngestEvent(Type.AFFINITY_ALLOC, -1, -1, node, cores, memslices,
+                Scheduler.PRIORITY_NORMAL, Scheduler.NO_DEADLINE);
+    }
+
+    public static IngestEvent affinityRelease(final long node, final long cores, final long memslices) {
+        return new IngestEvent(Type.AFFINITY_RELEASE, -1, -1, node, cores, memslices,
+                Scheduler.PRIORITY_NORMAL, Scheduler.NO_DEADLINE);
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.scheduler.dinos;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jooq.exception.DataAccessException;
+
+import com.vmware.bespin.scheduler.MpscRingBuffer;
+import com.vmware.bespin.scheduler.Scheduler;
+import com.vmware.bespin.scheduler.generated.tables.records.PendingRecord;
+
+/**
+ * Single state-owner for RPC mutations. RPC handlers publish IngestEvents into a bounded
+ * ring buffer; this worker drains it and applies the events to the database in arrival order.
+ * Consecutive allocations are coalesced into one batch insert.
+ */
+public class IngestWorker implements Runnable {
+    /// Places allocation records immediately instead of queueing them in pending
+    public interface FastPath {
+        /**
+         * Place whatever fits right away and remove those records from the list. The remaining
+         * records are inserted into pending for the solver. Any earlier records of the same
+         * application are already in pending when this is called.
+         *
+         * @param requestId the id of the allocation request's first record
+         * @param records   the pending records of one allocation request
+         */
+        void place(long requestId, List<PendingRecord> records);
+    }
+
+    /// Told about allocation records that will never reach pending, so NRK can be told they failed
+    public interface Rejections {
+        /**
+         * @param requestId the id of the allocation request's first record
+         * @param recordIds the records of that request that were dropped
+         */
+        void reject(long requestId, List<Long> recordIds);
+    }
+
+    // The records of one allocation request waiting for the next batch insert
+    private record Batched(IngestEvent alloc, List<PendingRecord> records) { }
+
+    public static final int DEFAULT_CAPACITY = 4096;
+    public static final int MAX_BATCH = 1024;
+    private static final long IDLE_PARK_NANOS = 50_000; // 50 us
+
+    private static final Logger LOG = LogManager.getLogger(IngestWorker.class);
+    private final Scheduler scheduler;
+    private final MpscRingBuffer<IngestEvent> queue;
+    private final FastPath fastPath;
+    private final Consumer<IngestEvent> allocApplied;
+    private final Rejections rejections;
+    private final List<Batched> batched = new ArrayList<>();
+    private final AtomicLong pendingInserted = new AtomicLong();
+    // Applications with records waiting in the current batch insert
+    private final Set<Long> batchedApplications = new HashSet<>();
+    private volatile boolean shutdown = false;
+    private volatile Thread thread = null;
+
+    public IngestWorker(final Scheduler scheduler, final int capacity) {
+        this(scheduler, capacity, null);
+    }
+
+    /**
+     * @param scheduler the scheduler whose state the events are applied to
+     * @param capacity  the size of the event queue
+     * @param fastPath  optional immediate placement for allocations, or null to queue them all
+     */
+    public IngestWorker(final Scheduler scheduler, final int capacity, final FastPath fastPath) {
+        this(scheduler, capacity, fastPath, null);
+    }
+
+    /**
+     * @param scheduler    the scheduler whose state the events are applied to
+     * @param capacity     the size of the event queue
+     * @param fastPath     optional immediate placement for allocations, or null to queue them all
+     * @param allocApplied optional callback for each allocation once it is in the database, or was
+     *                     dropped because it failed
+     */
+    public IngestWorker(final Scheduler scheduler, final int capacity, final FastPath fastPath,
+            final Consumer<IngestEvent> allocApplied) {
+        this(scheduler, capacity, fastPath, allocApplied, null);
+    }
+
+    /**
+     * @param scheduler    the scheduler whose state the events are applied to
+     * @param capacity     the size of the event queue
+     * @param fastPath     optional immediate placement for allocations, or null to queue them all
+     * @param allocApplied optional callback for each allocation once it is in the database, or was
+     *                     dropped because it failed
+     * @param rejections   optional callback for allocation records that were dropped, called before
+     *                     allocApplied for their allocation
+     */
+    public IngestWorker(final Scheduler scheduler, final int capacity, final FastPath fastPath,
+            final Consumer<IngestEvent> allocApplied, final Rejections rejections) {
+        this.scheduler = scheduler;
+        this.queue = new MpscRingBuffer<>(capacity);
+        this.fastPath = fastPath;
+        this.allocApplied = allocApplied;
+        this.rejections = rejections;
+    }
+
+    /**
+     * Publish an event. Blocks (spins) while the queue is full, which pushes back on the RPC thread.
+     * 
+     * @param event the event to apply
+     * @throws IllegalStateException if the worker has stopped and will never apply the event
+     */
+    public void submit(final IngestEvent event) {
+        this.queue.put(event);
+        final Thread t = this.thread;
+        if (null != t) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    /**
+     * Number of events waiting to be applied
+     * 
+     * @return the approximate queue depth
+     */
+    public int backlog() {
+        return this.queue.size();
+    }
+
+    /**
+     * Number of pending records inserted for the solver so far
+     *
+     * @return the running total, excluding records placed by the fast path
+     */
+    public long pendingInserted() {
+        return this.pendingInserted.get();
+    }
+
+    /**
+     * Stop after all queued events have been applied
+     */
+    public void stop() {
+        this.shutdown = true;
+        final Thread t = this.thread;
+        if (null != t) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    @Override
+    public void run() {
+        this.thread = Thread.currentThread();
+        final List<IngestEvent> batch = new ArrayList<>(MAX_BATCH);
+        try {
+            while (true) {
+                batch.clear();
+                if (this.queue.drain(batch, MAX_BATCH) == 0) {
+                    if (this.shutdown) {
+                        break;
+                    }
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    continue;
+                }
+                applyBatch(batch);
+            }
+            LOG.info("Ingest worker stopped");
+        } finally {
+            // Fail producers rather than leave them spinning on a queue nobody drains
+            this.queue.close();
+        }
+    }
+
+    /**
+     * Apply events in order. Runs of allocations are flushed as one batch insert before any other
+     * event is applied so a release can never overtake the allocation it refers to.
+     * 
+     * @param batch the events to apply
+     */
+    void applyBatch(final List<IngestEvent> batch) {
+        for (final IngestEvent e : batch) {
+            if (e.type() == IngestEvent.Type.ALLOC) {
+                final List<PendingRecord> request = new ArrayList<>();
+                try {
+                    scheduler.addPendingRecords(request, e.requestId(), e.cores(), e.memslices(), e.application(),
+                            e.priority(), e.deadline());
+                    if (null != this.fastPath) {
+                        if (this.batchedApplications.contains(e.application())) {
+                            // Let the fast path see the application's earlier records, so it doesn't
+                            // place this request ahead of them
+                            flush();
+                        }
+                        this.fastPath.place(e.requestId(), request);
+                    }
+                } catch (final DataAccessException | IllegalArgumentException ex) {
+                    // Whatever the fast path didn't place yet is dropped
+                    LOG.error("Failed to apply ingest event {}", e);
+                    LOG.error(ex.toString());
+                    reject(e, request);
+                    continue;
+                }
+                if (!request.isEmpty()) {
+                    this.batched.add(new Batched(e, request));
+                    this.batchedApplications.add(e.application());
+                }
+                continue;
+            }
+            flush();
+
+            // A bad event is logged and dropped, the rest of the batch still applies
+            try {
+                switch (e.type()) {
+                    case RELEASE:
+                        scheduler.releaseAllocation(e.node(), e.application(), e.cores(), e.memslices());
+                        break;
+                    case AFFINITY_ALLOC:
+                        scheduler.updateNode(e.node(), e.cores(), e.memslices(), false);
+                        break;
+                    case AFFINITY_RELEASE:
+                        scheduler.updateNode(e.node(), e.cores(), e.memslices(), true);
+                        break;
+                    default:
+                        LOG.error("Unknown ingest event: {}", e);
+                }
+            } catch (final DataAccessException | IllegalArgumentException ex) {
+                LOG.error("Failed to apply ingest event {}", e);
+                LOG.error(ex.toString());
+            }
+        }
+        flush();
+
+        if (null != this.allocApplied) {
+            for (final IngestEvent e : batch) {
+                if (e.type() == IngestEvent.Type.ALLOC) {
+                    this.allocApplied.accept(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Insert the batched records in one go. If that fails, the requests that didn't make it in
+     * are retried one at a time, and those that still fail are rejected rather than left for NRK
+     * to wait on forever.
+     */
+    private void flush() {
+        if (this.batched.isEmpty()) {
+            return;
+        }
+        final List<PendingRecord> records = new ArrayList<>();
+        for (final Batched b : this.batched) {
+            records.addAll(b.records());
+        }
+        try {
+            scheduler.insertPendingRecords(records);
+            this.pendingInserted.addAndGet(records.size());
+        } catch (final DataAccessException e) {
+            LOG.error("Failed to insert {} pending records, retrying each request", records.size());
+            LOG.error(e.toString());
+            retry();
+        } finally {
+            this.batched.clear();
+            this.batchedApplications.clear();
+        }
+    }
+
+    private void retry() {
+        // The batch may have got partway, and a record must never be both pending and rejected
+        final Set<Long> inserted = new HashSet<>();
+        try {
+            for (final long id : scheduler.getPendingRequestIDs()) {
+                inserted.add(id);
+            }
+        } catch (final DataAccessException e) {
+            LOG.error("Failed to check which pending records were inserted");
+            LOG.error(e.toString());
+            for (final Batched b : this.batched) {
+                reject(b.alloc(), b.records());
+            }
+            return;
+        }
+        for (final Batched b : this.batched) {
+            final List<PendingRecord> missing = new ArrayList<>();
+            for (final PendingRecord r : b.records()) {
+                if (inserted.contains(r.getId())) {
+                    this.pendingInserted.incrementAndGet();
+                } else {
+                    missing.add(r);
+                }
+            }
+            if (missing.isEmpty()) {
+                continue;
+            }
+            try {
+                scheduler.insertPendingRecords(missing);
+                this.pendingInserted.addAndGet(missing.size());
+            } catch (final DataAccessException e) {
+                LOG.error("Failed to insert pending records of alloc_id {}", b.alloc().requestId());
+                LOG.error(e.toString());
+                reject(b.alloc(), missing);
+            }
+        }
+    }
+
+    private void reject(final IngestEvent alloc, final List<PendingRecord> records) {
+        if (null == this.rejections || records.isEmpty()) {
+            return;
+        }
+        final List<Long> ids = new ArrayList<>();
+        for (final PendingRecord r : records) {
+            ids.add(r.getId());
+        }
+        this.rejections.reject(alloc.requestId(), ids);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.scheduler.dinos;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-memory mirror of free capacity per node and of the nodes each application occupies.
+ * It is kept in step with the nodes and placed tables by DiNOSScheduler so the alloc fast path
+ * can find a locality hit without querying the database.
+ */
+public class LocalityIndex {
+    // node -> {free cores, free memslices}
+    private final Map<Long, long[]> free = new HashMap<>();
+    // application -> node -> {placed cores, placed memslices}
+    private final Map<Long, Map<Long, long[]>> placed = new HashMap<>();
+
+    public synchronized void clear() {
+        this.free.clear();
+        this.placed.clear();
+    }
+
+    public synchronized void addNode(final long node, final long cores, final long memslices) {
+        this.free.put(node, new long[] {cores, memslices});
+    }
+
+    public synchronized void updateNode(final long node, final long cores, final long memslices,
+            final boolean isAdd) {
+        final long[] avail = this.free.computeIfAbsent(node, n -> new long[2]);
+        final long sign = isAdd ? 1 : -1;
+        avail[0] += sign * cores;
+        avail[1] += sign * memslices;
+    }
+
+    public synchronized void allocate(final long node, final long application, final long cores,
+            final long memslices) {
+        final long[] avail = this.free.computeIfAbsent(node, n -> new long[2]);
+        avail[0] -= cores;
+        avail[1] -= memslices;
+        final long[] used = this.placed.computeIfAbsent(application, a -> new HashMap<>())
+                .computeIfAbsent(node, n -> new long[2]);
+        used[0] += cores;
+        used[1] += memslices;
+    }
+
+    public synchronized void release(final long node, final long application, final long cores,
+            final long memslices) {
+        final long[] avail = this.free.computeIfAbsent(node, n -> new long[2]);
+        avail[0] += cores;
+        avail[1] += memslices;
+        final Map<Long, long[]> nodes = this.placed.get(application);
+        if (null != nodes && nodes.containsKey(node)) {
+            final long[] used = nodes.get(node);
+            used[0] -= cores;
+            used[1] -= memslices;
+            if (used[0] <= 0 && used[1] <= 0) {
+                nodes.remove(node);
+            }
+        }
+    }
+
+    /**
+     * Find a node the application already occupies with room for the request. Prefers the node
+     * holding most of the application's resources.
+     *
+     * @param application the requesting application
+     * @param cores       the number of cores needed
+     * @param memslices   the number of memslices needed
+     * @return the node id, or -1 if there is no locality hit
+     */
+    public synchronized long findNode(final long application, final long cores, final long memslices) {
+        final Map<Long, long[]> nodes = this.placed.get(application);
+        if (null == nodes) {
+            return -1;
+        }
+        long best = -1;
+        long bestHeld = -1;
+        for (final Map.Entry<Long, long[]> entry : nodes.entrySet()) {
+            final long[] avail = this.free.get(entry.getKey());
+            if (null == avail || avail[0] < cores || avail[1] < memslices) {
+                continue;
+            }
+            final long held = entry.getValue()[0] + entry.getValue()[1];
+            if (held > bestHeld || (held == bestHeld && entry.getKey() < best)) {
+                best = entry.getKey();
+                bestHeld = held;
+            }
+        }
+        return best;
+    }
+}
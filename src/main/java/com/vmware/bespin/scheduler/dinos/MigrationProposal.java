@@ -0,0 +1,53 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.scheduler.dinos;
+
+import com.vmware.bespin.rpc.Utils;
+
+/// A suggestion from the rebalancer to move part of an application from one node to another
+public class MigrationProposal {
+    public static final int BYTE_LEN = Long.BYTES * 5;
+
+    final long application;
+    final long fromNode;
+    final long toNode;
+    final long cores;
+    final long memslices;
+
+    public MigrationProposal(final long application, final long fromNode, final long toNode, final long cores,
+            final long memslices) {
+        this.application = application;
+        this.fromNode = fromNode;
+        this.toNode = toNode;
+        this.cores = cores;
+        this.memslices = memslices;
+    }
+
+    public MigrationProposal(final byte[] data) {
+        assert (data.length == MigrationProposal.BYTE_LEN);
+        this.application = Utils.bytesToLong(data, 0);
+        this.fromNode = Utils.bytesToLong(data, Long.BYTES);
+        this.toNode = Utils.bytesToLong(data, Long.BYTES * 2);
+        this.cores = Utils.bytesToLong(data, Long.BYTES * 3);
+        this.memslices = Utils.bytesToLong(data, Long.BYTES * 4);
+    }
+
+    public byte[] toBytes() {
+        final byte[] buff = new byte[MigrationProposal.BYTE_LEN];
+        Utils.longToBytes(this.application, buff, 0);
+        Utils.longToBytes(this.fromNode, buff, Long.BYTES);
+        Utils.longToBytes(this.toNode, buff, Long.BYTES * 2);
+        Utils.longToBytes(this.cores, buff, Long.BYTES * 3);
+        Utils.longToBytes(this.memslices, buff, Long.BYTES * 4);
+        return buff;
+    }
+
+    @Override
+    public String toString() {
+        return "MigrationProposal(app=" + this.application + ", from=" + this.fromNode + ", to=" + this.toNode +
+                ", cores=" + this.cores + ", memslices=" + this.memslices + ")";
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.scheduler.dinos;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * A flow network with integer capacities and non-negative integer costs, solved for a minimum
+ * cost flow by successive shortest paths: Dijkstra on reduced costs finds the cheapest path from
+ * the source to the sink in the residual network, as much flow as fits is pushed along it, and the
+ * vertex potentials are updated so reduced costs stay non-negative. Each path pushes at least one
+ * unit, so a flow of F takes at most F shortest path searches.
+ */
+public class MinCostFlow {
+    public static final long INFINITE = Long.MAX_VALUE / 4;
+
+    private final int numVertices;
+    private final int[] head; // first edge out of each vertex, -1 if none
+    private int[] next = new int[16]; // next edge out of the same vertex
+    private int[] to = new int[16];
+    private long[] residual = new long[16];
+    private long[] cost = new long[16];
+    private int numEdges = 0;
+
+    /**
+     * @param numVertices number of vertices, numbered from 0
+     */
+    public MinCostFlow(final int numVertices) {
+        this.numVertices = numVertices;
+        this.head = new int[numVertices];
+        Arrays.fill(this.head, -1);
+    }
+
+    /**
+     * Add an edge, along with its reverse edge in the residual network
+     *
+     * @param from     tail vertex
+     * @param dest     head vertex
+     * @param capacity capacity, or INFINITE
+     * @param edgeCost cost per unit of flow, not negative
+     * @return the edge, for looking up its flow later
+     */
+    public int addEdge(final int from, final int dest, final long capacity, final long edgeCost) {
+        assert edgeCost >= 0;
+        if (this.numEdges + 2 > this.to.length) {
+            final int size = 2 * this.to.length;
+            this.next = Arrays.copyOf(this.next, size);
+            this.to = Arrays.copyOf(this.to, size);
+            this.residual = Arrays.copyOf(this.residual, size);
+            this.cost = Arrays.copyOf(this.cost, size);
+        }
+        final int edge = this.numEdges;
+        link(edge, from, dest, capacity, edgeCost);
+        link(edge + 1, dest, from, 0, -edgeCost);
+        this.numEdges += 2;
+        return edge;
+    }
+
+    private void link(final int edge, final int from, final int dest, final long capacity, final long edgeCost) {
+        this.to[edge] = dest;
+        this.residual[edge] = capacity;
+        this.cost[edge] = edgeCost;
+        this.next[edge] = this.head[from];
+        this.head[from] = edge;
+    }
+
+    /**
+     * @param edge an edge returned by addEdge
+     * @return the flow on it
+     */
+    public long flow(final int edge) {
+        // The reverse edge's residual capacity is the flow pushed forward
+        return this.residual[edge ^ 1];
+    }
+
+    /**
+     * Push as much flow as possible, up to a limit, from source to sink at minimum cost
+     *
+     * @param source  source vertex
+     * @param sink    sink vertex
+     * @param maxFlow most flow to push
+     * @return the flow pushed and its total cost
+     */
+    public long[] solve(final int source, final int sink, final long maxFlow) {
+        final long[] potential = new long[this.numVertices];
+        final long[] dist = new long[this.numVertices];
+        final int[] via = new int[this.numVertices]; // edge into each vertex on the shortest path
+        final boolean[] done = new boolean[this.numVertices];
+        long flow = 0;
+        long totalCost = 0;
+        while (flow < maxFlow) {
+            Arrays.fill(dist, INFINITE);
+            Arrays.fill(done, false);
+            dist[source] = 0;
+            final PriorityQueue<long[]> queue = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+            queue.add(new long[] {0, source});
+            while (!queue.isEmpty()) {
+                final int u = (int) queue.poll()[1];
+                if (done[u]) {
+                    continue;
+                }
+                done[u] = true;
+                if (u == sink) {
+                    // Everything still queued is at least as far, so it can't be on a shorter path
+                    break;
+                }
+                for (int e = this.head[u]; e != -1; e = this.next[e]) {
+                    final int v = this.to[e];
+                    if (this.residual[e] > 0 && !done[v]) {
+                        final long d = dist[u] + this.cost[e] + potential[u] - potential[v];
+                        if (d < dist[v]) {
+                            dist[v] = d;
+                            via[v] = e;
+                            queue.add(new long[] {d, v});
+                        }
+                    }
+                }
+            }
+            if (!done[sink]) {
+                break;
+            }
+
+            // Vertices not reached before the sink are treated as being as far as the sink, which
+            // keeps every reduced cost in the residual network non-negative
+            for (int v = 0; v < this.numVertices; v++) {
+                potential[v] += Math.min(dist[v], dist[sink]);
+            }
+
+            long push = maxFlow - flow;
+            for (int v = sink; v != source; v = this.to[via[v] ^ 1]) {
+                push = Math.min(push, this.residual[via[v]]);
+            }
+            for (int v = sink; v != source; v = this.to[via[v] ^ 1]) {
+                this.residual[via[v]] -= push;
+                this.residual[via[v] ^ 1] += push;
+                totalCost += push * this.cost[via[v]];
+            }
+            flow += push;
+        }
+        return new long[] {flow, totalCost};
+    }
+}
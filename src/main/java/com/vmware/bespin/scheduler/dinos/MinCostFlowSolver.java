@@ -0,0 +1,256 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.scheduler.dinos;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jooq.DSLContext;
+import org.jooq.Record;
+import org.jooq.Result;
+
+import com.vmware.bespin.scheduler.Scheduler;
+import com.vmware.bespin.scheduler.Solver;
+import com.vmware.bespin.scheduler.SolverException;
+import com.vmware.bespin.scheduler.generated.tables.Pending;
+import com.vmware.bespin.scheduler.generated.tables.records.PendingRecord;
+
+/**
+ * Places pending requests by solving a minimum cost flow, in plain Java without OR-tools. With
+ * single unit requests, placing an application's pending cores (memslices) under each node's free
+ * capacity is a transportation problem:
+ *
+ * - the source supplies each application with its pending units
+ * - an application sends units at no cost to each node it already has resources on
+ * - or, at a cost higher than any other, through a shared hub to any node, the hub's edge to each
+ *   node costing a little more the less that node has free, so new units go to roomy nodes
+ * - each node passes at most its free capacity on to the sink
+ *
+ * This is the placed locality term of DCMloc, which rewards each request placed on a node its
+ * application is already on, solved exactly. Locality between pending requests is a cost per pair
+ * rather than per unit, so it isn't in the flow; instead each shortest path fills a node as far as
+ * the application's demand or the node's room allows, and the hub's flow is handed out to
+ * applications in contiguous runs, so an application's new units end up on few nodes.
+ *
+ * Cores are placed first, then memslices with the nodes that just got the application's cores
+ * counted as its own, so the two resources end up together.
+ *
+ * The hub keeps the network linear in size, with an edge per node, per application and per
+ * (application, node) pair already placed, rather than one per application and node.
+ */
+public class MinCostFlowSolver implements Solver {
+    protected Logger LOG = LogManager.getLogger(MinCostFlowSolver.class);
+    public static final Pending PENDING_TABLE = Pending.PENDING;
+
+    private static final int CORES = 0;
+    private static final int MEMSLICES = 1;
+
+    private final boolean partial;
+
+    /**
+     * @param partial if true, place as many requests as fit instead of failing when not all of them do
+     */
+    public MinCostFlowSolver(final boolean partial) {
+        this.partial = partial;
+    }
+
+    public MinCostFlowSolver() {
+        this(false);
+    }
+
+    /**
+     * Solve all outstanding requests in the pending table
+     *
+     * @param conn database connection
+     * @return records Records which were assigned by this call to solve.
+     * @throws SolverException if the requests don't all fit, unless partial
+     */
+    public Result<? extends org.jooq.Record> solve(final DSLContext conn,
+                                                   final Scheduler scheduler) throws SolverException {
+        final Result<PendingRecord> pending = conn.selectFrom(PENDING_TABLE)
+                .orderBy(Scheduler.PENDING_ORDER)
+                .fetch();
+        if (pending.isEmpty()) {
+            return pending;
+        }
+
+        final Integer[][] unallocated = scheduler.unallocatedResources();
+        final int numNodes = unallocated[0].length;
+        final Map<Integer, Integer> nodeIndex = new HashMap<>();
+        for (int n = 0; n < numNodes; n++) {
+            nodeIndex.put(unallocated[0][n], n);
+        }
+
+        // Applications with pending requests, their demand, and the nodes they are already on
+        final Map<Integer, Integer> appIndex = new HashMap<>();
+        final List<long[]> wanted = new ArrayList<>();
+        for (final PendingRecord r : pending) {
+            final int a = appIndex.computeIfAbsent(r.getApplication(), k -> {
+                wanted.add(new long[2]);
+                return wanted.size() - 1;
+            });
+            wanted.get(a)[CORES] += r.getCores();
+            wanted.get(a)[MEMSLICES] += r.getMemslices();
+        }
+        final int numApps = appIndex.size();
+        final List<Set<Integer>> present = new ArrayList<>();
+        for (int a = 0; a < numApps; a++) {
+            present.add(new HashSet<>());
+        }
+        for (final Record r : conn.fetch("select application, node from placed where cores + memslices > 0")) {
+            final Integer a = appIndex.get((Integer) r.get(0));
+            final Integer n = nodeIndex.get((Integer) r.get(1));
+            if (null != a && null != n) {
+                present.get(a).add(n);
+            }
+        }
+
+        final long start = System.currentTimeMillis();
+        final long[][][] placed = new long[2][][];
+        for (int res = CORES; res <= MEMSLICES; res++) {
+            final long[] free = new long[numNodes];
+            for (int n = 0; n < numNodes; n++) {
+                free[n] = Math.max(0, unallocated[res + 1][n]);
+            }
+            final long[] demand = new long[numApps];
+            for (int a = 0; a < numApps; a++) {
+                demand[a] = wanted.get(a)[res];
+            }
+            placed[res] = place(demand, free, present);
+            if (res == CORES) {
+                for (int a = 0; a < numApps; a++) {
+                    for (int n = 0; n < numNodes; n++) {
+                        if (placed[res][a][n] > 0) {
+                            present.get(a).add(n);
+                        }
+                    }
+                }
+            }
+        }
+        LOG.debug("Min cost flow for {} requests, {} applications and {} nodes solved in {}ms", pending.size(),
+                numApps, numNodes, System.currentTimeMillis() - start);
+
+        // Hand out the placed units to the pending rows, most urgent first
+        for (final PendingRecord r : pending) {
+            final int a = appIndex.get(r.getApplication());
+            final int res = r.getCores() > 0 ? CORES : MEMSLICES;
+            final int amount = r.getCores() + r.getMemslices();
+            for (int n = 0; n < numNodes && null == r.getControllable_Node(); n++) {
+                if (placed[res][a][n] >= amount) {
+                    placed[res][a][n] -= amount;
+                    r.setControllable_Node(unallocated[0][n]);
+                }
+            }
+            if (null == r.getControllable_Node() && amount > 0 && !this.partial) {
+                // Either not everything fit, or a multi-unit request had its units split across nodes
+                throw new SolverException("Infeasible", null);
+            }
+        }
+        if (this.partial) {
+            // Only return what was placed
+            pending.removeIf(r -> null == r.getControllable_Node());
+        }
+        return pending;
+    }
+
+    /**
+     * Place one resource for every application
+     *
+     * @param demand  units each application wants
+     * @param free    free units on each node
+     * @param present nodes each application is already on
+     * @return units of each application placed on each node
+     */
+    static long[][] place(final long[] demand, final long[] free, final List<Set<Integer>> present) {
+        final int numApps = demand.length;
+        final int numNodes = free.length;
+        final long[][] placed = new long[numApps][numNodes];
+        long total = 0;
+        long mostFree = 0;
+        for (final long d : demand) {
+            total += d;
+        }
+        for (final long f : free) {
+            mostFree = Math.max(mostFree, f);
+        }
+        if (total == 0 || numNodes == 0) {
+            return placed;
+        }
+
+        // Vertices: source, applications, hub, nodes, sink
+        final int source = 0;
+        final int hub = numApps + 1;
+        final int sink = numApps + numNodes + 2;
+        final MinCostFlow network = new MinCostFlow(sink + 1);
+
+        // Going through the hub costs more than any difference in room between nodes, so a unit only
+        // goes to a new node when all of its application's nodes are full
+        final long newNodeCost = mostFree + 1;
+        final int[] toHub = new int[numApps];
+        final List<int[]> direct = new ArrayList<>(); // application, node, edge
+        for (int a = 0; a < numApps; a++) {
+            if (demand[a] == 0) {
+                continue;
+            }
+            network.addEdge(source, a + 1, demand[a], 0);
+            toHub[a] = network.addEdge(a + 1, hub, MinCostFlow.INFINITE, newNodeCost);
+            for (final int n : present.get(a)) {
+                direct.add(new int[] {a, n, network.addEdge(a + 1, hub + 1 + n, MinCostFlow.INFINITE, 0)});
+            }
+        }
+        final int[] fromHub = new int[numNodes];
+        for (int n = 0; n < numNodes; n++) {
+            if (free[n] > 0) {
+                fromHub[n] = network.addEdge(hub, hub + 1 + n, MinCostFlow.INFINITE, mostFree - free[n]);
+                network.addEdge(hub + 1 + n, sink, free[n], 0);
+            } else {
+                fromHub[n] = -1;
+            }
+        }
+        network.solve(source, sink, total);
+
+        for (final int[] d : direct) {
+            placed[d[0]][d[1]] += network.flow(d[2]);
+        }
+
+        // Any split of the hub's flow between applications costs the same; hand it out in runs,
+        // largest first, so each application spans as few nodes as it can
+        final List<long[]> viaHub = new ArrayList<>(); // units, application
+        final List<long[]> toNodes = new ArrayList<>(); // units, node
+        for (int a = 0; a < numApps; a++) {
+            if (demand[a] > 0 && network.flow(toHub[a]) > 0) {
+                viaHub.add(new long[] {network.flow(toHub[a]), a});
+            }
+        }
+        for (int n = 0; n < numNodes; n++) {
+            if (fromHub[n] != -1 && network.flow(fromHub[n]) > 0) {
+                toNodes.add(new long[] {network.flow(fromHub[n]), n});
+            }
+        }
+        viaHub.sort((x, y) -> x[0] != y[0] ? Long.compare(y[0], x[0]) : Long.compare(x[1], y[1]));
+        toNodes.sort((x, y) -> x[0] != y[0] ? Long.compare(y[0], x[0]) : Long.compare(x[1], y[1]));
+        int node = 0;
+        for (final long[] app : viaHub) {
+            while (app[0] > 0) {
+                final long[] target = toNodes.get(node);
+                final long units = Math.min(app[0], target[0]);
+                placed[(int) app[1]][(int) target[1]] += units;
+                app[0] -= units;
+                target[0] -= units;
+                if (target[0] == 0) {
+                    node++;
+                }
+            }
+        }
+        return placed;
+    }
+}
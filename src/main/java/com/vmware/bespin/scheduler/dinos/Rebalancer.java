@@ -0,0 +1,221 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.scheduler.dinos;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jooq.DSLContext;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.exception.DataAccessException;
+
+import com.vmware.bespin.scheduler.DBUtils;
+import com.vmware.bespin.scheduler.Scheduler;
+import com.vmware.bespin.scheduler.generated.tables.records.PendingRecord;
+import com.vmware.dcm.Model;
+import com.vmware.dcm.ModelException;
+import com.vmware.dcm.SolverException;
+import com.vmware.dcm.backend.ortools.OrToolsSolver;
+
+/**
+ * Background defragmentation. Periodically copies nodes and placed into a private snapshot
+ * database and runs a DCM model that re-places the resources of spread-out applications so each
+ * uses as few nodes as possible, moving at most a fixed number of resources per application.
+ * The moves are handed on as migration proposals; the live state is only changed once NRK
+ * carries one out. Since it works on its own snapshot, it never blocks the foreground solver.
+ */
+public class Rebalancer implements Runnable {
+    public static final int MAX_UNITS = 512;
+    private static final int MAX_TIME_IN_SECONDS = 10;
+
+    private static final Logger LOG = LogManager.getLogger(Rebalancer.class);
+    private final DSLContext source;
+    private final DSLContext snapshot;
+    private final Scheduler snapshotState;
+    private final Model model;
+    private final long interval;
+    private final Consumer<MigrationProposal> sink;
+    private volatile boolean shutdown = false;
+
+    /**
+     * @param source          the live database to snapshot
+     * @param interval        milliseconds between rebalancing rounds
+     * @param migrationBudget the maximum number of cores and memslices moved per application per round
+     * @param sink            receives each migration proposal
+     */
+    public Rebalancer(final DSLContext source, final long interval, final int migrationBudget,
+            final Consumer<MigrationProposal> sink) throws ClassNotFoundException {
+        this.source = source;
+        this.interval = interval;
+        this.sink = sink;
+        this.snapshot = DBUtils.getConn();
+        this.snapshotState = new Scheduler(this.snapshot, null, false);
+
+        final List<String> constraints = new ArrayList<>();
+        constraints.add(DiNOSConstraints.getCapacityFunctionCoreConstraint().sql());
+        constraints.add(DiNOSConstraints.getCapacityFunctionMemsliceConstraint().sql());
+        constraints.add(DiNOSConstraints.getAppLocalityPendingConstraint().sql());
+        constraints.add(DiNOSConstraints.getStayPutConstraint().sql());
+        constraints.add(DiNOSConstraints.getMigrationBudgetConstraint(migrationBudget).sql());
+        constraints.add(DiNOSConstraints.getSymmetryBreakingConstraint().sql());
+
+        final OrToolsSolver.Builder builder = new OrToolsSolver.Builder()
+                .setPrintDiagnostics(false)
+                .setUseCapacityPresenceLiterals(false)
+                .setMaxTimeInSeconds(MAX_TIME_IN_SECONDS);
+        this.model = Model.build(this.snapshot, builder.build(), constraints);
+    }
+
+    DSLContext snapshotConn() {
+        return this.snapshot;
+    }
+
+    public void stop() {
+        this.shutdown = true;
+    }
+
+    @Override
+    public void run() {
+        while (!this.shutdown) {
+            try {
+                Thread.sleep(this.interval);
+            } catch (final InterruptedException e) {
+                break;
+            }
+            try {
+                final List<MigrationProposal> plan = rebalance();
+                LOG.info("Rebalancer proposed {} migrations", plan.size());
+                plan.forEach(this.sink);
+            } catch (final DataAccessException | ModelException | SolverException e) {
+                // A failed round must not end the thread
+                LOG.error("Rebalancing round failed");
+                LOG.error(e.toString());
+            }
+        }
+        LOG.info("Rebalancer stopped");
+    }
+
+    /**
+     * Run one rebalancing round
+     *
+     * @return the migrations found, possibly empty
+     */
+    List<MigrationProposal> rebalance() {
+        if (takeSnapshot() == 0) {
+            return new ArrayList<>();
+        }
+        final long start = System.currentTimeMillis();
+        final Result<? extends Record> results = this.model.solve("PENDING");
+        LOG.info("Rebalancer solve took {}ms", System.currentTimeMillis() - start);
+        return plan(results);
+    }
+
+    /**
+     * Copy the live nodes and placed tables into the snapshot. Every core and memslice of an
+     * application placed on more than one node becomes a pending row with current_node set;
+     * everything else is copied into placed so it still takes up capacity. Ids increase with the
+     * current node so the existing placement satisfies the symmetry breaking constraint.
+     *
+     * @return the number of pending rows to re-place
+     */
+    int takeSnapshot() {
+        // A single statement so nodes and placed are read consistently
+        final Result<Record> rows = this.source.fetch("""
+                select n.id, n.cores, n.memslices, p.application, p.node, p.cores, p.memslices
+                from nodes n
+                left join placed p
+                    on n.id = p.node
+                order by p.application, p.node
+                """);
+
+        this.snapshot.deleteFrom(Scheduler.PENDING_TABLE).execute();
+        this.snapshot.deleteFrom(Scheduler.PLACED_TABLE).execute();
+        this.snapshot.deleteFrom(Scheduler.NODE_TABLE).execute();
+        this.snapshot.deleteFrom(Scheduler.APP_TABLE).execute();
+
+        final Set<Integer> nodes = new HashSet<>();
+        final Map<Integer, Integer> nodesPerApp = new HashMap<>();
+        for (final Record r : rows) {
+            final Integer node = (Integer) r.get(0);
+            if (nodes.add(node)) {
+                this.snapshotState.addNode(node, (Integer) r.get(1), (Integer) r.get(2));
+            }
+            final Integer app = (Integer) r.get(3);
+            if (null != app && (Integer) r.get(5) + (Integer) r.get(6) > 0) {
+                nodesPerApp.merge(app, 1, Integer::sum);
+            }
+        }
+
+        final List<PendingRecord> records = new ArrayList<>();
+        long id = 0;
+        for (final Record r : rows) {
+            final Integer app = (Integer) r.get(3);
+            if (null == app) {
+                continue;
+            }
+            final int node = (Integer) r.get(4);
+            final int cores = (Integer) r.get(5);
+            final int memslices = (Integer) r.get(6);
+            if (cores + memslices == 0) {
+                continue;
+            }
+            this.snapshotState.addApplication(app);
+            if (nodesPerApp.get(app) > 1 && records.size() + cores + memslices <= MAX_UNITS) {
+                final int first = records.size();
+                this.snapshotState.addPendingRecords(records, id, cores, memslices, app);
+                for (int i = first; i < records.size(); i++) {
+                    records.get(i).setValue(Scheduler.PENDING_TABLE.CURRENT_NODE, node);
+                }
+                id += cores + memslices;
+            } else {
+                this.snapshotState.updateAllocation(node, app, cores, memslices);
+            }
+        }
+        this.snapshotState.insertPendingRecords(records);
+        return records.size();
+    }
+
+    /**
+     * Group moved resources into one proposal per application, source and destination
+     *
+     * @param results the solved pending rows
+     * @return the migrations
+     */
+    static List<MigrationProposal> plan(final Result<? extends Record> results) {
+        // (application, from, to) -> {cores, memslices}
+        final Map<List<Integer>, long[]> moves = new HashMap<>();
+        final List<List<Integer>> order = new ArrayList<>();
+        for (final Record r : results) {
+            final Integer from = (Integer) r.get("CURRENT_NODE");
+            final Integer to = (Integer) r.get("CONTROLLABLE__NODE");
+            if (null == to || from.equals(to)) {
+                continue;
+            }
+            final List<Integer> key = List.of((Integer) r.get("APPLICATION"), from, to);
+            final long[] amount = moves.computeIfAbsent(key, k -> {
+                order.add(k);
+                return new long[2];
+            });
+            amount[0] += (Integer) r.get("CORES");
+            amount[1] += (Integer) r.get("MEMSLICES");
+        }
+
+        final List<MigrationProposal> plan = new ArrayList<>();
+        for (final List<Integer> key : order) {
+            final long[] amount = moves.get(key);
+            plan.add(new MigrationProposal(key.get(0), key.get(1), key.get(2), amount[0], amount[1]));
+        }
+        return plan;
+    }
+}
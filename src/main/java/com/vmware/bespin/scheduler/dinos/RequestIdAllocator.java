@@ -0,0 +1,107 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.scheduler.dinos;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Hands out blocks of unique, contiguous request ids.
+ *
+ * Each thread leases a large range from a shared AtomicLong and serves reservations out of it
+ * without touching shared state, so allocation stays uncontended across server threads. The
+ * highest id that may have been handed out is persisted (if a file is given) before any id in a
+ * new lease is used, so ids are never reused across restarts.
+ *
+ * Ids from different threads interleave by lease, so they are unique but not in arrival order.
+ */
+public class RequestIdAllocator {
+    public static final long LEASE_SIZE = 1L << 16;
+    private static final long PERSIST_STRIDE = 1L << 24;
+
+    private static final Logger LOG = LogManager.getLogger(RequestIdAllocator.class);
+    private final AtomicLong next;
+    private final Path markFile;
+    private volatile long persistedMark;
+    private final ThreadLocal<long[]> lease = ThreadLocal.withInitial(() -> new long[] {0, 0});
+
+    /**
+     * @param markFile file holding the high-water mark, or null to start from 0 with no persistence
+     */
+    public RequestIdAllocator(final Path markFile) {
+        this.markFile = markFile;
+        long start = 0;
+        if (null != markFile && Files.exists(markFile)) {
+            try {
+                start = Long.parseLong(Files.readString(markFile, StandardCharsets.UTF_8).trim());
+            } catch (final IOException | NumberFormatException e) {
+                throw new RuntimeException("Failed to read request id mark from " + markFile, e);
+            }
+            LOG.info("Resuming request ids from {}", start);
+        }
+        this.next = new AtomicLong(start);
+        this.persistedMark = start;
+    }
+
+    /**
+     * Reserve a contiguous block of ids.
+     *
+     * @param count the number of ids to reserve
+     * @return the first id in the block
+     */
+    public long reserve(final long count) {
+        assert count >= 0;
+        final long[] range = this.lease.get(); // [next, end)
+        if (range[1] - range[0] >= count) {
+            final long start = range[0];
+            range[0] += count;
+            return start;
+        }
+
+        // Oversized requests go straight to the shared counter; others start a new lease
+        if (count >= LEASE_SIZE) {
+            return claim(count);
+        }
+        range[0] = claim(LEASE_SIZE);
+        range[1] = range[0] + LEASE_SIZE;
+        final long start = range[0];
+        range[0] += count;
+        return start;
+    }
+
+    private long claim(final long count) {
+        final long start = this.next.getAndAdd(count);
+        if (start + count > this.persistedMark) {
+            persist(start + count);
+        }
+        return start;
+    }
+
+    private synchronized void persist(final long end) {
+        if (end <= this.persistedMark) {
+            return;
+        }
+        final long mark = end + PERSIST_STRIDE;
+        if (null != this.markFile) {
+            try {
+                final Path tmp = this.markFile.resolveSibling(this.markFile.getFileName() + ".tmp");
+                Files.writeString(tmp, Long.toString(mark), StandardCharsets.UTF_8);
+                Files.move(tmp, this.markFile, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (final IOException e) {
+                throw new RuntimeException("Failed to persist request id mark to " + this.markFile, e);
+            }
+        }
+        this.persistedMark = mark;
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.scheduler.dinos;
+
+/**
+ * How long a solver may search before it has to return the best solution found so far
+ *
+ * @param millis time allowed for every solve
+ * @param perRequestMillis extra time allowed for each pending request in the batch
+ */
+public record SolveDeadline(long millis, long perRequestMillis) {
+    public static final SolveDeadline DEFAULT = new SolveDeadline(10000, 0);
+
+    /**
+     * @param requests pending requests in the batch
+     * @return time allowed to solve a batch of that size, in milliseconds
+     */
+    public long millisFor(final int requests) {
+        return this.millis + this.perRequestMillis * requests;
+    }
+
+    /**
+     * Relative gap between the objective of a solution and the best bound on it
+     *
+     * @param objective objective value of the solution
+     * @param bound best proven bound on the objective
+     * @return 0 if the solution is optimal, up to 1 (or more) the further it may be from optimal
+     */
+    public static double gap(final double objective, final double bound) {
+        return Math.abs(objective - bound) / Math.max(1.0, Math.abs(objective));
+    }
+}
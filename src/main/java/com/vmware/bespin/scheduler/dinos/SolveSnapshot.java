@@ -0,0 +1,88 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.scheduler.dinos;
+
+import java.util.List;
+
+import org.jooq.DSLContext;
+import org.jooq.Result;
+import org.jooq.Table;
+import org.jooq.TableRecord;
+
+import com.vmware.bespin.scheduler.DBUtils;
+import com.vmware.bespin.scheduler.Scheduler;
+
+/**
+ * A private in-memory copy of the scheduler state for the solver to work on. The copy is only
+ * rewritten by refresh(), so a solve sees the pending requests and free capacity as they were
+ * when it started, while ingestion keeps changing the live database underneath it.
+ *
+ * Solvers that bind to a database when they are built, like DiNOSSolver, must be built with
+ * conn() so they read the copy.
+ */
+public class SolveSnapshot {
+    // Parents before children, so foreign keys hold while copying
+    private static final List<Table<? extends TableRecord<?>>> TABLES = List.of(Scheduler.NODE_TABLE,
+            Scheduler.APP_TABLE, Scheduler.TOPOLOGY_TABLE, Scheduler.PLACED_TABLE, Scheduler.PENDING_TABLE);
+
+    private final DSLContext conn;
+    private final Scheduler scheduler;
+
+    public SolveSnapshot() throws ClassNotFoundException {
+        this.conn = DBUtils.getConn();
+        this.scheduler = new Scheduler(this.conn, null, false);
+    }
+
+    /**
+     * @return the connection to the copy
+     */
+    public DSLContext conn() {
+        return this.conn;
+    }
+
+    /**
+     * @return a scheduler over the copy, for solvers to query
+     */
+    public Scheduler scheduler() {
+        return this.scheduler;
+    }
+
+    /**
+     * Replace the copy with the current contents of the live database. The caller must keep the
+     * live database from changing until this returns.
+     *
+     * @param live the live database
+     */
+    public void refresh(final DSLContext live) {
+        for (int i = TABLES.size() - 1; i >= 0; i--) {
+            this.conn.deleteFrom(TABLES.get(i)).execute();
+        }
+        for (final Table<? extends TableRecord<?>> table : TABLES) {
+            final Result<? extends TableRecord<?>> rows = live.selectFrom(table).fetch();
+            if (!rows.isEmpty()) {
+                // Fetched records have nothing changed, and an insert only writes changed fields
+                rows.forEach(r -> r.changed(true));
+                this.conn.batchInsert(rows).execute();
+            }
+        }
+    }
+
+    /**
+     * Apply an assignment that was solved but isn't committed to the live database yet, so the next
+     * solve neither places the request again nor counts its resources as free
+     *
+     * @param id          the pending request
+     * @param node        the node it was assigned to
+     * @param application the application it belongs to
+     * @param cores       the cores it asks for
+     * @param memslices   the memslices it asks for
+     */
+    public void reserve(final long id, final long node, final long application, final long cores,
+            final long memslices) {
+        this.conn.deleteFrom(Scheduler.PENDING_TABLE).where(Scheduler.PENDING_TABLE.ID.eq(id)).execute();
+        this.scheduler.updateAllocation(node, application, cores, memslices);
+    }
+}
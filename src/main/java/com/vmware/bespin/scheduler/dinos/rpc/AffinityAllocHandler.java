@@ -9,6 +9,7 @@ import com.vmware.bespin.rpc.RPCHandler;
 import com.vmware.bespin.rpc.RPCHeader;
 import com.vmware.bespin.rpc.RPCMessage;
 import com.vmware.bespin.scheduler.dinos.DiNOSScheduler;
+import com.vmware.bespin.scheduler.dinos.IngestEvent;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -23,12 +24,8 @@ public class AffinityAllocHandler extends RPCHandler<DiNOSScheduler> {
         final AffinityRequest req = new AffinityRequest(msg.payload());
 
         // TODO: how to validate?
-        final Runnable updateNode = () -> {
-            scheduler.updateNode(req.nodeId, req.cores, req.memslices, false);
-        };
-
-        scheduler.workerPool.execute(
-            updateNode
+        scheduler.ingestWorker.submit(
+            IngestEvent.affinityAlloc(req.nodeId, req.cores, req.memslices)
         );
 
         hdr.msgLen = AffinityResponse.BYTE_LEN;
@@ -9,6 +9,7 @@ import com.vmware.bespin.rpc.RPCHeader;
 
 import com.vmware.bespin.rpc.RPCMessage;
 import com.vmware.bespin.scheduler.dinos.DiNOSScheduler;
+import com.vmware.bespin.scheduler.dinos.IngestEvent;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -24,12 +25,8 @@ public class AffinityReleaseHandler extends RPCHandler<DiNOSScheduler> {
         final AffinityRequest req = new AffinityRequest(msg.payload());
 
         // TODO: how to validate?
-        final Runnable updateNode = () -> {
-            scheduler.updateNode(req.nodeId, req.cores, req.memslices, true);
-        };
-
-        scheduler.workerPool.execute(
-            updateNode
+        scheduler.ingestWorker.submit(
+            IngestEvent.affinityRelease(req.nodeId, req.cores, req.memslices)
         );
 
         LOG.info("Processed scheduler affinity release request: {}", req); 
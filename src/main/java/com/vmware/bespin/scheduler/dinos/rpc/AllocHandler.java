@@ -8,36 +8,56 @@ package com.vmware.bespin.scheduler.dinos.rpc;
 import com.vmware.bespin.rpc.RPCHandler;
 import com.vmware.bespin.rpc.RPCHeader;
 import com.vmware.bespin.rpc.RPCMessage;
+import com.vmware.bespin.scheduler.Scheduler;
+import com.vmware.bespin.scheduler.dinos.AdmissionController;
 import com.vmware.bespin.scheduler.dinos.DiNOSScheduler;
+import com.vmware.bespin.scheduler.dinos.IngestEvent;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 public class AllocHandler extends RPCHandler<DiNOSScheduler> {
     private static final Logger LOG = LogManager.getLogger(AllocHandler.class);
-    private static long requestId = 0;
 
     @Override
     public RPCMessage handleRPC(final RPCMessage msg, final DiNOSScheduler scheduler) {
         final RPCHeader hdr = msg.hdr();
         final AllocRequest req = new AllocRequest(msg.payload());
 
-        // Each core and memslice becomes a new request, so reserve a unique block
-        final long requestIdStart = this.requestId;
-        this.requestId += req.cores + req.memslices;
-
         // TODO: how to validate?
-        final Runnable createRequests = () -> {
-            // Add request to pending table
-            scheduler.generateRequests(requestIdStart, req.cores, req.memslices, req.application);
-        };
-
-        scheduler.workerPool.execute(
-            createRequests
+        // Add request to pending table, unless admission control holds it back. Each core and
+        // memslice becomes a new request, so a unique block of ids is reserved unless it is turned away.
+        final long deadline = req.deadline > 0 ? System.currentTimeMillis() + req.deadline : Scheduler.NO_DEADLINE;
+        final AdmissionController.Admission admitted = scheduler.submitAllocation(
+            IngestEvent.alloc(-1, req.application, req.cores, req.memslices, (int) req.priority, deadline)
         );
+        final long requestIdStart = admitted.alloc().requestId();
+
+        LOG.info("Processed scheduler request: {} ({})", req, admitted.decision());
+
+        final AllocResponse res;
+        if (admitted.decision() == AdmissionController.Decision.RETRY) {
+            res = new AllocResponse(requestIdStart, AllocResponse.STATUS_RETRY_AFTER, scheduler.retryAfter());
+        } else if (admitted.decision() == AdmissionController.Decision.QUEUE) {
+            res = new AllocResponse(requestIdStart, AllocResponse.STATUS_QUEUED, 0);
+        } else {
+            res = new AllocResponse(requestIdStart);
+        }
+
+        // NRK only expects the status and retry hint when admission control is enabled
+        if (scheduler.admissionControl()) {
+            hdr.msgLen = AllocResponse.BYTE_LEN;
+            return new RPCMessage(hdr, res.toBytes());
+        }
+        hdr.msgLen = AllocResponse.LEGACY_BYTE_LEN;
+        return new RPCMessage(hdr, res.toLegacyBytes());
+    }
 
-        LOG.info("Processed scheduler request: {}", req);
-
-        hdr.msgLen = AllocResponse.BYTE_LEN;
-        return new RPCMessage(hdr, new AllocResponse(requestIdStart).toBytes());
+    @Override
+    public void responseSent(final RPCMessage response, final DiNOSScheduler scheduler) {
+        final AllocResponse res = new AllocResponse(response.payload());
+        if (res.status != AllocResponse.STATUS_RETRY_AFTER) {
+            // Fast path assignments for the request may go out now
+            scheduler.allocationResponseSent(res.requestId);
+        }
     }
 }
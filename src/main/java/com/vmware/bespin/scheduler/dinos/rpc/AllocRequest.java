@@ -6,26 +6,46 @@
 package com.vmware.bespin.scheduler.dinos.rpc;
 
 import com.vmware.bespin.rpc.Utils;
+import com.vmware.bespin.scheduler.Scheduler;
 
 public class AllocRequest {
-    public static final int BYTE_LEN = Long.BYTES * 3;
+    public static final int BYTE_LEN = Long.BYTES * 5;
+    // Requests without a priority and deadline are still accepted
+    public static final int LEGACY_BYTE_LEN = Long.BYTES * 3;
 
     final long application;
     final long cores;
     final long memslices;
+    final long priority;
+    // Milliseconds from receipt by which the request should be placed, 0 for none
+    final long deadline;
 
     public AllocRequest(final byte application, final byte cores, final byte memslices) {
+        this(application, cores, memslices, Scheduler.PRIORITY_NORMAL, 0);
+    }
+
+    public AllocRequest(final long application, final long cores, final long memslices, final long priority,
+            final long deadline) {
         this.application = application;
         this.cores = cores;
         this.memslices = memslices;
+        this.priority = priority;
+        this.deadline = deadline;
     }
 
     public AllocRequest(final byte[] data) {
-        assert (data.length == AllocRequest.BYTE_LEN);
+        assert (data.length == AllocRequest.BYTE_LEN || data.length == AllocRequest.LEGACY_BYTE_LEN);
 
         this.application = Utils.bytesToLong(data, 0);
         this.cores = Utils.bytesToLong(data, Long.BYTES);
         this.memslices = Utils.bytesToLong(data, Long.BYTES * 2);
+        if (data.length == AllocRequest.BYTE_LEN) {
+            this.priority = Utils.bytesToLong(data, Long.BYTES * 3);
+            this.deadline = Utils.bytesToLong(data, Long.BYTES * 4);
+        } else {
+            this.priority = Scheduler.PRIORITY_NORMAL;
+            this.deadline = 0;
+        }
     }
 
     public byte[] toBytes() {
@@ -33,12 +53,14 @@ public class AllocRequest {
         Utils.longToBytes(this.application, buff, 0);
         Utils.longToBytes(this.cores, buff, Long.BYTES);
         Utils.longToBytes(this.memslices, buff, Long.BYTES * 2);
-    return buff;
+        Utils.longToBytes(this.priority, buff, Long.BYTES * 3);
+        Utils.longToBytes(this.deadline, buff, Long.BYTES * 4);
+        return buff;
     }
 
     @Override
     public String toString() {
         return "AllocRequest(app=" + this.application + ", cores=" + this.cores +
-            ", memslices=" + this.memslices + ")";
+            ", memslices=" + this.memslices + ", priority=" + this.priority + ", deadline=" + this.deadline + ")";
     }
 }
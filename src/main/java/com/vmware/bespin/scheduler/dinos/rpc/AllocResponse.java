@@ -8,22 +8,55 @@ package com.vmware.bespin.scheduler.dinos.rpc;
 import com.vmware.bespin.rpc.Utils;
 
 public class AllocResponse {
-    public static final int BYTE_LEN = Long.BYTES;
+    public static final int BYTE_LEN = Long.BYTES * 3;
+    // Just the request id, sent while admission control is off so NRK sees the original protocol
+    public static final int LEGACY_BYTE_LEN = Long.BYTES;
+
+    // The request was added to pending
+    public static final long STATUS_OK = 0;
+    // The request was parked in the overflow queue, the assignment will come later as usual
+    public static final long STATUS_QUEUED = 1;
+    // The request was dropped, try again after retryAfter milliseconds
+    public static final long STATUS_RETRY_AFTER = 2;
 
     final long requestId;
+    final long status;
+    final long retryAfter;
 
     public AllocResponse(final long requestId) {
+        this(requestId, STATUS_OK, 0);
+    }
+
+    public AllocResponse(final long requestId, final long status, final long retryAfter) {
         this.requestId = requestId;
+        this.status = status;
+        this.retryAfter = retryAfter;
     }
 
     public AllocResponse(final byte[] data) {
-        assert (data.length == AllocResponse.BYTE_LEN);
+        assert (data.length == AllocResponse.BYTE_LEN || data.length == AllocResponse.LEGACY_BYTE_LEN);
         this.requestId = Utils.bytesToLong(data, 0);
+        if (data.length == AllocResponse.BYTE_LEN) {
+            this.status = Utils.bytesToLong(data, Long.BYTES);
+            this.retryAfter = Utils.bytesToLong(data, Long.BYTES * 2);
+        } else {
+            this.status = STATUS_OK;
+            this.retryAfter = 0;
+        }
     }
 
     public byte[] toBytes() {
         final byte[] buff = new byte[AllocResponse.BYTE_LEN];
         Utils.longToBytes(this.requestId, buff, 0);
+        Utils.longToBytes(this.status, buff, Long.BYTES);
+        Utils.longToBytes(this.retryAfter, buff, Long.BYTES * 2);
+        return buff;
+    }
+
+    public byte[] toLegacyBytes() {
+        assert (this.status == STATUS_OK);
+        final byte[] buff = new byte[AllocResponse.LEGACY_BYTE_LEN];
+        Utils.longToBytes(this.requestId, buff, 0);
         return buff;
     }
 }
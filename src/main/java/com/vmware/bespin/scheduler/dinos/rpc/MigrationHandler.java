@@ -0,0 +1,33 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.scheduler.dinos.rpc;
+
+import com.vmware.bespin.rpc.RPCHandler;
+import com.vmware.bespin.rpc.RPCHeader;
+import com.vmware.bespin.rpc.RPCMessage;
+import com.vmware.bespin.scheduler.dinos.DiNOSScheduler;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/// NRK asks to carry out a migration it was proposed. The response says whether it may go ahead.
+public class MigrationHandler extends RPCHandler<DiNOSScheduler> {
+    private static final Logger LOG = LogManager.getLogger(MigrationHandler.class);
+
+    public MigrationHandler() { }
+
+    @Override
+    public RPCMessage handleRPC(final RPCMessage msg, final DiNOSScheduler scheduler) {
+        final RPCHeader hdr = msg.hdr();
+        final MigrationRequest req = new MigrationRequest(msg.payload());
+
+        final boolean applied = scheduler.applyMigration(req.application, req.fromNode, req.toNode, req.cores,
+                req.memslices);
+        LOG.info("Handled migration request: {}, applied={}", req, applied);
+
+        hdr.msgLen = MigrationResponse.BYTE_LEN;
+        return new RPCMessage(hdr, new MigrationResponse(applied).toBytes());
+    }
+}
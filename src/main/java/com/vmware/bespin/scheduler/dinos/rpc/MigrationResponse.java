@@ -0,0 +1,27 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.scheduler.dinos.rpc;
+
+public class MigrationResponse {
+    public static final int BYTE_LEN = 1;
+
+    final byte applied;
+
+    public MigrationResponse(final boolean applied) {
+        this.applied = (byte) (applied ? 1 : 0);
+    }
+
+    public MigrationResponse(final byte[] data) {
+        assert (data.length == MigrationResponse.BYTE_LEN);
+        this.applied = data[0];
+    }
+
+    public byte[] toBytes() {
+        final byte[] buff = new byte[MigrationResponse.BYTE_LEN];
+        buff[0] = this.applied;
+        return buff;
+    }
+}
@@ -12,7 +12,9 @@ public enum RPCID {
     RELEASE((byte) 3),
     AFFINITY_ALLOC((byte) 4),
     AFFINITY_RELEASE((byte) 5),
-    ALLOC_ASSIGNMENT((byte) 6);
+    ALLOC_ASSIGNMENT((byte) 6),
+    MIGRATION_PROPOSAL((byte) 7),
+    MIGRATION((byte) 8);
 
     private final byte id;
 
@@ -20,10 +20,13 @@ public class RegisterNodeHandler extends RPCHandler<DiNOSScheduler> {
     @Override
     public RPCMessage handleRPC(final RPCMessage msg, final DiNOSScheduler scheduler) {
         final RPCHeader hdr = msg.hdr();
-        assert (hdr.msgLen == RegisterNodeRequest.BYTE_LEN);
+        assert (hdr.msgLen == RegisterNodeRequest.BYTE_LEN || hdr.msgLen == RegisterNodeRequest.LEGACY_BYTE_LEN);
         final RegisterNodeRequest req = new RegisterNodeRequest(msg.payload());
 
         scheduler.addNode(req.id, req.cores, req.memslices);
+        if (req.hasTopology()) {
+            scheduler.addTopology(req.id, req.socket, req.rack);
+        }
         LOG.info("Handled register node request: {}, assigned id {}", req, req.id);
 
         hdr.msgLen = RegisterNodeResponse.BYTE_LEN;
@@ -8,24 +8,47 @@ package com.vmware.bespin.scheduler.dinos.rpc;
 import com.vmware.bespin.rpc.Utils;
 
 public class RegisterNodeRequest {
-    public static final int BYTE_LEN = Long.BYTES * 3;
+    public static final int BYTE_LEN = Long.BYTES * 5;
+    // Registrations without a topology are still accepted
+    public static final int LEGACY_BYTE_LEN = Long.BYTES * 3;
+    public static final long UNKNOWN = -1;
 
     final long id;
     final long cores;
     final long memslices;
+    // Where the node sits in the machine, UNKNOWN if not reported
+    final long socket;
+    final long rack;
 
     public RegisterNodeRequest(final long id, final byte cores, final byte memslices) {
+        this(id, cores, memslices, UNKNOWN, UNKNOWN);
+    }
+
+    public RegisterNodeRequest(final long id, final long cores, final long memslices, final long socket,
+            final long rack) {
         this.id = id;
         this.cores = cores;
         this.memslices = memslices;
+        this.socket = socket;
+        this.rack = rack;
     }
 
     public RegisterNodeRequest(final byte[] data) {
-        assert (data.length == RegisterNodeRequest.BYTE_LEN);
+        assert (data.length == RegisterNodeRequest.BYTE_LEN || data.length == RegisterNodeRequest.LEGACY_BYTE_LEN);
         this.id = Utils.bytesToLong(data, 0);
         this.cores = Utils.bytesToLong(data, Long.BYTES);
         this.memslices = Utils.bytesToLong(data, Long.BYTES * 2);
-        
+        if (data.length == RegisterNodeRequest.BYTE_LEN) {
+            this.socket = Utils.bytesToLong(data, Long.BYTES * 3);
+            this.rack = Utils.bytesToLong(data, Long.BYTES * 4);
+        } else {
+            this.socket = UNKNOWN;
+            this.rack = UNKNOWN;
+        }
+    }
+
+    public boolean hasTopology() {
+        return this.socket != UNKNOWN && this.rack != UNKNOWN;
     }
 
     public byte[] toBytes() {
@@ -33,11 +56,14 @@ public class RegisterNodeRequest {
         Utils.longToBytes(this.id, buff, 0);
         Utils.longToBytes(this.cores, buff, Long.BYTES);
         Utils.longToBytes(this.memslices, buff, Long.BYTES * 2);
-    return buff;
+        Utils.longToBytes(this.socket, buff, Long.BYTES * 3);
+        Utils.longToBytes(this.rack, buff, Long.BYTES * 4);
+        return buff;
     }
 
     @Override
     public String toString() {
-        return "RegisterNodeRequest(id=" + this.id + ", cores=" + this.cores + ", memslices=" + this.memslices + ")";
+        return "RegisterNodeRequest(id=" + this.id + ", cores=" + this.cores + ", memslices=" + this.memslices +
+            ", socket=" + this.socket + ", rack=" + this.rack + ")";
     }
 }
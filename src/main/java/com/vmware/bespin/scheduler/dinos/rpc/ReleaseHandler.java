@@ -9,6 +9,7 @@ import com.vmware.bespin.rpc.RPCHandler;
 import com.vmware.bespin.rpc.RPCHeader;
 import com.vmware.bespin.rpc.RPCMessage;
 import com.vmware.bespin.scheduler.dinos.DiNOSScheduler;
+import com.vmware.bespin.scheduler.dinos.IngestEvent;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -23,12 +24,8 @@ public class ReleaseHandler extends RPCHandler<DiNOSScheduler> {
         final ReleaseRequest req = new ReleaseRequest(msg.payload());
 
         // TODO: how to validate?
-        final Runnable releaseAlloc = () -> {
-            scheduler.releaseAllocation(req.nodeId, req.application, req.cores, req.memslices);
-        };
-
-        scheduler.workerPool.execute(
-            releaseAlloc
+        scheduler.ingestWorker.submit(
+            IngestEvent.release(req.nodeId, req.application, req.cores, req.memslices)
         );
 
         hdr.msgLen = ReleaseResponse.BYTE_LEN;
@@ -22,7 +22,7 @@ public class ReleaseResponse {
     }
 
     public byte[] toBytes() {
-        final byte[] buff = new byte[AllocResponse.BYTE_LEN];
+        final byte[] buff = new byte[ReleaseResponse.BYTE_LEN];
         Utils.longToBytes(this.isSuccess, buff, 0);
         return buff;
     }
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.simulation;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jooq.DSLContext;
+import org.jooq.Record3;
+import org.jooq.Result;
+
+import com.vmware.bespin.scheduler.Scheduler;
+import com.vmware.bespin.scheduler.Solver;
+import com.vmware.bespin.scheduler.SolverException;
+import com.vmware.bespin.scheduler.generated.tables.Pending;
+import com.vmware.bespin.scheduler.generated.tables.records.PendingRecord;
+import com.vmware.bespin.scheduler.generated.tables.records.PlacedRecord;
+
+/**
+ * Classic bin-packing heuristics, placing each pending request on its own without looking ahead:
+ *
+ * - BEST_FIT: the node with the least free that still fits, which keeps big holes open
+ * - WORST_FIT: the node with the most free, which spreads load
+ * - FIRST_FIT_DECREASING: the application asking for the most in the batch first, with all of its
+ *   requests together and largest first, each on the lowest node that fits
+ * - DOT_PRODUCT: the node whose free cores and memslices, relative to its capacity, line up best
+ *   with what the application asks for in this batch, so nodes are used up evenly in both
+ *   resources instead of being left with cores and no memslices or the other way around
+ *
+ * With locality, a request first goes to the node, picked by the same rule, among those its
+ * application already has resources on (including earlier requests of this batch), and only
+ * falls back to the whole cluster when none of them have room.
+ *
+ * Best-fit, worst-fit and first-fit look nodes up in a CapacityIndex in O(log n); the dot product
+ * depends on both resources at once, so it scans the nodes.
+ */
+public class BinPackingSolver implements Solver {
+
+    public enum Strategy {
+        BEST_FIT,
+        WORST_FIT,
+        FIRST_FIT_DECREASING,
+        DOT_PRODUCT
+    }
+
+    protected Logger LOG = LogManager.getLogger(BinPackingSolver.class);
+    public static final Pending PENDING_TABLE = Pending.PENDING;
+
+    private final Strategy strategy;
+    private final boolean locality;
+    private final boolean partial;
+
+    /**
+     * @param strategy how to pick a node for each request
+     */
+    public BinPackingSolver(final Strategy strategy) {
+        this(strategy, false, false);
+    }
+
+    /**
+     * @param strategy how to pick a node for each request
+     * @param locality if true, prefer nodes the application is already on
+     * @param partial  if true, skip requests that don't fit instead of failing the whole solve
+     */
+    public BinPackingSolver(final Strategy strategy, final boolean locality, final boolean partial) {
+        this.strategy = strategy;
+        this.locality = locality;
+        this.partial = partial;
+    }
+
+    /**
+     * The solver for a name given on the command line: BF, WF, FFD or DOT, with a "loc" suffix for
+     * the locality variant
+     *
+     * @param name    the name
+     * @param partial if true, skip requests that don't fit instead of failing the whole solve
+     * @return the solver, or null if the name isn't one of these
+     */
+    public static BinPackingSolver forName(final String name, final boolean partial) {
+        final boolean loc = name.endsWith("loc");
+        final String base = loc ? name.substring(0, name.length() - 3) : name;
+        if (base.equals("BF")) {
+            return new BinPackingSolver(Strategy.BEST_FIT, loc, partial);
+        } else if (base.equals("WF")) {
+            return new BinPackingSolver(Strategy.WORST_FIT, loc, partial);
+        } else if (base.equals("FFD")) {
+            return new BinPackingSolver(Strategy.FIRST_FIT_DECREASING, loc, partial);
+        } else if (base.equals("DOT")) {
+            return new BinPackingSolver(Strategy.DOT_PRODUCT, loc, partial);
+        }
+        return null;
+    }
+
+    /**
+     * Solve all outstanding requests in the pending table, most urgent first, or by application,
+     * largest first, for first-fit decreasing
+     *
+     * @param conn database connection
+     * @throws Exception this should never happen, but overriding subclasses may
+     *                   throw errors.
+     */
+    public Result<? extends org.jooq.Record> solve(final DSLContext conn,
+                                                   final Scheduler scheduler) throws SolverException {
+
+        // Fetch the requests to solve for
+        final Result<org.jooq.Record> pendingRequests = conn.select().from(PENDING_TABLE)
+                .orderBy(Scheduler.PENDING_ORDER)
+                .fetch();
+        if (null == pendingRequests || pendingRequests.isEmpty()) {
+            return pendingRequests;
+        }
+        final Integer[][] unallocatedResources = scheduler.unallocatedResources();
+        final int numNodes = unallocatedResources[0].length;
+        final CapacityIndex[] free = {new CapacityIndex(unallocatedResources[1]),
+            new CapacityIndex(unallocatedResources[2])};
+
+        final Map<Integer, Integer> nodeIndex = new HashMap<>();
+        for (int n = 0; n < numNodes; n++) {
+            nodeIndex.put(unallocatedResources[0][n], n);
+        }
+
+        // Node indices each application has resources on, kept up to date as we place
+        final Map<Integer, Set<Integer>> appNodes = new HashMap<>();
+        if (this.locality) {
+            for (final PlacedRecord p : conn.selectFrom(Scheduler.PLACED_TABLE).fetch()) {
+                if (p.getCores() + p.getMemslices() > 0) {
+                    appNodes.computeIfAbsent(p.getApplication(), k -> new HashSet<>()).add(nodeIndex.get(p.getNode()));
+                }
+            }
+        }
+
+        // What each application asks for in this batch, and each node's capacity, for the dot product
+        final Map<Integer, long[]> appDemand = new HashMap<>();
+        final int[][] capacity = new int[2][numNodes];
+        if (this.strategy == Strategy.DOT_PRODUCT) {
+            for (final org.jooq.Record r : pendingRequests) {
+                final PendingRecord pending = r.into(PENDING_TABLE);
+                final long[] demand = appDemand.computeIfAbsent(pending.getApplication(), k -> new long[2]);
+                demand[0] += pending.getCores();
+                demand[1] += pending.getMemslices();
+            }
+            for (final Record3<Integer, Integer, Integer> node : conn.select(Scheduler.NODE_TABLE.ID,
+                    Scheduler.NODE_TABLE.CORES, Scheduler.NODE_TABLE.MEMSLICES).from(Scheduler.NODE_TABLE).fetch()) {
+                final Integer n = nodeIndex.get(node.value1());
+                if (null != n) {
+                    capacity[0][n] = node.value2();
+                    capacity[1][n] = node.value3();
+                }
+            }
+        }
+
+        final List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < pendingRequests.size(); i++) {
+            order.add(i);
+        }
+        if (this.strategy == Strategy.FIRST_FIT_DECREASING) {
+            // Each application's total demand, and where its most urgent request is, so applications
+            // asking for the same total still stay apart
+            final Map<Integer, long[]> appTotal = new HashMap<>();
+            for (int i = 0; i < pendingRequests.size(); i++) {
+                final PendingRecord pending = pendingRequests.get(i).into(PENDING_TABLE);
+                final int first = i;
+                appTotal.computeIfAbsent(pending.getApplication(), k -> new long[] {0, first})[0] += size(pending);
+            }
+            final int[] sizes = new int[pendingRequests.size()];
+            final long[][] totals = new long[pendingRequests.size()][];
+            for (int i = 0; i < pendingRequests.size(); i++) {
+                final PendingRecord pending = pendingRequests.get(i).into(PENDING_TABLE);
+                sizes[i] = size(pending);
+                totals[i] = appTotal.get(pending.getApplication());
+            }
+            // Stable, so requests of the same size stay most urgent first
+            order.sort(Comparator.comparingLong((Integer i) -> -totals[i][0])
+                    .thenComparingLong(i -> totals[i][1])
+                    .thenComparingInt(i -> -sizes[i]));
+        }
+
+        for (final int i : order) {
+            final PendingRecord pending = pendingRequests.get(i).into(PENDING_TABLE);
+            assert pending.getCores() == 0 || pending.getMemslices() == 0;
+
+            // Cores and memslices are placed the same way, just against different capacity
+            final int resource = pending.getCores() > 0 ? 0 : 1;
+            final long amount = size(pending);
+            if (amount == 0) {
+                continue;
+            }
+            final long[] demand = appDemand.get(pending.getApplication());
+
+            int node = -1;
+            final Set<Integer> nodes = appNodes.get(pending.getApplication());
+            if (this.locality && null != nodes) {
+                double bestScore = Double.NEGATIVE_INFINITY;
+                for (final int n : nodes) {
+                    if (free[resource].free(n) >= amount) {
+                        final double s = score(n, resource, free, demand, capacity);
+                        if (s > bestScore || s == bestScore && n < node) {
+                            node = n;
+                            bestScore = s;
+                        }
+                    }
+                }
+            }
+            if (node == -1) {
+                node = choose(resource, amount, free, demand, capacity);
+            }
+
+            if (node == -1) {
+                if (this.partial) {
+                    // Leave it queued and carry on with the rest
+                    continue;
+                }
+                throw new SolverException("Infeasible", null);
+            }
+
+            free[resource].take(node, amount);
+            pending.setControllable_Node(unallocatedResources[0][node]);
+            pendingRequests.set(i, pending);
+            if (this.locality) {
+                appNodes.computeIfAbsent(pending.getApplication(), k -> new HashSet<>()).add(node);
+            }
+        }
+        if (this.partial) {
+            // Only return what was placed
+            pendingRequests.removeIf(r -> null == r.get(PENDING_TABLE.CONTROLLABLE__NODE));
+        }
+        return pendingRequests;
+    }
+
+    private static int size(final PendingRecord pending) {
+        return pending.getCores() + pending.getMemslices();
+    }
+
+    /**
+     * Pick a node from the whole cluster
+     *
+     * @return the node index, or -1 if none has room
+     */
+    private int choose(final int resource, final long amount, final CapacityIndex[] free, final long[] demand,
+            final int[][] capacity) {
+        switch (this.strategy) {
+            case BEST_FIT:
+                return free[resource].leastFit(amount);
+            case WORST_FIT:
+                final int most = free[resource].mostFree();
+                return most != -1 && free[resource].free(most) >= amount ? most : -1;
+            case FIRST_FIT_DECREASING:
+                return free[resource].size() == 0 ? -1 : free[resource].next(0, amount);
+            default:
+                int node = -1;
+                double bestScore = Double.NEGATIVE_INFINITY;
+                for (int n = 0; n < free[resource].size(); n++) {
+                    if (free[resource].free(n) >= amount) {
+                        final double s = score(n, resource, free, demand, capacity);
+                        if (s > bestScore) {
+                            node = n;
+                            bestScore = s;
+                        }
+                    }
+                }
+                return node;
+        }
+    }
+
+    /**
+     * How much the strategy likes a node with room, higher is better
+     */
+    private double score(final int node, final int resource, final CapacityIndex[] free, final long[] demand,
+            final int[][] capacity) {
+        switch (this.strategy) {
+            case BEST_FIT:
+                return -free[resource].free(node);
+            case WORST_FIT:
+                return free[resource].free(node);
+            case FIRST_FIT_DECREASING:
+                return -node;
+            default:
+                double dot = 0;
+                for (int r = 0; r < 2; r++) {
+                    if (capacity[r][node] > 0) {
+                        dot += demand[r] * (double) free[r].free(node) / capacity[r][node];
+                    }
+                }
+                return dot;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.simulation;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+
+/**
+ * Free amount of one resource (cores or memslices) per node, indexed so the heuristic solvers can
+ * find a node with room in O(log n) instead of scanning the cluster:
+ *
+ * - a max segment tree over the nodes, in visiting order, answers "next node with at least k free"
+ * - a set ordered by free amount answers "node with the most free" and "node with the least free
+ *   that still has at least k"
+ *
+ * Nodes are identified by their index into the arrays returned by Scheduler.unallocatedResources().
+ * The visiting order is node 0, stride, 2 * stride, ... modulo the number of nodes, so with the
+ * default stride of 1 it is simply by index.
+ */
+public class CapacityIndex {
+    private final int size;
+    private final int leaves;
+    private final int[] order; // position -> node
+    private final int[] position; // node -> position
+    private final int[] free; // by node
+    private final int[] tree; // max free over positions, leaves start at this.leaves
+    private final TreeSet<Long> byFree; // free << 32 | node
+
+    /**
+     * @param free free amount by node
+     */
+    public CapacityIndex(final Integer[] free) {
+        this(free, 1);
+    }
+
+    /**
+     * @param free   free amount by node
+     * @param stride step between nodes in visiting order, must be relatively prime to the number of nodes
+     */
+    public CapacityIndex(final Integer[] free, final int stride) {
+        this.size = free.length;
+        int leafCount = 1;
+        while (leafCount < Math.max(1, this.size)) {
+            leafCount *= 2;
+        }
+        this.leaves = leafCount;
+        this.order = new int[this.size];
+        this.position = new int[this.size];
+        this.free = new int[this.size];
+        this.tree = new int[2 * this.leaves];
+        this.byFree = new TreeSet<>();
+        Arrays.fill(this.tree, Integer.MIN_VALUE);
+        for (int pos = 0; pos < this.size; pos++) {
+            final int node = (int) ((long) pos * stride % this.size);
+            this.order[pos] = node;
+            this.position[node] = pos;
+        }
+        for (int node = 0; node < this.size; node++) {
+            this.free[node] = free[node];
+            this.tree[this.leaves + this.position[node]] = free[node];
+            this.byFree.add(key(free[node], node));
+        }
+        for (int idx = this.leaves - 1; idx > 0; idx--) {
+            this.tree[idx] = Math.max(this.tree[2 * idx], this.tree[2 * idx + 1]);
+        }
+    }
+
+    private static long key(final int amount, final int node) {
+        return ((long) amount << 32) | node;
+    }
+
+    /**
+     * @return number of nodes
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @param node a node
+     * @return its free amount
+     */
+    public int free(final int node) {
+        return this.free[node];
+    }
+
+    /**
+     * Take some of a node's free amount
+     *
+     * @param node   a node
+     * @param amount how much to take
+     */
+    public void take(final int node, final long amount) {
+        final int updated = (int) (this.free[node] - amount);
+        this.byFree.remove(key(this.free[node], node));
+        this.byFree.add(key(updated, node));
+        this.free[node] = updated;
+        int idx = this.leaves + this.position[node];
+        this.tree[idx] = updated;
+        for (idx /= 2; idx > 0; idx /= 2) {
+            this.tree[idx] = Math.max(this.tree[2 * idx], this.tree[2 * idx + 1]);
+        }
+    }
+
+    /**
+     * @param node a node
+     * @return the node visited after it, wrapping around
+     */
+    public int successor(final int node) {
+        return this.order[(this.position[node] + 1) % this.size];
+    }
+
+    /**
+     * The first node with enough room, starting from a node and wrapping around in visiting order
+     *
+     * @param node   where to start, included in the search
+     * @param amount how much room is needed
+     * @return the node, or -1 if no node has enough room
+     */
+    public int next(final int node, final long amount) {
+        if (this.size == 0 || this.tree[1] < amount) {
+            return -1;
+        }
+        int pos = firstFrom(1, 0, this.leaves - 1, this.position[node], amount);
+        if (pos == -1) {
+            pos = firstFrom(1, 0, this.leaves - 1, 0, amount);
+        }
+        return this.order[pos];
+    }
+
+    // First position at or after from in the subtree idx, covering positions lo to hi, with enough room
+    private int firstFrom(final int idx, final int lo, final int hi, final int from, final long amount) {
+        if (hi < from || this.tree[idx] < amount) {
+            return -1;
+        }
+        if (lo == hi) {
+            return lo;
+        }
+        final int mid = (lo + hi) >>> 1;
+        final int left = firstFrom(2 * idx, lo, mid, from, amount);
+        return left != -1 ? left : firstFrom(2 * idx + 1, mid + 1, hi, from, amount);
+    }
+
+    /**
+     * @return the node with the most free, the lowest one on a tie, or -1 if there are no nodes
+     */
+    public int mostFree() {
+        if (this.byFree.isEmpty()) {
+            return -1;
+        }
+        final long most = this.byFree.last() >> 32;
+        return (int) (this.byFree.ceiling(most << 32) & 0xffffffffL);
+    }
+
+    /**
+     * @param amount how much room is needed
+     * @return the node with the least free that still has enough room, the lowest one on a tie,
+     *         or -1 if no node has enough room
+     */
+    public int leastFit(final long amount) {
+        if (amount > Integer.MAX_VALUE) {
+            return -1;
+        }
+        final Long fit = this.byFree.ceiling(amount << 32);
+        return null == fit ? -1 : (int) (fit & 0xffffffffL);
+    }
+}
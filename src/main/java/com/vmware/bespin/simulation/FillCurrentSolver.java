@@ -6,8 +6,10 @@
 package com.vmware.bespin.simulation;
 
 import java.util.ArrayList;
-//import java.util.HashSet;
-//import java.util.Set;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -19,6 +21,7 @@ import com.vmware.bespin.scheduler.Solver;
 import com.vmware.bespin.scheduler.SolverException;
 import com.vmware.bespin.scheduler.generated.tables.Pending;
 import com.vmware.bespin.scheduler.generated.tables.records.PendingRecord;
+import com.vmware.bespin.scheduler.generated.tables.records.PlacedRecord;
 
 public class FillCurrentSolver implements Solver {
 
@@ -30,12 +33,39 @@ public class FillCurrentSolver implements Solver {
 
     private ArrayList<Integer> coreIndices = new ArrayList<Integer>();
     private ArrayList<Integer> memsliceIndices = new ArrayList<Integer>();
+    private final boolean partial;
+    private final boolean colocate;
 
     /**
      * Assign requests for cores and memslices to nodes in a 'sticky' fashion,
      * that is, fill the current node before moving on.
      */
     public FillCurrentSolver() {
+        this(false, false);
+    }
+
+    /**
+     * Assign requests for cores and memslices to nodes in a 'sticky' fashion,
+     * that is, fill the current node before moving on.
+     * 
+     * @param partial if true, skip requests that don't fit instead of failing the whole solve
+     */
+    public FillCurrentSolver(final boolean partial) {
+        this(partial, false);
+    }
+
+    /**
+     * Assign requests for cores and memslices to nodes in a 'sticky' fashion,
+     * that is, fill the current node before moving on.
+     * 
+     * @param partial  if true, skip requests that don't fit instead of failing the whole solve
+     * @param colocate if true, before filling the current node, move to a node with room that
+     *                 already holds the application's other resource type, so its memslices
+     *                 end up with its cores and vice versa
+     */
+    public FillCurrentSolver(final boolean partial, final boolean colocate) {
+        this.partial = partial;
+        this.colocate = colocate;
         for (int i = 0; i < MAX_APPLICATIONS; i++) {
             coreIndices.add(-1);
             memsliceIndices.add(-1);
@@ -43,7 +73,7 @@ public class FillCurrentSolver implements Solver {
     }
 
     /**
-     * Solve all outstanding requests in the pending table
+     * Solve all outstanding requests in the pending table, most urgent first
      * 
      * @param conn database connection
      * @throws Exception this should never happen, but overriding subclasses may
@@ -53,10 +83,40 @@ public class FillCurrentSolver implements Solver {
                                                    final Scheduler scheduler) throws SolverException {
 
         // Fetch the requests to solve for
-        final Result<org.jooq.Record> pendingRequests = conn.select().from(PENDING_TABLE).fetch();
+        final Result<org.jooq.Record> pendingRequests = conn.select().from(PENDING_TABLE)
+                .orderBy(Scheduler.PENDING_ORDER)
+                .fetch();
         final Integer[][] unallocatedResources = scheduler.unallocatedResources();
         final int numNodes = unallocatedResources[0].length;
 
+        // Nodes are visited nodeIterator apart, which needs a stride relatively prime to numNodes to
+        // reach all of them
+        int stride = nodeIterator;
+        while (numNodes > 0 && !relativelyPrime(stride, numNodes)) {
+            stride++;
+        }
+        final CapacityIndex freeCores = new CapacityIndex(unallocatedResources[1], stride);
+        final CapacityIndex freeMemslices = new CapacityIndex(unallocatedResources[2], stride);
+
+        // Node indices holding each application's cores and memslices, kept up to date as we place
+        final Map<Integer, Set<Integer>> coreNodes = new HashMap<>();
+        final Map<Integer, Set<Integer>> memsliceNodes = new HashMap<>();
+        if (this.colocate) {
+            final Map<Integer, Integer> nodeIndex = new HashMap<>();
+            for (int n = 0; n < numNodes; n++) {
+                nodeIndex.put(unallocatedResources[0][n], n);
+            }
+            for (final PlacedRecord p : conn.selectFrom(Scheduler.PLACED_TABLE).fetch()) {
+                if (p.getCores() > 0) {
+                    coreNodes.computeIfAbsent(p.getApplication(), k -> new HashSet<>()).add(nodeIndex.get(p.getNode()));
+                }
+                if (p.getMemslices() > 0) {
+                    memsliceNodes.computeIfAbsent(p.getApplication(), k -> new HashSet<>())
+                            .add(nodeIndex.get(p.getNode()));
+                }
+            }
+        }
+
         if (null != pendingRequests && pendingRequests.isNotEmpty()) {
             // For every request, randomly set the controllable node.
             for (int i = 0; i < pendingRequests.size(); i++) {
@@ -71,44 +131,43 @@ public class FillCurrentSolver implements Solver {
 
                 // Place the cores
                 if (coresToPlace > 0) {
+                    if (this.colocate) {
+                        moveToColocated(coreIndices, application, memsliceNodes.get(application), freeCores,
+                                coresToPlace);
+                    }
                     int coreIndex = coreIndices.get(application);
                     if (coreIndex == -1) {
                         // Initialize the index
                         coreIndices.set(application, application % numNodes);
                         coreIndex = application % numNodes;
                     }
-                    long freeCoresForNode = unallocatedResources[1][coreIndex];
 
-                    if (freeCoresForNode >= coresToPlace) {
+                    if (freeCores.free(coreIndex) >= coresToPlace) {
                         // If current node has space, allocate from there
-                        unallocatedResources[1][coreIndex] -= (int) coresToPlace;
+                        freeCores.take(coreIndex, coresToPlace);
                         pending.setControllable_Node(unallocatedResources[0][coreIndex]);
                     } else {
-                        // If current node does not have space, find a new node.
-                        boolean placed = false;
-                        int newCoreIndex = coreIndex;
-
-                        while (!placed) {
-                            newCoreIndex = (newCoreIndex + nodeIterator) % numNodes;
-                            freeCoresForNode = unallocatedResources[1][newCoreIndex];
-                            if (freeCoresForNode >= coresToPlace) {
-                                // If current node has space, allocate from there and update core index
-                                unallocatedResources[1][newCoreIndex] -= (int) coresToPlace;
-                                pending.setControllable_Node(unallocatedResources[0][newCoreIndex]);
-                                coreIndices.set(application, newCoreIndex);
-                                placed = true;
-                            } else if (newCoreIndex == coreIndex) {
-                                // We've reached the end of the cycle, and didn't find anything free
-                                // We can conclude there's no room in the cluster
-                                throw new SolverException("Infeasible", null);
-                            }
-
+                        // If current node does not have space, find the next node that does
+                        final int newCoreIndex = freeCores.next(freeCores.successor(coreIndex), coresToPlace);
+                        if (newCoreIndex != -1) {
+                            // Allocate from there and update core index
+                            freeCores.take(newCoreIndex, coresToPlace);
+                            pending.setControllable_Node(unallocatedResources[0][newCoreIndex]);
+                            coreIndices.set(application, newCoreIndex);
+                        } else if (!this.partial) {
+                            // No node has room, we can conclude there's no room in the cluster
+                            throw new SolverException("Infeasible", null);
                         }
+                        // Otherwise leave it queued and carry on with the rest
                     }
                 }
 
                 // Place the memslices
                 if (memslicesToPlace > 0) {
+                    if (this.colocate) {
+                        moveToColocated(memsliceIndices, application, coreNodes.get(application), freeMemslices,
+                                memslicesToPlace);
+                    }
                     int memsliceIndex = memsliceIndices.get(application);
                     if (memsliceIndex == -1) {
                         // Initialize the index
@@ -116,42 +175,71 @@ public class FillCurrentSolver implements Solver {
                         memsliceIndex = application % numNodes;
                     }
 
-                    long freeMemslicesForNode = unallocatedResources[2][memsliceIndex];
-
-                    if (freeMemslicesForNode >= memslicesToPlace) {
+                    if (freeMemslices.free(memsliceIndex) >= memslicesToPlace) {
                         // If current node has space, allocate from there
-                        unallocatedResources[2][memsliceIndex] -= (int) memslicesToPlace;
-                        pending.setControllable_Node(memsliceIndex + 1);
+                        freeMemslices.take(memsliceIndex, memslicesToPlace);
+                        pending.setControllable_Node(unallocatedResources[0][memsliceIndex]);
                     } else {
-                        // If current node does not have space, find a new node.
-                        boolean placed = false;
-                        int newMemsliceIndex = memsliceIndex;
-
-                        while (!placed) {
-                            newMemsliceIndex = (newMemsliceIndex + nodeIterator) % numNodes;
-                            freeMemslicesForNode =  unallocatedResources[2][newMemsliceIndex];
-                            if (freeMemslicesForNode >= memslicesToPlace) {
-                                // If current node has space, allocate from there and update memslice index
-                                unallocatedResources[2][newMemsliceIndex] -= (int) memslicesToPlace;
-                                pending.setControllable_Node(unallocatedResources[0][newMemsliceIndex]);
-                                memsliceIndices.set(application, newMemsliceIndex);
-                                placed = true;
-                            } else if (newMemsliceIndex == memsliceIndex) {
-                                // We've reached the end of the cycle, and didn't find anything free
-                                // We can conclude there's no room in the cluster
-                                throw new SolverException("Infeasible", null);
-                            }
-
+                        // If current node does not have space, find the next node that does
+                        final int newMemsliceIndex = freeMemslices.next(freeMemslices.successor(memsliceIndex),
+                                memslicesToPlace);
+                        if (newMemsliceIndex != -1) {
+                            // Allocate from there and update memslice index
+                            freeMemslices.take(newMemsliceIndex, memslicesToPlace);
+                            pending.setControllable_Node(unallocatedResources[0][newMemsliceIndex]);
+                            memsliceIndices.set(application, newMemsliceIndex);
+                        } else if (!this.partial) {
+                            // No node has room, we can conclude there's no room in the cluster
+                            throw new SolverException("Infeasible", null);
                         }
+                        // Otherwise leave it queued and carry on with the rest
                     }
                 }
 
+                if (this.colocate && null != pending.getControllable_Node()) {
+                    if (coresToPlace > 0) {
+                        coreNodes.computeIfAbsent(application, k -> new HashSet<>()).add(coreIndices.get(application));
+                    } else {
+                        memsliceNodes.computeIfAbsent(application, k -> new HashSet<>())
+                                .add(memsliceIndices.get(application));
+                    }
+                }
                 pendingRequests.set(i, pending);
             }
         }
+        if (this.partial && null != pendingRequests) {
+            // Only return what was placed
+            pendingRequests.removeIf(r -> null == r.get(PENDING_TABLE.CONTROLLABLE__NODE));
+        }
         return pendingRequests;
     }
 
+    /**
+     * Point an application's current node at a node that holds its other resource type and has
+     * room, unless the current node already does. Leaves the index alone if there is no such node.
+     * 
+     * @param indices     the current node index per application for the resource being placed
+     * @param application the application
+     * @param otherNodes  node indices holding the application's other resource type, may be null
+     * @param free        free amount of the resource being placed, by node index
+     * @param amount      how much is being placed
+     */
+    private static void moveToColocated(final ArrayList<Integer> indices, final int application,
+            final Set<Integer> otherNodes, final CapacityIndex free, final long amount) {
+        if (null == otherNodes) {
+            return;
+        }
+        final int current = indices.get(application);
+        if (otherNodes.contains(current) && free.free(current) >= amount) {
+            return;
+        }
+        for (final Integer n : otherNodes) {
+            if (free.free(n) >= amount) {
+                indices.set(application, n);
+                return;
+            }
+        }
+    }
 
     // From https://stackoverflow.com/questions/28575416/how-to-find-out-if-two-numbers-are-relatively-prime
     private static int gcd(int a, int b) {
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.simulation;
+
+import java.util.Arrays;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.jooq.DSLContext;
+
+import com.vmware.bespin.scheduler.DBUtils;
+import com.vmware.bespin.scheduler.Scheduler;
+import com.vmware.bespin.scheduler.dinos.DiNOSSolver;
+
+/**
+ * Compares how DCMloc scales with batch size when locality between pending requests is expressed
+ * with the pending self-join (one objective term per pair of requests of the same application)
+ * and with the linear chain formulation (one term per request). Each run builds a fresh model,
+ * then solves batches of random single core or memslice requests against a cluster that is
+ * otherwise empty. Placements are not committed, so every batch sees the same cluster.
+ */
+public class LocalityBenchmark {
+    private static final String BATCHES_OPTION = "batches";
+    private static final String BATCHES_DEFAULT = "10,50,100,200,400";
+    private static final String ITERS_OPTION = "iters";
+    private static final int ITERS_DEFAULT = 5;
+    private static final String NUM_NODES_OPTION = "numNodes";
+    private static final int NUM_NODES_DEFAULT = 16;
+    private static final String NUM_APPS_OPTION = "numApps";
+    private static final int NUM_APPS_DEFAULT = 20;
+    private static final int CORES_PER_NODE = 64;
+    private static final int MEMSLICES_PER_NODE = 128;
+    private static final int RANDOM_SEED = 42;
+
+    /**
+     * Result of solving one batch size with one formulation
+     *
+     * @param terms locality objective terms between pending requests
+     * @param firstMillis the first solve, which includes building the model
+     * @param solveMillis the remaining solves, sorted
+     */
+    record Result(long terms, long firstMillis, long[] solveMillis) {
+        long percentile(final double p) {
+            return solveMillis[(int) Math.min(solveMillis.length - 1, Math.floor(p * solveMillis.length))];
+        }
+    }
+
+    /**
+     * Solve a number of random batches of the same size
+     *
+     * @param linear true for the chain formulation, false for the pending self-join
+     * @param batchSize pending requests per solve
+     * @param iters solves after the first one
+     * @param numNodes nodes in the cluster
+     * @param numApps applications making requests
+     * @return the measured result
+     */
+    static Result run(final boolean linear, final int batchSize, final int iters, final int numNodes,
+            final int numApps) throws Exception {
+        final DSLContext conn = DBUtils.getConn();
+        final DiNOSSolver solver = new DiNOSSolver.Builder(conn)
+                .setUseLocalityConstraints(true)
+                .setLinearLocality(linear)
+                .build();
+        final Scheduler scheduler = new Scheduler(conn, solver, false);
+        final Simulation sim = new Simulation(conn, scheduler, RANDOM_SEED, numNodes, CORES_PER_NODE,
+                MEMSLICES_PER_NODE, numApps);
+
+        long terms = 0;
+        long first = 0;
+        final long[] solves = new long[iters];
+        for (int i = 0; i <= iters; i++) {
+            for (int r = 0; r < batchSize; r++) {
+                sim.generateRandomRequest();
+            }
+            if (i == 0) {
+                terms = linear ? batchSize : ((Number) conn.fetchValue(
+                        "select coalesce(sum(c * (c - 1)), 0) from " +
+                        "(select count(*) as c from pending group by application)")).longValue();
+            }
+            final long start = System.currentTimeMillis();
+            solver.solve(conn, scheduler);
+            final long elapsed = System.currentTimeMillis() - start;
+            if (i == 0) {
+                first = elapsed;
+            } else {
+                solves[i - 1] = elapsed;
+            }
+            conn.execute("truncate table pending");
+        }
+        Arrays.sort(solves);
+        return new Result(terms, first, solves);
+    }
+
+    public static void main(final String[] args) throws Exception {
+        String batches = BATCHES_DEFAULT;
+        int iters = ITERS_DEFAULT;
+        int numNodes = NUM_NODES_DEFAULT;
+        int numApps = NUM_APPS_DEFAULT;
+
+        final Options options = new Options();
+        final Option helpOption = Option.builder("h")
+                .longOpt("help").argName("h")
+                .hasArg(false)
+                .desc("print help message")
+                .build();
+        final Option batchesOption = Option.builder("b")
+                .longOpt(BATCHES_OPTION).argName(BATCHES_OPTION)
+                .hasArg()
+                .desc(String.format("comma separated batch sizes.%nDefault: %s", BATCHES_DEFAULT))
+                .type(String.class)
+                .build();
+        final Option itersOption = Option.builder("i")
+                .longOpt(ITERS_OPTION).argName(ITERS_OPTION)
+                .hasArg()
+                .desc(String.format("solves per batch size after the first.%nDefault: %d", ITERS_DEFAULT))
+                .type(Integer.class)
+                .build();
+        final Option numNodesOption = Option.builder("n")
+                .longOpt(NUM_NODES_OPTION).argName(NUM_NODES_OPTION)
+                .hasArg()
+                .desc(String.format("nodes in the cluster.%nDefault: %d", NUM_NODES_DEFAULT))
+                .type(Integer.class)
+                .build();
+        final Option numAppsOption = Option.builder("p")
+                .longOpt(NUM_APPS_OPTION).argName(NUM_APPS_OPTION)
+                .hasArg()
+                .desc(String.format("applications making requests.%nDefault: %d", NUM_APPS_DEFAULT))
+                .type(Integer.class)
+                .build();
+        options.addOption(helpOption);
+        options.addOption(batchesOption);
+        options.addOption(itersOption);
+        options.addOption(numNodesOption);
+        options.addOption(numAppsOption);
+
+        final CommandLineParser parser = new DefaultParser();
+        try {
+            final CommandLine cmd = parser.parse(options, args);
+            if (cmd.hasOption("h")) {
+                final HelpFormatter formatter = new HelpFormatter();
+                formatter.printHelp("java -cp target/scheduler-1.1.16-SNAPSHOT-jar-with-dependencies.jar " +
+                        "com.vmware.bespin.simulation.LocalityBenchmark [options]", options);
+                return;
+            }
+            if (cmd.hasOption(BATCHES_OPTION)) {
+                batches = cmd.getOptionValue(BATCHES_OPTION);
+            }
+            if (cmd.hasOption(ITERS_OPTION)) {
+                iters = Integer.parseInt(cmd.getOptionValue(ITERS_OPTION));
+            }
+            if (cmd.hasOption(NUM_NODES_OPTION)) {
+                numNodes = Integer.parseInt(cmd.getOptionValue(NUM_NODES_OPTION));
+            }
+            if (cmd.hasOption(NUM_APPS_OPTION)) {
+                numApps = Integer.parseInt(cmd.getOptionValue(NUM_APPS_OPTION));
+            }
+        } catch (final ParseException ignored) {
+            System.out.println("Failed to parse command line");
+            System.exit(-1);
+        }
+
+        System.out.println("formulation,batch,locality_terms,first_solve_ms,p50_solve_ms,max_solve_ms");
+        for (final String b : batches.split(",")) {
+            final int batchSize = Integer.parseInt(b.trim());
+            for (final boolean linear : new boolean[] {false, true}) {
+                final Result r = run(linear, batchSize, iters, numNodes, numApps);
+                System.out.println(String.format("%s,%d,%d,%d,%d,%d", linear ? "chain" : "pairwise", batchSize,
+                        r.terms(), r.firstMillis(), r.percentile(0.5), r.percentile(1.0)));
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.simulation;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.math3.random.JDKRandomGenerator;
+import org.apache.commons.math3.random.RandomDataGenerator;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jooq.DSLContext;
+import org.jooq.Record3;
+import org.jooq.Result;
+
+import com.vmware.bespin.scheduler.Scheduler;
+import com.vmware.bespin.scheduler.Solver;
+import com.vmware.bespin.scheduler.SolverException;
+import com.vmware.bespin.scheduler.generated.tables.Pending;
+import com.vmware.bespin.scheduler.generated.tables.records.PendingRecord;
+import com.vmware.bespin.scheduler.generated.tables.records.PlacedRecord;
+
+/**
+ * Places each request by probing a handful of candidate nodes instead of looking at the whole
+ * cluster: the nodes its application is already on, most recently used first, topped up with
+ * random nodes. The candidate with room that scores best wins, where being on a node the
+ * application already uses outweighs anything else and, after that, the node with the largest
+ * share of the resource free wins, which keeps load balanced.
+ *
+ * Each request probes O(choices) nodes no matter how big the cluster is: the application's nodes
+ * that are full for the resource asked for are skipped without using up a probe, but only a
+ * bounded number of them are looked at. Only when none of the candidates have room does it fall
+ * back to the capacity index, which is O(log n).
+ */
+public class PowerOfChoicesSolver implements Solver {
+
+    protected Logger LOG = LogManager.getLogger(PowerOfChoicesSolver.class);
+    public static final Pending PENDING_TABLE = Pending.PENDING;
+
+    // Nodes probed per request
+    public static final int DEFAULT_CHOICES = 4;
+
+    // Score for a node the application is already on, more than any balance score
+    private static final double LOCALITY_SCORE = 2.0;
+
+    // Bound on the application's nodes looked at per request, as a multiple of the choices
+    private static final int LOCAL_PROBE_FACTOR = 4;
+
+    private final int choices;
+    private final boolean partial;
+    private final RandomDataGenerator rand;
+
+    /**
+     * Place requests on the best of a few sampled nodes.
+     */
+    public PowerOfChoicesSolver() {
+        this(DEFAULT_CHOICES, false, null);
+    }
+
+    /**
+     * Place requests on the best of a few sampled nodes.
+     *
+     * @param choices    nodes probed per request, at least one of them random
+     * @param partial    if true, skip requests that don't fit instead of failing the whole solve
+     * @param randomSeed seed for sampling, or null for a random one
+     */
+    public PowerOfChoicesSolver(final int choices, final boolean partial, final Integer randomSeed) {
+        assert choices > 0;
+        this.choices = choices;
+        this.partial = partial;
+        if (randomSeed == null) {
+            this.rand = new RandomDataGenerator();
+        } else {
+            this.rand = new RandomDataGenerator(new JDKRandomGenerator(randomSeed));
+        }
+    }
+
+    /**
+     * Solve all outstanding requests in the pending table, most urgent first
+     *
+     * @param conn database connection
+     * @throws Exception this should never happen, but overriding subclasses may
+     *                   throw errors.
+     */
+    public Result<? extends org.jooq.Record> solve(final DSLContext conn,
+                                                   final Scheduler scheduler) throws SolverException {
+
+        // Fetch the requests to solve for
+        final Result<org.jooq.Record> pendingRequests = conn.select().from(PENDING_TABLE)
+                .orderBy(Scheduler.PENDING_ORDER)
+                .fetch();
+        if (null == pendingRequests || pendingRequests.isEmpty()) {
+            return pendingRequests;
+        }
+        final Integer[][] unallocatedResources = scheduler.unallocatedResources();
+        final int numNodes = unallocatedResources[0].length;
+        final CapacityIndex[] free = {new CapacityIndex(unallocatedResources[1]),
+            new CapacityIndex(unallocatedResources[2])};
+
+        final Map<Integer, Integer> nodeIndex = new HashMap<>();
+        for (int n = 0; n < numNodes; n++) {
+            nodeIndex.put(unallocatedResources[0][n], n);
+        }
+        final int[][] capacity = new int[2][numNodes];
+        for (final Record3<Integer, Integer, Integer> node : conn.select(Scheduler.NODE_TABLE.ID,
+                Scheduler.NODE_TABLE.CORES, Scheduler.NODE_TABLE.MEMSLICES).from(Scheduler.NODE_TABLE).fetch()) {
+            final Integer n = nodeIndex.get(node.value1());
+            if (null != n) {
+                capacity[0][n] = node.value2();
+                capacity[1][n] = node.value3();
+            }
+        }
+
+        // Node indices each application is on, kept up to date as we place
+        final Map<Integer, RecentNodes> appNodes = new HashMap<>();
+        for (final PlacedRecord p : conn.selectFrom(Scheduler.PLACED_TABLE).fetch()) {
+            final Integer n = nodeIndex.get(p.getNode());
+            if (null != n && p.getCores() + p.getMemslices() > 0) {
+                appNodes.computeIfAbsent(p.getApplication(), k -> new RecentNodes()).use(n);
+            }
+        }
+
+        for (int i = 0; i < pendingRequests.size(); i++) {
+            final PendingRecord pending = pendingRequests.get(i).into(PENDING_TABLE);
+            assert pending.getCores() == 0 || pending.getMemslices() == 0;
+
+            // Cores and memslices are placed the same way, just against different capacity
+            final int resource = pending.getCores() > 0 ? 0 : 1;
+            final long amount = pending.getCores() + pending.getMemslices();
+            if (amount == 0 || numNodes == 0) {
+                if (amount > 0 && !this.partial) {
+                    throw new SolverException("Infeasible", null);
+                }
+                continue;
+            }
+            final RecentNodes nodes = appNodes.computeIfAbsent(pending.getApplication(), k -> new RecentNodes());
+
+            int best = -1;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            // The application's own nodes, newest first, leaving at least one probe for a random node.
+            // Nodes that are full for this resource don't use up a probe, up to a bound, since they
+            // may still have room for the other one.
+            int local = 0;
+            int looked = 0;
+            for (final Iterator<Integer> it = nodes.newestFirst(); it.hasNext() && local < this.choices - 1
+                    && looked < LOCAL_PROBE_FACTOR * this.choices; looked++) {
+                final int n = it.next();
+                if (free[resource].free(n) >= amount) {
+                    local++;
+                    final double score = LOCALITY_SCORE + balance(n, resource, free, capacity);
+                    if (score > bestScore) {
+                        best = n;
+                        bestScore = score;
+                    }
+                }
+            }
+            for (int c = local; c < this.choices; c++) {
+                final int n = rand.nextInt(0, numNodes - 1);
+                if (free[resource].free(n) >= amount) {
+                    final double score = balance(n, resource, free, capacity);
+                    if (score > bestScore) {
+                        best = n;
+                        bestScore = score;
+                    }
+                }
+            }
+            if (best == -1) {
+                // Unlucky or nearly full, take the next node with room after a random one
+                best = free[resource].next(rand.nextInt(0, numNodes - 1), amount);
+            }
+
+            if (best == -1) {
+                if (this.partial) {
+                    // Leave it queued and carry on with the rest
+                    continue;
+                }
+                throw new SolverException("Infeasible", null);
+            }
+
+            free[resource].take(best, amount);
+            pending.setControllable_Node(unallocatedResources[0][best]);
+            pendingRequests.set(i, pending);
+            nodes.use(best);
+        }
+        if (this.partial) {
+            // Only return what was placed
+            pendingRequests.removeIf(r -> null == r.get(PENDING_TABLE.CONTROLLABLE__NODE));
+        }
+        return pendingRequests;
+    }
+
+    // Share of the node's capacity of the resource that is free, between 0 and 1
+    private static double balance(final int node, final int resource, final CapacityIndex[] free,
+            final int[][] capacity) {
+        return capacity[resource][node] > 0 ? (double) free[resource].free(node) / capacity[resource][node] : 0.0;
+    }
+
+    /**
+     * The nodes an application is on, in the order they were last used. Each node is stamped with
+     * when it was last used, so moving it to the front is O(log n) rather than a scan of a list.
+     */
+    private static final class RecentNodes {
+        private final TreeMap<Long, Integer> byStamp = new TreeMap<>();
+        private final Map<Integer, Long> stamps = new HashMap<>();
+        private long clock = 0;
+
+        void use(final int node) {
+            final Long stamp = this.stamps.put(node, this.clock);
+            if (null != stamp) {
+                this.byStamp.remove(stamp);
+            }
+            this.byStamp.put(this.clock++, node);
+        }
+
+        Iterator<Integer> newestFirst() {
+            return this.byStamp.descendingMap().values().iterator();
+        }
+    }
+}
@@ -5,8 +5,6 @@
 
 package com.vmware.bespin.simulation;
 
-import java.util.ArrayList;
-
 import org.apache.commons.math3.random.RandomDataGenerator;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -24,17 +22,31 @@ public class RandomSolver implements Solver {
     protected Logger LOG = LogManager.getLogger(RandomSolver.class);
     public static final Pending PENDING_TABLE = Pending.PENDING;
 
+    // Random nodes to try before falling back to the capacity index
+    private static final int RANDOM_TRIES = 8;
+
     private final RandomDataGenerator rand;
+    private final boolean partial;
 
     /**
      * Randomly assign requests for cores and memslices to nodes.
      */
     public RandomSolver() {
+        this(false);
+    }
+
+    /**
+     * Randomly assign requests for cores and memslices to nodes.
+     * 
+     * @param partial if true, skip requests that don't fit instead of failing the whole solve
+     */
+    public RandomSolver(final boolean partial) {
         this.rand = new RandomDataGenerator();
+        this.partial = partial;
     }
 
     /**
-     * Solve all outstanding requests in the pending table
+     * Solve all outstanding requests in the pending table, most urgent first
      * 
      * @param conn database connection
      * @throws Exception this should never happen, but overriding subclasses may
@@ -44,8 +56,12 @@ public class RandomSolver implements Solver {
                                                    final Scheduler scheduler) throws SolverException {
 
         // Fetch the requests to solve for
-        final Result<org.jooq.Record> pendingRequests = conn.select().from(PENDING_TABLE).fetch();
+        final Result<org.jooq.Record> pendingRequests = conn.select().from(PENDING_TABLE)
+                .orderBy(Scheduler.PENDING_ORDER)
+                .fetch();
         final Integer[][] unallocatedResources = scheduler.unallocatedResources();
+        final CapacityIndex freeCores = new CapacityIndex(unallocatedResources[1]);
+        final CapacityIndex freeMemslices = new CapacityIndex(unallocatedResources[2]);
 
         if (null != pendingRequests && pendingRequests.isNotEmpty()) {
             // For every request, randomly set the controllable node.
@@ -56,44 +72,51 @@ public class RandomSolver implements Solver {
                 final long memslicesToPlace = pending.getMemslices();
                 assert coresToPlace == 0 || memslicesToPlace == 0;
 
-                // Place the cores
-                if (coresToPlace > 0) {
-                    final ArrayList<Integer> options = new ArrayList<Integer>();
-                    for (int j = 0; j < unallocatedResources[0].length; j++) {
-                        if (unallocatedResources[1][j] >= coresToPlace) {
-                            options.add(j);
-                        }
-                    }
-                    if (options.size() == 0) {
-                        throw new SolverException("Infeasible", null);
-                    }
-
-                    final int trialPlacement = rand.nextInt(0, options.size() - 1);
-                    final int coreIndex = options.get(trialPlacement);
-                    unallocatedResources[1][coreIndex] -= (int) coresToPlace;
-                    pending.setControllable_Node(unallocatedResources[0][coreIndex]);
+                // Cores and memslices are placed the same way, just against different capacity
+                final CapacityIndex free = coresToPlace > 0 ? freeCores : freeMemslices;
+                final long amount = coresToPlace > 0 ? coresToPlace : memslicesToPlace;
+                if (amount == 0) {
+                    continue;
                 }
-
-                // Place the memslices
-                if (memslicesToPlace > 0) {
-                    final ArrayList<Integer> options = new ArrayList<Integer>();
-                    for (int j = 0; j < unallocatedResources[0].length; j++) {
-                        if (unallocatedResources[2][j] >= memslicesToPlace) {
-                            options.add(j);
-                        }
-                    }
-                    if (options.size() == 0) {
-                        throw new SolverException("Infeasible", null);
+                final int node = pick(free, amount);
+                if (node == -1) {
+                    if (this.partial) {
+                        // Leave it queued and carry on with the rest
+                        continue;
                     }
-
-                    final int trialPlacement = rand.nextInt(0, options.size() - 1);
-                    final int memsliceIndex = options.get(trialPlacement);
-                    unallocatedResources[2][memsliceIndex] -= (int) memslicesToPlace;
-                    pending.setControllable_Node(unallocatedResources[0][memsliceIndex]);
+                    throw new SolverException("Infeasible", null);
                 }
+                free.take(node, amount);
+                pending.setControllable_Node(unallocatedResources[0][node]);
                 pendingRequests.set(i, pending);
             }
         }
+        if (this.partial && null != pendingRequests) {
+            // Only return what was placed
+            pendingRequests.removeIf(r -> null == r.get(PENDING_TABLE.CONTROLLABLE__NODE));
+        }
         return pendingRequests;
     }
+
+    /**
+     * Pick a random node with enough room. Random nodes are tried first, which is uniform over
+     * the nodes with room; if those keep missing because the cluster is nearly full, take the
+     * first node with room after a random one instead of scanning the cluster.
+     *
+     * @param free   free amount by node
+     * @param amount how much room is needed
+     * @return the node, or -1 if no node has enough room
+     */
+    private int pick(final CapacityIndex free, final long amount) {
+        if (free.size() == 0) {
+            return -1;
+        }
+        for (int t = 0; t < RANDOM_TRIES; t++) {
+            final int node = rand.nextInt(0, free.size() - 1);
+            if (free.free(node) >= amount) {
+                return node;
+            }
+        }
+        return free.next(rand.nextInt(0, free.size() - 1), amount);
+    }
 }
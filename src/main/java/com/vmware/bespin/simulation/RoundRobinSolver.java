@@ -23,14 +23,27 @@ public class RoundRobinSolver implements Solver {
 
     private int coreIndex = 0;
     private int memsliceIndex = 0;
+    private final boolean partial;
+
+    /**
+     * Assign requests for cores and memslices to nodes in round-robin fashion, skipping nodes
+     * without room.
+     */
+    public RoundRobinSolver() {
+        this(false);
+    }
 
     /**
      * Assign requests for cores and memslices to nodes in round-robin fashion.
+     * 
+     * @param partial if true, skip requests that don't fit instead of failing the whole solve
      */
-    public RoundRobinSolver() { }
+    public RoundRobinSolver(final boolean partial) {
+        this.partial = partial;
+    }
 
     /**
-     * Solve all outstanding requests in the pending table
+     * Solve all outstanding requests in the pending table, most urgent first
      * 
      * @param conn database connection
      * @throws Exception this should never happen, but overriding subclasses may
@@ -40,13 +53,17 @@ public class RoundRobinSolver implements Solver {
                                                    final Scheduler scheduler) throws SolverException {
 
         // Fetch the requests to solve for
-        final Result<org.jooq.Record> pendingRequests = conn.select().from(PENDING_TABLE).fetch();
+        final Result<org.jooq.Record> pendingRequests = conn.select().from(PENDING_TABLE)
+                .orderBy(Scheduler.PENDING_ORDER)
+                .fetch();
         final Integer[][] unallocatedResources = scheduler.unallocatedResources();
+        final int numNodes = unallocatedResources[0].length;
+        final CapacityIndex freeCores = new CapacityIndex(unallocatedResources[1]);
+        final CapacityIndex freeMemslices = new CapacityIndex(unallocatedResources[2]);
 
         if (null != pendingRequests && pendingRequests.isNotEmpty()) {
-            // For every request, randomly set the controllable node.
+            // For every request, set the controllable node to the next one with room
             for (int i = 0; i < pendingRequests.size(); i++) {
-            //for (final org.jooq.Record r: pendingRequests) {
                 // Cast as pending and parse out the resources it's asking for.
                 final PendingRecord pending = pendingRequests.get(i).into(PENDING_TABLE);
                 final long coresToPlace = pending.getCores();
@@ -55,43 +72,41 @@ public class RoundRobinSolver implements Solver {
 
                 // Place the cores
                 if (coresToPlace > 0) {
-                    boolean placed = false;
-                    final int coreIndexStart = coreIndex;
-                    while (!placed) {
-                        final long freeCoresForNode = unallocatedResources[1][coreIndex];
-                        if (freeCoresForNode >= coresToPlace) {
-                            unallocatedResources[1][coreIndex] -= (int) coresToPlace;
-                            pending.setControllable_Node(unallocatedResources[0][coreIndex]);
-                            placed = true;
-                        }
-                        coreIndex = (coreIndex + 1) % unallocatedResources[0].length;
-                        if ((coreIndex == coreIndexStart) && !placed) {
+                    final int node = freeCores.next(coreIndex % numNodes, coresToPlace);
+                    if (node == -1) {
+                        if (!this.partial) {
                             throw new SolverException("Infeasible", null);
                         }
+                        // Leave it queued and carry on with the rest
+                    } else {
+                        freeCores.take(node, coresToPlace);
+                        pending.setControllable_Node(unallocatedResources[0][node]);
+                        coreIndex = freeCores.successor(node);
                     }
                 }
 
                 // Place the memslices
                 if (memslicesToPlace > 0) {
-                    boolean placed = false;
-                    final int memsliceIndexStart = memsliceIndex;
-                    while (!placed) {
-                        final long freeMemslicesForNode = unallocatedResources[2][memsliceIndex];
-                        if (freeMemslicesForNode >= memslicesToPlace) {
-                            unallocatedResources[2][memsliceIndex] -= (int) memslicesToPlace;
-                            pending.setControllable_Node(unallocatedResources[0][memsliceIndex]);
-                            placed = true;
-                        }
-                        memsliceIndex = (memsliceIndex + 1) % unallocatedResources[0].length;
-                        if ((memsliceIndex == memsliceIndexStart) && !placed) {
+                    final int node = freeMemslices.next(memsliceIndex % numNodes, memslicesToPlace);
+                    if (node == -1) {
+                        if (!this.partial) {
                             throw new SolverException("Infeasible", null);
                         }
+                        // Leave it queued and carry on with the rest
+                    } else {
+                        freeMemslices.take(node, memslicesToPlace);
+                        pending.setControllable_Node(unallocatedResources[0][node]);
+                        memsliceIndex = freeMemslices.successor(node);
                     }
                 }
 
                 pendingRequests.set(i, pending);
             }
         }
+        if (this.partial && null != pendingRequests) {
+            // Only return what was placed
+            pendingRequests.removeIf(r -> null == r.get(PENDING_TABLE.CONTROLLABLE__NODE));
+        }
         return pendingRequests;
     }
 }
@@ -145,6 +145,44 @@ public class Simulation {
         return application;
     }
 
+    /**
+     * The co-location ratio of cores and memslices, averaged over the applications
+     * 
+     * @return ratio between 0 and 1, 1 if there are no applications
+     */
+    public double meanColocationRatio() {
+        final List<Integer> applications = conn.fetch("select id from applications").getValues(0, Integer.class);
+        if (applications.isEmpty()) {
+            return 1.0;
+        }
+        double sum = 0;
+        for (final Integer application : applications) {
+            sum += scheduler.colocationRatioForApplication(application);
+        }
+        return sum / applications.size();
+    }
+
+    /**
+     * How fragmented the free capacity is: the fraction of free cores and memslices that sit on
+     * nodes with none of the other resource left, so no application can use them together
+     * 
+     * @return fraction between 0 and 1, 0 if nothing is free
+     */
+    public double strandedFraction() {
+        final Integer[][] unallocated = scheduler.unallocatedResources();
+        long free = 0;
+        long stranded = 0;
+        for (int n = 0; n < unallocated[0].length; n++) {
+            final int cores = Math.max(0, unallocated[1][n]);
+            final int memslices = Math.max(0, unallocated[2][n]);
+            free += cores + memslices;
+            if (cores == 0 || memslices == 0) {
+                stranded += cores + memslices;
+            }
+        }
+        return free == 0 ? 0.0 : (double) stranded / free;
+    }
+
     /**
      * Determine the number of memslices that must be allocated to reach a target
      * cluster utilization
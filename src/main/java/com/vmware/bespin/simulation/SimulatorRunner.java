@@ -14,7 +14,10 @@ import org.jooq.DSLContext;
 import com.vmware.bespin.scheduler.DBUtils;
 import com.vmware.bespin.scheduler.Scheduler;
 import com.vmware.bespin.scheduler.Solver;
+import com.vmware.bespin.scheduler.dinos.CpSatSolver;
 import com.vmware.bespin.scheduler.dinos.DiNOSSolver;
+import com.vmware.bespin.scheduler.dinos.MinCostFlowSolver;
+import com.vmware.bespin.scheduler.dinos.SolveDeadline;
 
 public class SimulatorRunner {
     // Cluster Size
@@ -40,12 +43,59 @@ public class SimulatorRunner {
     // Random seed, used for debugging
     private static final String RANDOM_SEED_OPTION = "randomSeed";
 
+    private static final String SEARCH_WORKERS_OPTION = "searchWorkers";
+    private static final int SEARCH_WORKERS_DEFAULT = DiNOSSolver.DEFAULT_SEARCH_WORKERS;
+
     private static void print_help(final Options options) {
         final HelpFormatter formatter = new HelpFormatter();
         formatter.printHelp("java -jar target/scheduler-1.1.16-SNAPSHOT-jar-with-dependencies.jar [options]",
                 options);
     }
 
+    /**
+     * Create the solver for a scheduler name
+     *
+     * @param scheduler the name, as given on the command line
+     * @param conn the database the solver runs against
+     * @param searchWorkers parallel CP-SAT search workers, for the solvers that use CP-SAT
+     * @return the solver, or null if the name isn't known
+     */
+    static Solver createSolver(final String scheduler, final DSLContext conn, final int searchWorkers) {
+        final long deadline = SolveDeadline.DEFAULT.millis();
+        final DiNOSSolver.Builder dcm = new DiNOSSolver.Builder(conn)
+                .setDeadlineMillis(deadline)
+                .setNumWorkers(searchWorkers)
+                .setPrintDiagnostics(true);
+        if (scheduler.equals("DCMcap")) {
+            return dcm.build();
+        } else if (scheduler.equals("DCMloc")) {
+            return dcm.setUseLocalityConstraints(true).build();
+        } else if (scheduler.equals("DCMlin")) {
+            return dcm.setUseLocalityConstraints(true).setLinearLocality(true).build();
+        } else if (scheduler.equals("DCMcoloc")) {
+            return dcm.setUseLocalityConstraints(true).setUseColocationConstraint(true).build();
+        } else if (scheduler.equals("CPSAT")) {
+            return new CpSatSolver(false, SolveDeadline.DEFAULT, searchWorkers);
+        } else if (scheduler.equals("MCF")) {
+            return new MinCostFlowSolver();
+        } else if (scheduler.equals("R")) {
+            return new RandomSolver();
+        } else if (scheduler.equals("RR")) {
+            return new RoundRobinSolver();
+        } else if (scheduler.equals("FC")) {
+            return new FillCurrentSolver();
+        } else if (scheduler.equals("FCcoloc")) {
+            return new FillCurrentSolver(false, true);
+        } else if (scheduler.equals("POD")) {
+            return new PowerOfChoicesSolver();
+        }
+        return BinPackingSolver.forName(scheduler, false);
+    }
+
+    static Solver createSolver(final String scheduler, final DSLContext conn) {
+        return createSolver(scheduler, conn, SEARCH_WORKERS_DEFAULT);
+    }
+
     public static void main(final String[] args) throws Exception {
 
         // These are the defaults for these parameters.
@@ -57,6 +107,7 @@ public class SimulatorRunner {
         String scheduler = SCHEDULER_DEFAULT;
         int numApps = NUM_APPS_DEFAULT;
         Integer randomSeed = null;
+        int searchWorkers = SEARCH_WORKERS_DEFAULT;
 
         final Logger log = LogManager.getLogger(Simulation.class);
 
@@ -100,8 +151,9 @@ public class SimulatorRunner {
         final Option schedulerOption = Option.builder("s")
             .longOpt(SCHEDULER_OPTION).argName(SCHEDULER_OPTION)
             .hasArg()
-            .desc(String.format("scheduler (DCMloc | DCMcap | R | RR | FC).%nDefault: %s", 
-                    SCHEDULER_DEFAULT))
+            .desc(String.format("scheduler (DCMloc | DCMlin | DCMcoloc | DCMcap | CPSAT | MCF | R | RR | FC | " +
+                    "FCcoloc | BF | WF | FFD | DOT | BFloc | WFloc | FFDloc | DOTloc | POD).%n" +
+                    "Default: %s", SCHEDULER_DEFAULT))
             .type(String.class)
             .build();
 
@@ -120,6 +172,14 @@ public class SimulatorRunner {
                 .desc(String.format("Optional: seed for random."))
                 .type(Integer.class)
                 .build();
+        // Set number of CP-SAT search workers
+        final Option searchWorkersOption = Option.builder("w")
+                .longOpt(SEARCH_WORKERS_OPTION).argName(SEARCH_WORKERS_OPTION)
+                .hasArg()
+                .desc(String.format("parallel CP-SAT search workers for the DCM and CPSAT schedulers.%nDefault: %d",
+                        SEARCH_WORKERS_DEFAULT))
+                .type(Integer.class)
+                .build();
 
         options.addOption(helpOption);
         options.addOption(numNodesOption);
@@ -129,6 +189,7 @@ public class SimulatorRunner {
         options.addOption(schedulerOption);
         options.addOption(numAppsOption);
         options.addOption(randomSeedOption);
+        options.addOption(searchWorkersOption);
 
         final CommandLineParser parser = new DefaultParser();
         try {
@@ -172,9 +233,14 @@ public class SimulatorRunner {
             }
             if (cmd.hasOption(SCHEDULER_OPTION)) {
                 scheduler = cmd.getOptionValue(SCHEDULER_OPTION);
-                if (!scheduler.equals("DCMloc") && !scheduler.equals("DCMcap") && 
-                        !scheduler.equals("R") && !scheduler.equals("RR") && !scheduler.equals("FC")) {
-                    log.error("Scheduler must be (case sensitive) 'DCMloc'|'DCMcap'|'R'|'RR'|'FC' but is '{}'",
+                if (!scheduler.equals("DCMloc") && !scheduler.equals("DCMlin") && !scheduler.equals("DCMcoloc") && 
+                        !scheduler.equals("DCMcap") && !scheduler.equals("CPSAT") && !scheduler.equals("R") && 
+                        !scheduler.equals("RR") && !scheduler.equals("FC") && !scheduler.equals("FCcoloc") &&
+                        !scheduler.equals("MCF") && !scheduler.equals("POD") &&
+                        null == BinPackingSolver.forName(scheduler, false)) {
+                    log.error("Scheduler must be (case sensitive) " +
+                            "'DCMloc'|'DCMlin'|'DCMcoloc'|'DCMcap'|'CPSAT'|'MCF'|'R'|'RR'|'FC'|'FCcoloc'|'BF'|'WF'|" +
+                            "'FFD'|'DOT'|'BFloc'|'WFloc'|'FFDloc'|'DOTloc'|'POD' but is '{}'",
                         scheduler);
                     print_help(options);
                     return;
@@ -191,6 +257,14 @@ public class SimulatorRunner {
             if (cmd.hasOption(RANDOM_SEED_OPTION)) {
                 randomSeed = Integer.parseInt(cmd.getOptionValue(RANDOM_SEED_OPTION));
             }
+            if (cmd.hasOption(SEARCH_WORKERS_OPTION)) {
+                searchWorkers = Integer.parseInt(cmd.getOptionValue(SEARCH_WORKERS_OPTION));
+                if (searchWorkers <= 0) {
+                    log.error("Search workers must be > 0");
+                    print_help(options);
+                    return;
+                }
+            }
         } catch (final ParseException ignored) {
             log.error("Failed to parse command line");
             return;
@@ -200,26 +274,17 @@ public class SimulatorRunner {
         final DSLContext conn = DBUtils.getConn();
 
         // Choose the scheduler
-        Solver solver = null;
-        if (scheduler.equals("DCMcap")) {
-            solver = new DiNOSSolver(conn, false, true);
-        } else if (scheduler.equals("DCMloc")) {
-            solver = new DiNOSSolver(conn, true, true);
-        } else if (scheduler.equals("R")) {
-            solver = new RandomSolver();
-        } else if (scheduler.equals("RR")) {
-            solver = new RoundRobinSolver();
-        } else if (scheduler.equals("FC")) {
-            solver = new FillCurrentSolver();
-        } else {
+        final Solver solver = createSolver(scheduler, conn, searchWorkers);
+        if (null == solver) {
             System.err.println("Scheduler type not supported yet.");
             System.exit(-1);
         }
 
         final Scheduler sched = new Scheduler(conn, solver, false);
         System.out.println(String.format("Simulation setup: scheduler=%s, nodes=%d, coresPerNode=%d, " + 
-                "memSlicesPerNode=%d, numApps=%d, clusterUtil=%d, randomSeed=%d",
-                scheduler, numNodes, coresPerNode, memslicesPerNode, numApps, clusterUtil, randomSeed));
+                "memSlicesPerNode=%d, numApps=%d, clusterUtil=%d, randomSeed=%d, searchWorkers=%d",
+                scheduler, numNodes, coresPerNode, memslicesPerNode, numApps, clusterUtil, randomSeed,
+                searchWorkers));
 
         final Simulation simulation = new Simulation(conn, sched, randomSeed, numNodes, coresPerNode, memslicesPerNode, 
                 numApps);
@@ -239,6 +304,8 @@ public class SimulatorRunner {
 
         // Print final stats
         sched.printStats();
+        log.info(String.format("COLOCATION: mean_ratio=%.3f", simulation.meanColocationRatio()));
+        log.info(String.format("FRAGMENTATION: stranded=%.3f", simulation.strandedFraction()));
         log.info("Simulation complete");
     }
 }
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.simulation;
+
+import java.util.Arrays;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.jooq.DSLContext;
+
+import com.vmware.bespin.scheduler.DBUtils;
+import com.vmware.bespin.scheduler.Scheduler;
+import com.vmware.bespin.scheduler.Solver;
+
+/**
+ * Compares solvers on latency and placement quality. Each solver starts from an empty cluster and
+ * the same random seed, then solves and commits batches of random single core or memslice
+ * requests until the cluster reaches the target utilization, so every solver sees the same
+ * sequence of requests as long as it places them all. Quality is the mean number of nodes each
+ * application is spread over, the mean co-location ratio of cores and memslices and the fraction
+ * of free capacity left stranded.
+ */
+public class SolverBenchmark {
+    private static final String SOLVERS_OPTION = "solvers";
+    private static final String SOLVERS_DEFAULT = "DCMloc,CPSAT";
+    private static final String BATCH_OPTION = "batch";
+    private static final int BATCH_DEFAULT = 50;
+    private static final String UTIL_OPTION = "util";
+    private static final int UTIL_DEFAULT = 80;
+    private static final String NUM_NODES_OPTION = "numNodes";
+    private static final int NUM_NODES_DEFAULT = 16;
+    private static final String NUM_APPS_OPTION = "numApps";
+    private static final int NUM_APPS_DEFAULT = 20;
+    private static final int CORES_PER_NODE = 64;
+    private static final int MEMSLICES_PER_NODE = 128;
+    private static final int RANDOM_SEED = 42;
+
+    /**
+     * Result of filling the cluster with one solver
+     *
+     * @param failed solves that didn't place their batch
+     * @param solveMillis time of each solve and commit, sorted
+     * @param nodesPerApp mean number of nodes each application is on
+     * @param colocation mean co-location ratio
+     * @param stranded fraction of free capacity on nodes with none of the other resource left
+     */
+    record Result(int failed, long[] solveMillis, double nodesPerApp, double colocation, double stranded) {
+        long percentile(final double p) {
+            return solveMillis[(int) Math.min(solveMillis.length - 1, Math.floor(p * solveMillis.length))];
+        }
+    }
+
+    /**
+     * Fill the cluster in batches with one solver
+     *
+     * @param name solver name, as accepted by the simulator
+     * @param batchSize pending requests per solve
+     * @param util target utilization of the cluster, in percent
+     * @param numNodes nodes in the cluster
+     * @param numApps applications making requests
+     * @return the measured result
+     */
+    static Result run(final String name, final int batchSize, final int util, final int numNodes,
+            final int numApps) throws Exception {
+        final DSLContext conn = DBUtils.getConn();
+        final Solver solver = SimulatorRunner.createSolver(name, conn);
+        if (null == solver) {
+            throw new IllegalArgumentException("Unknown solver: " + name);
+        }
+        final Scheduler scheduler = new Scheduler(conn, solver, false);
+        final Simulation sim = new Simulation(conn, scheduler, RANDOM_SEED, numNodes, CORES_PER_NODE,
+                MEMSLICES_PER_NODE, numApps);
+
+        final long capacity = scheduler.coreCapacity() + scheduler.memsliceCapacity();
+        final int steps = (int) (capacity * util / 100 / batchSize);
+        final long[] solves = new long[steps];
+        int failed = 0;
+        for (int i = 0; i < steps; i++) {
+            for (int r = 0; r < batchSize; r++) {
+                sim.generateRandomRequest();
+            }
+            final long start = System.currentTimeMillis();
+            if (!scheduler.runSolverAndUpdateDB()) {
+                failed++;
+            }
+            solves[i] = System.currentTimeMillis() - start;
+            // Don't let a failed batch pile onto the next one
+            conn.execute("truncate table pending");
+        }
+        Arrays.sort(solves);
+
+        double nodes = 0;
+        for (int a = 0; a < numApps; a++) {
+            nodes += scheduler.nodesForApplication(a);
+        }
+        return new Result(failed, solves, nodes / numApps, sim.meanColocationRatio(), sim.strandedFraction());
+    }
+
+    public static void main(final String[] args) throws Exception {
+        String solvers = SOLVERS_DEFAULT;
+        int batch = BATCH_DEFAULT;
+        int util = UTIL_DEFAULT;
+        int numNodes = NUM_NODES_DEFAULT;
+        int numApps = NUM_APPS_DEFAULT;
+
+        final Options options = new Options();
+        final Option helpOption = Option.builder("h")
+                .longOpt("help").argName("h")
+                .hasArg(false)
+                .desc("print help message")
+                .build();
+        final Option solversOption = Option.builder("s")
+                .longOpt(SOLVERS_OPTION).argName(SOLVERS_OPTION)
+                .hasArg()
+                .desc(String.format("comma separated solvers, as named by the simulator.%nDefault: %s",
+                        SOLVERS_DEFAULT))
+                .type(String.class)
+                .build();
+        final Option batchOption = Option.builder("b")
+                .longOpt(BATCH_OPTION).argName(BATCH_OPTION)
+                .hasArg()
+                .desc(String.format("pending requests per solve.%nDefault: %d", BATCH_DEFAULT))
+                .type(Integer.class)
+                .build();
+        final Option utilOption = Option.builder("u")
+                .longOpt(UTIL_OPTION).argName(UTIL_OPTION)
+                .hasArg()
+                .desc(String.format("cluster utilization to fill to, in percent.%nDefault: %d", UTIL_DEFAULT))
+                .type(Integer.class)
+                .build();
+        final Option numNodesOption = Option.builder("n")
+                .longOpt(NUM_NODES_OPTION).argName(NUM_NODES_OPTION)
+                .hasArg()
+                .desc(String.format("nodes in the cluster.%nDefault: %d", NUM_NODES_DEFAULT))
+                .type(Integer.class)
+                .build();
+        final Option numAppsOption = Option.builder("p")
+                .longOpt(NUM_APPS_OPTION).argName(NUM_APPS_OPTION)
+                .hasArg()
+                .desc(String.format("applications making requests.%nDefault: %d", NUM_APPS_DEFAULT))
+                .type(Integer.class)
+                .build();
+        options.addOption(helpOption);
+        options.addOption(solversOption);
+        options.addOption(batchOption);
+        options.addOption(utilOption);
+        options.addOption(numNodesOption);
+        options.addOption(numAppsOption);
+
+        final CommandLineParser parser = new DefaultParser();
+        try {
+            final CommandLine cmd = parser.parse(options, args);
+            if (cmd.hasOption("h")) {
+                final HelpFormatter formatter = new HelpFormatter();
+                formatter.printHelp("java -cp target/scheduler-1.1.16-SNAPSHOT-jar-with-dependencies.jar " +
+                        "com.vmware.bespin.simulation.SolverBenchmark [options]", options);
+                return;
+            }
+            if (cmd.hasOption(SOLVERS_OPTION)) {
+                solvers = cmd.getOptionValue(SOLVERS_OPTION);
+            }
+            if (cmd.hasOption(BATCH_OPTION)) {
+                batch = Integer.parseInt(cmd.getOptionValue(BATCH_OPTION));
+            }
+            if (cmd.hasOption(UTIL_OPTION)) {
+                util = Integer.parseInt(cmd.getOptionValue(UTIL_OPTION));
+            }
+            if (cmd.hasOption(NUM_NODES_OPTION)) {
+                numNodes = Integer.parseInt(cmd.getOptionValue(NUM_NODES_OPTION));
+            }
+            if (cmd.hasOption(NUM_APPS_OPTION)) {
+                numApps = Integer.parseInt(cmd.getOptionValue(NUM_APPS_OPTION));
+            }
+        } catch (final ParseException ignored) {
+            System.out.println("Failed to parse command line");
+            System.exit(-1);
+        }
+
+        System.out.println("solver,batch,solves,failed,p50_solve_ms,p99_solve_ms,max_solve_ms," +
+                "nodes_per_app,colocation_ratio,stranded");
+        for (final String s : solvers.split(",")) {
+            final Result r = run(s.trim(), batch, util, numNodes, numApps);
+            System.out.println(String.format("%s,%d,%d,%d,%d,%d,%d,%.3f,%.3f,%.3f", s.trim(), batch,
+                    r.solveMillis().length, r.failed(), r.percentile(0.5), r.percentile(0.99), r.percentile(1.0),
+                    r.nodesPerApp(), r.colocation(), r.stranded()));
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.simulation;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jooq.DSLContext;
+import org.jooq.Result;
+
+import com.vmware.bespin.scheduler.Scheduler;
+import com.vmware.bespin.scheduler.Solver;
+import com.vmware.bespin.scheduler.SolverException;
+import com.vmware.bespin.scheduler.generated.tables.Pending;
+import com.vmware.bespin.scheduler.generated.tables.records.PendingRecord;
+import com.vmware.bespin.scheduler.generated.tables.records.PlacedRecord;
+import com.vmware.bespin.scheduler.generated.tables.records.TopologyRecord;
+
+public class TopologySolver implements Solver {
+
+    protected Logger LOG = LogManager.getLogger(TopologySolver.class);
+    public static final Pending PENDING_TABLE = Pending.PENDING;
+
+    // Distance between two nodes by how much of the topology they share
+    public static final int SAME_NODE = 0;
+    public static final int SAME_SOCKET = 1;
+    public static final int SAME_RACK = 2;
+    public static final int REMOTE = 3;
+
+    private final boolean partial;
+
+    /**
+     * Assign each request for a core or memslice to the node with room that is closest to the
+     * resources its application already has, weighted by how many resources are on each node.
+     */
+    public TopologySolver() {
+        this(false);
+    }
+
+    /**
+     * Assign each request for a core or memslice to the node with room that is closest to the
+     * resources its application already has, weighted by how many resources are on each node.
+     *
+     * @param partial if true, skip requests that don't fit instead of failing the whole solve
+     */
+    public TopologySolver(final boolean partial) {
+        this.partial = partial;
+    }
+
+    /**
+     * Distance between two nodes. Nodes without a topology entry are only close to themselves.
+     *
+     * @param a        a node
+     * @param b        another node
+     * @param topology socket and rack by node
+     * @return the distance, from SAME_NODE to REMOTE
+     */
+    static int distance(final int a, final int b, final Map<Integer, TopologyRecord> topology) {
+        if (a == b) {
+            return SAME_NODE;
+        }
+        final TopologyRecord ta = topology.get(a);
+        final TopologyRecord tb = topology.get(b);
+        if (null == ta || null == tb || !ta.getRack().equals(tb.getRack())) {
+            return REMOTE;
+        }
+        return ta.getSocket().equals(tb.getSocket()) ? SAME_SOCKET : SAME_RACK;
+    }
+
+    /**
+     * Solve all outstanding requests in the pending table, most urgent first
+     *
+     * @param conn database connection
+     * @throws Exception this should never happen, but overriding subclasses may
+     *                   throw errors.
+     */
+    public Result<? extends org.jooq.Record> solve(final DSLContext conn,
+                                                   final Scheduler scheduler) throws SolverException {
+
+        // Fetch the requests to solve for
+        final Result<org.jooq.Record> pendingRequests = conn.select().from(PENDING_TABLE)
+                .orderBy(Scheduler.PENDING_ORDER)
+                .fetch();
+        final Integer[][] unallocatedResources = scheduler.unallocatedResources();
+        final int numNodes = unallocatedResources[0].length;
+
+        final Map<Integer, TopologyRecord> topology = new HashMap<>();
+        for (final TopologyRecord t : conn.selectFrom(Scheduler.TOPOLOGY_TABLE).fetch()) {
+            topology.put(t.getNode(), t);
+        }
+
+        // Units (cores plus memslices) per node for each application, kept up to date as we place
+        final Map<Integer, Map<Integer, Integer>> unitsByApp = new HashMap<>();
+        for (final PlacedRecord p : conn.selectFrom(Scheduler.PLACED_TABLE).fetch()) {
+            final int units = p.getCores() + p.getMemslices();
+            if (units > 0) {
+                unitsByApp.computeIfAbsent(p.getApplication(), k -> new HashMap<>())
+                        .merge(p.getNode(), units, Integer::sum);
+            }
+        }
+
+        if (null != pendingRequests && pendingRequests.isNotEmpty()) {
+            for (int i = 0; i < pendingRequests.size(); i++) {
+                final PendingRecord pending = pendingRequests.get(i).into(PENDING_TABLE);
+                final int coresToPlace = pending.getCores();
+                final int memslicesToPlace = pending.getMemslices();
+                assert coresToPlace == 0 || memslicesToPlace == 0;
+
+                // Cores and memslices are placed the same way, just against different capacity
+                final int resource = coresToPlace > 0 ? 1 : 2;
+                final int amount = coresToPlace > 0 ? coresToPlace : memslicesToPlace;
+                if (amount == 0) {
+                    continue;
+                }
+                final Map<Integer, Integer> appUnits = unitsByApp.computeIfAbsent(pending.getApplication(),
+                        k -> new HashMap<>());
+
+                int best = -1;
+                long bestCost = Long.MAX_VALUE;
+                for (int n = 0; n < numNodes; n++) {
+                    if (unallocatedResources[resource][n] < amount) {
+                        continue;
+                    }
+                    long cost = 0;
+                    for (final Map.Entry<Integer, Integer> e : appUnits.entrySet()) {
+                        cost += (long) e.getValue() * distance(unallocatedResources[0][n], e.getKey(), topology);
+                    }
+                    // On a tie, spread out by picking the node with the most room
+                    if (cost < bestCost || cost == bestCost
+                            && unallocatedResources[resource][n] > unallocatedResources[resource][best]) {
+                        best = n;
+                        bestCost = cost;
+                    }
+                }
+
+                if (best == -1) {
+                    if (this.partial) {
+                        // Leave it queued and carry on with the rest
+                        continue;
+                    }
+                    throw new SolverException("Infeasible", null);
+                }
+
+                unallocatedResources[resource][best] -= amount;
+                appUnits.merge(unallocatedResources[0][best], amount, Integer::sum);
+                pending.setControllable_Node(unallocatedResources[0][best]);
+                pendingRequests.set(i, pending);
+            }
+        }
+        if (this.partial && null != pendingRequests) {
+            // Only return what was placed
+            pendingRequests.removeIf(r -> null == r.get(PENDING_TABLE.CONTROLLABLE__NODE));
+        }
+        return pendingRequests;
+    }
+}
@@ -4,10 +4,22 @@ create table nodes(
     memslices integer,
     primary key (id));
 
+-- Where each node sits in the machine: socket within rack
+create table topology(
+    node integer,
+    socket integer,
+    rack integer,
+	foreign key (node) references nodes(id),
+	primary key (node));
+
 create table applications(
     id integer,
     primary key (id));
 
+-- Numbers pending rows in the order they are inserted, which is the order requests arrive in; ids
+-- are leased per server thread, so they are not
+create sequence arrival_seq;
+
 create table pending(
     id long not null auto_increment,
     application integer,
@@ -16,6 +28,9 @@ create table pending(
     status varchar(36),
 	current_node integer,
 	controllable__node integer,
+	priority integer default 1 not null,
+	deadline long default 9223372036854775807 not null,
+	arrival long default next value for arrival_seq not null,
 	foreign key (controllable__node) references nodes(id),
 	foreign key (application) references applications(id),
 	primary key (id));
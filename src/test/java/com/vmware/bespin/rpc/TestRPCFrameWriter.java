@@ -0,0 +1,72 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.rpc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class TestRPCFrameWriter {
+
+    @Test
+    public void testCoalescedFrames() throws IOException {
+        final Pipe pipe = Pipe.open();
+        final RPCFrameWriter writer = new RPCFrameWriter(pipe.sink());
+
+        final byte[] payload = {1, 2, 3};
+        writer.queue(new RPCMessage(new RPCHeader((byte) 2, (short) payload.length), payload));
+        writer.queue(new RPCMessage(new RPCHeader((byte) 3, (short) 0), new byte[0]));
+        assertEquals(2, writer.queuedFrames());
+
+        writer.flush();
+        assertEquals(0, writer.queuedFrames());
+
+        // Both frames arrive back-to-back: header, payload, header
+        final ByteBuffer buff = ByteBuffer.allocate(RPCHeader.BYTE_LEN * 2 + payload.length);
+        while (buff.hasRemaining()) {
+            pipe.source().read(buff);
+        }
+        final byte[] bytes = buff.array();
+
+        final byte[] hdrBytes = new byte[RPCHeader.BYTE_LEN];
+        System.arraycopy(bytes, 0, hdrBytes, 0, RPCHeader.BYTE_LEN);
+        final RPCHeader hdr = new RPCHeader(hdrBytes);
+        assertEquals(2, hdr.getType());
+        assertEquals(payload.length, hdr.msgLen);
+        for (int i = 0; i < payload.length; i++) {
+            assertEquals(payload[i], bytes[RPCHeader.BYTE_LEN + i]);
+        }
+
+        System.arraycopy(bytes, RPCHeader.BYTE_LEN + payload.length, hdrBytes, 0, RPCHeader.BYTE_LEN);
+        final RPCHeader hdr2 = new RPCHeader(hdrBytes);
+        assertEquals(3, hdr2.getType());
+        assertEquals(0, hdr2.msgLen);
+    }
+
+    @Test
+    public void testCallbacksAfterWrite() throws IOException {
+        final Pipe pipe = Pipe.open();
+        final RPCFrameWriter writer = new RPCFrameWriter(pipe.sink());
+
+        final List<Integer> written = new ArrayList<>();
+        writer.queue(new RPCMessage(new RPCHeader((byte) 2, (short) 0), new byte[0]), () -> written.add(1));
+        writer.queue(new RPCMessage(new RPCHeader((byte) 3, (short) 0), new byte[0]));
+        writer.queue(new RPCMessage(new RPCHeader((byte) 4, (short) 0), new byte[0]), () -> written.add(2));
+
+        // Nothing runs until the frames are actually written, then in queue order
+        assertEquals(List.of(), written);
+        writer.flush();
+        assertEquals(List.of(1, 2), written);
+        writer.flush();
+        assertEquals(List.of(1, 2), written);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.rpc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.vmware.bespin.scheduler.dinos.rpc.RPCID;
+
+public class TestThreadedTCPServer {
+
+    class EchoHandler extends RPCHandler<AtomicInteger> {
+        @Override
+        public RPCMessage handleRPC(final RPCMessage msg, final AtomicInteger calls) {
+            calls.incrementAndGet();
+            return msg;
+        }
+    }
+
+    @Test
+    public void testConcurrentClients() throws IOException, InterruptedException {
+        final int numClients = 8;
+        final int callsPerClient = 50;
+        final AtomicInteger calls = new AtomicInteger(0);
+        final RPCServer<AtomicInteger> rpcServer = new ThreadedTCPServer<AtomicInteger>("LOCALHOST", 10211);
+        rpcServer.register(RPCID.AFFINITY_ALLOC, new EchoHandler());
+
+        final Thread serverThread = new Thread(() -> {
+            rpcServer.addClient();
+            try {
+                rpcServer.runServer(calls);
+            } catch (final IOException e) {
+                throw new RuntimeException("Failed to run server!");
+            }
+        });
+        serverThread.start();
+
+        final List<RPCClient> rpcClients = new ArrayList<>();
+        for (int i = 0; i < numClients; i++) {
+            final RPCClient rpcClient = new TCPClient(InetAddress.getByName("LOCALHOST"), 10211);
+            while (!rpcClient.connect()) {
+                Thread.sleep(50);
+            }
+            rpcClients.add(rpcClient);
+        }
+
+        // Each client checks it gets back its own payloads, in order
+        final AtomicInteger mismatches = new AtomicInteger(0);
+        final List<Thread> clientThreads = new ArrayList<>();
+        for (int c = 0; c < numClients; c++) {
+            final RPCClient rpcClient = rpcClients.get(c);
+            final byte clientId = (byte) c;
+            final Thread t = new Thread(() -> {
+                try {
+                    for (int i = 0; i < callsPerClient; i++) {
+                        final byte[] buff = {clientId, (byte) i};
+                        final byte[] retBuff = rpcClient.call(RPCID.AFFINITY_ALLOC, buff);
+                        if (retBuff.length != 2 || retBuff[0] != clientId || retBuff[1] != (byte) i) {
+                            mismatches.incrementAndGet();
+                        }
+                    }
+                } catch (final IOException e) {
+                    mismatches.incrementAndGet();
+                }
+            });
+            clientThreads.add(t);
+            t.start();
+        }
+        for (final Thread t : clientThreads) {
+            t.join();
+        }
+
+        assertEquals(0, mismatches.get());
+        assertEquals(numClients * callsPerClient, calls.get());
+
+        rpcServer.stopServer();
+        serverThread.join(1000);
+        for (final RPCClient rpcClient : rpcClients) {
+            rpcClient.cleanUp();
+        }
+        assert !serverThread.isAlive();
+    }
+}
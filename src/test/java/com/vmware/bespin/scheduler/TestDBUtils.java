@@ -0,0 +1,85 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.scheduler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jooq.DSLContext;
+import org.junit.jupiter.api.Test;
+
+import com.vmware.bespin.scheduler.generated.tables.Applications;
+import com.vmware.bespin.scheduler.generated.tables.Nodes;
+import com.vmware.bespin.scheduler.generated.tables.Pending;
+
+public class TestDBUtils {
+
+    @Test
+    public void testPooledConcurrentInserts() throws ClassNotFoundException, InterruptedException {
+        final DSLContext conn = DBUtils.getPooledConn("testPooledConcurrentInserts", 4);
+        conn.insertInto(Applications.APPLICATIONS).set(Applications.APPLICATIONS.ID, 1).execute();
+        conn.insertInto(Nodes.NODES)
+                .set(Nodes.NODES.ID, 1)
+                .set(Nodes.NODES.CORES, 10)
+                .set(Nodes.NODES.MEMSLICES, 10)
+                .execute();
+
+        final int numThreads = 8;
+        final int insertsPerThread = 50;
+        final Pending pending = Pending.PENDING;
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < numThreads; t++) {
+            final Thread thread = new Thread(() -> {
+                for (int i = 0; i < insertsPerThread; i++) {
+                    conn.insertInto(pending, pending.APPLICATION, pending.CORES, pending.MEMSLICES, pending.STATUS)
+                            .values(1, 1, 0, "PENDING")
+                            .execute();
+                    // Read-only query interleaved with the inserts
+                    conn.fetch("select * from unallocated");
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(numThreads * insertsPerThread, conn.fetchCount(pending));
+    }
+
+    @Test
+    public void testPooledDatabasesAreSeparate() throws ClassNotFoundException {
+        final DSLContext conn1 = DBUtils.getPooledConn("testPooledDatabasesAreSeparate1", 2);
+        final DSLContext conn2 = DBUtils.getPooledConn("testPooledDatabasesAreSeparate2", 2);
+        conn1.insertInto(Applications.APPLICATIONS).set(Applications.APPLICATIONS.ID, 1).execute();
+        assertEquals(1, conn1.fetchCount(Applications.APPLICATIONS));
+        assertEquals(0, conn2.fetchCount(Applications.APPLICATIONS));
+    }
+
+    @Test
+    public void testPendingChain() throws ClassNotFoundException {
+        final DSLContext conn = DBUtils.getConn();
+        final Scheduler scheduler = new Scheduler(conn, null, false);
+        scheduler.addNode(1, 10, 10);
+        scheduler.addApplication(1);
+        scheduler.addApplication(2);
+
+        // Interleave two applications, with a memslice request before the cores
+        scheduler.generateRequest(1L, 0, 1, 1);
+        scheduler.generateRequest(2L, 1, 0, 1);
+        scheduler.generateRequest(3L, 1, 0, 2);
+        scheduler.generateRequest(4L, 1, 0, 1);
+
+        // One link per request: cores first, then memslices, the first request linked to itself
+        final List<List<Long>> links = new ArrayList<>();
+        conn.fetch("select id, prev from pending_chain order by id")
+                .forEach(r -> links.add(List.of(((Number) r.get(0)).longValue(), ((Number) r.get(1)).longValue())));
+        assertEquals(List.of(List.of(1L, 4L), List.of(2L, 2L), List.of(3L, 3L), List.of(4L, 2L)), links);
+    }
+}
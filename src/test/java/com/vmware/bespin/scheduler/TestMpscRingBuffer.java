@@ -0,0 +1,100 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.scheduler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class TestMpscRingBuffer {
+
+    @Test
+    public void testOfferPollBounded() {
+        final MpscRingBuffer<Integer> queue = new MpscRingBuffer<>(3);
+        assertEquals(4, queue.capacity());
+        assertNull(queue.poll());
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+        // Full
+        assertFalse(queue.offer(4));
+        assertEquals(4, queue.size());
+
+        assertEquals(0, queue.poll());
+        assertTrue(queue.offer(4));
+
+        final List<Integer> out = new ArrayList<>();
+        assertEquals(4, queue.drain(out, 10));
+        assertEquals(List.of(1, 2, 3, 4), out);
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testMultipleProducers() throws InterruptedException {
+        final int numProducers = 4;
+        final int perProducer = 100000;
+        final MpscRingBuffer<long[]> queue = new MpscRingBuffer<>(64);
+
+        final Thread[] producers = new Thread[numProducers];
+        for (int p = 0; p < numProducers; p++) {
+            final int producer = p;
+            producers[p] = new Thread(() -> {
+                for (long i = 0; i < perProducer; i++) {
+                    queue.put(new long[] {producer, i});
+                }
+            });
+            producers[p].start();
+        }
+
+        // Every element arrives exactly once and each producer's elements stay in order
+        final long[] next = new long[numProducers];
+        int received = 0;
+        while (received < numProducers * perProducer) {
+            final long[] e = queue.poll();
+            if (null == e) {
+                Thread.onSpinWait();
+                continue;
+            }
+            assertEquals(next[(int) e[0]], e[1]);
+            next[(int) e[0]]++;
+            received++;
+        }
+        for (final Thread t : producers) {
+            t.join();
+        }
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testPutFailsOnceClosed() throws InterruptedException {
+        final MpscRingBuffer<Integer> queue = new MpscRingBuffer<>(2);
+        queue.put(0);
+        queue.put(1);
+
+        // A producer blocked on a full buffer is released when the consumer goes away
+        final Throwable[] failure = new Throwable[1];
+        final Thread producer = new Thread(() -> {
+            try {
+                queue.put(2);
+            } catch (final IllegalStateException e) {
+                failure[0] = e;
+            }
+        });
+        producer.start();
+        queue.close();
+        producer.join(10000);
+        assertFalse(producer.isAlive());
+        assertNotNull(failure[0]);
+
+        // Later puts fail even when there is room
+        assertEquals(0, queue.poll());
+        assertThrows(IllegalStateException.class, () -> queue.put(3));
+    }
+}
@@ -8,10 +8,13 @@ package com.vmware.bespin.scheduler;
 import org.junit.jupiter.api.Test;
 
 import com.vmware.bespin.scheduler.dinos.DiNOSSolver;
+import com.vmware.bespin.scheduler.generated.tables.records.PendingRecord;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.commons.math3.random.JDKRandomGenerator;
@@ -313,6 +316,99 @@ public class TestScheduler {
         }
     }
 
+    @Test
+    public void testPendingOrder() throws ClassNotFoundException {
+        // Create database
+        DSLContext conn = DBUtils.getConn();
+        Scheduler scheduler = new Scheduler(conn, null, false);
+        populateCluster(scheduler, 1, 8, 8, 2);
+
+        List<PendingRecord> records = new ArrayList<>();
+        scheduler.addPendingRecords(records, 0L, 0, 2, 0, Scheduler.PRIORITY_BULK, Scheduler.NO_DEADLINE);
+        scheduler.addPendingRecords(records, 2L, 1, 0, 1);
+        scheduler.addPendingRecords(records, 3L, 1, 0, 1, Scheduler.PRIORITY_NORMAL, 1000);
+        scheduler.addPendingRecords(records, 4L, 1, 0, 0, Scheduler.PRIORITY_CRITICAL, Scheduler.NO_DEADLINE);
+        scheduler.insertPendingRecords(records);
+
+        List<Long> ids = conn.select(Scheduler.PENDING_TABLE.ID)
+                .from(Scheduler.PENDING_TABLE)
+                .orderBy(Scheduler.PENDING_ORDER)
+                .fetch(Scheduler.PENDING_TABLE.ID);
+        assertEquals(List.of(4L, 3L, 2L, 0L, 1L), ids);
+
+        // Rows inserted without a priority get the defaults
+        scheduler.generateRequest(5L, 1, 0, 0);
+        assertEquals(Scheduler.PRIORITY_NORMAL, conn.fetchOne(Scheduler.PENDING_TABLE,
+                Scheduler.PENDING_TABLE.ID.eq(5L)).getPriority());
+        assertEquals(Scheduler.NO_DEADLINE, conn.fetchOne(Scheduler.PENDING_TABLE,
+                Scheduler.PENDING_TABLE.ID.eq(5L)).getDeadline());
+
+        // Ties go to the request that arrived first, even if its ids are higher
+        records.clear();
+        scheduler.addPendingRecords(records, 100L, 1, 0, 1);
+        scheduler.insertPendingRecords(records);
+        records.clear();
+        scheduler.addPendingRecords(records, 6L, 1, 0, 1);
+        scheduler.insertPendingRecords(records);
+        ids = conn.select(Scheduler.PENDING_TABLE.ID)
+                .from(Scheduler.PENDING_TABLE)
+                .orderBy(Scheduler.PENDING_ORDER)
+                .fetch(Scheduler.PENDING_TABLE.ID);
+        assertEquals(List.of(4L, 3L, 2L, 5L, 100L, 6L, 0L, 1L), ids);
+    }
+
+    @Test
+    public void testTopology() throws ClassNotFoundException {
+        // Create database
+        DSLContext conn = DBUtils.getConn();
+        Scheduler scheduler = new Scheduler(conn, null, false);
+        populateCluster(scheduler, 4, 2, 2, 1);
+
+        // Nodes 1 and 2 share a socket, 3 shares the rack, 4 is elsewhere
+        scheduler.addTopology(1, 0, 0);
+        scheduler.addTopology(2, 0, 0);
+        scheduler.addTopology(3, 1, 0);
+        scheduler.addTopology(4, 7, 1);
+        // Re-registering moves a node
+        scheduler.addTopology(4, 0, 1);
+        assertEquals(0, conn.fetchOne(Scheduler.TOPOLOGY_TABLE, Scheduler.TOPOLOGY_TABLE.NODE.eq(4)).getSocket());
+
+        scheduler.updateAllocation(1, 0, 1, 0);
+        assertEquals(List.of(1, 2), conn.fetch("select node from app_socket where application = 0 order by node")
+                .getValues(0, Integer.class));
+        assertEquals(List.of(1, 2, 3), conn.fetch("select node from app_rack where application = 0 order by node")
+                .getValues(0, Integer.class));
+
+        // Once released the application is no longer near anything
+        scheduler.releaseAllocation(1, 0, 1, 0);
+        assertEquals(0, conn.fetchCount(conn.selectFrom("app_rack")));
+    }
+
+    @Test
+    public void testColocation() throws ClassNotFoundException {
+        // Create database
+        DSLContext conn = DBUtils.getConn();
+        Scheduler scheduler = new Scheduler(conn, null, false);
+        populateCluster(scheduler, 3, 4, 4, 2);
+
+        // Only one type of resource, nothing to pair
+        assertEquals(1.0, scheduler.colocationRatioForApplication(0));
+        scheduler.updateAllocation(1, 0, 2, 0);
+        assertEquals(1.0, scheduler.colocationRatioForApplication(0));
+
+        // 2 cores and 1 memslice on node 1, 1 memslice on node 2
+        scheduler.updateAllocation(1, 0, 0, 1);
+        scheduler.updateAllocation(2, 0, 0, 1);
+        assertEquals(2, scheduler.colocatedCoresForApplication(0));
+        assertEquals(1, scheduler.colocatedMemslicesForApplication(0));
+        assertEquals(0.75, scheduler.colocationRatioForApplication(0));
+
+        // Nothing shares a node
+        scheduler.updateAllocation(1, 1, 1, 0);
+        scheduler.updateAllocation(3, 1, 0, 1);
+        assertEquals(0.0, scheduler.colocationRatioForApplication(1));
+    }
+
     @Test
     public void testNothingToSolve() throws Exception {
         final long NUM_NODES = 2;
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.scheduler.dinos;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.vmware.bespin.scheduler.Scheduler;
+
+public class TestAdmissionController {
+
+    private static AdmissionController.Decision admit(final AdmissionController admission, final long cores,
+            final long memslices) {
+        return admission.admit(IngestEvent.alloc(-1, 1, cores, memslices)).decision();
+    }
+
+    private static AdmissionController.Decision admit(final AdmissionController admission, final long cores,
+            final long memslices, final int priority, final long deadline) {
+        return admission.admit(IngestEvent.alloc(-1, 1, cores, memslices, priority, deadline)).decision();
+    }
+
+    @Test
+    public void testWatermark() {
+        final AdmissionController admission = new AdmissionController(10, false, new RequestIdAllocator(null));
+        admission.refresh(0, 0, 0, 100, 100);
+        final AdmissionController.Admission first = admission.admit(IngestEvent.alloc(-1, 1, 4, 4));
+        assertEquals(AdmissionController.Decision.ADMIT, first.decision());
+        assertEquals(8, admission.pendingUnits());
+        assertEquals(AdmissionController.Decision.RETRY, admit(admission, 2, 1));
+        final AdmissionController.Admission second = admission.admit(IngestEvent.alloc(-1, 1, 1, 1));
+        assertEquals(AdmissionController.Decision.ADMIT, second.decision());
+
+        // A solve drained pending once both were ingested
+        admission.ingested(first.alloc());
+        admission.ingested(second.alloc());
+        admission.refresh(0, 0, 0, 90, 90);
+        assertEquals(AdmissionController.Decision.ADMIT, admit(admission, 2, 1));
+    }
+
+    @Test
+    public void testRequestIdsOnlyWhenAdmittedOrQueued() {
+        final AdmissionController admission = new AdmissionController(4, true, new RequestIdAllocator(null));
+        admission.refresh(0, 0, 0, 100, 100);
+        final AdmissionController.Admission admitted = admission.admit(IngestEvent.alloc(-1, 1, 3, 1));
+        assertEquals(AdmissionController.Decision.ADMIT, admitted.decision());
+        assertEquals(0, admitted.alloc().requestId());
+
+        final AdmissionController.Admission queued = admission.admit(IngestEvent.alloc(-1, 1, 16, 0));
+        assertEquals(AdmissionController.Decision.QUEUE, queued.decision());
+        assertEquals(4, queued.alloc().requestId());
+
+        // Turned away without using up any ids
+        final AdmissionController.Admission retry = admission.admit(IngestEvent.alloc(-1, 1, 1, 0));
+        assertEquals(AdmissionController.Decision.RETRY, retry.decision());
+        assertEquals(-1, retry.alloc().requestId());
+        admission.ingested(admitted.alloc());
+        admission.refresh(0, 0, 0, 96, 99);
+        assertEquals(1, admission.drain().size());
+        assertEquals(20, admission.admit(IngestEvent.alloc(-1, 1, 1, 0)).alloc().requestId());
+    }
+
+    @Test
+    public void testCountsAllocationsNotYetIngested() {
+        final AdmissionController admission = new AdmissionController(10, false, new RequestIdAllocator(null));
+        admission.refresh(0, 0, 0, 100, 100);
+        final AdmissionController.Admission first = admission.admit(IngestEvent.alloc(-1, 1, 4, 4));
+        assertEquals(AdmissionController.Decision.ADMIT, first.decision());
+
+        // The database doesn't have it yet, but it still counts
+        admission.refresh(0, 0, 0, 100, 100);
+        assertEquals(8, admission.pendingUnits());
+        assertEquals(AdmissionController.Decision.RETRY, admit(admission, 2, 1));
+
+        // Once ingested, the database numbers include it
+        admission.ingested(first.alloc());
+        admission.refresh(8, 4, 4, 100, 100);
+        assertEquals(8, admission.pendingUnits());
+        admission.refresh(0, 0, 0, 96, 96);
+        assertEquals(0, admission.pendingUnits());
+    }
+
+    @Test
+    public void testOversizedRequestAdmittedAlone() {
+        final AdmissionController admission = new AdmissionController(10, false, new RequestIdAllocator(null));
+        admission.refresh(0, 0, 0, 100, 100);
+        assertEquals(AdmissionController.Decision.ADMIT, admit(admission, 20, 0));
+        assertEquals(AdmissionController.Decision.RETRY, admit(admission, 1, 0));
+    }
+
+    @Test
+    public void testFreeCapacity() {
+        final AdmissionController admission = new AdmissionController(100, false, new RequestIdAllocator(null));
+        admission.refresh(0, 0, 0, 4, 2);
+        assertEquals(AdmissionController.Decision.ADMIT, admit(admission, 3, 1));
+        // Cores would fit, memslices no longer do
+        assertEquals(AdmissionController.Decision.RETRY, admit(admission, 1, 2));
+        assertEquals(AdmissionController.Decision.ADMIT, admit(admission, 1, 1));
+        assertEquals(AdmissionController.Decision.RETRY, admit(admission, 1, 0));
+    }
+
+    @Test
+    public void testOverflowQueueDrainsInChunks() {
+        final AdmissionController admission = new AdmissionController(4, true, new RequestIdAllocator(null));
+        admission.refresh(0, 0, 0, 100, 100);
+        final AdmissionController.Admission first = admission.admit(IngestEvent.alloc(-1, 1, 4, 0));
+        assertEquals(AdmissionController.Decision.ADMIT, first.decision());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(AdmissionController.Decision.QUEUE, admit(admission, 1, 1));
+        }
+        // The queue holds at most OVERFLOW_FACTOR watermarks worth of units
+        for (int i = 0; i < 4; i++) {
+            assertEquals(AdmissionController.Decision.QUEUE, admit(admission, 1, 1));
+        }
+        assertEquals(AdmissionController.Decision.RETRY, admit(admission, 1, 1));
+
+        // Nothing fits until pending drains
+        assertEquals(0, admission.drain().size());
+        admission.ingested(first.alloc());
+        admission.refresh(0, 0, 0, 96, 100);
+        final List<IngestEvent> drained = admission.drain();
+        assertEquals(2, drained.size());
+        assertEquals(4, drained.get(0).requestId());
+        assertEquals(6, drained.get(1).requestId());
+        assertEquals(6, admission.overflowSize());
+
+        // New requests queue behind parked ones even when there is room
+        drained.forEach(admission::ingested);
+        admission.refresh(0, 0, 0, 94, 98);
+        assertEquals(AdmissionController.Decision.QUEUE, admit(admission, 1, 0));
+        assertEquals(2, admission.drain().size());
+    }
+
+    @Test
+    public void testOverflowQueueByPriority() {
+        final AdmissionController admission = new AdmissionController(2, true, new RequestIdAllocator(null));
+        admission.refresh(0, 0, 0, 100, 100);
+        final AdmissionController.Admission first = admission.admit(IngestEvent.alloc(-1, 1, 2, 0));
+        assertEquals(AdmissionController.Decision.ADMIT, first.decision());
+        assertEquals(AdmissionController.Decision.QUEUE,
+                admit(admission, 0, 1, Scheduler.PRIORITY_BULK, Scheduler.NO_DEADLINE));
+        assertEquals(AdmissionController.Decision.QUEUE, admit(admission, 1, 0));
+        assertEquals(AdmissionController.Decision.QUEUE,
+                admit(admission, 1, 0, Scheduler.PRIORITY_NORMAL, 1000));
+
+        admission.ingested(first.alloc());
+        admission.refresh(0, 0, 0, 98, 100);
+        final List<IngestEvent> drained = admission.drain();
+        assertEquals(2, drained.size());
+        assertEquals(4, drained.get(0).requestId());
+        assertEquals(3, drained.get(1).requestId());
+
+        // A critical request goes ahead of the parked bulk one if it fits
+        drained.forEach(admission::ingested);
+        admission.refresh(0, 0, 0, 96, 100);
+        assertEquals(AdmissionController.Decision.ADMIT,
+                admit(admission, 1, 0, Scheduler.PRIORITY_CRITICAL, Scheduler.NO_DEADLINE));
+        assertEquals(1, admission.overflowSize());
+    }
+
+    @Test
+    public void testOverflowQueueByArrival() throws InterruptedException {
+        final AdmissionController admission = new AdmissionController(1, true, new RequestIdAllocator(null));
+        admission.refresh(0, 0, 0, 100, 100);
+        final AdmissionController.Admission first = admission.admit(IngestEvent.alloc(-1, 1, 1, 0));
+        assertEquals(AdmissionController.Decision.ADMIT, first.decision());
+
+        // Another server thread numbers from its own lease, so its ids are higher than later ones here
+        final Thread other = new Thread(() -> admit(admission, 1, 0));
+        other.start();
+        other.join();
+        assertEquals(AdmissionController.Decision.QUEUE, admit(admission, 1, 0));
+
+        admission.ingested(first.alloc());
+        admission.refresh(0, 0, 0, 99, 100);
+        final List<IngestEvent> drained = admission.drain();
+        assertEquals(1, drained.size());
+        assertEquals(RequestIdAllocator.LEASE_SIZE, drained.get(0).requestId());
+    }
+}
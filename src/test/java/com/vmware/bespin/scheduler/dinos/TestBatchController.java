@@ -0,0 +1,93 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.scheduler.dinos;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+public class TestBatchController {
+
+    // Solves take 50ms plus 1ms per request
+    private static void train(final BatchController controller) {
+        for (int n = 10; n <= 100; n += 10) {
+            controller.recordSolve(n, 50 + n);
+        }
+    }
+
+    @Test
+    public void testFitsSolveTime() {
+        final BatchController controller = new BatchController(BatchController.Objective.MEAN, 10, 10);
+        train(controller);
+        assertEquals(50, controller.solveTimeIntercept(), 1e-6);
+        assertEquals(1, controller.solveTimeSlope(), 1e-6);
+        assertEquals(150, controller.predictSolveTime(100), 1e-6);
+    }
+
+    @Test
+    public void testNoChangeWithoutArrivals() {
+        final BatchController controller = new BatchController(BatchController.Objective.MEAN, 10, 10);
+        train(controller);
+        assertEquals(10, controller.maxRequests());
+        assertEquals(10, controller.maxTime());
+    }
+
+    @Test
+    public void testLowRateSolvesImmediately() {
+        final BatchController controller = new BatchController(BatchController.Objective.MEAN, 10, 10);
+        train(controller);
+        // One request every 100ms, the solver keeps up with single requests
+        controller.recordArrivals(10, 1000);
+        assertEquals(1, controller.maxRequests());
+        assertEquals(100, controller.maxTime());
+    }
+
+    @Test
+    public void testHighRateBatchesToKeepUp() {
+        final BatchController controller = new BatchController(BatchController.Objective.MEAN, 10, 10);
+        train(controller);
+        // One request every 2ms, a batch of B takes 50 + B ms so needs B > 50 to keep up, and
+        // somewhat more than that to keep queueing between solves short
+        controller.recordArrivals(500, 1000);
+        assertEquals(95, controller.maxRequests());
+        assertEquals(190, controller.maxTime());
+    }
+
+    @Test
+    public void testOverloadUsesLargestBatch() {
+        final BatchController controller = new BatchController(BatchController.Objective.P99, 10, 10);
+        train(controller);
+        // Requests arrive as fast as a single one can be solved, nothing keeps up
+        controller.recordArrivals(1000, 1000);
+        assertEquals(BatchController.MAX_BATCH, controller.maxRequests());
+        assertEquals(BatchController.MAX_BATCH, controller.maxTime());
+    }
+
+    @Test
+    public void testTailObjectiveKeepsUtilizationLower() {
+        // Queueing behind earlier solves dominates the tail, so it pays to batch more
+        final BatchController mean = new BatchController(BatchController.Objective.MEAN, 10, 10);
+        final BatchController tail = new BatchController(BatchController.Objective.P99, 10, 10);
+        train(mean);
+        train(tail);
+        mean.recordArrivals(500, 1000);
+        tail.recordArrivals(500, 1000);
+        assertEquals(95, mean.maxRequests());
+        assertEquals(116, tail.maxRequests());
+    }
+
+    @Test
+    public void testTracksArrivalRate() {
+        final BatchController controller = new BatchController(BatchController.Objective.MEAN, 10, 10);
+        controller.recordArrivals(100, 1000);
+        assertEquals(0.1, controller.arrivalRate(), 1e-9);
+        controller.recordArrivals(600, 1000);
+        assertEquals(0.2, controller.arrivalRate(), 1e-9);
+        // Empty intervals are ignored
+        controller.recordArrivals(0, 0);
+        assertEquals(0.2, controller.arrivalRate(), 1e-9);
+    }
+}
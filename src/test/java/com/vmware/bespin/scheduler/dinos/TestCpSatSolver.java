@@ -0,0 +1,157 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.scheduler.dinos;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jooq.DSLContext;
+import org.jooq.Result;
+import org.junit.jupiter.api.Test;
+
+import com.google.ortools.sat.CpModel;
+
+import com.vmware.bespin.scheduler.DBUtils;
+import com.vmware.bespin.scheduler.Scheduler;
+import com.vmware.bespin.scheduler.SolverException;
+import com.vmware.bespin.scheduler.generated.tables.Pending;
+import com.vmware.bespin.scheduler.generated.tables.records.PendingRecord;
+
+public class TestCpSatSolver {
+    private static final Pending PENDING_TABLE = Pending.PENDING;
+
+    // Apply the results, checking each node stays within its capacity
+    private static void commit(final DSLContext conn, final Scheduler scheduler,
+            final Result<? extends org.jooq.Record> results) {
+        for (final org.jooq.Record r : results) {
+            final PendingRecord pending = r.into(PENDING_TABLE);
+            assertNotNull(pending.getControllable_Node());
+            scheduler.updateAllocation(pending.getControllable_Node(), pending.getApplication(), pending.getCores(),
+                    pending.getMemslices());
+            conn.deleteFrom(PENDING_TABLE).where(PENDING_TABLE.ID.eq(pending.getId())).execute();
+        }
+        final Integer[][] unallocated = scheduler.unallocatedResources();
+        for (int n = 0; n < unallocated[0].length; n++) {
+            assertTrue(unallocated[1][n] >= 0, "cores overfilled on node " + unallocated[0][n]);
+            assertTrue(unallocated[2][n] >= 0, "memslices overfilled on node " + unallocated[0][n]);
+        }
+    }
+
+    @Test
+    public void testPlacesWithinCapacity() throws ClassNotFoundException, SolverException {
+        final DSLContext conn = DBUtils.getConn();
+        final CpSatSolver solver = new CpSatSolver();
+        final Scheduler scheduler = new Scheduler(conn, solver, false);
+        scheduler.addNode(1, 4, 4);
+        scheduler.addNode(2, 4, 4);
+        scheduler.addApplication(1);
+        scheduler.addApplication(2);
+        scheduler.updateAllocation(1, 1, 2, 0);
+
+        // Exactly fills the cores, so any placement over capacity would leave something out
+        scheduler.generateRequests(null, 3L, 2L, 1);
+        scheduler.generateRequests(null, 3L, 3L, 2);
+        final Result<? extends org.jooq.Record> results = solver.solve(conn, scheduler);
+        assertEquals(11, results.size());
+        commit(conn, scheduler, results);
+        assertEquals(0, scheduler.getNumPendingRequests());
+        assertEquals(8, scheduler.usedCores());
+        assertEquals(5, scheduler.usedMemslices());
+    }
+
+    @Test
+    public void testOverfill() throws ClassNotFoundException, SolverException {
+        final DSLContext conn = DBUtils.getConn();
+        final Scheduler scheduler = new Scheduler(conn, null, false);
+        scheduler.addNode(1, 2, 2);
+        scheduler.addNode(2, 2, 2);
+        scheduler.addApplication(1);
+        scheduler.addApplication(2);
+
+        scheduler.generateRequests(null, 3L, 0L, 1);
+        scheduler.generateRequests(null, 2L, 1L, 2);
+        try {
+            new CpSatSolver().solve(conn, scheduler);
+            fail("Should fail with solver exception when overfilling");
+        } catch (final SolverException e) {
+            // good
+        }
+
+        // Partial mode places as much as fits and leaves the rest queued
+        final CpSatSolver partial = new CpSatSolver(true, SolveDeadline.DEFAULT, 1);
+        final Result<? extends org.jooq.Record> results = partial.solve(conn, scheduler);
+        assertEquals(5, results.size());
+        commit(conn, scheduler, results);
+        assertEquals(1, scheduler.getNumPendingRequests());
+        assertEquals(4, scheduler.usedCores());
+    }
+
+    @Test
+    public void testModelReusedAcrossSolves() throws ClassNotFoundException, SolverException {
+        final DSLContext conn = DBUtils.getConn();
+        final CpSatSolver solver = new CpSatSolver();
+        final Scheduler scheduler = new Scheduler(conn, solver, false);
+        scheduler.addNode(1, 4, 4);
+        scheduler.addNode(2, 4, 4);
+        scheduler.addApplication(1);
+        scheduler.addApplication(2);
+
+        scheduler.generateRequests(null, 4L, 0L, 1);
+        commit(conn, scheduler, solver.solve(conn, scheduler));
+        final CpModel first = solver.model();
+
+        // Different demands and free capacity only change the bounds of the same model
+        scheduler.generateRequests(null, 2L, 3L, 2);
+        final Result<? extends org.jooq.Record> results = solver.solve(conn, scheduler);
+        assertSame(first, solver.model());
+        assertEquals(5, results.size());
+        commit(conn, scheduler, results);
+        assertEquals(6, scheduler.usedCores());
+        assertEquals(3, scheduler.usedMemslices());
+
+        // The bounds of the first solve are gone: this only fits if node capacity was updated
+        scheduler.generateRequests(null, 2L, 0L, 1);
+        commit(conn, scheduler, solver.solve(conn, scheduler));
+        assertEquals(8, scheduler.usedCores());
+
+        // A new node changes the skeleton
+        scheduler.addNode(3, 4, 4);
+        scheduler.generateRequests(null, 1L, 0L, 1);
+        commit(conn, scheduler, solver.solve(conn, scheduler));
+        assertNotSame(first, solver.model());
+        assertEquals(1, scheduler.usedCoresForNode(3));
+    }
+
+    @Test
+    public void testHandsOutUnitsInOrder() throws ClassNotFoundException, SolverException {
+        final DSLContext conn = DBUtils.getConn();
+        final Scheduler scheduler = new Scheduler(conn, null, false);
+        scheduler.addNode(1, 4, 4);
+        scheduler.addNode(2, 4, 4);
+        scheduler.addApplication(1);
+        scheduler.addApplication(2);
+        scheduler.updateAllocation(1, 2, 2, 4);
+        scheduler.updateAllocation(2, 2, 3, 0);
+
+        // Capacity forces 2 cores onto node 1 and 1 onto node 2, and the memslices onto node 2
+        scheduler.generateRequests(0L, 3L, 2L, 1);
+        final Result<? extends org.jooq.Record> results = new CpSatSolver().solve(conn, scheduler);
+        final List<Integer> nodes = new ArrayList<>();
+        for (final org.jooq.Record r : results) {
+            nodes.add(r.into(PENDING_TABLE).getControllable_Node());
+        }
+
+        // Rows come back in id order, and the lowest node's units go to the first rows
+        assertEquals(List.of(1, 1, 2, 2, 2), nodes);
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.scheduler.dinos;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jooq.DSLContext;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.junit.jupiter.api.Test;
+
+import com.vmware.bespin.scheduler.DBUtils;
+import com.vmware.bespin.scheduler.Scheduler;
+import com.vmware.bespin.scheduler.Solver;
+import com.vmware.bespin.scheduler.generated.tables.records.PendingRecord;
+import com.vmware.bespin.simulation.RoundRobinSolver;
+
+public class TestDiNOSScheduler {
+
+    @Test
+    public void testWarmUpLeavesNoState() throws ClassNotFoundException, IOException {
+        final DSLContext conn = DBUtils.getConn();
+        final DiNOSScheduler scheduler = new DiNOSScheduler.Builder(conn, new RoundRobinSolver())
+                .setBatching(10, 10, 10)
+                .setFastPath(true)
+                .build();
+        scheduler.warmUp(3);
+
+        // Nothing is left behind
+        assertEquals(0, scheduler.numNodes());
+        assertEquals(0, scheduler.usedCores());
+        assertEquals(0, scheduler.usedMemslices());
+        assertEquals(0, scheduler.getNumPendingRequests());
+
+        // Skipped once real nodes exist
+        scheduler.addNode(1, 4, 4);
+        scheduler.warmUp(3);
+        assertEquals(1, scheduler.numNodes());
+        assertEquals(0, scheduler.usedCores());
+    }
+
+    @Test
+    public void testFastPathDoesNotOvertakePending() throws ClassNotFoundException, IOException {
+        final DSLContext conn = DBUtils.getConn();
+        final DiNOSScheduler scheduler = new DiNOSScheduler.Builder(conn, new RoundRobinSolver())
+                .setBatching(10, 10, 10)
+                .setFastPath(true)
+                .build();
+        scheduler.addNode(1, 4, 4);
+        scheduler.updateAllocation(1, 1, 1, 0);
+        scheduler.updateAllocation(1, 2, 1, 0);
+
+        // Application 1 still has a request waiting for the solver, so its new one waits too
+        scheduler.generateRequests(1L, 1, 0, 1);
+        final List<PendingRecord> queued = new ArrayList<>();
+        scheduler.addPendingRecords(queued, 10L, 1, 0, 1);
+        scheduler.fastPlace(10L, queued);
+        assertEquals(1, queued.size());
+
+        // Application 2 has nothing pending and room on its node
+        final List<PendingRecord> placed = new ArrayList<>();
+        scheduler.addPendingRecords(placed, 20L, 1, 0, 2);
+        scheduler.fastPlace(20L, placed);
+        assertEquals(0, placed.size());
+        assertEquals(2, scheduler.usedCoresForApplicationOnNode(2, 1));
+    }
+
+    private static DiNOSScheduler snapshotScheduler(final DSLContext conn, final Solver solver)
+            throws ClassNotFoundException, IOException {
+        return new DiNOSScheduler.Builder(conn, solver)
+                .setBatching(10, 10, 10)
+                .setSnapshot(new SolveSnapshot(), false)
+                .build();
+    }
+
+    @Test
+    public void testSnapshotSolveDoesNotBlockIngestion() throws Exception {
+        final DSLContext conn = DBUtils.getConn();
+        final RoundRobinSolver roundRobin = new RoundRobinSolver();
+        final AtomicReference<DiNOSScheduler> ref = new AtomicReference<>();
+        final Solver solver = (snapshotConn, snapshotScheduler) -> {
+            // Requests arriving mid-solve go straight into the live state, from another thread
+            final Thread ingest = new Thread(() -> {
+                final List<PendingRecord> records = new ArrayList<>();
+                ref.get().addPendingRecords(records, 100L, 2, 0, 1);
+                ref.get().insertPendingRecords(records);
+            });
+            ingest.start();
+            try {
+                ingest.join(5000);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            assertFalse(ingest.isAlive());
+            return roundRobin.solve(snapshotConn, snapshotScheduler);
+        };
+        final DiNOSScheduler scheduler = snapshotScheduler(conn, solver);
+        ref.set(scheduler);
+        scheduler.addNode(1, 4, 4);
+        scheduler.generateRequests(1L, 3, 0, 1);
+
+        // Only what was in the snapshot is placed, what came in during the solve waits for the next one
+        assertEquals(true, scheduler.runSolverAndUpdateDB());
+        assertEquals(3, scheduler.usedCores());
+        assertEquals(2, scheduler.getNumPendingRequests());
+    }
+
+    @Test
+    public void testSnapshotSolveRequeuesConflicts() throws Exception {
+        final DSLContext conn = DBUtils.getConn();
+        final RoundRobinSolver roundRobin = new RoundRobinSolver();
+        final AtomicReference<DiNOSScheduler> ref = new AtomicReference<>();
+        final Solver solver = (snapshotConn, snapshotScheduler) -> {
+            // An affinity allocation takes 3 of node 1's cores while the solver still counts them as free
+            ref.get().updateNode(1, 3, 0, false);
+            return roundRobin.solve(snapshotConn, snapshotScheduler);
+        };
+        final DiNOSScheduler scheduler = snapshotScheduler(conn, solver);
+        ref.set(scheduler);
+        scheduler.addNode(1, 4, 4);
+        scheduler.addNode(2, 4, 4);
+        scheduler.generateRequests(1L, 6, 0, 1);
+
+        // Round robin put 3 cores on each node, but only 1 still fits on node 1 and the rest go back to pending
+        assertEquals(true, scheduler.runSolverAndUpdateDB());
+        assertFalse(scheduler.checkForCapacityViolation());
+        assertEquals(1, scheduler.usedCoresForNode(1));
+        assertEquals(3, scheduler.usedCoresForNode(2));
+        assertEquals(2, scheduler.getNumPendingRequests());
+
+        // The next solve sees node 1 is full and places them on node 2, once it has room
+        ref.set(null);
+        scheduler.releaseAllocation(2, 1, 1, 0);
+        final DiNOSScheduler next = snapshotScheduler(conn, roundRobin);
+        assertEquals(true, next.runSolverAndUpdateDB());
+        assertEquals(0, next.getNumPendingRequests());
+        assertEquals(4, next.usedCoresForNode(2));
+        assertFalse(next.checkForCapacityViolation());
+    }
+
+    @Test
+    public void testPipelineSolvesAgainstReservations() throws Exception {
+        final DSLContext conn = DBUtils.getConn();
+        final RoundRobinSolver roundRobin = new RoundRobinSolver();
+        final List<long[]> seen = new ArrayList<>();
+        final Solver solver = (snapshotConn, snapshotScheduler) -> {
+            seen.add(new long[] {snapshotScheduler.getNumPendingRequests(), snapshotScheduler.usedCores()});
+            return roundRobin.solve(snapshotConn, snapshotScheduler);
+        };
+        final DiNOSScheduler scheduler = new DiNOSScheduler.Builder(conn, solver)
+                .setBatching(10, 10, 10)
+                .setSnapshot(new SolveSnapshot(), true)
+                .build();
+        scheduler.addNode(1, 2, 2);
+        scheduler.addNode(2, 2, 2);
+
+        // With the commit stage not running yet, neither batch is committed when the next one is solved
+        scheduler.generateRequests(1L, 2, 0, 1);
+        assertEquals(true, scheduler.runSolverAndUpdateDB());
+        scheduler.generateRequests(3L, 2, 0, 2);
+        assertEquals(true, scheduler.runSolverAndUpdateDB());
+        assertEquals(0, scheduler.usedCores());
+
+        // The second solve only saw its own requests, with the first batch's cores already taken
+        assertArrayEquals(new long[] {2, 0}, seen.get(0));
+        assertArrayEquals(new long[] {2, 2}, seen.get(1));
+
+        scheduler.startPipeline();
+        assertEquals(true, scheduler.drainPipeline(5000));
+        assertEquals(4, scheduler.usedCores());
+        assertEquals(0, scheduler.getNumPendingRequests());
+        assertFalse(scheduler.checkForCapacityViolation());
+    }
+
+    @Test
+    public void testPipelineSurvivesFailedCommit() throws Exception {
+        final DSLContext conn = DBUtils.getConn();
+        final RoundRobinSolver roundRobin = new RoundRobinSolver();
+        final AtomicInteger solves = new AtomicInteger();
+        final Solver solver = (snapshotConn, snapshotScheduler) -> {
+            final int solve = solves.getAndIncrement();
+            if (solve == 0) {
+                // Nothing placed
+                return snapshotConn.selectFrom(Scheduler.PENDING_TABLE).fetch();
+            }
+            final Result<? extends Record> results = roundRobin.solve(snapshotConn, snapshotScheduler);
+            if (solve == 1) {
+                // A batch the commit stage can't commit, for an application that doesn't exist
+                results.forEach(r -> r.set(Scheduler.PENDING_TABLE.APPLICATION, 99));
+            }
+            return results;
+        };
+        final DiNOSScheduler scheduler = new DiNOSScheduler.Builder(conn, solver)
+                .setBatching(10, 10, 10)
+                .setSnapshot(new SolveSnapshot(), true)
+                .build();
+        scheduler.addNode(1, 2, 2);
+        scheduler.addNode(2, 2, 2);
+        scheduler.startPipeline();
+
+        scheduler.generateRequests(1L, 2, 0, 1);
+        assertFalse(scheduler.runSolverAndUpdateDB());
+        assertEquals(true, scheduler.runSolverAndUpdateDB());
+        assertEquals(true, scheduler.drainPipeline(5000));
+        assertEquals(0, scheduler.usedCores());
+
+        // The failed batch is released and solved again, and the commit stage is still running
+        assertEquals(true, scheduler.runSolverAndUpdateDB());
+        assertEquals(true, scheduler.drainPipeline(5000));
+        assertEquals(2, scheduler.usedCores());
+        assertEquals(0, scheduler.getNumPendingRequests());
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.scheduler.dinos;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jooq.DSLContext;
+import org.junit.jupiter.api.Test;
+
+import com.vmware.bespin.scheduler.DBUtils;
+import com.vmware.bespin.scheduler.Scheduler;
+import com.vmware.bespin.scheduler.generated.tables.records.PendingRecord;
+
+public class TestDiNOSSolver {
+
+    @Test
+    public void testWithinCapacity() throws ClassNotFoundException {
+        final DSLContext conn = DBUtils.getConn();
+        final Scheduler scheduler = new Scheduler(conn, null, false);
+        scheduler.addApplication(1);
+        scheduler.addNode(1, 2, 2);
+        scheduler.addNode(2, 2, 2);
+        scheduler.updateAllocation(2, 1, 1, 0);
+
+        // 3 free cores and 4 free memslices, ask for 5 and 2
+        final List<PendingRecord> records = new ArrayList<>();
+        scheduler.addPendingRecords(records, 0L, 4, 2, 1, Scheduler.PRIORITY_BULK, Scheduler.NO_DEADLINE);
+        scheduler.addPendingRecords(records, 6L, 1, 0, 1, Scheduler.PRIORITY_CRITICAL, Scheduler.NO_DEADLINE);
+        scheduler.insertPendingRecords(records);
+
+        // The least urgent cores are the ones held back, most urgent first
+        final List<Long> ids = new ArrayList<>();
+        DiNOSSolver.withinCapacity(conn).forEach(r -> ids.add(r.getId()));
+        assertEquals(List.of(6L, 0L, 1L, 4L, 5L), ids);
+
+        // Pending is left as it was
+        assertEquals(7, scheduler.getNumPendingRequests());
+
+        // Everything is picked once it all fits
+        scheduler.addNode(3, 4, 0);
+        assertEquals(7, DiNOSSolver.withinCapacity(conn).size());
+    }
+}
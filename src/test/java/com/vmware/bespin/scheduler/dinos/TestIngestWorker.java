@@ -0,0 +1,190 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.scheduler.dinos;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.jooq.DSLContext;
+import org.jooq.exception.DataAccessException;
+import org.junit.jupiter.api.Test;
+
+import com.vmware.bespin.scheduler.DBUtils;
+import com.vmware.bespin.scheduler.Scheduler;
+import com.vmware.bespin.scheduler.generated.tables.records.PendingRecord;
+
+public class TestIngestWorker {
+
+    @Test
+    public void testApplyInOrder() throws ClassNotFoundException {
+        final DSLContext conn = DBUtils.getConn();
+        final Scheduler scheduler = new Scheduler(conn, null, false);
+        scheduler.addNode(1, 4, 4);
+        scheduler.addApplication(1);
+        scheduler.updateAllocation(1, 1, 2, 2);
+
+        final IngestWorker worker = new IngestWorker(scheduler, 16);
+        worker.applyBatch(List.of(
+            IngestEvent.alloc(0, 1, 2, 1),
+            IngestEvent.alloc(3, 1, 0, 2),
+            IngestEvent.release(1, 1, 1, 1),
+            IngestEvent.affinityAlloc(1, 1, 0),
+            IngestEvent.alloc(5, 1, 1, 0)
+        ));
+
+        // Both allocation runs were inserted with the ids reserved for them
+        assertEquals(6, scheduler.getNumPendingRequests());
+        final long[] ids = scheduler.getPendingRequestIDs();
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(i, ids[i]);
+        }
+
+        // Release and affinity alloc were applied
+        assertEquals(1, scheduler.usedCores());
+        assertEquals(1, scheduler.usedMemslices());
+        assertEquals(3, scheduler.coreCapacity());
+    }
+
+    @Test
+    public void testDrainOnStop() throws ClassNotFoundException, InterruptedException {
+        final DSLContext conn = DBUtils.getConn();
+        final Scheduler scheduler = new Scheduler(conn, null, false);
+        scheduler.addNode(1, 4, 4);
+        scheduler.addApplication(1);
+
+        final IngestWorker worker = new IngestWorker(scheduler, 4);
+        final Thread thread = new Thread(worker);
+        thread.start();
+        for (long i = 0; i < 20; i++) {
+            worker.submit(IngestEvent.alloc(i, 1, 1, 0));
+        }
+        worker.stop();
+        thread.join();
+
+        assertEquals(0, worker.backlog());
+        assertEquals(20, scheduler.getNumPendingRequests());
+    }
+
+    @Test
+    public void testFastPath() throws ClassNotFoundException {
+        final DSLContext conn = DBUtils.getConn();
+        final Scheduler scheduler = new Scheduler(conn, null, false);
+        scheduler.addNode(1, 4, 4);
+        scheduler.addApplication(1);
+
+        // Place every core immediately, leave memslices for the solver
+        final IngestWorker worker = new IngestWorker(scheduler, 16, (requestId, records) -> {
+            final Iterator<PendingRecord> it = records.iterator();
+            while (it.hasNext()) {
+                final PendingRecord r = it.next();
+                if (r.getCores() > 0) {
+                    scheduler.updateAllocation(1, r.getApplication(), r.getCores(), r.getMemslices());
+                    it.remove();
+                }
+            }
+        });
+        worker.applyBatch(List.of(
+            IngestEvent.alloc(0, 1, 2, 1),
+            IngestEvent.alloc(3, 1, 1, 1)
+        ));
+
+        assertEquals(3, scheduler.usedCores());
+        assertEquals(2, scheduler.getNumPendingRequests());
+        final long[] ids = scheduler.getPendingRequestIDs();
+        assertEquals(2, ids[0]);
+        assertEquals(4, ids[1]);
+    }
+
+    @Test
+    public void testBadEventDoesNotStopWorker() throws ClassNotFoundException, InterruptedException {
+        final DSLContext conn = DBUtils.getConn();
+        final Scheduler scheduler = new Scheduler(conn, null, false);
+        scheduler.addNode(1, 4, 4);
+        scheduler.addApplication(1);
+
+        // The fast path blows up on the first request only
+        final boolean[] failed = {false};
+        final IngestWorker worker = new IngestWorker(scheduler, 16, (requestId, records) -> {
+            if (!failed[0]) {
+                failed[0] = true;
+                throw new IllegalArgumentException("bad request");
+            }
+        });
+        final Thread thread = new Thread(worker);
+        thread.start();
+        worker.submit(IngestEvent.alloc(0, 1, 1, 0));
+        worker.submit(IngestEvent.alloc(1, 1, 1, 0));
+        worker.submit(IngestEvent.alloc(2, 1, 0, 1));
+        worker.stop();
+        thread.join();
+
+        // Only the bad request was dropped
+        assertEquals(2, scheduler.getNumPendingRequests());
+
+        // A stopped worker refuses events instead of queueing them forever
+        assertThrows(IllegalStateException.class, () -> worker.submit(IngestEvent.alloc(3, 1, 1, 0)));
+    }
+
+    @Test
+    public void testFastPathSeesEarlierRecords() throws ClassNotFoundException {
+        final DSLContext conn = DBUtils.getConn();
+        final Scheduler scheduler = new Scheduler(conn, null, false);
+        scheduler.addNode(1, 4, 4);
+        scheduler.addApplication(1);
+        scheduler.addApplication(2);
+
+        // Records of the application's earlier requests in the same batch are already pending
+        final List<Long> pendingSeen = new ArrayList<>();
+        final IngestWorker worker = new IngestWorker(scheduler, 16, (requestId, records) -> {
+            pendingSeen.add(scheduler.getNumPendingRequests());
+        });
+        worker.applyBatch(List.of(
+            IngestEvent.alloc(0, 1, 2, 0),
+            IngestEvent.alloc(2, 2, 1, 0),
+            IngestEvent.alloc(3, 1, 1, 0)
+        ));
+        assertEquals(List.of(0L, 0L, 3L), pendingSeen);
+        assertEquals(4, scheduler.getNumPendingRequests());
+    }
+
+    @Test
+    public void testFailedInsertRejectsDroppedRecords() throws ClassNotFoundException {
+        final DSLContext conn = DBUtils.getConn();
+        // Any insert with a record of application 2 fails
+        final Scheduler scheduler = new Scheduler(conn, null, false) {
+            @Override
+            public void insertPendingRecords(final List<PendingRecord> records) {
+                for (final PendingRecord r : records) {
+                    if (r.getApplication() == 2) {
+                        throw new DataAccessException("insert failed");
+                    }
+                }
+                super.insertPendingRecords(records);
+            }
+        };
+        scheduler.addNode(1, 4, 4);
+        scheduler.addApplication(1);
+        scheduler.addApplication(2);
+
+        final List<String> calls = new ArrayList<>();
+        final IngestWorker worker = new IngestWorker(scheduler, 16, null,
+            e -> calls.add("applied " + e.requestId()),
+            (requestId, recordIds) -> calls.add("rejected " + requestId + " " + recordIds));
+        worker.applyBatch(List.of(
+            IngestEvent.alloc(0, 1, 2, 0),
+            IngestEvent.alloc(2, 2, 1, 1),
+            IngestEvent.alloc(4, 1, 0, 1)
+        ));
+
+        // The other requests are retried on their own, and NRK hears about the dropped records
+        // before the allocation counts as applied
+        assertEquals(3, scheduler.getNumPendingRequests());
+        assertEquals(List.of("rejected 2 [2, 3]", "applied 0", "applied 2", "applied 4"), calls);
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.scheduler.dinos;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+public class TestLocalityIndex {
+
+    @Test
+    public void testFindNode() {
+        final LocalityIndex index = new LocalityIndex();
+        index.addNode(1, 4, 4);
+        index.addNode(2, 4, 4);
+        index.addNode(3, 4, 4);
+
+        // No locality hit for an application that isn't placed anywhere
+        assertEquals(-1, index.findNode(1, 1, 0));
+
+        // Prefer the node holding most of the application
+        index.allocate(1, 1, 1, 0);
+        index.allocate(2, 1, 2, 1);
+        assertEquals(2, index.findNode(1, 1, 0));
+
+        // Fall back to another occupied node once the preferred one is full
+        index.allocate(2, 2, 2, 3);
+        assertEquals(1, index.findNode(1, 1, 0));
+        assertEquals(1, index.findNode(1, 0, 1));
+
+        // Node 3 has room but the application does not occupy it
+        index.allocate(1, 2, 3, 3);
+        assertEquals(-1, index.findNode(1, 1, 1));
+    }
+
+    @Test
+    public void testReleaseAndUpdateNode() {
+        final LocalityIndex index = new LocalityIndex();
+        index.addNode(1, 2, 2);
+        index.allocate(1, 1, 2, 0);
+        assertEquals(-1, index.findNode(1, 1, 0));
+
+        // Affinity allocation grows the node
+        index.updateNode(1, 1, 0, true);
+        assertEquals(1, index.findNode(1, 1, 0));
+
+        // Releasing everything means the application no longer occupies the node
+        index.release(1, 1, 2, 0);
+        assertEquals(-1, index.findNode(1, 1, 0));
+    }
+}
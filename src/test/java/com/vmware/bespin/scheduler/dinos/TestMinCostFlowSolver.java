@@ -0,0 +1,194 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.scheduler.dinos;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.jooq.DSLContext;
+import org.jooq.Result;
+import org.junit.jupiter.api.Test;
+
+import com.vmware.bespin.scheduler.DBUtils;
+import com.vmware.bespin.scheduler.Scheduler;
+import com.vmware.bespin.scheduler.SolverException;
+import com.vmware.bespin.scheduler.generated.tables.Pending;
+import com.vmware.bespin.scheduler.generated.tables.records.PendingRecord;
+
+public class TestMinCostFlowSolver {
+    private static final Pending PENDING_TABLE = Pending.PENDING;
+
+    @Test
+    public void testMinCostFlow() {
+        // Routes from 0 to 3: 0-1-3 costs 2 with room for 1, 0-1-2-3 costs 3 and 0-2-3 costs 4
+        final MinCostFlow network = new MinCostFlow(4);
+        final int cheap = network.addEdge(0, 1, 2, 1);
+        network.addEdge(1, 3, 1, 1);
+        final int dear = network.addEdge(0, 2, 3, 2);
+        network.addEdge(2, 3, 5, 2);
+        network.addEdge(1, 2, 1, 0);
+
+        assertArrayEquals(new long[] {4, 2 + 3 + 2 * 4}, network.solve(0, 3, 4));
+        assertEquals(2, network.flow(cheap));
+        assertEquals(2, network.flow(dear));
+
+        // Asking for more than fits pushes the maximum flow
+        final MinCostFlow small = new MinCostFlow(2);
+        small.addEdge(0, 1, 3, 1);
+        assertArrayEquals(new long[] {3, 3}, small.solve(0, 1, 10));
+    }
+
+    @Test
+    public void testPlaceIsOptimal() {
+        // Compare the units placed on an application's own nodes with every possible placement
+        final Random rand = new Random(11);
+        for (int round = 0; round < 50; round++) {
+            final long[] demand = {rand.nextInt(4), rand.nextInt(4)};
+            final long[] free = {rand.nextInt(3), rand.nextInt(3), rand.nextInt(3)};
+            final List<Set<Integer>> present = new ArrayList<>();
+            for (int a = 0; a < 2; a++) {
+                present.add(new HashSet<>());
+                for (int n = 0; n < 3; n++) {
+                    if (rand.nextBoolean()) {
+                        present.get(a).add(n);
+                    }
+                }
+            }
+            final long[][] placed = MinCostFlowSolver.place(demand, free, present);
+
+            long total = 0;
+            for (int a = 0; a < 2; a++) {
+                for (int n = 0; n < 3; n++) {
+                    total += placed[a][n];
+                }
+            }
+            for (int n = 0; n < 3; n++) {
+                assertFalse(placed[0][n] + placed[1][n] > free[n]);
+            }
+            final long[] best = bestByEnumeration(demand, free, present);
+            assertEquals(best[0], total, "round " + round);
+            assertEquals(best[1], local(placed, present), "round " + round);
+        }
+    }
+
+    // Most units placed, then most of them on their application's nodes, over every placement
+    private static long[] bestByEnumeration(final long[] demand, final long[] free, final List<Set<Integer>> present) {
+        final long[] best = {0, 0};
+        final long[][] placed = new long[2][3];
+        enumerate(0, demand, free, present, placed, best);
+        return best;
+    }
+
+    private static void enumerate(final int cell, final long[] demand, final long[] free,
+            final List<Set<Integer>> present, final long[][] placed, final long[] best) {
+        if (cell == 6) {
+            long total = 0;
+            for (int a = 0; a < 2; a++) {
+                long units = 0;
+                for (int n = 0; n < 3; n++) {
+                    units += placed[a][n];
+                }
+                if (units > demand[a]) {
+                    return;
+                }
+                total += units;
+            }
+            final long local = local(placed, present);
+            if (total > best[0] || total == best[0] && local > best[1]) {
+                best[0] = total;
+                best[1] = local;
+            }
+            return;
+        }
+        final int a = cell / 3;
+        final int n = cell % 3;
+        final long room = free[n] - (a == 1 ? placed[0][n] : 0);
+        for (long units = 0; units <= Math.min(room, demand[a]); units++) {
+            placed[a][n] = units;
+            enumerate(cell + 1, demand, free, present, placed, best);
+        }
+        placed[a][n] = 0;
+    }
+
+    private static long local(final long[][] placed, final List<Set<Integer>> present) {
+        long local = 0;
+        for (int a = 0; a < placed.length; a++) {
+            for (final int n : present.get(a)) {
+                local += placed[a][n];
+            }
+        }
+        return local;
+    }
+
+    @Test
+    public void testLocality() throws ClassNotFoundException, SolverException {
+        final DSLContext conn = DBUtils.getConn();
+        final MinCostFlowSolver solver = new MinCostFlowSolver();
+        final Scheduler scheduler = new Scheduler(conn, solver, false);
+        scheduler.addNode(1, 4, 4);
+        scheduler.addNode(2, 4, 4);
+        scheduler.addNode(3, 4, 8);
+        scheduler.addApplication(1);
+        scheduler.addApplication(2);
+        scheduler.updateAllocation(1, 1, 1, 1);
+        scheduler.updateAllocation(3, 2, 4, 0);
+
+        // Application 1 fills its node, then spills onto a single other node, and its memslices follow
+        scheduler.generateRequests(null, 6L, 5L, 1);
+        final Result<? extends org.jooq.Record> results = solver.solve(conn, scheduler);
+        assertEquals(11, results.size());
+        final long[][] onNode = new long[4][2];
+        for (final org.jooq.Record r : results) {
+            final PendingRecord pending = r.into(PENDING_TABLE);
+            onNode[pending.getControllable_Node()][pending.getCores() > 0 ? 0 : 1]++;
+        }
+        assertEquals(3, onNode[1][0]);
+        assertEquals(3, onNode[2][0]);
+        // Both nodes now hold the application's cores, so any split of the memslices between them is as good
+        assertEquals(5, onNode[1][1] + onNode[2][1]);
+        assertArrayEquals(new long[] {0, 0}, onNode[3]);
+    }
+
+    @Test
+    public void testOverfill() throws ClassNotFoundException, SolverException {
+        final DSLContext conn = DBUtils.getConn();
+        final Scheduler scheduler = new Scheduler(conn, null, false);
+        scheduler.addNode(1, 2, 2);
+        scheduler.addNode(2, 2, 2);
+        scheduler.addApplication(1);
+        scheduler.addApplication(2);
+
+        scheduler.generateRequests(null, 3L, 0L, 1);
+        scheduler.generateRequests(null, 2L, 0L, 2);
+        try {
+            new MinCostFlowSolver().solve(conn, scheduler);
+            fail("Should fail with solver exception when overfilling");
+        } catch (final SolverException e) {
+            // good
+        }
+
+        // Partial mode places what fits and leaves the rest queued
+        final Result<? extends org.jooq.Record> results = new MinCostFlowSolver(true).solve(conn, scheduler);
+        assertEquals(4, results.size());
+    }
+
+    @Test
+    public void testEmpty() throws ClassNotFoundException, SolverException {
+        final DSLContext conn = DBUtils.getConn();
+        final Scheduler scheduler = new Scheduler(conn, null, false);
+        scheduler.addNode(1, 2, 2);
+        scheduler.addApplication(1);
+        assertEquals(0, new MinCostFlowSolver().solve(conn, scheduler).size());
+    }
+}
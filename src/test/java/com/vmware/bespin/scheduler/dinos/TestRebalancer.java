@@ -0,0 +1,103 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.scheduler.dinos;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.jooq.DSLContext;
+import org.jooq.Result;
+import org.junit.jupiter.api.Test;
+
+import com.vmware.bespin.scheduler.DBUtils;
+import com.vmware.bespin.scheduler.Scheduler;
+import com.vmware.bespin.scheduler.generated.tables.records.PendingRecord;
+
+public class TestRebalancer {
+
+    @Test
+    public void testSnapshotAndPlan() throws ClassNotFoundException {
+        final DSLContext conn = DBUtils.getConn();
+        final Scheduler scheduler = new Scheduler(conn, null, false);
+        scheduler.addNode(1, 4, 4);
+        scheduler.addNode(2, 4, 4);
+        scheduler.addApplication(1);
+        scheduler.addApplication(2);
+
+        // Application 1 is spread over two nodes, application 2 is not
+        scheduler.updateAllocation(1, 1, 2, 1);
+        scheduler.updateAllocation(2, 1, 1, 0);
+        scheduler.updateAllocation(2, 2, 1, 1);
+
+        final Rebalancer rebalancer = new Rebalancer(conn, 1000, 4, p -> { });
+        assertEquals(4, rebalancer.takeSnapshot());
+
+        // Move application 1's resources on node 2 over to node 1
+        final DSLContext snapshot = rebalancer.snapshotConn();
+        final Result<PendingRecord> units = snapshot.selectFrom(Scheduler.PENDING_TABLE).fetch();
+        for (final PendingRecord r : units) {
+            assertEquals(1, r.getApplication());
+            r.setValue(Scheduler.PENDING_TABLE.CONTROLLABLE__NODE, 1);
+        }
+
+        final List<MigrationProposal> plan = Rebalancer.plan(units);
+        assertEquals(1, plan.size());
+        assertEquals(1, plan.get(0).application);
+        assertEquals(2, plan.get(0).fromNode);
+        assertEquals(1, plan.get(0).toNode);
+        assertEquals(1, plan.get(0).cores);
+        assertEquals(0, plan.get(0).memslices);
+
+        // Application 2 still takes up capacity in the snapshot
+        assertEquals(1, snapshot.fetchCount(Scheduler.PLACED_TABLE));
+    }
+
+    @Test
+    public void testRebalanceConsolidates() throws ClassNotFoundException {
+        final DSLContext conn = DBUtils.getConn();
+        final Scheduler scheduler = new Scheduler(conn, null, false);
+        scheduler.addNode(1, 4, 4);
+        scheduler.addNode(2, 4, 4);
+        scheduler.addApplication(1);
+        scheduler.addApplication(2);
+
+        // Application 1 has a single core off on node 2, which fits on node 1
+        scheduler.updateAllocation(1, 1, 2, 1);
+        scheduler.updateAllocation(2, 1, 1, 0);
+        scheduler.updateAllocation(2, 2, 1, 1);
+
+        final List<MigrationProposal> plan = new Rebalancer(conn, 1000, 4, p -> { }).rebalance();
+        assertEquals(1, plan.size());
+        assertEquals(1, plan.get(0).application);
+        assertEquals(2, plan.get(0).fromNode);
+        assertEquals(1, plan.get(0).toNode);
+        assertEquals(1, plan.get(0).cores);
+        assertEquals(0, plan.get(0).memslices);
+    }
+
+    @Test
+    public void testRebalanceRespectsBudget() throws ClassNotFoundException {
+        final DSLContext conn = DBUtils.getConn();
+        final Scheduler scheduler = new Scheduler(conn, null, false);
+        scheduler.addNode(1, 8, 8);
+        scheduler.addNode(2, 8, 8);
+        scheduler.addApplication(1);
+
+        // Consolidating takes 4 moves either way, more than the budget allows
+        scheduler.updateAllocation(1, 1, 2, 2);
+        scheduler.updateAllocation(2, 1, 2, 2);
+
+        final int budget = 2;
+        final List<MigrationProposal> plan = new Rebalancer(conn, 1000, budget, p -> { }).rebalance();
+        long moved = 0;
+        for (final MigrationProposal proposal : plan) {
+            moved += proposal.cores + proposal.memslices;
+        }
+        assertTrue(moved <= budget);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.scheduler.dinos;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.Test;
+
+public class TestRequestIdAllocator {
+
+    @Test
+    public void testContiguousBlocks() {
+        final RequestIdAllocator ids = new RequestIdAllocator(null);
+        assertEquals(0, ids.reserve(3));
+        assertEquals(3, ids.reserve(0));
+        assertEquals(3, ids.reserve(5));
+        assertEquals(8, ids.reserve(1));
+
+        // Oversized blocks still don't overlap previously leased ranges
+        final long big = ids.reserve(RequestIdAllocator.LEASE_SIZE * 2);
+        assertTrue(big >= RequestIdAllocator.LEASE_SIZE);
+    }
+
+    @Test
+    public void testConcurrentUnique() throws InterruptedException {
+        final RequestIdAllocator ids = new RequestIdAllocator(null);
+        final ConcurrentHashMap<Long, Boolean> seen = new ConcurrentHashMap<>();
+        final int numThreads = 8;
+        final int perThread = 50000;
+
+        final Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    final long count = 1 + (i % 4);
+                    final long start = ids.reserve(count);
+                    for (long id = start; id < start + count; id++) {
+                        assertNull(seen.putIfAbsent(id, true), "Duplicate id " + id);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (final Thread t : threads) {
+            t.join();
+        }
+        assertEquals(numThreads * perThread * 10 / 4, seen.size());
+    }
+
+    @Test
+    public void testResumeAfterRestart() throws IOException {
+        final Path dir = Files.createTempDirectory("ids");
+        final Path file = dir.resolve("request_ids");
+
+        final RequestIdAllocator first = new RequestIdAllocator(file);
+        long last = 0;
+        for (int i = 0; i < 10; i++) {
+            last = first.reserve(7) + 6;
+        }
+        assertTrue(Files.exists(file));
+
+        final RequestIdAllocator second = new RequestIdAllocator(file);
+        assertTrue(second.reserve(1) > last);
+
+        Files.delete(file);
+        Files.delete(dir);
+    }
+}
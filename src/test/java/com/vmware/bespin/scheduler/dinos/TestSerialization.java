@@ -18,4 +18,17 @@ public class TestSerialization {
         assert (assignment2.requestId == assignment.requestId);
         assert (assignment2.node == assignment.node);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testMigrationProposal() {
+        MigrationProposal proposal = new MigrationProposal(1, 2, 3, 4, 5);
+        byte[] b = proposal.toBytes();
+        assert (b.length == MigrationProposal.BYTE_LEN);
+        MigrationProposal proposal2 = new MigrationProposal(b);
+        assert (proposal2.application == proposal.application);
+        assert (proposal2.fromNode == proposal.fromNode);
+        assert (proposal2.toNode == proposal.toNode);
+        assert (proposal2.cores == proposal.cores);
+        assert (proposal2.memslices == proposal.memslices);
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.scheduler.dinos;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+public class TestSolveDeadline {
+
+    @Test
+    public void testScalesWithBatch() {
+        final SolveDeadline deadline = new SolveDeadline(100, 5);
+        assertEquals(100, deadline.millisFor(0));
+        assertEquals(150, deadline.millisFor(10));
+        assertEquals(10000, SolveDeadline.DEFAULT.millisFor(1000));
+    }
+
+    @Test
+    public void testGap() {
+        assertEquals(0.0, SolveDeadline.gap(-40, -40), 1e-9);
+        assertEquals(0.25, SolveDeadline.gap(-40, -50), 1e-9);
+        assertEquals(0.25, SolveDeadline.gap(40, 30), 1e-9);
+        // Small objectives don't blow the gap up
+        assertEquals(0.5, SolveDeadline.gap(0, 0.5), 1e-9);
+    }
+}
@@ -5,8 +5,12 @@
 
 package com.vmware.bespin.scheduler.dinos.rpc;
 
+import java.util.Arrays;
+
 import org.junit.jupiter.api.Test;
 
+import com.vmware.bespin.scheduler.Scheduler;
+
 public class TestSerialization {
     @Test
     public void testReleaseRequest() {
@@ -38,6 +42,18 @@ public class TestSerialization {
         assert(req2.application == req.application);
         assert(req2.cores == req.cores);
         assert(req2.memslices == req.memslices);
+        assert(req2.priority == Scheduler.PRIORITY_NORMAL);
+
+        req = new AllocRequest(3, 4, 5, Scheduler.PRIORITY_CRITICAL, 100);
+        req2 = new AllocRequest(req.toBytes());
+        assert(req2.priority == Scheduler.PRIORITY_CRITICAL);
+        assert(req2.deadline == 100);
+
+        // Requests from senders that predate priorities
+        req2 = new AllocRequest(Arrays.copyOf(req.toBytes(), AllocRequest.LEGACY_BYTE_LEN));
+        assert(req2.memslices == req.memslices);
+        assert(req2.priority == Scheduler.PRIORITY_NORMAL);
+        assert(req2.deadline == 0);
     }
 
     @Test
@@ -47,6 +63,19 @@ public class TestSerialization {
         assert(b.length == AllocResponse.BYTE_LEN);
         AllocResponse res2 = new AllocResponse(b);
         assert(res2.requestId == res.requestId);
+        assert(res2.status == AllocResponse.STATUS_OK);
+
+        res = new AllocResponse(0, AllocResponse.STATUS_RETRY_AFTER, 500);
+        res2 = new AllocResponse(res.toBytes());
+        assert(res2.status == AllocResponse.STATUS_RETRY_AFTER);
+        assert(res2.retryAfter == 500);
+
+        // Without admission control the response is just the request id
+        b = new AllocResponse(35).toLegacyBytes();
+        assert(b.length == AllocResponse.LEGACY_BYTE_LEN);
+        res2 = new AllocResponse(b);
+        assert(res2.requestId == 35);
+        assert(res2.status == AllocResponse.STATUS_OK);
     }
 
     @Test
@@ -58,6 +87,19 @@ public class TestSerialization {
         assert(req2.id == req.id);
         assert(req2.cores == req.cores);
         assert(req2.memslices == req.memslices);
+        assert(!req2.hasTopology());
+
+        req = new RegisterNodeRequest(2, 3, 4, 1, 5);
+        req2 = new RegisterNodeRequest(req.toBytes());
+        assert(req2.socket == 1);
+        assert(req2.rack == 5);
+        assert(req2.hasTopology());
+
+        // Registrations from nodes that don't report a topology
+        req2 = new RegisterNodeRequest(Arrays.copyOf(req.toBytes(), RegisterNodeRequest.LEGACY_BYTE_LEN));
+        assert(req2.memslices == req.memslices);
+        assert(req2.socket == RegisterNodeRequest.UNKNOWN);
+        assert(!req2.hasTopology());
     }
 
     @Test
@@ -94,4 +136,26 @@ public class TestSerialization {
         AffinityResponse res2 = new AffinityResponse(b);
         assert(res2.requestFulfilled == res.requestFulfilled);
     }
+
+    @Test
+    public void testMigrationRequest() {
+        MigrationRequest req = new MigrationRequest(1, 2, 3, 4, 5);
+        byte[] b = req.toBytes();
+        assert(b.length == MigrationRequest.BYTE_LEN);
+        MigrationRequest req2 = new MigrationRequest(b);
+        assert(req2.application == req.application);
+        assert(req2.fromNode == req.fromNode);
+        assert(req2.toNode == req.toNode);
+        assert(req2.cores == req.cores);
+        assert(req2.memslices == req.memslices);
+    }
+
+    @Test
+    public void testMigrationResponse() {
+        MigrationResponse res = new MigrationResponse(true);
+        byte[] b = res.toBytes();
+        assert(b.length == MigrationResponse.BYTE_LEN);
+        MigrationResponse res2 = new MigrationResponse(b);
+        assert(res2.applied == res.applied);
+    }
 }
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.simulation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jooq.DSLContext;
+import org.jooq.Result;
+import org.junit.jupiter.api.Test;
+
+import com.vmware.bespin.scheduler.DBUtils;
+import com.vmware.bespin.scheduler.Scheduler;
+import com.vmware.bespin.scheduler.SolverException;
+import com.vmware.bespin.scheduler.generated.tables.Pending;
+import com.vmware.bespin.scheduler.generated.tables.records.PendingRecord;
+
+public class TestBinPackingSolver {
+    private static final Pending PENDING_TABLE = Pending.PENDING;
+
+    @Test
+    public void testForName() {
+        assertNull(BinPackingSolver.forName("FC", false));
+        assertNull(BinPackingSolver.forName("loc", false));
+        for (final String name : new String[] {"BF", "WF", "FFD", "DOT", "BFloc", "WFloc", "FFDloc", "DOTloc"}) {
+            assertNotNull(BinPackingSolver.forName(name, false));
+        }
+    }
+
+    @Test
+    public void testBestAndWorstFit() throws ClassNotFoundException, SolverException {
+        final DSLContext conn = DBUtils.getConn();
+        final Scheduler scheduler = new Scheduler(conn, null, false);
+        scheduler.addNode(1, 4, 4);
+        scheduler.addNode(2, 2, 8);
+        scheduler.addNode(3, 8, 2);
+        scheduler.addApplication(1);
+        scheduler.addApplication(2);
+        scheduler.updateAllocation(1, 1, 1, 1);
+        scheduler.updateAllocation(3, 1, 0, 1);
+        final BinPackingSolver bestFit = new BinPackingSolver(BinPackingSolver.Strategy.BEST_FIT);
+        final BinPackingSolver worstFit = new BinPackingSolver(BinPackingSolver.Strategy.WORST_FIT);
+
+        // Each request is solved on its own and not applied. Free cores are 3, 2 and 8, and free
+        // memslices are 3, 8 and 1
+        final BinPackingSolver[] solvers = {bestFit, worstFit, bestFit, worstFit, bestFit};
+        final long[][] requests = {{1, 0}, {1, 0}, {0, 1}, {0, 1}, {0, 3}};
+        final int[] expected = {2, 3, 3, 2, 1};
+        for (int i = 0; i < solvers.length; i++) {
+            scheduler.generateRequest(null, requests[i][0], requests[i][1], 2);
+            final Result<? extends org.jooq.Record> results = solvers[i].solve(conn, scheduler);
+            assertEquals(1, results.size());
+            assertEquals(expected[i], results.get(0).into(PENDING_TABLE).getControllable_Node());
+            conn.execute("truncate table pending;");
+        }
+    }
+
+    @Test
+    public void testLocality() throws ClassNotFoundException, SolverException {
+        final DSLContext conn = DBUtils.getConn();
+        final BinPackingSolver bestFit = new BinPackingSolver(BinPackingSolver.Strategy.BEST_FIT, true, false);
+        final Scheduler scheduler = new Scheduler(conn, bestFit, false);
+        scheduler.addNode(1, 4, 4);
+        scheduler.addNode(2, 2, 8);
+        scheduler.addNode(3, 8, 2);
+        scheduler.addApplication(1);
+        scheduler.addApplication(2);
+        scheduler.updateAllocation(1, 1, 1, 1);
+        scheduler.updateAllocation(3, 1, 0, 1);
+
+        // Application 1 is on nodes 1 and 3, and node 1 has the fewest free cores of those
+        scheduler.generateRequest(null, 1L, 0L, 1);
+        Result<? extends org.jooq.Record> results = bestFit.solve(conn, scheduler);
+        assertEquals(1, results.size());
+        assertEquals(1, results.get(0).into(PENDING_TABLE).getControllable_Node());
+        conn.execute("truncate table pending;");
+
+        // Nothing placed for application 2, so it is plain best fit
+        scheduler.generateRequest(null, 1L, 0L, 2);
+        results = bestFit.solve(conn, scheduler);
+        assertEquals(1, results.size());
+        assertEquals(2, results.get(0).into(PENDING_TABLE).getControllable_Node());
+        conn.execute("truncate table pending;");
+
+        // Requests in the same batch follow the first one
+        final BinPackingSolver worstFit = new BinPackingSolver(BinPackingSolver.Strategy.WORST_FIT, true, false);
+        scheduler.addApplication(3);
+        scheduler.generateRequests(null, 3L, 0L, 3);
+        results = worstFit.solve(conn, scheduler);
+        assertEquals(3, results.size());
+        for (final org.jooq.Record r : results) {
+            assertEquals(3, r.into(PENDING_TABLE).getControllable_Node());
+        }
+    }
+
+    @Test
+    public void testDotProduct() throws ClassNotFoundException, SolverException {
+        final DSLContext conn = DBUtils.getConn();
+        final BinPackingSolver solver = new BinPackingSolver(BinPackingSolver.Strategy.DOT_PRODUCT);
+        final Scheduler scheduler = new Scheduler(conn, solver, false);
+        scheduler.addNode(1, 4, 4);
+        scheduler.addNode(2, 2, 8);
+        scheduler.addNode(3, 8, 2);
+        scheduler.addApplication(1);
+        scheduler.addApplication(2);
+        scheduler.updateAllocation(1, 1, 1, 1);
+        scheduler.updateAllocation(3, 1, 0, 1);
+
+        // A memslice heavy batch goes to the node with the most memslices free relative to its size
+        scheduler.generateRequests(null, 0L, 2L, 2);
+        final Result<? extends org.jooq.Record> results = solver.solve(conn, scheduler);
+        assertEquals(2, results.size());
+        for (final org.jooq.Record r : results) {
+            assertEquals(2, r.into(PENDING_TABLE).getControllable_Node());
+        }
+    }
+
+    @Test
+    public void testFirstFitDecreasing() throws ClassNotFoundException, SolverException {
+        final DSLContext conn = DBUtils.getConn();
+        final BinPackingSolver solver = new BinPackingSolver(BinPackingSolver.Strategy.FIRST_FIT_DECREASING);
+        final Scheduler scheduler = new Scheduler(conn, solver, false);
+        scheduler.addNode(1, 3, 4);
+        scheduler.addNode(2, 1, 4);
+        scheduler.addApplication(1);
+
+        // The small request comes first, but the big one has to be placed first for both to fit
+        scheduler.generateRequest(null, 1L, 0L, 1);
+        scheduler.generateRequest(null, 3L, 0L, 1);
+        final Result<? extends org.jooq.Record> results = solver.solve(conn, scheduler);
+        assertEquals(2, results.size());
+        final Map<Integer, Integer> nodeByCores = new HashMap<>();
+        for (final org.jooq.Record r : results) {
+            final PendingRecord pending = r.into(PENDING_TABLE);
+            nodeByCores.put(pending.getCores(), pending.getControllable_Node());
+            scheduler.updateAllocation(pending.getControllable_Node(), pending.getApplication(), pending.getCores(),
+                    pending.getMemslices());
+        }
+        assertEquals(1, nodeByCores.get(3));
+        assertEquals(2, nodeByCores.get(1));
+        assertFalse(scheduler.checkForCapacityViolation());
+    }
+
+    @Test
+    public void testFirstFitDecreasingGroupsApplications() throws ClassNotFoundException, SolverException {
+        final DSLContext conn = DBUtils.getConn();
+        final BinPackingSolver solver = new BinPackingSolver(BinPackingSolver.Strategy.FIRST_FIT_DECREASING);
+        final Scheduler scheduler = new Scheduler(conn, solver, false);
+        scheduler.addNode(1, 3, 4);
+        scheduler.addNode(2, 2, 4);
+        scheduler.addApplication(1);
+        scheduler.addApplication(2);
+
+        // Every request is a single core, but application 2 asks for more in total, so all of it goes
+        // first and fills node 1, and application 1 stays together on node 2
+        scheduler.generateRequests(null, 2L, 0L, 1);
+        scheduler.generateRequests(null, 3L, 0L, 2);
+        final Result<? extends org.jooq.Record> results = solver.solve(conn, scheduler);
+        assertEquals(5, results.size());
+        for (final org.jooq.Record r : results) {
+            final PendingRecord pending = r.into(PENDING_TABLE);
+            assertEquals(pending.getApplication() == 2 ? 1 : 2, pending.getControllable_Node());
+        }
+    }
+
+    @Test
+    public void testOverfill() throws ClassNotFoundException, SolverException {
+        final DSLContext conn = DBUtils.getConn();
+        final Scheduler scheduler = new Scheduler(conn, null, false);
+        scheduler.addNode(1, 3, 1);
+        scheduler.addNode(2, 1, 1);
+        scheduler.addApplication(1);
+
+        // Worst fit puts the small request on the big node, leaving no room for the big one
+        scheduler.generateRequest(null, 1L, 0L, 1);
+        scheduler.generateRequest(null, 3L, 0L, 1);
+        try {
+            new BinPackingSolver(BinPackingSolver.Strategy.WORST_FIT).solve(conn, scheduler);
+            fail("Should fail with solver exception when overfilling");
+        } catch (final SolverException e) {
+            // good
+        }
+
+        // Partial mode places what fits and leaves the rest queued
+        final Result<? extends org.jooq.Record> results =
+                new BinPackingSolver(BinPackingSolver.Strategy.WORST_FIT, false, true).solve(conn, scheduler);
+        assertEquals(1, results.size());
+        assertEquals(1, results.get(0).into(PENDING_TABLE).getCores());
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.simulation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+public class TestCapacityIndex {
+
+    @Test
+    public void testNext() {
+        final CapacityIndex index = new CapacityIndex(new Integer[] {0, 2, 0, 5, 1});
+        assertEquals(1, index.next(0, 1));
+        assertEquals(1, index.next(1, 1));
+        assertEquals(3, index.next(2, 1));
+        assertEquals(4, index.next(4, 1));
+        assertEquals(3, index.next(2, 2));
+        // Wraps around
+        assertEquals(1, index.next(4, 2));
+        assertEquals(-1, index.next(0, 6));
+        assertEquals(1, index.successor(0));
+        assertEquals(0, index.successor(4));
+    }
+
+    @Test
+    public void testTake() {
+        final CapacityIndex index = new CapacityIndex(new Integer[] {1, 1, 1});
+        index.take(0, 1);
+        index.take(1, 1);
+        assertEquals(0, index.free(0));
+        assertEquals(2, index.next(0, 1));
+        index.take(2, 1);
+        assertEquals(-1, index.next(0, 1));
+        assertEquals(-1, index.leastFit(1));
+    }
+
+    @Test
+    public void testStride() {
+        // Visiting order with a stride of 3 over 5 nodes is 0, 3, 1, 4, 2
+        final CapacityIndex index = new CapacityIndex(new Integer[] {0, 1, 1, 0, 1}, 3);
+        assertEquals(3, index.successor(0));
+        assertEquals(0, index.successor(2));
+        assertEquals(1, index.next(3, 1));
+        assertEquals(4, index.next(index.successor(1), 1));
+        assertEquals(2, index.next(index.successor(4), 1));
+        assertEquals(1, index.next(index.successor(2), 1));
+    }
+
+    @Test
+    public void testMostAndLeast() {
+        final CapacityIndex index = new CapacityIndex(new Integer[] {3, 7, 2, 7, 5});
+        assertEquals(1, index.mostFree());
+        assertEquals(2, index.leastFit(1));
+        assertEquals(0, index.leastFit(3));
+        assertEquals(4, index.leastFit(4));
+        assertEquals(1, index.leastFit(6));
+        assertEquals(-1, index.leastFit(8));
+        index.take(1, 7);
+        assertEquals(3, index.mostFree());
+        assertEquals(1, index.leastFit(0));
+    }
+
+    @Test
+    public void testLargeCluster() {
+        // Only the last node of a nearly full cluster has room
+        final Integer[] free = new Integer[1000];
+        for (int n = 0; n < free.length; n++) {
+            free[n] = 0;
+        }
+        free[999] = 4;
+        final CapacityIndex index = new CapacityIndex(free);
+        assertEquals(999, index.next(0, 1));
+        assertEquals(999, index.next(500, 4));
+        assertEquals(999, index.mostFree());
+        index.take(999, 4);
+        assertEquals(-1, index.next(0, 1));
+    }
+}
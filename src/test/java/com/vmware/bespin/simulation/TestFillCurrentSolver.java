@@ -2,6 +2,7 @@ package com.vmware.bespin.simulation;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.fail;
 
 import java.util.HashSet;
@@ -396,4 +397,78 @@ public class TestFillCurrentSolver {
                 MEMSLICES_PER_NODE * NUM_NODES * ((float) FILL_UTIL / 100.0) / (float) NUM_APPS, 1.0);
     }
 
+    @Test
+    public void testFillCurrentSolverPartial() throws ClassNotFoundException, SolverException {
+        final int NUM_NODES = 2;
+        final long CORES_PER_NODE = 3;
+        final long MEMSLICES_PER_NODE = 4;
+        final long NUM_APPS = 5;
+        final Pending PENDING_TABLE = Pending.PENDING;
+
+        // Create database
+        DSLContext conn = DBUtils.getConn();
+        Solver solver = new FillCurrentSolver(true);
+        Scheduler scheduler = new Scheduler(conn, solver, false);
+        Simulation sim = new Simulation(conn, scheduler, null, (long) NUM_NODES, CORES_PER_NODE, MEMSLICES_PER_NODE, NUM_APPS);
+
+        // Ask for more cores than there are, the memslices still fit
+        scheduler.generateRequests(null, NUM_NODES * CORES_PER_NODE + 2, 2, 1);
+
+        // Run solver and check that what fits is placed, and the rest is left out
+        final Result<? extends org.jooq.Record> results = solver.solve(conn, scheduler);
+        assertEquals(NUM_NODES * CORES_PER_NODE + 2, results.size());
+        long cores = 0;
+        for (final org.jooq.Record r : results) {
+            final PendingRecord pending = r.into(PENDING_TABLE);
+            final Integer controllableNode = pending.getControllable_Node();
+            assertNotNull(controllableNode);
+            assert controllableNode >= 1 && controllableNode <= NUM_NODES;
+            cores += pending.getCores();
+            scheduler.updateAllocation(controllableNode, pending.getApplication(), pending.getCores(), pending.getMemslices());
+        }
+        assertEquals(NUM_NODES * CORES_PER_NODE, cores);
+        assertFalse(scheduler.checkForCapacityViolation());
+    }
+
+    @Test
+    public void testFillCurrentSolverColocate() throws ClassNotFoundException, SolverException {
+        final int NUM_NODES = 4;
+        final long CORES_PER_NODE = 3;
+        final long MEMSLICES_PER_NODE = 4;
+        final long NUM_APPS = 5;
+        final Pending PENDING_TABLE = Pending.PENDING;
+
+        // Create database
+        DSLContext conn = DBUtils.getConn();
+        Solver solver = new FillCurrentSolver(false, true);
+        Scheduler scheduler = new Scheduler(conn, solver, false);
+        Simulation sim = new Simulation(conn, scheduler, null, (long) NUM_NODES, CORES_PER_NODE, MEMSLICES_PER_NODE, NUM_APPS);
+
+        // Application 1 already has memory on node 4, so its cores go there
+        scheduler.updateAllocation(4, 1, 0, 2);
+        scheduler.generateRequests(null, 2, 0, 1);
+        Result<? extends org.jooq.Record> results = solver.solve(conn, scheduler);
+        assertEquals(2, results.size());
+        for (final org.jooq.Record r : results) {
+            final PendingRecord pending = r.into(PENDING_TABLE);
+            assertEquals(4, pending.getControllable_Node());
+            scheduler.updateAllocation(pending.getControllable_Node(), pending.getApplication(), pending.getCores(),
+                    pending.getMemslices());
+        }
+        assertEquals(1.0, scheduler.colocationRatioForApplication(1));
+        conn.execute("truncate table pending;");
+
+        // More memslices stay with the cores until node 4 is full
+        scheduler.generateRequests(null, 0, 3, 1);
+        results = solver.solve(conn, scheduler);
+        assertEquals(3, results.size());
+        for (final org.jooq.Record r : results) {
+            final PendingRecord pending = r.into(PENDING_TABLE);
+            scheduler.updateAllocation(pending.getControllable_Node(), pending.getApplication(), pending.getCores(),
+                    pending.getMemslices());
+        }
+        assertEquals(MEMSLICES_PER_NODE, scheduler.usedMemslicesForApplicationOnNode(1, 4));
+        assertEquals(6.0 / 7.0, scheduler.colocationRatioForApplication(1), 1e-9);
+        assertFalse(scheduler.checkForCapacityViolation());
+    }
 }
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.simulation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import org.jooq.DSLContext;
+import org.jooq.Result;
+import org.junit.jupiter.api.Test;
+
+import com.vmware.bespin.scheduler.DBUtils;
+import com.vmware.bespin.scheduler.Scheduler;
+import com.vmware.bespin.scheduler.SolverException;
+import com.vmware.bespin.scheduler.generated.tables.Pending;
+import com.vmware.bespin.scheduler.generated.tables.records.PendingRecord;
+
+public class TestPowerOfChoicesSolver {
+    private static final Pending PENDING_TABLE = Pending.PENDING;
+    private static final int RANDOM_SEED = 7;
+
+    @Test
+    public void testStaysOnApplicationNodes() throws ClassNotFoundException, SolverException {
+        final DSLContext conn = DBUtils.getConn();
+        final PowerOfChoicesSolver solver = new PowerOfChoicesSolver(2, false, RANDOM_SEED);
+        final Scheduler scheduler = new Scheduler(conn, solver, false);
+        for (int n = 1; n <= 8; n++) {
+            scheduler.addNode(n, 4, 4);
+        }
+        scheduler.addApplication(1);
+        scheduler.updateAllocation(5, 1, 1, 0);
+
+        // Node 5 has room for 3 more cores and 4 memslices, and is always probed first
+        scheduler.generateRequests(null, 3L, 4L, 1);
+        final Result<? extends org.jooq.Record> results = solver.solve(conn, scheduler);
+        assertEquals(7, results.size());
+        for (final org.jooq.Record r : results) {
+            assertEquals(5, r.into(PENDING_TABLE).getControllable_Node());
+        }
+    }
+
+    @Test
+    public void testFallsBackWhenSamplesAreFull() throws ClassNotFoundException, SolverException {
+        final DSLContext conn = DBUtils.getConn();
+        final PowerOfChoicesSolver solver = new PowerOfChoicesSolver(1, false, RANDOM_SEED);
+        final Scheduler scheduler = new Scheduler(conn, solver, false);
+        for (int n = 1; n <= 64; n++) {
+            scheduler.addNode(n, n == 42 ? 1 : 0, 1);
+        }
+        scheduler.addApplication(1);
+
+        // A single random probe will almost always miss the one node with a free core
+        scheduler.generateRequest(null, 1L, 0L, 1);
+        final Result<? extends org.jooq.Record> results = solver.solve(conn, scheduler);
+        assertEquals(1, results.size());
+        assertEquals(42, results.get(0).into(PENDING_TABLE).getControllable_Node());
+    }
+
+    @Test
+    public void testOverfill() throws ClassNotFoundException, SolverException {
+        final DSLContext conn = DBUtils.getConn();
+        final Scheduler scheduler = new Scheduler(conn, null, false);
+        scheduler.addNode(1, 2, 2);
+        scheduler.addNode(2, 2, 2);
+        scheduler.addApplication(1);
+
+        scheduler.generateRequests(null, 5L, 0L, 1);
+        try {
+            new PowerOfChoicesSolver().solve(conn, scheduler);
+            fail("Should fail with solver exception when overfilling");
+        } catch (final SolverException e) {
+            // good
+        }
+
+        // Partial mode places what fits and leaves the rest queued
+        final Result<? extends org.jooq.Record> results =
+                new PowerOfChoicesSolver(2, true, RANDOM_SEED).solve(conn, scheduler);
+        assertEquals(4, results.size());
+    }
+
+    @Test
+    public void testLargeCluster() throws Exception {
+        final int numNodes = 1000;
+        final int numApps = 10;
+        final DSLContext conn = DBUtils.getConn();
+        final PowerOfChoicesSolver solver = new PowerOfChoicesSolver(PowerOfChoicesSolver.DEFAULT_CHOICES, false,
+                RANDOM_SEED);
+        final Scheduler scheduler = new Scheduler(conn, solver, false);
+        final Simulation sim = new Simulation(conn, scheduler, RANDOM_SEED, numNodes, 4, 4, numApps);
+
+        // Fill the cluster to 90% in batches, every application asking for cores and memslices alike
+        for (int batch = 0; batch < 9; batch++) {
+            for (int a = 0; a < numApps; a++) {
+                scheduler.generateRequests(null, 40L, 40L, a);
+            }
+            final long start = System.currentTimeMillis();
+            final Result<? extends org.jooq.Record> results = solver.solve(conn, scheduler);
+            final long elapsed = System.currentTimeMillis() - start;
+            assertEquals(800, results.size());
+            for (final org.jooq.Record r : results) {
+                final PendingRecord pending = r.into(PENDING_TABLE);
+                scheduler.updateAllocation(pending.getControllable_Node(), pending.getApplication(),
+                        pending.getCores(), pending.getMemslices());
+            }
+            conn.execute("truncate table pending;");
+            assertTrue(elapsed < 5000, "solve took " + elapsed + "ms");
+        }
+        assertFalse(scheduler.checkForCapacityViolation());
+
+        // Each application needs 90 nodes' worth of cores, and locality keeps it close to that
+        for (int a = 0; a < numApps; a++) {
+            assertTrue(scheduler.nodesForApplication(a) < 2 * 90,
+                    "application " + a + " is on " + scheduler.nodesForApplication(a) + " nodes");
+        }
+        assertTrue(sim.meanColocationRatio() > 0.9);
+    }
+}
@@ -371,4 +371,37 @@ public class TestRoundRobinSolver {
         assertEquals(avg_memslice_for_app, 
                 MEMSLICES_PER_NODE * NUM_NODES * ((float) FILL_UTIL / 100.0) / (float) NUM_APPS, 1.0);
     }
+
+    @Test
+    public void testRoundRobinSolverPartial() throws ClassNotFoundException, SolverException {
+        final int NUM_NODES = 2;
+        final long CORES_PER_NODE = 3;
+        final long MEMSLICES_PER_NODE = 4;
+        final long NUM_APPS = 5;
+        final Pending PENDING_TABLE = Pending.PENDING;
+
+        // Create database
+        DSLContext conn = DBUtils.getConn();
+        Solver solver = new RoundRobinSolver(true);
+        Scheduler scheduler = new Scheduler(conn, solver, false);
+        Simulation sim = new Simulation(conn, scheduler, null, (long) NUM_NODES, CORES_PER_NODE, MEMSLICES_PER_NODE, NUM_APPS);
+
+        // Ask for more cores than there are, the memslices still fit
+        scheduler.generateRequests(null, NUM_NODES * CORES_PER_NODE + 2, 2, 1);
+
+        // Run solver and check that what fits is placed, and the rest is left out
+        final Result<? extends org.jooq.Record> results = solver.solve(conn, scheduler);
+        assertEquals(NUM_NODES * CORES_PER_NODE + 2, results.size());
+        long cores = 0;
+        for (final org.jooq.Record r : results) {
+            final PendingRecord pending = r.into(PENDING_TABLE);
+            final Integer controllableNode = pending.getControllable_Node();
+            assertNotNull(controllableNode);
+            assert controllableNode >= 1 && controllableNode <= NUM_NODES;
+            cores += pending.getCores();
+            scheduler.updateAllocation(controllableNode, pending.getApplication(), pending.getCores(), pending.getMemslices());
+        }
+        assertEquals(NUM_NODES * CORES_PER_NODE, cores);
+        assertFalse(scheduler.checkForCapacityViolation());
+    }
 }
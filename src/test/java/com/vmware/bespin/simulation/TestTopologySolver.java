@@ -0,0 +1,132 @@
+/*
+ * Copyright 2023 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2 OR MIT
+ */
+
+package com.vmware.bespin.simulation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jooq.DSLContext;
+import org.jooq.Result;
+import org.junit.jupiter.api.Test;
+
+import com.vmware.bespin.scheduler.DBUtils;
+import com.vmware.bespin.scheduler.Scheduler;
+import com.vmware.bespin.scheduler.SolverException;
+import com.vmware.bespin.scheduler.generated.tables.Pending;
+import com.vmware.bespin.scheduler.generated.tables.records.PendingRecord;
+import com.vmware.bespin.scheduler.generated.tables.records.TopologyRecord;
+
+public class TestTopologySolver {
+    private static final Pending PENDING_TABLE = Pending.PENDING;
+
+    // Nodes 1 and 2 share a socket, node 3 is on the other socket of the same rack, node 4 is in
+    // another rack and node 5 has no topology. Application 1 already fills node 1.
+    private static Scheduler setUp(final DSLContext conn, final TopologySolver solver) {
+        final Scheduler scheduler = new Scheduler(conn, solver, false);
+        scheduler.addNode(1, 1, 1);
+        scheduler.addNode(2, 1, 1);
+        scheduler.addNode(3, 2, 2);
+        scheduler.addNode(4, 4, 4);
+        scheduler.addNode(5, 8, 8);
+        scheduler.addTopology(1, 0, 0);
+        scheduler.addTopology(2, 0, 0);
+        scheduler.addTopology(3, 1, 0);
+        scheduler.addTopology(4, 0, 1);
+        scheduler.addApplication(1);
+        scheduler.addApplication(2);
+        scheduler.updateAllocation(1, 1, 1, 1);
+        return scheduler;
+    }
+
+    private static int place(final DSLContext conn, final Scheduler scheduler, final TopologySolver solver)
+            throws SolverException {
+        final Result<? extends org.jooq.Record> results = solver.solve(conn, scheduler);
+        assertEquals(1, results.size());
+        final PendingRecord pending = results.get(0).into(PENDING_TABLE);
+        scheduler.updateAllocation(pending.getControllable_Node(), pending.getApplication(), pending.getCores(),
+                pending.getMemslices());
+        conn.execute("truncate table pending;");
+        return pending.getControllable_Node();
+    }
+
+    @Test
+    public void testDistance() throws ClassNotFoundException {
+        final DSLContext conn = DBUtils.getConn();
+        final Scheduler scheduler = setUp(conn, new TopologySolver());
+        final Map<Integer, TopologyRecord> topology = new HashMap<>();
+        for (final TopologyRecord t : conn.selectFrom(Scheduler.TOPOLOGY_TABLE).fetch()) {
+            topology.put(t.getNode(), t);
+        }
+        assertEquals(5, scheduler.numNodes());
+        assertEquals(TopologySolver.SAME_NODE, TopologySolver.distance(5, 5, topology));
+        assertEquals(TopologySolver.SAME_SOCKET, TopologySolver.distance(1, 2, topology));
+        assertEquals(TopologySolver.SAME_RACK, TopologySolver.distance(1, 3, topology));
+        assertEquals(TopologySolver.REMOTE, TopologySolver.distance(1, 4, topology));
+        assertEquals(TopologySolver.REMOTE, TopologySolver.distance(1, 5, topology));
+    }
+
+    @Test
+    public void testPlacesNearApplication() throws ClassNotFoundException, SolverException {
+        final DSLContext conn = DBUtils.getConn();
+        final TopologySolver solver = new TopologySolver();
+        final Scheduler scheduler = setUp(conn, solver);
+
+        // Closest first: the same socket, then the same rack, then anywhere
+        scheduler.generateRequest(null, 1L, 0L, 1);
+        assertEquals(2, place(conn, scheduler, solver));
+        scheduler.generateRequest(null, 0L, 1L, 1);
+        assertEquals(2, place(conn, scheduler, solver));
+        scheduler.generateRequest(null, 1L, 0L, 1);
+        assertEquals(3, place(conn, scheduler, solver));
+        scheduler.generateRequest(null, 1L, 0L, 1);
+        assertEquals(3, place(conn, scheduler, solver));
+
+        // With nothing placed, the node with the most room is used
+        scheduler.generateRequest(null, 1L, 0L, 2);
+        assertEquals(5, place(conn, scheduler, solver));
+        // and the application then stays there
+        scheduler.generateRequest(null, 0L, 1L, 2);
+        assertEquals(5, place(conn, scheduler, solver));
+        assertFalse(scheduler.checkForCapacityViolation());
+    }
+
+    @Test
+    public void testPendingCountsTowardsLocality() throws ClassNotFoundException, SolverException {
+        final DSLContext conn = DBUtils.getConn();
+        final TopologySolver solver = new TopologySolver();
+        final Scheduler scheduler = setUp(conn, solver);
+
+        // Requests solved together follow each other
+        scheduler.generateRequests(null, 3L, 0L, 2);
+        final Result<? extends org.jooq.Record> results = solver.solve(conn, scheduler);
+        assertEquals(3, results.size());
+        for (final org.jooq.Record r : results) {
+            assertEquals(5, r.into(PENDING_TABLE).getControllable_Node());
+        }
+    }
+
+    @Test
+    public void testOverfill() throws ClassNotFoundException, SolverException {
+        final DSLContext conn = DBUtils.getConn();
+        final Scheduler scheduler = setUp(conn, new TopologySolver());
+
+        scheduler.generateRequests(null, 16L, 0L, 1);
+        try {
+            new TopologySolver().solve(conn, scheduler);
+            fail("Should fail with solver exception when overfilling");
+        } catch (final SolverException e) {
+            // good
+        }
+
+        // Partial mode places what fits and leaves the rest queued
+        final Result<? extends org.jooq.Record> results = new TopologySolver(true).solve(conn, scheduler);
+        assertEquals(15, results.size());
+    }
+}